@@ -22,6 +22,8 @@ import us.kbase.assemblyhomology.config.AssemblyHomologyConfigurationException;
 import us.kbase.assemblyhomology.config.FilterConfiguration;
 import us.kbase.assemblyhomology.core.AssemblyHomology;
 import us.kbase.assemblyhomology.core.MinHashDistanceFilterFactory;
+import us.kbase.assemblyhomology.minhash.MinHashImplementationFactory;
+import us.kbase.assemblyhomology.minhash.mash.InProcessMashFactory;
 import us.kbase.assemblyhomology.minhash.mash.MashFactory;
 import us.kbase.assemblyhomology.storage.AssemblyHomologyStorage;
 import us.kbase.assemblyhomology.storage.exceptions.StorageInitException;
@@ -105,9 +107,13 @@ public class AssemblyHomologyBuilder {
 			final AssemblyHomologyStorage storage,
 			final Set<MinHashDistanceFilterFactory> filterFactories)
 			throws StorageInitException {
+		// both factories serve the mash implementation name, so only one may be registered
+		final MinHashImplementationFactory mash = c.isMinhashInProcess() ?
+				new InProcessMashFactory(c.getMinhashParallelism(), c.isMinhashCompressSketches()) :
+				new MashFactory(c.getMinhashParallelism(), c.getMinhashBatchWindowMS());
 		return new AssemblyHomology(
 				storage,
-				new HashSet<>(Arrays.asList(new MashFactory())),
+				new HashSet<>(Arrays.asList(mash)),
 				filterFactories,
 				c.getPathToTemporaryFileDirectory(),
 				c.getMinhashTimeoutSec());
@@ -5,6 +5,7 @@ import static us.kbase.assemblyhomology.util.Util.isNullOrEmpty;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.UUID;
 
@@ -30,6 +31,8 @@ import us.kbase.assemblyhomology.minhash.MinHashDBLocation;
 import us.kbase.assemblyhomology.minhash.exceptions.MinHashException;
 import us.kbase.assemblyhomology.minhash.exceptions.MinHashInitException;
 import us.kbase.assemblyhomology.minhash.mash.Mash;
+import us.kbase.assemblyhomology.minhash.mash.MashHashIndex;
+import us.kbase.assemblyhomology.minhash.mash.MashSketchStore;
 import us.kbase.assemblyhomology.storage.exceptions.AssemblyHomologyStorageException;
 import us.kbase.assemblyhomology.util.FileOpener;
 import us.kbase.assemblyhomology.util.PathRestreamable;
@@ -133,11 +136,24 @@ public class AssemblyHomologyCLI {
 			throw new MinHashException("Unsupported implementation: " + loadArgs.implementation);
 		}
 		final AssemblyHomologyBuilder builder = new AssemblyHomologyBuilder(cfg);
+		final Path sketchDB = Paths.get(loadArgs.sketchDBPath);
+		/* write the derived files before loading, so a failure doesn't leave a committed load
+		 * reported as failed. The files are ignored if the sketch database changes, so files
+		 * left behind by a failed load are harmless.
+		 */
+		if (loadArgs.sketchStore) {
+			// allows the in process mash implementation to map the sketches rather than
+			// reading them into the heap
+			MashSketchStore.write(sketchDB);
+		}
+		if (loadArgs.hashIndex) {
+			MashHashIndex.write(sketchDB);
+		}
 		try (final MongoClient mc = builder.getMongoClient()) {
 			new Loader(builder.getStorage()).load(
 					getLoadID(loadArgs),
 					new Mash(cfg.getPathToTemporaryFileDirectory(), cfg.getMinhashTimeoutSec()),
-					new MinHashDBLocation(Paths.get(loadArgs.sketchDBPath)),
+					new MinHashDBLocation(sketchDB),
 					builder.getFilterFactories(),
 					new PathRestreamable(Paths.get(loadArgs.namespaceYAML), new FileOpener()),
 					new PathRestreamable(Paths.get(loadArgs.sequeneceMetadataPath),
@@ -233,5 +249,19 @@ public class AssemblyHomologyCLI {
 		@Parameter(names = {"-i", "--implementation"},
 				description = "The MinHash implementation to use.")
 		String implementation = MASH;
+		
+		@Parameter(names = {"-x", "--hash-index"},
+				description = "Write an inverted index from sketch hashes to sketches next to " +
+				"the sketch database with the suffix " + MashHashIndex.INDEX_SUFFIX + ". When " +
+				"minhash-in-process is enabled, the index is used to compare queries only to " +
+				"the sketches that share hashes with the query.")
+		boolean hashIndex = false;
+		
+		@Parameter(names = {"-m", "--sketch-store"},
+				description = "Write a memory mappable copy of the sketches next to the sketch " +
+				"database with the suffix " + MashSketchStore.STORE_SUFFIX + ". When " +
+				"minhash-in-process is enabled, the copy is mapped rather than reading the " +
+				"sketches into the heap.")
+		boolean sketchStore = false;
 	}
 }
@@ -31,6 +31,12 @@ import us.kbase.common.service.JsonServerSyslog.SyslogOutput;
  * mongo-user
  * mongo-pwd
  * temp-dir
+ * minhash-timeout
+ * minhash-in-process
+ * minhash-parallelism
+ * minhash-compress-sketches
+ * minhash-probe-interval
+ * minhash-batch-window
  * filters
  * filter-&lt;name&gt;-factory-class
  * filter-&lt;name&gt;-init-&lt;key&gt;
@@ -38,7 +44,19 @@ import us.kbase.common.service.JsonServerSyslog.SyslogOutput;
  * </pre>
  * 
  * The last key is optional and instructs the server to ignore the X-Real-IP and X-Forwarded-For
- * headers if set to {@link #TRUE}.
+ * headers if set to {@link #TRUE}. The minhash-in-process key is optional and instructs the server
+ * to compute Mash distances in the JVM rather than running mash if set to {@link #TRUE}. The
+ * minhash-parallelism key is optional and sets the maximum number of threads used to compute
+ * distances in the JVM, or otherwise the maximum number of mash processes run concurrently and the
+ * number of threads those processes share. It defaults to the number of available processors. The
+ * minhash-compress-sketches key is optional and instructs the server to hold sketches in the heap
+ * in compressed form when computing distances in the JVM if set to {@link #TRUE}. The
+ * minhash-probe-interval key is optional and sets how often, in seconds, the MinHash
+ * implementations are rebuilt to check their health. It defaults to 0, which disables the periodic
+ * check. The minhash-batch-window key is optional and sets how long, in milliseconds, a search
+ * waits for other searches of the same reference sketch database so that one mash run serves them
+ * all. It defaults to 0, which disables batching. It is ignored when computing distances in the
+ * JVM.
  * 
  * @author gaprice@lbl.gov
  *
@@ -62,6 +80,11 @@ public class AssemblyHomologyConfig {
 	private static final String KEY_MONGO_RETRY_WRITES = "mongo-retrywrites";
 	private static final String KEY_TEMP_DIR = "temp-dir";
 	private static final String KEY_MINHASH_TIMEOUT = "minhash-timeout";
+	private static final String KEY_MINHASH_IN_PROCESS = "minhash-in-process";
+	private static final String KEY_MINHASH_PARALLELISM = "minhash-parallelism";
+	private static final String KEY_MINHASH_COMPRESS = "minhash-compress-sketches";
+	private static final String KEY_MINHASH_PROBE_INTERVAL = "minhash-probe-interval";
+	private static final String KEY_MINHASH_BATCH_WINDOW = "minhash-batch-window";
 	private static final String KEY_IGNORE_IP_HEADERS = "dont-trust-x-ip-headers";
 	
 	private static final String KEY_FILTERS = "filters";
@@ -72,6 +95,11 @@ public class AssemblyHomologyConfig {
 	// in seconds
 	private static final int DEFAULT_MINHASH_TIMEOUT = 30;
 	private static final int MINIMUM_MINHASH_TIMEOUT = 1;
+	private static final int MINIMUM_MINHASH_PARALLELISM = 1;
+	private static final int DEFAULT_MINHASH_PROBE_INTERVAL = 0;
+	private static final int MINIMUM_MINHASH_PROBE_INTERVAL = 0;
+	private static final int DEFAULT_MINHASH_BATCH_WINDOW = 0;
+	private static final int MINIMUM_MINHASH_BATCH_WINDOW = 0;
 	
 	public static final String TRUE = "true";
 	
@@ -82,6 +110,11 @@ public class AssemblyHomologyConfig {
 	private final boolean mongoRetryWrites;
 	private final Path tempDir;
 	private final int minhashTimeoutSec;
+	private final boolean minhashInProcess;
+	private final int minhashParallelism;
+	private final boolean minhashCompressSketches;
+	private final int minhashProbeIntervalSec;
+	private final int minhashBatchWindowMS;
 	private final SLF4JAutoLogger logger;
 	private final boolean ignoreIPHeaders;
 	private final Set<FilterConfiguration> filterConfigs;
@@ -136,6 +169,14 @@ public class AssemblyHomologyConfig {
 		ignoreIPHeaders = TRUE.equals(getString(KEY_IGNORE_IP_HEADERS, cfg));
 		minhashTimeoutSec = getInt(KEY_MINHASH_TIMEOUT, cfg, DEFAULT_MINHASH_TIMEOUT,
 				MINIMUM_MINHASH_TIMEOUT);
+		minhashInProcess = TRUE.equals(getString(KEY_MINHASH_IN_PROCESS, cfg));
+		minhashParallelism = getInt(KEY_MINHASH_PARALLELISM, cfg,
+				Runtime.getRuntime().availableProcessors(), MINIMUM_MINHASH_PARALLELISM);
+		minhashCompressSketches = TRUE.equals(getString(KEY_MINHASH_COMPRESS, cfg));
+		minhashProbeIntervalSec = getInt(KEY_MINHASH_PROBE_INTERVAL, cfg,
+				DEFAULT_MINHASH_PROBE_INTERVAL, MINIMUM_MINHASH_PROBE_INTERVAL);
+		minhashBatchWindowMS = getInt(KEY_MINHASH_BATCH_WINDOW, cfg,
+				DEFAULT_MINHASH_BATCH_WINDOW, MINIMUM_MINHASH_BATCH_WINDOW);
 		tempDir = Paths.get(getString(KEY_TEMP_DIR, cfg, true));
 		mongoHost = getString(KEY_MONGO_HOST, cfg, true);
 		mongoDB = getString(KEY_MONGO_DB, cfg, true);
@@ -366,6 +407,47 @@ public class AssemblyHomologyConfig {
 		return minhashTimeoutSec;
 	}
 	
+	/** True if MinHash distances should be computed in process rather than by running an
+	 * external MinHash implementation.
+	 * @return true to compute distances in process.
+	 */
+	public boolean isMinhashInProcess() {
+		return minhashInProcess;
+	}
+	
+	/** Get the maximum number of threads to use when computing MinHash distances in process, or
+	 * otherwise the maximum number of MinHash processes to run and the threads they share.
+	 * @return the number of threads.
+	 */
+	public int getMinhashParallelism() {
+		return minhashParallelism;
+	}
+	
+	/** True if sketches should be held in memory in compressed form when computing MinHash
+	 * distances in process.
+	 * @return true to compress sketches.
+	 */
+	public boolean isMinhashCompressSketches() {
+		return minhashCompressSketches;
+	}
+	
+	/** Get how often, in seconds, the MinHash implementations should be rebuilt to check their
+	 * health.
+	 * @return the interval in seconds, or 0 if the health of the implementations should not be
+	 * checked periodically.
+	 */
+	public int getMinhashProbeIntervalSec() {
+		return minhashProbeIntervalSec;
+	}
+	
+	/** Get how long, in milliseconds, a search should wait for other searches of the same
+	 * reference sketch database so that one MinHash process serves them all.
+	 * @return the window in milliseconds, or 0 if searches should not be batched.
+	 */
+	public int getMinhashBatchWindowMS() {
+		return minhashBatchWindowMS;
+	}
+	
 	/** Get a path to directory in which to store temporary files. The directory may not exist.
 	 * @return a temporary file directory.
 	 */
@@ -2,22 +2,44 @@ package us.kbase.assemblyhomology.core;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static us.kbase.assemblyhomology.util.Util.checkNoNullsInCollection;
+import static us.kbase.assemblyhomology.util.Util.isNullOrEmpty;
 
+import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 
+import us.kbase.assemblyhomology.core.MinHashDistanceFilterFactory.FilterBuilder;
 import us.kbase.assemblyhomology.core.SequenceMatches.SequenceDistanceAndMetadata;
 import us.kbase.assemblyhomology.core.exceptions.AuthenticationException;
 import us.kbase.assemblyhomology.core.exceptions.ErrorType;
@@ -29,6 +51,7 @@ import us.kbase.assemblyhomology.core.exceptions.NoSuchNamespaceException;
 import us.kbase.assemblyhomology.core.exceptions.NoSuchSequenceException;
 import us.kbase.assemblyhomology.minhash.DefaultDistanceCollector;
 import us.kbase.assemblyhomology.minhash.DefaultDistanceFilter;
+import us.kbase.assemblyhomology.minhash.DeferredDistanceFilter;
 import us.kbase.assemblyhomology.minhash.MinHashDBLocation;
 import us.kbase.assemblyhomology.minhash.MinHashDistance;
 import us.kbase.assemblyhomology.minhash.MinHashDistanceCollector;
@@ -36,8 +59,11 @@ import us.kbase.assemblyhomology.minhash.MinHashDistanceFilter;
 import us.kbase.assemblyhomology.minhash.MinHashImplementation;
 import us.kbase.assemblyhomology.minhash.MinHashImplementationFactory;
 import us.kbase.assemblyhomology.minhash.MinHashImplementationName;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage;
+import us.kbase.assemblyhomology.minhash.MinHashSearchParameters;
 import us.kbase.assemblyhomology.minhash.MinHashSketchDBName;
 import us.kbase.assemblyhomology.minhash.MinHashSketchDatabase;
+import us.kbase.assemblyhomology.minhash.StripedDistanceCollector;
 import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterAuthenticationException;
 import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterException;
 import us.kbase.assemblyhomology.minhash.exceptions.MinHashException;
@@ -49,6 +75,18 @@ import us.kbase.assemblyhomology.storage.exceptions.AssemblyHomologyStorageExcep
 /** The core class in the AssemblyHomology software. Handles integrating the data from the
  * storage system with the data returned when matching a query sequence against a sketch database
  * from a namespace.
+ * 
+ * MinHash implementations are built from their factories once and then reused for all searches.
+ * They may be rebuilt, and the result recorded, by probing them - see
+ * {@link #probeImplementations()}.
+ * 
+ * Identical single query searches are run once at a time - a search that arrives while an
+ * identical search is running waits for, and returns, that search's result. If the running
+ * search fails because of its input or authentication, the waiting search fails the same way.
+ * If it fails for any other reason, such as being interrupted, the waiting search is run again.
+ * Searches are identical if their query sketches have the same content and they have the same
+ * parameters, namespaces and namespace load IDs, and, if any of the namespaces are filtered,
+ * token.
  * @author gaprice@lbl.gov
  *
  */
@@ -56,12 +94,28 @@ public class AssemblyHomology {
 	
 	private static final int DEFAULT_RETURN = 10;
 	private static final int MAX_RETURN = 1000;
+	private static final int MAX_QUERY_COUNT = 1000;
+	// the number of distances a search may produce before its filters have to be ready
+	private static final int MAX_BUFFERED_DISTANCES = 100000;
+	// the number of filter builders that may contact remote services at once
+	private static final int FILTER_THREADS = 10;
+	// the number of filter builders that may wait for a thread before searches build their own
+	private static final int FILTER_QUEUE_SIZE = 100;
 	
 	private final AssemblyHomologyStorage storage;
 	private final Map<String, MinHashImplementationFactory> impls = new HashMap<>();
 	private final Map<FilterID, MinHashDistanceFilterFactory> filters = new HashMap<>();
 	private final Path tempFileDirectory;
 	private final int minhashTimeoutSec;
+	// only successfully built implementations are cached
+	private final Map<String, MinHashImplementation> implCache = new HashMap<>();
+	private final Map<String, MinHashImplementationHealth> health = new HashMap<>();
+	private ScheduledExecutorService probeExecutor;
+	private boolean probeRunning = false;
+	private final Map<List<Object>, CompletableFuture<SequenceMatches>> inFlight =
+			new HashMap<>();
+	// builds filters while the MinHash implementation runs
+	private final ThreadPoolExecutor filterExecutor = getFilterExecutor();
 	
 	/** Create a new AssemblyHomology class.
 	 * @param storage the storage system to be used by the class.
@@ -103,6 +157,30 @@ public class AssemblyHomology {
 		}
 	}
 	
+	private static ThreadPoolExecutor getFilterExecutor() {
+		final ThreadFactory daemons = Executors.defaultThreadFactory();
+		final ThreadPoolExecutor exe = new ThreadPoolExecutor(
+				FILTER_THREADS, FILTER_THREADS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(FILTER_QUEUE_SIZE),
+				r -> {
+					final Thread t = daemons.newThread(r);
+					t.setDaemon(true);
+					return t;
+				},
+				/* if the pool is busy, e.g. with slow remote services, the search builds its
+				 * filters itself rather than waiting behind other searches
+				 */
+				(r, executor) -> {
+					if (executor.isShutdown()) {
+						throw new RejectedExecutionException("Filter executor is shut down");
+					}
+					r.run();
+				});
+		// don't keep threads around between searches
+		exe.allowCoreThreadTimeOut(true);
+		return exe;
+	}
+	
 	/** Get all the namespaces available.
 	 * @return the namespaces.
 	 * @throws AssemblyHomologyStorageException if an error occurred contacting the storage
@@ -160,6 +238,149 @@ public class AssemblyHomology {
 		return toNamespaceView(storage.getNamespace(namespaceID));
 	}
 	
+	/** Get the memory used by a namespace's MinHash implementation to hold the namespace's
+	 * sketch database between searches.
+	 * @param namespaceID the ID of the namespace.
+	 * @return the memory usage, or absent if the implementation does not hold sketch databases
+	 * in memory or has not loaded the namespace's sketch database.
+	 * @throws NoSuchNamespaceException if the namespace does not exist.
+	 * @throws AssemblyHomologyStorageException if an error occurred contacting the storage
+	 * system.
+	 */
+	public Optional<MinHashMemoryUsage> getMemoryUsage(final NamespaceID namespaceID)
+			throws NoSuchNamespaceException, AssemblyHomologyStorageException {
+		checkNotNull(namespaceID, "namespaceID");
+		final MinHashSketchDatabase db = storage.getNamespace(namespaceID).getSketchDatabase();
+		return getFactory(db.getImplementationName()).getMemoryUsage(db.getLocation());
+	}
+	
+	/** Get the number of processes, such as mash processes, that the MinHash implementations
+	 * are currently running.
+	 * @return the number of processes.
+	 */
+	public int getRunningProcessCount() {
+		return impls.values().stream().mapToInt(f -> f.getRunningProcessCount()).sum();
+	}
+
+	/** Build each of the MinHash implementations from its factory, replacing the implementation
+	 * used for searches if the build succeeds or discarding it if the build fails, and record the
+	 * result. For implementations that run an external program, building the implementation
+	 * checks that the program runs.
+	 * @return the result of the probe for each implementation, keyed by the implementation
+	 * name.
+	 */
+	public Map<MinHashImplementationName, MinHashImplementationHealth> probeImplementations() {
+		final Map<MinHashImplementationName, MinHashImplementationHealth> ret = new HashMap<>();
+		for (final String impl: impls.keySet()) {
+			final MinHashImplementationHealth h = probe(impl);
+			ret.put(h.getImplementationName(), h);
+		}
+		return ret;
+	}
+
+	private MinHashImplementationHealth probe(final String impl) {
+		final MinHashImplementationFactory fac = impls.get(impl);
+		MinHashImplementation built;
+		MinHashImplementationHealth h;
+		try {
+			built = fac.getImplementation(tempFileDirectory, minhashTimeoutSec);
+			h = new MinHashImplementationHealth(
+					built.getImplementationInformation(), Instant.now());
+		} catch (MinHashInitException | RuntimeException e) {
+			built = null;
+			final String err = isNullOrEmpty(e.getMessage()) ?
+					e.getClass().getName() : e.getMessage();
+			h = new MinHashImplementationHealth(fac.getImplementationName(), err, Instant.now());
+			LoggerFactory.getLogger(getClass()).error(String.format(
+					"Error probing the %s MinHash implementation: %s", impl, err), e);
+		}
+		synchronized (implCache) {
+			if (built == null) {
+				implCache.remove(impl);
+			} else {
+				implCache.put(impl, built);
+			}
+			health.put(impl, h);
+		}
+		return h;
+	}
+
+	/** Get the result of the most recent probe of each MinHash implementation. Implementations
+	 * that have never been probed are omitted.
+	 * @return the probe results, keyed by the implementation name.
+	 * @see #probeImplementations()
+	 */
+	public Map<MinHashImplementationName, MinHashImplementationHealth> getImplementationHealth() {
+		synchronized (implCache) {
+			return health.values().stream().collect(Collectors.toMap(
+					h -> h.getImplementationName(), h -> h));
+		}
+	}
+
+	/** Schedule {@link #probeImplementations()} to run periodically, starting after a delay of
+	 * the given period.
+	 * @param periodInSeconds how often the probe runs.
+	 * @throws IllegalArgumentException if the probe is already running or the period is less
+	 * than or equal to zero.
+	 */
+	public synchronized void startHealthProbe(final long periodInSeconds) {
+		if (probeRunning) {
+			throw new IllegalArgumentException("The health probe is already running");
+		}
+		if (periodInSeconds <= 0) {
+			throw new IllegalArgumentException("periodInSeconds must be > 0");
+		}
+		probeRunning = true;
+		final ThreadFactory daemons = Executors.defaultThreadFactory();
+		probeExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+			// don't keep the JVM alive just to probe
+			final Thread t = daemons.newThread(r);
+			t.setDaemon(true);
+			return t;
+		});
+		probeExecutor.scheduleAtFixedRate(
+				new HealthProbe(), periodInSeconds, periodInSeconds, TimeUnit.SECONDS);
+	}
+
+	/** Returns true if the health probe is running, false otherwise.
+	 * @return true if the health probe is running.
+	 */
+	public synchronized boolean isHealthProbeRunning() {
+		return probeRunning;
+	}
+
+	/** Stops the health probe from running again. Call {@link #startHealthProbe(long)} to
+	 * restart the probe. Calling this method multiple times in succession has no effect.
+	 */
+	public synchronized void stopHealthProbe() {
+		if (probeExecutor != null) {
+			probeExecutor.shutdown();
+		}
+		probeRunning = false;
+	}
+	
+	/** Stops the health probe and any filters that are being built. Searches of namespaces with
+	 * filters fail after this method is called.
+	 */
+	public synchronized void shutdown() {
+		stopHealthProbe();
+		filterExecutor.shutdownNow();
+	}
+
+	private class HealthProbe implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				probeImplementations();
+			} catch (Throwable e) {
+				// failures are recorded per implementation, so this shouldn't happen
+				LoggerFactory.getLogger(getClass())
+						.error("Error probing MinHash implementations: " + e.getMessage(), e);
+			}
+		}
+	}
+
 	/** Get the file extension expected by a particular implementation.
 	 * @param impl the name of the implementation of interest.
 	 * @return the expected file extension or absent if there is none.
@@ -202,16 +423,64 @@ public class AssemblyHomology {
 	public SequenceMatches measureDistance(
 			final Set<NamespaceID> namespaceIDs,
 			final Path sketchDB,
-			int returnCount,
+			final int returnCount,
 			final boolean strict,
 			final Token token)
 			throws NoSuchNamespaceException, AssemblyHomologyStorageException,
 				InvalidSketchException, IncompatibleNamespacesException,
 				IncompatibleSketchesException, IncompatibleAuthenticationException,
 				AuthenticationException, MinHashDistanceFilterException {
+		return measureDistance(namespaceIDs, sketchDB, returnCount, strict, token,
+				MinHashSearchParameters.getBuilder().build());
+	}
+	
+	/** Measure the MinHash distance from a single query sequence to the sequences in one or
+	 * more namespaces, controlling how the search is performed.
+	 * 
+	 * If an approximate search is requested and the namespaces' MinHash implementation supports
+	 * it, some matches may be missing from the results. Otherwise an exact search is performed.
+	 * Either way, a warning is added to the returned matches. If a maximum distance is provided,
+	 * only matches within that distance are returned.
+	 * @param namespaceIDs the namespace IDs for the namespaces of interest.
+	 * @param sketchDB the input query sketch that will be measured against the sketch databases
+	 * associated with the given sequences.
+	 * @param returnCount the number of measurements to return. If &lt; 1 or &gt; 1000,
+	 * 10 measurements will be returned.
+	 * @param strict true to enforce an exact match between sketch parameters. If false, 
+	 * differences in the parameters will be ignored if the MinHash implementation allows it.
+	 * @param token a token to use for namespaces that accept or require authentication. Pass null
+	 * if no token is available. If a namespace requires authentication, an error will be thrown
+	 * in this case.
+	 * @param searchParameters the parameters controlling the search.
+	 * @return the sequence matches.
+	 * @throws NoSuchNamespaceException if one of the namespace IDs doesn't exist in the system.
+	 * @throws AssemblyHomologyStorageException if an error occurred contacting the storage
+	 * system.
+	 * @throws InvalidSketchException if the input sketch is invalid.
+	 * @throws IncompatibleNamespacesException if the selected namespaces have different
+	 * MinHash implementations.
+	 * @throws IncompatibleSketchesException if the input sketch's parameters are not
+	 * compatible with any of the selected namespaces' sketch databases.
+	 * @throws IncompatibleAuthenticationException if namespaces with different authentication
+	 * sources are requested.
+	 * @throws MinHashDistanceFilterException if a filter exception occurs.
+	 * @throws AuthenticationException if an authentication error occurs.
+	 */
+	public SequenceMatches measureDistance(
+			final Set<NamespaceID> namespaceIDs,
+			final Path sketchDB,
+			int returnCount,
+			final boolean strict,
+			final Token token,
+			final MinHashSearchParameters searchParameters)
+			throws NoSuchNamespaceException, AssemblyHomologyStorageException,
+				InvalidSketchException, IncompatibleNamespacesException,
+				IncompatibleSketchesException, IncompatibleAuthenticationException,
+				AuthenticationException, MinHashDistanceFilterException {
 		// may need a builder here, only 1st 2 arguments are always required
 		checkNoNullsInCollection(namespaceIDs, "namespaceIDs");
 		checkNotNull(sketchDB, "sketchDB");
+		checkNotNull(searchParameters, "searchParameters");
 		if (namespaceIDs.isEmpty()) {
 			throw new IllegalArgumentException("No namespace IDs provided");
 		}
@@ -220,43 +489,305 @@ public class AssemblyHomology {
 		}
 		
 		final Set<Namespace> namespaces = getNamespacesInternal(namespaceIDs);
+		final Optional<List<Object>> key = getSearchKey(
+				namespaces, sketchDB, returnCount, strict, token, searchParameters);
+		if (!key.isPresent()) {
+			return getMatches(namespaces, sketchDB, returnCount, strict, token, searchParameters);
+		}
+		while (true) {
+			final CompletableFuture<SequenceMatches> search = new CompletableFuture<>();
+			final CompletableFuture<SequenceMatches> running;
+			synchronized (inFlight) {
+				running = inFlight.putIfAbsent(key.get(), search);
+			}
+			if (running == null) {
+				return runSearch(key.get(), search, namespaces, sketchDB, returnCount, strict,
+						token, searchParameters);
+			}
+			final Optional<SequenceMatches> matches = awaitSearch(running);
+			if (matches.isPresent()) {
+				return matches.get();
+			}
+			// the identical search failed for a reason specific to its caller, so try again
+		}
+	}
+	
+	/* Runs a search that other callers may be waiting on. Only the result and errors that any
+	 * identical search would also get are passed to the waiting callers. If the search fails
+	 * any other way, for example by being interrupted or timing out, the waiting callers are
+	 * told to run the search again.
+	 */
+	private SequenceMatches runSearch(
+			final List<Object> key,
+			final CompletableFuture<SequenceMatches> search,
+			final Set<Namespace> namespaces,
+			final Path sketchDB,
+			final int returnCount,
+			final boolean strict,
+			final Token token,
+			final MinHashSearchParameters searchParameters)
+			throws NoSuchNamespaceException, AssemblyHomologyStorageException,
+				InvalidSketchException, IncompatibleNamespacesException,
+				IncompatibleSketchesException, IncompatibleAuthenticationException,
+				AuthenticationException, MinHashDistanceFilterException {
+		try {
+			final SequenceMatches matches = getMatches(
+					namespaces, sketchDB, returnCount, strict, token, searchParameters);
+			search.complete(matches);
+			return matches;
+		} catch (NoSuchNamespaceException | InvalidSketchException |
+				IncompatibleNamespacesException | IncompatibleSketchesException |
+				AuthenticationException e) {
+			search.completeExceptionally(e);
+			throw e;
+		} finally {
+			synchronized (inFlight) {
+				inFlight.remove(key, search);
+			}
+			// no-op if the search completed above
+			search.complete(null);
+		}
+	}
+	
+	/* The key covers everything that determines the result, including the token if any filter
+	 * may use it. Absent if the sketch can't be read, in which case the search is run as normal
+	 * and fails there.
+	 */
+	private Optional<List<Object>> getSearchKey(
+			final Set<Namespace> namespaces,
+			final Path sketchDB,
+			final int returnCount,
+			final boolean strict,
+			final Token token,
+			final MinHashSearchParameters searchParameters) {
+		final HashCode digest;
+		try {
+			digest = com.google.common.io.Files.hash(sketchDB.toFile(), Hashing.sha256());
+		} catch (IOException e) {
+			return Optional.absent();
+		}
+		final Map<NamespaceID, LoadID> loadIDs = new HashMap<>();
+		boolean filtered = false;
+		for (final Namespace ns: namespaces) {
+			loadIDs.put(ns.getID(), ns.getLoadID());
+			filtered = filtered || ns.getFilterID().isPresent();
+		}
+		return Optional.of(Arrays.asList(digest, loadIDs, returnCount, strict, searchParameters,
+				filtered ? token : null));
+	}
+	
+	// absent if the search should be run again
+	private Optional<SequenceMatches> awaitSearch(
+			final CompletableFuture<SequenceMatches> search)
+			throws NoSuchNamespaceException, InvalidSketchException,
+				IncompatibleNamespacesException, IncompatibleSketchesException,
+				AuthenticationException {
+		try {
+			return Optional.fromNullable(search.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(
+					"Interrupted while waiting for an identical search to complete", e);
+		} catch (CancellationException e) {
+			return Optional.absent();
+		} catch (ExecutionException e) {
+			// the identical search failed, so this one would have failed the same way
+			final Throwable cause = e.getCause();
+			if (cause instanceof NoSuchNamespaceException) {
+				throw (NoSuchNamespaceException) cause;
+			} else if (cause instanceof InvalidSketchException) {
+				throw (InvalidSketchException) cause;
+			} else if (cause instanceof IncompatibleNamespacesException) {
+				throw (IncompatibleNamespacesException) cause;
+			} else if (cause instanceof IncompatibleSketchesException) {
+				throw (IncompatibleSketchesException) cause;
+			} else if (cause instanceof AuthenticationException) {
+				throw (AuthenticationException) cause;
+			}
+			// should be impossible
+			throw new IllegalStateException(cause.getMessage(), cause);
+		}
+	}
+	
+	private SequenceMatches getMatches(
+			final Set<Namespace> namespaces,
+			final Path sketchDB,
+			final int returnCount,
+			final boolean strict,
+			final Token token,
+			final MinHashSearchParameters searchParameters)
+			throws NoSuchNamespaceException, AssemblyHomologyStorageException,
+				InvalidSketchException, IncompatibleNamespacesException,
+				IncompatibleSketchesException, IncompatibleAuthenticationException,
+				AuthenticationException, MinHashDistanceFilterException {
 		final Map<String, Namespace> idToNS = namespaces.stream()
 				.collect(Collectors.toMap(n -> n.getID().getName(), n -> n));
 		final MinHashImplementation impl = getImplementation(namespaces);
+		final MinHashSketchDatabase query = getQueryDB(sketchDB, impl);
+		if (query.getSequenceCount() != 1) {
+			throw new InvalidSketchException(
+					"Query sketch database must have exactly one sketch");
+		}
 		final DistReturn distret = getDistances(
-				namespaces, sketchDB, impl, returnCount, strict, token);
+				namespaces, query, impl, returnCount, strict, token, searchParameters);
+		final Set<MinHashDistance> dists = distret.dists.get(0);
 		final Map<Namespace, Map<String, SequenceMetadata>> idToSeq = 
-				getSequenceMetadata(idToNS, distret.dists);
+				getSequenceMetadata(idToNS, dists);
+		// return query id?
+		return toSequenceMatches(namespaces, impl, idToNS, idToSeq, dists, distret.warnings);
+	}
+	
+	/** Measure the MinHash distance from each of the query sequences in a sketch database to
+	 * the sequences in one or more namespaces. The reference sketch databases are searched once
+	 * for all the query sequences, and each query sequence gets its own set of matches.
+	 * 
+	 * If the namespaces' MinHash implementation does not support query sketch databases with
+	 * more than one sketch, the query sketch database must have exactly one sketch.
+	 * @param namespaceIDs the namespace IDs for the namespaces of interest.
+	 * @param sketchDB the input query sketch database that will be measured against the sketch
+	 * databases associated with the given sequences. The database may contain at most 1000
+	 * sketches, and the sketch IDs must be unique.
+	 * @param returnCount the number of measurements to return per query sequence. If &lt; 1 or
+	 * &gt; 1000, 10 measurements will be returned.
+	 * @param strict true to enforce an exact match between sketch parameters. If false, 
+	 * differences in the parameters will be ignored if the MinHash implementation allows it.
+	 * @param token a token to use for namespaces that accept or require authentication. Pass null
+	 * if no token is available. If a namespace requires authentication, an error will be thrown
+	 * in this case.
+	 * @param searchParameters the parameters controlling the search, handled as for
+	 * {@link #measureDistance(Set, Path, int, boolean, Token, MinHashSearchParameters)}.
+	 * @return the sequence matches for each query sequence, mapped by the query sequence ID, in
+	 * the order of the query sketch database.
+	 * @throws NoSuchNamespaceException if one of the namespace IDs doesn't exist in the system.
+	 * @throws AssemblyHomologyStorageException if an error occurred contacting the storage
+	 * system.
+	 * @throws InvalidSketchException if the input sketch database is invalid.
+	 * @throws IncompatibleNamespacesException if the selected namespaces have different
+	 * MinHash implementations.
+	 * @throws IncompatibleSketchesException if the input sketch's parameters are not
+	 * compatible with any of the selected namespaces' sketch databases.
+	 * @throws IncompatibleAuthenticationException if namespaces with different authentication
+	 * sources are requested.
+	 * @throws MinHashDistanceFilterException if a filter exception occurs.
+	 * @throws AuthenticationException if an authentication error occurs.
+	 */
+	public Map<String, SequenceMatches> measureDistances(
+			final Set<NamespaceID> namespaceIDs,
+			final Path sketchDB,
+			int returnCount,
+			final boolean strict,
+			final Token token,
+			final MinHashSearchParameters searchParameters)
+			throws NoSuchNamespaceException, AssemblyHomologyStorageException,
+				InvalidSketchException, IncompatibleNamespacesException,
+				IncompatibleSketchesException, IncompatibleAuthenticationException,
+				AuthenticationException, MinHashDistanceFilterException {
+		checkNoNullsInCollection(namespaceIDs, "namespaceIDs");
+		checkNotNull(sketchDB, "sketchDB");
+		checkNotNull(searchParameters, "searchParameters");
+		if (namespaceIDs.isEmpty()) {
+			throw new IllegalArgumentException("No namespace IDs provided");
+		}
+		if (returnCount > MAX_RETURN || returnCount < 1) {
+			returnCount = DEFAULT_RETURN;
+		}
+		
+		final Set<Namespace> namespaces = getNamespacesInternal(namespaceIDs);
+		final Map<String, Namespace> idToNS = namespaces.stream()
+				.collect(Collectors.toMap(n -> n.getID().getName(), n -> n));
+		final MinHashImplementation impl = getImplementation(namespaces);
+		final MinHashSketchDatabase query = getQueryDB(sketchDB, impl);
+		final List<String> queryIDs = getQueryIDs(query, impl);
+		final DistReturn distret = getDistances(
+				namespaces, query, impl, returnCount, strict, token, searchParameters);
+		// look up the metadata for all the queries at once
+		final List<MinHashDistance> alldists = new LinkedList<>();
+		for (final Set<MinHashDistance> dists: distret.dists) {
+			alldists.addAll(dists);
+		}
+		final Map<Namespace, Map<String, SequenceMetadata>> idToSeq =
+				getSequenceMetadata(idToNS, alldists);
+		final Map<String, SequenceMatches> ret = new LinkedHashMap<>();
+		for (int i = 0; i < queryIDs.size(); i++) {
+			ret.put(queryIDs.get(i), toSequenceMatches(namespaces, impl, idToNS, idToSeq,
+					distret.dists.get(i), distret.warnings));
+		}
+		return Collections.unmodifiableMap(ret);
+	}
+	
+	private List<String> getQueryIDs(
+			final MinHashSketchDatabase query,
+			final MinHashImplementation impl)
+			throws InvalidSketchException {
+		final String implName = impl.getImplementationInformation().getImplementationName()
+				.getName();
+		if (query.getSequenceCount() < 1) {
+			throw new InvalidSketchException(
+					"Query sketch database must have at least one sketch");
+		}
+		if (query.getSequenceCount() > 1 && !impl.isMultipleQuerySearchSupported()) {
+			throw new InvalidSketchException(String.format(
+					"MinHash implementation %s only supports query sketch databases with " +
+					"exactly one sketch", implName));
+		}
+		if (query.getSequenceCount() > MAX_QUERY_COUNT) {
+			throw new InvalidSketchException(String.format(
+					"Query sketch database may have at most %s sketches", MAX_QUERY_COUNT));
+		}
+		final List<String> ids;
+		try {
+			ids = impl.getSketchIDs(query);
+		} catch (MinHashException e) {
+			// the query was already loaded successfully, so assume something broke badly
+			throw new IllegalStateException(
+					"Error reading query sketch database: " + e.getMessage(), e);
+		}
+		final Set<String> seen = new HashSet<>();
+		for (final String id: ids) {
+			if (!seen.add(id)) {
+				throw new InvalidSketchException(
+						"Query sketch database contains duplicate sketch ID " + id);
+			}
+		}
+		return ids;
+	}
+	
+	private SequenceMatches toSequenceMatches(
+			final Set<Namespace> namespaces,
+			final MinHashImplementation impl,
+			final Map<String, Namespace> idToNS,
+			final Map<Namespace, Map<String, SequenceMetadata>> idToSeq,
+			final Set<MinHashDistance> dists,
+			final Set<String> warnings) {
 		final List<SequenceDistanceAndMetadata> distNMeta = new LinkedList<>();
-		for (final MinHashDistance d: distret.dists) {
+		for (final MinHashDistance d: dists) {
 			final Namespace ns = idToNS.get(d.getReferenceDBName().getName());
 			final SequenceMetadata seq = idToSeq.get(ns).get(d.getSequenceID());
 			distNMeta.add(new SequenceDistanceAndMetadata(ns.getID(), d, seq));
 		}
-		
-		// return query id?
 		return new SequenceMatches(toNamespaceView(namespaces),
-				impl.getImplementationInformation(), distNMeta, distret.warnings);
+				impl.getImplementationInformation(), distNMeta, warnings);
 	}
 
 	private Map<Namespace, Map<String, SequenceMetadata>> getSequenceMetadata(
 			final Map<String, Namespace> idToNS,
-			final Set<MinHashDistance> dists)
+			final Collection<MinHashDistance> dists)
 			throws NoSuchNamespaceException, AssemblyHomologyStorageException {
-		final Map<Namespace, List<String>> ids = new HashMap<>();
+		// several queries may match the same sequence
+		final Map<Namespace, Set<String>> ids = new HashMap<>();
 		for (final MinHashDistance dist: dists) {
 			final Namespace ns = idToNS.get(dist.getReferenceDBName().getName());
 			if (!ids.containsKey(ns)) {
-				ids.put(ns, new LinkedList<>());
+				ids.put(ns, new LinkedHashSet<>());
 			}
 			ids.get(ns).add(dist.getSequenceID());
 		}
 		final Map<Namespace, Map<String, SequenceMetadata>> ret = new HashMap<>();
-		for (final Entry<Namespace, List<String>> e: ids.entrySet()) {
+		for (final Entry<Namespace, Set<String>> e: ids.entrySet()) {
 			final List<SequenceMetadata> meta;
 			try {
-				meta = storage.getSequenceMetadata(
-						e.getKey().getID(), e.getKey().getLoadID(), e.getValue());
+				meta = storage.getSequenceMetadata(e.getKey().getID(), e.getKey().getLoadID(),
+						new LinkedList<>(e.getValue()));
 			} catch (NoSuchSequenceException err) {
 				throw new IllegalStateException(String.format(
 						"Database is corrupt. Unable to find sequences from sketch file for " +
@@ -269,25 +800,26 @@ public class AssemblyHomology {
 
 	private static class DistReturn {
 		
-		private final Set<MinHashDistance> dists;
+		// one set of distances per query sequence
+		private final List<Set<MinHashDistance>> dists;
 		private final Set<String> warnings;
 		
-		private DistReturn(final Set<MinHashDistance> set, final Set<String> warnings) {
-			this.dists = set;
+		private DistReturn(final List<Set<MinHashDistance>> dists, final Set<String> warnings) {
+			this.dists = dists;
 			this.warnings = warnings;
 		}
 	}
 	
 	private DistReturn getDistances(
 			final Set<Namespace> namespaces,
-			final Path sketchDB,
+			final MinHashSketchDatabase query,
 			final MinHashImplementation impl,
 			int returnCount,
 			final boolean strict,
-			final Token token)
-			throws InvalidSketchException, IncompatibleSketchesException,
-				AuthenticationException, MinHashDistanceFilterException {
-		final MinHashSketchDatabase query = getQueryDB(sketchDB, impl);
+			final Token token,
+			final MinHashSearchParameters searchParameters)
+			throws IncompatibleSketchesException, AuthenticationException,
+				MinHashDistanceFilterException {
 		final Set<String> warnings = new HashSet<>();
 		for (final Namespace ns: namespaces) {
 			try {
@@ -301,12 +833,63 @@ public class AssemblyHomology {
 						ns.getID().getName(), e.getMessage()), e);
 			}
 		}
-		final MinHashDistanceCollector distCol = new DefaultDistanceCollector(returnCount);
+		final List<MinHashDistanceCollector> distCols = new LinkedList<>();
+		if (query.getSequenceCount() == 1) {
+			// all the namespaces feed the one collector, possibly from many threads
+			distCols.add(new StripedDistanceCollector(returnCount));
+		} else {
+			for (int i = 0; i < query.getSequenceCount(); i++) {
+				distCols.add(new DefaultDistanceCollector(returnCount));
+			}
+		}
+		final MinHashSearchParameters implParams = getImplementationParameters(
+				impl, searchParameters);
+		// the filter builder and filter futures, cancelled when the search ends
+		final List<Future<?>> filterTasks = new LinkedList<>();
+		final Map<MinHashDistanceFilterFactory, CompletableFuture<FilterBuilder>> builders =
+				getFilterBuilders(namespaces, token, filterTasks);
+		// the deferred filters share the buffer limit, so it doesn't grow with the query count
+		final int maxBuffered = Math.max(
+				1, MAX_BUFFERED_DISTANCES / (distCols.size() * namespaces.size()));
+		final List<DeferredDistanceFilter> deferred = new LinkedList<>();
 		try {
-			final Map<MinHashSketchDatabase, MinHashDistanceFilter> dbs =
-					setUpDistanceFilters(namespaces, distCol, token);
 			// ignore returned warnings since we gather them above
-			impl.computeDistance(query, dbs, strict);
+			if (query.getSequenceCount() == 1) {
+				final Map<MinHashSketchDatabase, MinHashDistanceFilter> dbs = setUpDistanceFilters(
+						namespaces, distCols.get(0), builders, maxBuffered, deferred, filterTasks);
+				if (implParams.equals(MinHashSearchParameters.getBuilder().build())) {
+					impl.computeDistance(query, dbs, strict);
+				} else {
+					impl.computeDistance(query, dbs, strict, implParams);
+				}
+			} else {
+				final Map<MinHashSketchDatabase, List<MinHashDistanceFilter>> dbs =
+						new HashMap<>();
+				for (final MinHashDistanceCollector distCol: distCols) {
+					for (final Entry<MinHashSketchDatabase, MinHashDistanceFilter> e:
+							setUpDistanceFilters(namespaces, distCol, builders, maxBuffered,
+									deferred, filterTasks).entrySet()) {
+						if (!dbs.containsKey(e.getKey())) {
+							dbs.put(e.getKey(), new LinkedList<>());
+						}
+						dbs.get(e.getKey()).add(e.getValue());
+					}
+				}
+				impl.computeDistances(query, dbs, strict, implParams);
+			}
+			// throws any errors from building the filters, even if no distances were filtered
+			for (final DeferredDistanceFilter f: deferred) {
+				f.finish();
+			}
+			if (searchParameters.isApproximate() && impl.isApproximateSearchSupported()) {
+				warnings.add(String.format("An approximate search with a target recall of %s " +
+						"was performed. Some matches may be missing from the results.",
+						searchParameters.getApproximateRecall().get()));
+			} else if (searchParameters.isApproximate()) {
+				warnings.add(String.format("MinHash implementation %s does not support " +
+						"approximate searches. An exact search was performed.",
+						impl.getImplementationInformation().getImplementationName().getName()));
+			}
 		} catch (MinHashException e) {
 			/* At this point minhash should work, and the user input should be ok.
 			 * Hard to know how to respond to exceptions. For now just bail.
@@ -317,17 +900,55 @@ public class AssemblyHomology {
 					impl.getImplementationInformation().getImplementationName().getName(), e);
 		} catch (MinHashDistanceFilterAuthenticationException e) {
 			throw new AuthenticationException(ErrorType.AUTHENTICATION_FAILED, e.getMessage(), e);
+		} finally {
+			// if the search failed, stop building any filters that aren't done
+			for (final Future<?> f: filterTasks) {
+				f.cancel(true);
+			}
+		}
+		return new DistReturn(distCols.stream()
+				.map(c -> limitDistance(c.getDistances(), searchParameters))
+				.collect(Collectors.toList()), warnings);
+	}
+	
+	// drops approximate search parameters if the implementation doesn't support them
+	private MinHashSearchParameters getImplementationParameters(
+			final MinHashImplementation impl,
+			final MinHashSearchParameters searchParameters) {
+		if (!searchParameters.isApproximate() || impl.isApproximateSearchSupported()) {
+			return searchParameters;
+		}
+		final MinHashSearchParameters.Builder b = MinHashSearchParameters.getBuilder();
+		if (searchParameters.getMaxDistance().isPresent()) {
+			b.withMaxDistance(searchParameters.getMaxDistance().get());
+		}
+		return b.build();
+	}
+	
+	/* Implementations should only return distances within the maximum distance, but the
+	 * default implementation in the MinHashImplementation interface ignores it.
+	 */
+	private Set<MinHashDistance> limitDistance(
+			final Set<MinHashDistance> distances,
+			final MinHashSearchParameters searchParameters) {
+		if (searchParameters.getMaxDistance().isPresent()) {
+			final double max = searchParameters.getMaxDistance().get();
+			distances.removeIf(d -> d.getDistance() > max);
 		}
-		return new DistReturn(distCol.getDistances(), warnings);
+		return distances;
 	}
 
-	private Map<MinHashSketchDatabase, MinHashDistanceFilter> setUpDistanceFilters(
+	/* Filter factories may contact remote services, so the filter builders are fetched in the
+	 * background while the MinHash implementation runs. Each factory is called once per search,
+	 * no matter how many query sequences there are. The builder tasks are added to the task list.
+	 */
+	private Map<MinHashDistanceFilterFactory, CompletableFuture<FilterBuilder>> getFilterBuilders(
 			final Set<Namespace> namespaces,
-			final MinHashDistanceCollector distCol,
-			final Token token)
-			throws MinHashDistanceFilterException, IncompatibleAuthenticationException {
-		final MinHashDistanceFilter defaultFilter = new DefaultDistanceFilter(distCol);
-		final Map<MinHashSketchDatabase, MinHashDistanceFilter> dbs = new HashMap<>();
+			final Token token,
+			final List<Future<?>> tasks)
+			throws IncompatibleAuthenticationException {
+		// check the auth sources are compatible before contacting any of them
+		final Set<MinHashDistanceFilterFactory> factories = new HashSet<>();
 		NamespaceID authns = null;
 		String auth = null;
 		for (final Namespace ns: namespaces) {
@@ -345,7 +966,61 @@ public class AssemblyHomology {
 									ns.getID().getName(), fac.getAuthSource().get()));
 					}
 				}
-				dbs.put(ns.getSketchDatabase(), fac.getFilter(distCol, token));
+				factories.add(fac);
+			}
+		}
+		final Map<MinHashDistanceFilterFactory, CompletableFuture<FilterBuilder>> builders =
+				new HashMap<>();
+		for (final MinHashDistanceFilterFactory fac: factories) {
+			final CompletableFuture<FilterBuilder> builder = new CompletableFuture<>();
+			tasks.add(filterExecutor.submit(() -> {
+				try {
+					builder.complete(fac.getFilterBuilder(token));
+				} catch (Throwable e) {
+					builder.completeExceptionally(e);
+				}
+			}));
+			builders.put(fac, builder);
+		}
+		return builders;
+	}
+
+	/* The filters are built from the filter builders once the builders are available, and
+	 * are wrapped in deferred filters that buffer the distances until the filters are ready.
+	 * The deferred filters are added to the deferred list, and the filter futures to the task
+	 * list. Namespaces that use the same factory share one filter.
+	 */
+	private Map<MinHashSketchDatabase, MinHashDistanceFilter> setUpDistanceFilters(
+			final Set<Namespace> namespaces,
+			final MinHashDistanceCollector distCol,
+			final Map<MinHashDistanceFilterFactory, CompletableFuture<FilterBuilder>> builders,
+			final int maxBuffered,
+			final List<DeferredDistanceFilter> deferred,
+			final List<Future<?>> tasks) {
+		final MinHashDistanceFilter defaultFilter = new DefaultDistanceFilter(distCol);
+		final Map<MinHashSketchDatabase, MinHashDistanceFilter> dbs = new HashMap<>();
+		final Map<MinHashDistanceFilterFactory, Future<MinHashDistanceFilter>> built =
+				new HashMap<>();
+		for (final Namespace ns: namespaces) {
+			if (ns.getFilterID().isPresent()) {
+				final MinHashDistanceFilterFactory fac = getFilter(ns);
+				if (!built.containsKey(fac)) {
+					// the builder does any remote work, so building the filter is cheap
+					final CompletableFuture<MinHashDistanceFilter> filter =
+							builders.get(fac).thenApply(b -> {
+								try {
+									return b.getFilter(distCol);
+								} catch (MinHashDistanceFilterException e) {
+									throw new CompletionException(e);
+								}
+							});
+					tasks.add(filter);
+					built.put(fac, filter);
+				}
+				final DeferredDistanceFilter f = new DeferredDistanceFilter(
+						built.get(fac), maxBuffered);
+				deferred.add(f);
+				dbs.put(ns.getSketchDatabase(), f);
 			} else {
 				dbs.put(ns.getSketchDatabase(), defaultFilter);
 			}
@@ -383,10 +1058,6 @@ public class AssemblyHomology {
 			throw new IllegalStateException(
 					"Error loading query sketch database: " + e.getMessage(), e);
 		}
-		if (query.getSequenceCount() != 1) {
-			throw new InvalidSketchException(
-					"Query sketch database must have exactly one sketch");
-		}
 		return query;
 	}
 
@@ -399,17 +1070,36 @@ public class AssemblyHomology {
 			throw new IncompatibleNamespacesException(
 					"The selected namespaces must share the same Minhash implementation");
 		}
-		final String impl = implnames.iterator().next().getName().toLowerCase();
-		if (!impls.containsKey(impl)) {
-			throw new IllegalStateException(String.format(
-					"Application is misconfigured. Implementation %s stored in database but " +
-					"not available.", impl));
+		final MinHashImplementationName impl = implnames.iterator().next();
+		final MinHashImplementationFactory fac = getFactory(impl);
+		final String name = impl.getName().toLowerCase();
+		synchronized (implCache) {
+			if (implCache.containsKey(name)) {
+				return implCache.get(name);
+			}
 		}
+		// don't hold the lock while building - that may start a process. If two searches race
+		// here, both build the implementation and the last one built is cached.
+		final MinHashImplementation built;
 		try {
-			return impls.get(impl).getImplementation(tempFileDirectory, minhashTimeoutSec);
+			built = fac.getImplementation(tempFileDirectory, minhashTimeoutSec);
 		} catch (MinHashInitException e) {
 			throw new IllegalStateException(String.format("Application is misconfigured. " +
-					"Error attempting to build the %s MinHash implementation.", impl), e);
+					"Error attempting to build the %s MinHash implementation.", name), e);
+		}
+		synchronized (implCache) {
+			implCache.put(name, built);
+		}
+		return built;
+	}
+
+	private MinHashImplementationFactory getFactory(final MinHashImplementationName implName) {
+		final String impl = implName.getName().toLowerCase();
+		if (!impls.containsKey(impl)) {
+			throw new IllegalStateException(String.format(
+					"Application is misconfigured. Implementation %s stored in database but " +
+					"not available.", impl));
 		}
+		return impls.get(impl);
 	}
 }
@@ -35,6 +35,38 @@ public interface MinHashDistanceFilterFactory {
 	MinHashDistanceFilter getFilter(MinHashDistanceCollector collector, Token token)
 			throws MinHashDistanceFilterException;
 	
+	/** Builds filters for one user, for example for each sequence in a multiple sequence query.
+	 * @see MinHashDistanceFilterFactory#getFilterBuilder(Token)
+	 */
+	interface FilterBuilder {
+		
+		/** Get a filter that passes on unfiltered distances to a provided collector. This method
+		 * may be called on the thread running a search, so it should not block.
+		 * @param collector the collector that is the final destination for any unfiltered
+		 * distances.
+		 * @return the new filter.
+		 * @throws MinHashDistanceFilterException if the filter could not be built.
+		 */
+		MinHashDistanceFilter getFilter(MinHashDistanceCollector collector)
+				throws MinHashDistanceFilterException;
+	}
+	
+	/** Get a builder for filters that use the same token. Factories that do work per token, such
+	 * as contacting a remote service, should do that work here so it is done once no matter how
+	 * many filters are built.
+	 * 
+	 * The default implementation returns a builder that calls
+	 * {@link #getFilter(MinHashDistanceCollector, Token)} for each filter.
+	 * @param token the authentication token to be used by the filters. Pass null if no token
+	 * is available. If the filters require a token, an error will be thrown.
+	 * @return the filter builder.
+	 * @throws MinHashDistanceFilterException if the builder could not be created.
+	 */
+	default FilterBuilder getFilterBuilder(final Token token)
+			throws MinHashDistanceFilterException {
+		return collector -> getFilter(collector, token);
+	}
+	
 	
 	/** Validate that a sequence ID is a valid ID for this filter.
 	 * @param id the ID to validate.
@@ -0,0 +1,146 @@
+package us.kbase.assemblyhomology.core;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static us.kbase.assemblyhomology.util.Util.exceptOnEmpty;
+
+import java.time.Instant;
+
+import com.google.common.base.Optional;
+
+import us.kbase.assemblyhomology.minhash.MinHashImplementationInformation;
+import us.kbase.assemblyhomology.minhash.MinHashImplementationName;
+
+/** The result of probing a MinHash implementation by building it from its factory - either the
+ * information about the implementation or the error that prevented it from being built.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class MinHashImplementationHealth {
+
+	private final MinHashImplementationName implementationName;
+	private final Optional<MinHashImplementationInformation> info;
+	private final Optional<String> error;
+	private final Instant checkTime;
+
+	/** Create the result of a successful probe.
+	 * @param info the information provided by the implementation.
+	 * @param checkTime the time the implementation was probed.
+	 */
+	public MinHashImplementationHealth(
+			final MinHashImplementationInformation info,
+			final Instant checkTime) {
+		checkNotNull(info, "info");
+		checkNotNull(checkTime, "checkTime");
+		this.implementationName = info.getImplementationName();
+		this.info = Optional.of(info);
+		this.error = Optional.absent();
+		this.checkTime = checkTime;
+	}
+
+	/** Create the result of a failed probe.
+	 * @param implementationName the name of the implementation.
+	 * @param error the error that occurred when building the implementation.
+	 * @param checkTime the time the implementation was probed.
+	 */
+	public MinHashImplementationHealth(
+			final MinHashImplementationName implementationName,
+			final String error,
+			final Instant checkTime) {
+		checkNotNull(implementationName, "implementationName");
+		exceptOnEmpty(error, "error");
+		checkNotNull(checkTime, "checkTime");
+		this.implementationName = implementationName;
+		this.info = Optional.absent();
+		this.error = Optional.of(error);
+		this.checkTime = checkTime;
+	}
+
+	/** Get the name of the implementation.
+	 * @return the implementation name.
+	 */
+	public MinHashImplementationName getImplementationName() {
+		return implementationName;
+	}
+
+	/** Get the information provided by the implementation if the probe succeeded.
+	 * @return the information or {@link Optional#absent()}.
+	 */
+	public Optional<MinHashImplementationInformation> getImplementationInformation() {
+		return info;
+	}
+
+	/** Get the error that occurred when building the implementation if the probe failed.
+	 * @return the error or {@link Optional#absent()}.
+	 */
+	public Optional<String> getError() {
+		return error;
+	}
+
+	/** Check whether the probe succeeded.
+	 * @return true if the implementation was built successfully.
+	 */
+	public boolean isHealthy() {
+		return info.isPresent();
+	}
+
+	/** Get the time the implementation was probed.
+	 * @return the probe time.
+	 */
+	public Instant getCheckTime() {
+		return checkTime;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((checkTime == null) ? 0 : checkTime.hashCode());
+		result = prime * result + ((error == null) ? 0 : error.hashCode());
+		result = prime * result + ((implementationName == null) ? 0 : implementationName.hashCode());
+		result = prime * result + ((info == null) ? 0 : info.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		MinHashImplementationHealth other = (MinHashImplementationHealth) obj;
+		if (checkTime == null) {
+			if (other.checkTime != null) {
+				return false;
+			}
+		} else if (!checkTime.equals(other.checkTime)) {
+			return false;
+		}
+		if (error == null) {
+			if (other.error != null) {
+				return false;
+			}
+		} else if (!error.equals(other.error)) {
+			return false;
+		}
+		if (implementationName == null) {
+			if (other.implementationName != null) {
+				return false;
+			}
+		} else if (!implementationName.equals(other.implementationName)) {
+			return false;
+		}
+		if (info == null) {
+			if (other.info != null) {
+				return false;
+			}
+		} else if (!info.equals(other.info)) {
+			return false;
+		}
+		return true;
+	}
+}
@@ -4,13 +4,15 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static us.kbase.assemblyhomology.util.Util.checkNoNullsInCollection;
 
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Set;
 
+import com.google.common.base.Optional;
+
 import us.kbase.assemblyhomology.minhash.MinHashDistance;
 import us.kbase.assemblyhomology.minhash.MinHashDistanceCollector;
 import us.kbase.assemblyhomology.minhash.MinHashDistanceFilter;
 import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterException;
+import us.kbase.assemblyhomology.util.LongHashSet;
 
 /** A filter for KBase sequence differences. The filter inspects the sequence IDs in the
  * provided {@link MinHashDistance} instances and determines if the sequence exists in the set of
@@ -27,7 +29,10 @@ import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterExcepti
  */
 public class KBaseAuthenticatedFilter implements MinHashDistanceFilter {
 
-	private Set<Long> workspaceIDs;
+	// the maximum number of digits that can't overflow a long
+	private static final int MAX_FAST_DIGITS = 18;
+
+	private LongHashSet workspaceIDs;
 	private MinHashDistanceCollector collector;
 	
 	/** Create a filter.
@@ -40,7 +45,22 @@ public class KBaseAuthenticatedFilter implements MinHashDistanceFilter {
 			final MinHashDistanceCollector collector) {
 		checkNotNull(collector, "collector");
 		checkNoNullsInCollection(workspaceIDs, "workspaceIDs");
-		this.workspaceIDs = Collections.unmodifiableSet(new HashSet<>(workspaceIDs));
+		this.workspaceIDs = new LongHashSet(workspaceIDs);
+		this.collector = collector;
+	}
+
+	/** Create a filter from a set of workspace IDs that may be shared with other filters, for
+	 * example from a cache. The set is not copied.
+	 * @param workspaceIDs the workspace IDs that determine which distances will be passed on
+	 * to the collector.
+	 * @param collector the final destination of unfiltered distances.
+	 */
+	public KBaseAuthenticatedFilter(
+			final LongHashSet workspaceIDs,
+			final MinHashDistanceCollector collector) {
+		checkNotNull(workspaceIDs, "workspaceIDs");
+		checkNotNull(collector, "collector");
+		this.workspaceIDs = workspaceIDs;
 		this.collector = collector;
 	}
 
@@ -61,6 +81,41 @@ public class KBaseAuthenticatedFilter implements MinHashDistanceFilter {
 	 */
 	public static long validateUPA(final String upa) throws MinHashDistanceFilterException {
 		checkNotNull(upa, "upa");
+		// this is called for every distance, so avoid splitting the UPA if it's well formed
+		final long wsid = getWorkspaceIDFast(upa);
+		return wsid > 0 ? wsid : validateUPASlow(upa);
+	}
+	
+	/* Returns the workspace ID from a UPA consisting of three positive integers without signs
+	 * or leading or trailing characters, or -1 for any other string, including valid UPAs that
+	 * don't meet those criteria.
+	 */
+	private static long getWorkspaceIDFast(final String upa) {
+		long wsid = -1;
+		long value = 0;
+		int digits = 0;
+		int part = 0;
+		for (int i = 0; i < upa.length(); i++) {
+			final char c = upa.charAt(i);
+			if (c >= '0' && c <= '9') {
+				if (++digits > MAX_FAST_DIGITS) {
+					return -1;
+				}
+				value = value * 10 + (c - '0');
+			} else if (c == '_' && part < 2 && value > 0) {
+				if (part++ == 0) {
+					wsid = value;
+				}
+				value = 0;
+				digits = 0;
+			} else {
+				return -1;
+			}
+		}
+		return part == 2 && value > 0 ? wsid : -1;
+	}
+
+	private static long validateUPASlow(final String upa) throws MinHashDistanceFilterException {
 		final String[] upasplt = upa.split("_", -1);
 		if (upasplt.length != 3) {
 			throw new MinHashDistanceFilterException("Invalid workspace UPA: " + upa);
@@ -90,11 +145,20 @@ public class KBaseAuthenticatedFilter implements MinHashDistanceFilter {
 		// do nothing
 	}
 
-	/** Get the workspace IDs provided to the filter.
+	/** Returns the collector's worst retained distance. Filtering only removes distances, so
+	 * any distance above the bound would be discarded by the collector even if it passed the
+	 * filter.
+	 */
+	@Override
+	public Optional<Double> getDistanceBound() {
+		return collector.getWorstRetainedDistance();
+	}
+
+	/** Get the workspace IDs provided to the filter. The IDs are boxed on each call.
 	 * @return the workspace IDs.
 	 */
 	public Set<Long> getWorkspaceIDs() {
-		return workspaceIDs;
+		return Collections.unmodifiableSet(workspaceIDs.toSet());
 	}
 	
 }
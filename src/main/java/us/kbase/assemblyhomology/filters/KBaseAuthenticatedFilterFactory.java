@@ -28,6 +28,7 @@ import us.kbase.assemblyhomology.minhash.MinHashDistance;
 import us.kbase.assemblyhomology.minhash.MinHashDistanceCollector;
 import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterAuthenticationException;
 import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterException;
+import us.kbase.assemblyhomology.util.LongHashSet;
 import us.kbase.auth.AuthToken;
 import us.kbase.common.service.JsonClientException;
 import us.kbase.common.service.UnauthorizedException;
@@ -45,6 +46,9 @@ import us.kbase.workspace.WorkspaceClient;
  * which the user has access, including public workspaces. The filter expects sequence IDs in the
  * format X_Y_Z, where X is the integer workspace ID, Y the integer object ID, and Z the integer
  * version.
+ * 
+ * The workspace IDs are cached per token for a short time, since users often run many searches
+ * in quick succession. See {@link WorkspaceIDCache} for details.
  * @author gaprice@lbl.gov
  *
  */
@@ -57,16 +61,27 @@ public class KBaseAuthenticatedFilterFactory implements MinHashDistanceFilterFac
 	
 	private static final String CONFIG_ENV = "env";
 	private static final String CONFIG_WS_URL = "workspace-url";
+	private static final String CONFIG_CACHE_TTL = "permission-cache-ttl-sec";
+	private static final String CONFIG_CACHE_SIZE = "permission-cache-size";
+	
+	private static final int DEFAULT_CACHE_TTL_SEC = 30;
+	private static final int DEFAULT_CACHE_SIZE = 1000;
 	
 	private final FilterID id;
 	private final URL url;
 	private final boolean insecure;
+	private final Optional<WorkspaceIDCache> cache;
 	
 	/** Create the factory. The factory accepts two configuration parameters - 'url', which must
 	 * be the url of a KBase workspace service, and 'env', which identifies the KBase environment
 	 * (one of prod, appdev, next, or ci) the filter is associated with. This allows for
 	 * a single Assembly Homology service to be used for multiple KBase environments, if
 	 * desired. If omitted, the default of 'prod' is used.
+	 * 
+	 * Two optional parameters configure the cache of the workspace IDs each user can access.
+	 * 'permission-cache-ttl-sec' is the number of seconds after which a cached entry is refreshed,
+	 * 30 by default, or 0 to disable the cache. 'permission-cache-size' is the maximum number of
+	 * users whose workspace IDs are cached, 1000 by default.
 	 * @param config the filter configuration.
 	 * @throws MinHashFilterFactoryInitializationException if an initialization error occurs.
 	 */
@@ -101,6 +116,38 @@ public class KBaseAuthenticatedFilterFactory implements MinHashDistanceFilterFac
 			// can't really test this easily
 			insecure = false;
 		}
+		final int ttl = getInt(config, CONFIG_CACHE_TTL, DEFAULT_CACHE_TTL_SEC, 0);
+		final int size = getInt(config, CONFIG_CACHE_SIZE, DEFAULT_CACHE_SIZE, 1);
+		if (ttl == 0) {
+			cache = Optional.absent();
+		} else {
+			cache = Optional.of(new WorkspaceIDCache(
+					t -> getWorkspaceIDs(t), ttl * 1000L, size));
+		}
+	}
+	
+	private static int getInt(
+			final Map<String, String> config,
+			final String key,
+			final int default_,
+			final int minimum)
+			throws MinHashFilterFactoryInitializationException {
+		final String value = config.get(key);
+		if (isNullOrEmpty(value)) {
+			return default_;
+		}
+		final int i;
+		try {
+			i = Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new MinHashFilterFactoryInitializationException(String.format(
+					"KBase filter parameter %s must be an integer: %s", key, value));
+		}
+		if (i < minimum) {
+			throw new MinHashFilterFactoryInitializationException(String.format(
+					"KBase filter parameter %s must be >= %s: %s", key, minimum, value));
+		}
+		return i;
 	}
 
 	private URL validateWorkspaceURL(final String putativeURL)
@@ -151,6 +198,26 @@ public class KBaseAuthenticatedFilterFactory implements MinHashDistanceFilterFac
 			final MinHashDistanceCollector collector,
 			final Token token)
 			throws MinHashDistanceFilterException {
+		return new KBaseAuthenticatedFilter(getWorkspaceIDSet(token), collector);
+	}
+	
+	/** Returns a builder for filters that share one set of workspace IDs, fetched from the
+	 * workspace or cache when this method is called.
+	 */
+	@Override
+	public FilterBuilder getFilterBuilder(final Token token)
+			throws MinHashDistanceFilterException {
+		final LongHashSet ids = getWorkspaceIDSet(token);
+		return collector -> new KBaseAuthenticatedFilter(ids, collector);
+	}
+	
+	private LongHashSet getWorkspaceIDSet(final Token token)
+			throws MinHashDistanceFilterException {
+		return cache.isPresent() ? cache.get().get(token) :
+			new LongHashSet(getWorkspaceIDs(token));
+	}
+	
+	private Set<Long> getWorkspaceIDs(final Token token) throws MinHashDistanceFilterException {
 		final WorkspaceClient cli;
 		try {
 			if (token == null) {
@@ -179,7 +246,7 @@ public class KBaseAuthenticatedFilterFactory implements MinHashDistanceFilterFac
 		}
 		final Set<Long> ids = new HashSet<>(lids.getWorkspaces());
 		ids.addAll(lids.getPub());
-		return new KBaseAuthenticatedFilter(ids, collector);
+		return ids;
 	}
 
 	@Override
@@ -0,0 +1,248 @@
+package us.kbase.assemblyhomology.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import us.kbase.assemblyhomology.core.Token;
+import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterAuthenticationException;
+import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterException;
+import us.kbase.assemblyhomology.util.LongHashSet;
+
+/** A cache of the workspace IDs a user can access, keyed by a hash of the user's token.
+ *
+ * Once an entry is older than the time to live, the next request for the entry starts a
+ * refresh in the background and is served the stale entry, as are any requests made while the
+ * refresh is in progress. An entry older than twice the time to live is never served, and is
+ * reloaded before the request returns. If a refresh finds the token is invalid the entry is
+ * discarded. If a refresh fails for any other reason the stale entry is kept, and another
+ * refresh is attempted on the next request.
+ *
+ * Concurrent requests for an entry that is not in the cache wait for a single load. The least
+ * recently used entry is evicted when the cache is full.
+ *
+ * This class is thread safe.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class WorkspaceIDCache {
+
+	/** Loads the workspace IDs a user can access. */
+	public interface WorkspaceIDLoader {
+
+		/** Load the workspace IDs.
+		 * @param token the user's token, or null for an anonymous user.
+		 * @return the workspace IDs.
+		 * @throws MinHashDistanceFilterException if the IDs could not be loaded.
+		 */
+		Set<Long> load(Token token) throws MinHashDistanceFilterException;
+	}
+
+	private static final HashCode ANONYMOUS = hash(new byte[0]);
+
+	private final WorkspaceIDLoader loader;
+	private final long ttlMS;
+	private final Clock clock;
+	private final Executor refresher;
+	private final Map<HashCode, Entry> cache;
+
+	private static class Entry {
+
+		private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+		private final AtomicBoolean refreshing = new AtomicBoolean(false);
+		// written together by the loading or refreshing thread
+		private volatile LongHashSet ids;
+		private volatile long loadedAt;
+
+		private void set(final Set<Long> ids, final long loadedAt) {
+			this.loadedAt = loadedAt;
+			this.ids = new LongHashSet(ids);
+		}
+	}
+
+	/** Create a cache. Refreshes are run on a pool of two daemon threads.
+	 * @param loader the loader for the workspace IDs.
+	 * @param ttlMS the time, in milliseconds, after which an entry is refreshed.
+	 * @param maxSize the maximum number of entries in the cache.
+	 */
+	public WorkspaceIDCache(final WorkspaceIDLoader loader, final long ttlMS, final int maxSize) {
+		this(loader, ttlMS, maxSize, Clock.systemUTC(), getDaemonPool(2));
+	}
+
+	private static Executor getDaemonPool(final int threads) {
+		final ThreadFactory daemons = Executors.defaultThreadFactory();
+		return Executors.newFixedThreadPool(threads, r -> {
+			final Thread t = daemons.newThread(r);
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/** Create a cache.
+	 * @param loader the loader for the workspace IDs.
+	 * @param ttlMS the time, in milliseconds, after which an entry is refreshed.
+	 * @param maxSize the maximum number of entries in the cache.
+	 * @param clock the clock used to determine the age of entries.
+	 * @param refresher the executor on which to run background refreshes.
+	 */
+	public WorkspaceIDCache(
+			final WorkspaceIDLoader loader,
+			final long ttlMS,
+			final int maxSize,
+			final Clock clock,
+			final Executor refresher) {
+		checkNotNull(loader, "loader");
+		checkNotNull(clock, "clock");
+		checkNotNull(refresher, "refresher");
+		if (ttlMS < 1) {
+			throw new IllegalArgumentException("ttlMS must be > 0");
+		}
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must be > 0");
+		}
+		this.loader = loader;
+		this.ttlMS = ttlMS;
+		this.clock = clock;
+		this.refresher = refresher;
+		cache = new LinkedHashMap<HashCode, Entry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<HashCode, Entry> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/** Get the time to live for cache entries.
+	 * @return the time to live in milliseconds.
+	 */
+	public long getTimeToLiveMS() {
+		return ttlMS;
+	}
+
+	/** Get the number of entries in the cache.
+	 * @return the entry count.
+	 */
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	private static HashCode hash(final byte[] token) {
+		return Hashing.sha256().hashBytes(token);
+	}
+
+	/** Get the workspace IDs a user can access. The returned set is shared between callers.
+	 * @param token the user's token, or null for an anonymous user.
+	 * @return the workspace IDs.
+	 * @throws MinHashDistanceFilterException if the IDs are not in the cache and could not be
+	 * loaded.
+	 */
+	public LongHashSet get(final Token token) throws MinHashDistanceFilterException {
+		final HashCode key = token == null ? ANONYMOUS :
+			hash(token.getToken().getBytes(StandardCharsets.UTF_8));
+		final Entry entry;
+		final boolean load;
+		synchronized (cache) {
+			final Entry e = cache.get(key);
+			if (e != null && e.ids != null && clock.millis() - e.loadedAt >= 2 * ttlMS) {
+				// too stale to serve
+				cache.remove(key);
+				entry = new Entry();
+				cache.put(key, entry);
+				load = true;
+			} else if (e == null) {
+				entry = new Entry();
+				cache.put(key, entry);
+				load = true;
+			} else {
+				entry = e;
+				load = false;
+			}
+		}
+		if (load) {
+			return load(key, token, entry);
+		}
+		if (entry.ids == null) {
+			awaitLoad(entry);
+		}
+		if (clock.millis() - entry.loadedAt >= ttlMS &&
+				entry.refreshing.compareAndSet(false, true)) {
+			try {
+				refresher.execute(() -> refresh(key, token, entry));
+			} catch (RuntimeException e) {
+				// the executor rejected the task. Try again on the next request
+				entry.refreshing.set(false);
+			}
+		}
+		return entry.ids;
+	}
+
+	private LongHashSet load(final HashCode key, final Token token, final Entry entry)
+			throws MinHashDistanceFilterException {
+		try {
+			entry.set(loader.load(token), clock.millis());
+			entry.loaded.complete(null);
+			return entry.ids;
+		} catch (MinHashDistanceFilterException | RuntimeException | Error e) {
+			synchronized (cache) {
+				cache.remove(key, entry);
+			}
+			entry.loaded.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	private void awaitLoad(final Entry entry) throws MinHashDistanceFilterException {
+		try {
+			entry.loaded.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MinHashDistanceFilterException(
+					"Interrupted while waiting for workspace IDs to load", e);
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof MinHashDistanceFilterException) {
+				throw (MinHashDistanceFilterException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else {
+				throw (Error) cause;
+			}
+		}
+	}
+
+	private void refresh(final HashCode key, final Token token, final Entry entry) {
+		try {
+			entry.set(loader.load(token), clock.millis());
+		} catch (MinHashDistanceFilterAuthenticationException e) {
+			synchronized (cache) {
+				cache.remove(key, entry);
+			}
+		} catch (MinHashDistanceFilterException | RuntimeException e) {
+			LoggerFactory.getLogger(getClass()).warn(
+					"Refreshing cached workspace IDs failed: " + e.getMessage(), e);
+		} finally {
+			entry.refreshing.set(false);
+		}
+	}
+
+}
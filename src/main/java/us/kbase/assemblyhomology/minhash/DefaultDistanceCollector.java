@@ -1,34 +1,124 @@
 package us.kbase.assemblyhomology.minhash;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.TreeSet;
 
-import us.kbase.assemblyhomology.util.CappedTreeSet;
+import com.google.common.base.Optional;
 
 /** The default MinHash distance collector. Collects all provided sequences up to a
  * maximum count. After the maximum count is reached, the largest distance is discarded when a
- * new distance is added.
+ * new distance is added. The collector is thread safe.
+ * 
+ * The distances are kept in a fixed capacity binary max heap, with the distance values copied
+ * into a primitive array so the heap can be maintained without calling into the distances. Once
+ * the collector is full, a larger distance than the largest retained distance is rejected with a
+ * single comparison against the top of the heap. The distances are only sorted when they are
+ * retrieved. A distance equal to a retained distance is ignored.
  * @author gaprice@lbl.gov
  *
  */
 public class DefaultDistanceCollector implements MinHashDistanceCollector {
 
-	private final CappedTreeSet<MinHashDistance> dists;
+	// the heap, with the largest distance at index 0. distances[i] == heap[i].getDistance()
+	private final double[] distances;
+	private final MinHashDistance[] heap;
+	// the distances in the heap, so equal distances don't take more than one slot
+	private final Set<MinHashDistance> retained;
+	private int size = 0;
 	
 	/** Create the collector.
 	 * @param size the maximum number of distances to collect.
 	 */
 	public DefaultDistanceCollector(final int size) {
-		dists = new CappedTreeSet<>(size, true);
+		if (size < 1) {
+			throw new IllegalArgumentException("size must be > 0");
+		}
+		distances = new double[size];
+		heap = new MinHashDistance[size];
+		retained = new HashSet<>();
 	}
 	
 	@Override
 	public void accept(final MinHashDistance dist) {
-		dists.add(dist);
+		add(dist);
+	}
+	
+	/* Accept a distance and return the worst retained distance, or positive infinity if the
+	 * collector is not full. Saves allocating an Optional per distance for collectors that wrap
+	 * this one.
+	 */
+	synchronized double add(final MinHashDistance dist) {
+		checkNotNull(dist, "dist");
+		final double d = dist.getDistance();
+		if (size < heap.length) {
+			if (retained.add(dist)) {
+				siftUp(size++, d, dist);
+			}
+		} else if (d < distances[0] || (d == distances[0] && dist.compareTo(heap[0]) < 0)) {
+			if (retained.add(dist)) {
+				retained.remove(heap[0]);
+				siftDown(0, d, dist);
+			}
+		}
+		// otherwise the distance is no better than the worst retained distance
+		return size < heap.length ? Double.POSITIVE_INFINITY : distances[0];
+	}
+	
+	// true if the distance at index i sorts after the given distance
+	private boolean greater(final int i, final double d, final MinHashDistance dist) {
+		return distances[i] > d || (distances[i] == d && heap[i].compareTo(dist) > 0);
+	}
+	
+	private void siftUp(int i, final double d, final MinHashDistance dist) {
+		while (i > 0) {
+			final int parent = (i - 1) >>> 1;
+			if (greater(parent, d, dist)) {
+				break;
+			}
+			distances[i] = distances[parent];
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		distances[i] = d;
+		heap[i] = dist;
+	}
+	
+	private void siftDown(int i, final double d, final MinHashDistance dist) {
+		final int half = size >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			final int right = child + 1;
+			if (right < size && greater(right, distances[child], heap[child])) {
+				child = right;
+			}
+			if (!greater(child, d, dist)) {
+				break;
+			}
+			distances[i] = distances[child];
+			heap[i] = heap[child];
+			i = child;
+		}
+		distances[i] = d;
+		heap[i] = dist;
+	}
+
+	@Override
+	public synchronized Optional<Double> getWorstRetainedDistance() {
+		return size < heap.length ? Optional.absent() : Optional.of(distances[0]);
 	}
 
 	@Override
 	public TreeSet<MinHashDistance> getDistances() {
-		return dists.toTreeSet();
+		final MinHashDistance[] dists;
+		synchronized (this) {
+			dists = Arrays.copyOf(heap, size);
+		}
+		// sort outside the lock so filters feeding the collector aren't blocked
+		return new TreeSet<>(Arrays.asList(dists));
 	}
 
 }
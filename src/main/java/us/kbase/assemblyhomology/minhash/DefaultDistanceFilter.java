@@ -2,6 +2,8 @@ package us.kbase.assemblyhomology.minhash;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.common.base.Optional;
+
 /** A pass through filter that passes all distances directly to a {@link MinHashDistanceCollector}.
  * @author gaprice@lbl.gov
  *
@@ -29,4 +31,9 @@ public class DefaultDistanceFilter implements MinHashDistanceFilter {
 		// nothing to do
 	}
 
+	@Override
+	public Optional<Double> getDistanceBound() {
+		return collector.getWorstRetainedDistance();
+	}
+
 }
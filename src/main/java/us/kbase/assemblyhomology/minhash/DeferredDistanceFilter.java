@@ -0,0 +1,141 @@
+package us.kbase.assemblyhomology.minhash;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Optional;
+
+import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterException;
+
+/** A filter that wraps a filter that is still being built, for example by a filter factory that
+ * contacts a remote service. This allows a MinHash implementation to start computing distances
+ * before the filter is available.
+ *
+ * Distances are buffered until the wrapped filter is available, and then passed to the filter
+ * in the order they were accepted. If the buffer is full, accepting a distance waits for the
+ * wrapped filter. Any exception thrown while building the wrapped filter is thrown from
+ * {@link #accept(MinHashDistance)}, {@link #flush()}, or {@link #finish()}.
+ *
+ * The wrapped filter may be shared between several deferred filters, for example for sketch
+ * databases that use the same filter factory, and the deferred filters may be used
+ * concurrently. Calls to the wrapped filter are synchronized on the wrapped filter, so it is
+ * still only used by one thread at a time.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class DeferredDistanceFilter implements MinHashDistanceFilter {
+
+	private final Future<? extends MinHashDistanceFilter> filter;
+	private final int maxBuffered;
+	private final List<MinHashDistance> buffer = new ArrayList<>();
+	// set once the wrapped filter is available and the buffer is drained
+	private MinHashDistanceFilter delegate = null;
+
+	/** Create the filter.
+	 * @param filter the filter to which distances will be passed once it is available.
+	 * @param maxBuffered the maximum number of distances to buffer while waiting for the filter.
+	 */
+	public DeferredDistanceFilter(
+			final Future<? extends MinHashDistanceFilter> filter,
+			final int maxBuffered) {
+		checkNotNull(filter, "filter");
+		if (maxBuffered < 0) {
+			throw new IllegalArgumentException("maxBuffered must be >= 0");
+		}
+		this.filter = filter;
+		this.maxBuffered = maxBuffered;
+	}
+
+	@Override
+	public void accept(final MinHashDistance dist) throws MinHashDistanceFilterException {
+		checkNotNull(dist, "dist");
+		if (delegate == null) {
+			if (!filter.isDone() && buffer.size() < maxBuffered) {
+				buffer.add(dist);
+				return;
+			}
+			drain();
+		}
+		synchronized (delegate) {
+			delegate.accept(dist);
+		}
+	}
+
+	@Override
+	public void flush() throws MinHashDistanceFilterException {
+		if (delegate == null) {
+			drain();
+		}
+		synchronized (delegate) {
+			delegate.flush();
+		}
+	}
+
+	/** Wait for the wrapped filter and pass it any distances that are still buffered, flushing
+	 * it if there were any. This allows a caller to check that the wrapped filter was built
+	 * successfully, and that no distances were left in the buffer, regardless of whether
+	 * the filter was flushed.
+	 * @throws MinHashDistanceFilterException if the wrapped filter could not be built or throws
+	 * an exception.
+	 */
+	public void finish() throws MinHashDistanceFilterException {
+		if (delegate == null) {
+			final boolean buffered = !buffer.isEmpty();
+			drain();
+			if (buffered) {
+				synchronized (delegate) {
+					delegate.flush();
+				}
+			}
+		}
+	}
+
+	private void drain() throws MinHashDistanceFilterException {
+		final MinHashDistanceFilter f = getFilter();
+		synchronized (f) {
+			for (final MinHashDistance d: buffer) {
+				f.accept(d);
+			}
+		}
+		buffer.clear();
+		delegate = f;
+	}
+
+	private MinHashDistanceFilter getFilter() throws MinHashDistanceFilterException {
+		try {
+			return filter.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MinHashDistanceFilterException("Interrupted while waiting for filter", e);
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof MinHashDistanceFilterException) {
+				throw (MinHashDistanceFilterException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new MinHashDistanceFilterException(cause.getMessage(), cause);
+			}
+		}
+	}
+
+	/** Returns the wrapped filter's bound, or absent if the wrapped filter is not yet
+	 * available.
+	 */
+	@Override
+	public Optional<Double> getDistanceBound() {
+		if (delegate == null) {
+			return Optional.absent();
+		}
+		synchronized (delegate) {
+			return delegate.getDistanceBound();
+		}
+	}
+
+}
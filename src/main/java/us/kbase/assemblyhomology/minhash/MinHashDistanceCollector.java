@@ -2,6 +2,8 @@ package us.kbase.assemblyhomology.minhash;
 
 import java.util.TreeSet;
 
+import com.google.common.base.Optional;
+
 /** An interface for a collector of MinHash distances. 
  * 
  * Typical implementations maintain a cap on the number of distances in memory. The collector is
@@ -9,7 +11,8 @@ import java.util.TreeSet;
  * collecting all the sequences in memory and then filtering.
  * 
  * There is typically one collector per data set and one filter per target sketch database in
- * the data set. The filters feed into the collector.
+ * the data set. The filters feed into the collector. {@link MinHashImplementation}s may search
+ * the sketch databases concurrently, and so implementations must be thread safe.
  * 
  * @author gaprice@lbl.gov
  *
@@ -21,6 +24,14 @@ public interface MinHashDistanceCollector {
 	 */
 	void accept(MinHashDistance dist);
 	
+	/** Get the largest distance retained by the collector, if the collector is full. Any
+	 * distance larger than this distance will be discarded by the collector, and so MinHash
+	 * implementations may use it as a bound to skip work.
+	 * @return the largest retained distance, or absent if the collector will accept more
+	 * distances regardless of their size.
+	 */
+	Optional<Double> getWorstRetainedDistance();
+	
 	/** Get the distances accepted so far.
 	 * @return the distances.
 	 */
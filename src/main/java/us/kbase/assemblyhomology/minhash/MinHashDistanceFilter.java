@@ -1,5 +1,7 @@
 package us.kbase.assemblyhomology.minhash;
 
+import com.google.common.base.Optional;
+
 import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterException;
 
 /** A filter for MinHash distances. The properties of the filter depend on the implementation,
@@ -8,6 +10,10 @@ import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterExcepti
  * 
  * The filters typically feed into a {@link MinHashDistanceCollector}, and may buffer the
  * distances so that filtering can be performed batch-wise.
+ * 
+ * A filter is only used by one thread at a time, but {@link MinHashImplementation}s may search
+ * the sketch databases concurrently, and so filters for different sketch databases that feed
+ * the same collector may be used concurrently.
  * @author gaprice@lbl.gov
  *
  */
@@ -26,4 +32,16 @@ public interface MinHashDistanceFilter {
 	 */
 	void flush() throws MinHashDistanceFilterException;
 	
+	/** Get a distance above which distances passed to the filter will never reach their final
+	 * destination, typically {@link MinHashDistanceCollector#getWorstRetainedDistance()}.
+	 * MinHash implementations may skip computing or passing on distances larger than the bound.
+	 * The bound may decrease as distances are accepted, but never increases.
+	 * 
+	 * The default implementation returns absent.
+	 * @return the bound, or absent if there is no bound.
+	 */
+	default Optional<Double> getDistanceBound() {
+		return Optional.absent();
+	}
+	
 }
@@ -1,7 +1,11 @@
 package us.kbase.assemblyhomology.minhash;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import us.kbase.assemblyhomology.minhash.exceptions.IncompatibleSketchesException;
 import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterException;
@@ -54,5 +58,97 @@ public interface MinHashImplementation {
 			boolean strict)
 			throws MinHashException, IncompatibleSketchesException, NotASketchException,
 				MinHashDistanceFilterException;
+
+	/** Check whether the implementation supports approximate searches.
+	 * @return true if {@link #computeDistance(MinHashSketchDatabase, Map, boolean,
+	 * MinHashSearchParameters)} performs approximate searches when requested.
+	 */
+	default boolean isApproximateSearchSupported() {
+		return false;
+	}
+
+	/** Compute distances between a query sequence and set of reference sequence sketch databases
+	 * as {@link #computeDistance(MinHashSketchDatabase, Map, boolean)}, controlling the search
+	 * with a set of search parameters. Implementations that don't support approximate searches
+	 * perform an exact search, which is the default behavior. Implementations should not pass
+	 * distances greater than the maximum distance, if provided, to the filters; the default
+	 * behavior ignores the maximum distance.
+	 * @param query the query sequence. The database must contain exactly one sequence.
+	 * @param references the set of reference databases against which the query will be
+	 * measured mapped to the filter to use to filter the results of the search against that
+	 * database.
+	 * @param strict if false, allow the query sequence sketch size to be larger than the
+	 * reference databases' sketch size. Otherwise throw an {@link IncompatibleSketchesException}.
+	 * @param searchParameters the parameters for the search.
+	 * @return a list of warnings regarding the minhash query.
+	 * @throws MinHashException if the distances were unable to be calculated.
+	 * @throws IncompatibleSketchesException if the sketches have incompatible parameters.
+	 * @throws NotASketchException if one of the databases is invalid.
+	 * @throws MinHashDistanceFilterException if a filter encounters a problem.
+	 */
+	default List<String> computeDistance(
+			final MinHashSketchDatabase query,
+			final Map<MinHashSketchDatabase, MinHashDistanceFilter> references,
+			final boolean strict,
+			final MinHashSearchParameters searchParameters)
+			throws MinHashException, IncompatibleSketchesException, NotASketchException,
+				MinHashDistanceFilterException {
+		return computeDistance(query, references, strict);
+	}
+	
+	/** Check whether the implementation supports query databases containing more than one
+	 * sequence.
+	 * @return true if {@link #computeDistances(MinHashSketchDatabase, Map, boolean,
+	 * MinHashSearchParameters)} accepts query databases with more than one sequence.
+	 */
+	default boolean isMultipleQuerySearchSupported() {
+		return false;
+	}
 	
+	/** Compute distances between each of the sequences in a query sketch database and a set of
+	 * reference sequence sketch databases. Implementations that support multiple queries
+	 * compare all the query sequences to a reference database in a single pass over the
+	 * reference database.
+	 * 
+	 * The default implementation only accepts query databases containing exactly one sequence
+	 * and delegates to {@link #computeDistance(MinHashSketchDatabase, Map, boolean,
+	 * MinHashSearchParameters)}.
+	 * @param query the query sequences.
+	 * @param references the set of reference databases against which the queries will be
+	 * measured mapped to the filters to use to filter the results of the search against that
+	 * database. There must be one filter per query sequence, in the same order as the sequences
+	 * in the query database.
+	 * @param strict if false, allow the query sequence sketch size to be larger than the
+	 * reference databases' sketch size. Otherwise throw an {@link IncompatibleSketchesException}.
+	 * @param searchParameters the parameters for the search.
+	 * @return a list of warnings regarding the minhash query.
+	 * @throws MinHashException if the distances were unable to be calculated.
+	 * @throws IncompatibleSketchesException if the sketches have incompatible parameters.
+	 * @throws NotASketchException if one of the databases is invalid.
+	 * @throws MinHashDistanceFilterException if a filter encounters a problem.
+	 */
+	default List<String> computeDistances(
+			final MinHashSketchDatabase query,
+			final Map<MinHashSketchDatabase, List<MinHashDistanceFilter>> references,
+			final boolean strict,
+			final MinHashSearchParameters searchParameters)
+			throws MinHashException, IncompatibleSketchesException, NotASketchException,
+				MinHashDistanceFilterException {
+		checkNotNull(query, "query");
+		checkNotNull(references, "references");
+		if (query.getSequenceCount() != 1) {
+			throw new IllegalArgumentException("Only 1 query sequence is allowed");
+		}
+		final Map<MinHashSketchDatabase, MinHashDistanceFilter> refs = new LinkedHashMap<>();
+		for (final Entry<MinHashSketchDatabase, List<MinHashDistanceFilter>> e:
+				references.entrySet()) {
+			if (e.getValue() == null || e.getValue().size() != 1) {
+				throw new IllegalArgumentException(
+						"There must be exactly one filter per query sequence");
+			}
+			refs.put(e.getKey(), e.getValue().get(0));
+		}
+		return computeDistance(query, refs, strict, searchParameters);
+	}
+
 }
@@ -30,5 +30,22 @@ public interface MinHashImplementationFactory {
 	 * @return the expected file extension.
 	 */
 	Optional<Path> getExpectedFileExtension();
+	
+	/** Get the memory used to hold a sketch database, if the implementation holds sketch
+	 * databases in memory between searches. By default implementations do not.
+	 * @param location the location of the sketch database.
+	 * @return the memory usage, or absent if the sketch database is not held in memory.
+	 */
+	default Optional<MinHashMemoryUsage> getMemoryUsage(final MinHashDBLocation location) {
+		return Optional.absent();
+	}
+	
+	/** Get the number of processes that the implementations from this factory are currently
+	 * running. By default implementations don't start processes.
+	 * @return the number of processes.
+	 */
+	default int getRunningProcessCount() {
+		return 0;
+	}
 
 }
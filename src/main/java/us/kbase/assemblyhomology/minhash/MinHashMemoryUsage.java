@@ -0,0 +1,126 @@
+package us.kbase.assemblyhomology.minhash;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/** The memory occupied by a sketch database that a MinHash implementation holds in memory.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class MinHashMemoryUsage {
+
+	/** How the hashes of a sketch database are held in memory. */
+	public static enum Storage {
+		/** The hashes are held in the heap as 64 bit values. */
+		HEAP,
+		/** The hashes are memory mapped from a file as 64 bit values. */
+		MAPPED,
+		/** The hashes are held in the heap in a compressed form. */
+		COMPRESSED;
+	}
+
+	private final Storage storage;
+	private final int sketchCount;
+	private final long hashCount;
+	private final long hashBytes;
+
+	/** Create a memory usage record.
+	 * @param storage how the hashes are held in memory.
+	 * @param sketchCount the number of sketches in the sketch database.
+	 * @param hashCount the total number of hashes in the sketch database.
+	 * @param hashBytes the number of bytes occupied by the hashes.
+	 */
+	public MinHashMemoryUsage(
+			final Storage storage,
+			final int sketchCount,
+			final long hashCount,
+			final long hashBytes) {
+		checkNotNull(storage, "storage");
+		if (sketchCount < 0) {
+			throw new IllegalArgumentException("sketchCount must be >= 0");
+		}
+		if (hashCount < 0) {
+			throw new IllegalArgumentException("hashCount must be >= 0");
+		}
+		if (hashBytes < 0) {
+			throw new IllegalArgumentException("hashBytes must be >= 0");
+		}
+		this.storage = storage;
+		this.sketchCount = sketchCount;
+		this.hashCount = hashCount;
+		this.hashBytes = hashBytes;
+	}
+
+	/** Get how the hashes are held in memory.
+	 * @return the storage type.
+	 */
+	public Storage getStorage() {
+		return storage;
+	}
+
+	/** Get the number of sketches in the sketch database.
+	 * @return the number of sketches.
+	 */
+	public int getSketchCount() {
+		return sketchCount;
+	}
+
+	/** Get the total number of hashes in the sketch database.
+	 * @return the number of hashes.
+	 */
+	public long getHashCount() {
+		return hashCount;
+	}
+
+	/** Get the number of bytes occupied by the hashes.
+	 * @return the number of bytes.
+	 */
+	public long getHashBytes() {
+		return hashBytes;
+	}
+
+	/** Get the number of bytes the hashes would occupy as uncompressed 64 bit values.
+	 * @return the number of bytes.
+	 */
+	public long getUncompressedHashBytes() {
+		return hashCount * 8;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + (int) (hashBytes ^ (hashBytes >>> 32));
+		result = prime * result + (int) (hashCount ^ (hashCount >>> 32));
+		result = prime * result + sketchCount;
+		result = prime * result + ((storage == null) ? 0 : storage.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		MinHashMemoryUsage other = (MinHashMemoryUsage) obj;
+		if (hashBytes != other.hashBytes) {
+			return false;
+		}
+		if (hashCount != other.hashCount) {
+			return false;
+		}
+		if (sketchCount != other.sketchCount) {
+			return false;
+		}
+		if (storage != other.storage) {
+			return false;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,132 @@
+package us.kbase.assemblyhomology.minhash;
+
+import com.google.common.base.Optional;
+
+/** Parameters controlling how a MinHash implementation performs a search, as opposed to the
+ * parameters of the sketches being searched.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class MinHashSearchParameters {
+
+	private final Optional<Double> approximateRecall;
+	private final Optional<Double> maxDistance;
+
+	private MinHashSearchParameters(final Double approximateRecall, final Double maxDistance) {
+		this.approximateRecall = Optional.fromNullable(approximateRecall);
+		this.maxDistance = Optional.fromNullable(maxDistance);
+	}
+
+	/** Get the target recall for an approximate search.
+	 * @return the fraction of the matches the search should find, or absent if the search
+	 * is exact.
+	 */
+	public Optional<Double> getApproximateRecall() {
+		return approximateRecall;
+	}
+
+	/** Check whether an approximate search was requested.
+	 * @return true if the search may be approximate, false if it must be exact.
+	 */
+	public boolean isApproximate() {
+		return approximateRecall.isPresent();
+	}
+
+	/** Get the maximum distance of the matches to return. Implementations should not compute
+	 * or pass on distances greater than the maximum where they can avoid it.
+	 * @return the maximum distance, or absent if the implementation's default maximum applies.
+	 */
+	public Optional<Double> getMaxDistance() {
+		return maxDistance;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((approximateRecall == null) ? 0 : approximateRecall.hashCode());
+		result = prime * result + ((maxDistance == null) ? 0 : maxDistance.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		MinHashSearchParameters other = (MinHashSearchParameters) obj;
+		if (approximateRecall == null) {
+			if (other.approximateRecall != null) {
+				return false;
+			}
+		} else if (!approximateRecall.equals(other.approximateRecall)) {
+			return false;
+		}
+		if (maxDistance == null) {
+			if (other.maxDistance != null) {
+				return false;
+			}
+		} else if (!maxDistance.equals(other.maxDistance)) {
+			return false;
+		}
+		return true;
+	}
+
+	/** Get a builder for {@link MinHashSearchParameters}. By default the search is exact and
+	 * the implementation's default maximum distance applies.
+	 * @return a new builder.
+	 */
+	public static Builder getBuilder() {
+		return new Builder();
+	}
+
+	/** A builder for a {@link MinHashSearchParameters}.
+	 * @author gaprice@lbl.gov
+	 *
+	 */
+	public static class Builder {
+
+		private Double approximateRecall = null;
+		private Double maxDistance = null;
+
+		private Builder() {}
+
+		/** Allow the search to be approximate, trading a loss of recall for speed.
+		 * @param recall the target fraction of the matches the search should find. Must be
+		 * greater than 0 and less than 1.
+		 * @return this builder.
+		 */
+		public Builder withApproximateRecall(final double recall) {
+			if (!(recall > 0 && recall < 1)) {
+				throw new IllegalArgumentException("recall must be > 0 and < 1");
+			}
+			this.approximateRecall = recall;
+			return this;
+		}
+
+		/** Set the maximum distance of the matches to return.
+		 * @param maxDistance the maximum distance. Must be between 0 and 1 inclusive.
+		 * @return this builder.
+		 */
+		public Builder withMaxDistance(final double maxDistance) {
+			if (!(maxDistance >= 0 && maxDistance <= 1)) {
+				throw new IllegalArgumentException("maxDistance must be >= 0 and <= 1");
+			}
+			this.maxDistance = maxDistance;
+			return this;
+		}
+
+		/** Build the {@link MinHashSearchParameters}.
+		 * @return a new {@link MinHashSearchParameters}.
+		 */
+		public MinHashSearchParameters build() {
+			return new MinHashSearchParameters(approximateRecall, maxDistance);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package us.kbase.assemblyhomology.minhash;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.base.Optional;
+
+/** A MinHash distance collector for many producer threads. Collects all provided sequences up
+ * to a maximum count, discarding the largest distances once the count is reached, with the same
+ * results as {@link DefaultDistanceCollector}.
+ * 
+ * Rather than every thread contending on one lock, each thread adds distances to one of several
+ * stripes, each of which is a {@link DefaultDistanceCollector} with the full maximum count. The
+ * stripes are merged when the distances are retrieved. Once any stripe is full, no distance
+ * larger than that stripe's worst retained distance can be in the final results, and so the
+ * smallest such distance is shared between the threads as a threshold to reject distances before
+ * taking any lock.
+ * 
+ * The collector is thread safe.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class StripedDistanceCollector implements MinHashDistanceCollector {
+	
+	private final int size;
+	private final int mask;
+	// stripes are created on first use, since often few threads feed a collector
+	private final AtomicReferenceArray<DefaultDistanceCollector> stripes;
+	// the bits of the threshold distance. Distances are never negative, so the ordering of the
+	// bits is the same as the ordering of the distances.
+	private final AtomicLong threshold =
+			new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+	
+	/** Create the collector with a stripe per available processor.
+	 * @param size the maximum number of distances to collect.
+	 */
+	public StripedDistanceCollector(final int size) {
+		this(size, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/** Create the collector.
+	 * @param size the maximum number of distances to collect.
+	 * @param stripes the number of stripes across which to spread the producer threads. This
+	 * will be rounded up to a power of two.
+	 */
+	public StripedDistanceCollector(final int size, final int stripes) {
+		if (size < 1) {
+			throw new IllegalArgumentException("size must be > 0");
+		}
+		if (stripes < 1) {
+			throw new IllegalArgumentException("stripes must be > 0");
+		}
+		this.size = size;
+		int count = 1;
+		while (count < stripes) {
+			count *= 2;
+		}
+		mask = count - 1;
+		this.stripes = new AtomicReferenceArray<>(count);
+	}
+	
+	/** Get the number of stripes.
+	 * @return the stripe count.
+	 */
+	public int getStripeCount() {
+		return stripes.length();
+	}
+	
+	@Override
+	public void accept(final MinHashDistance dist) {
+		checkNotNull(dist, "dist");
+		if (dist.getDistance() > getThreshold()) {
+			return;
+		}
+		final int index = (int) (Thread.currentThread().getId() & mask);
+		DefaultDistanceCollector stripe = stripes.get(index);
+		if (stripe == null) {
+			stripes.compareAndSet(index, null, new DefaultDistanceCollector(size));
+			stripe = stripes.get(index);
+		}
+		lowerThreshold(stripe.add(dist));
+	}
+	
+	private double getThreshold() {
+		return Double.longBitsToDouble(threshold.get());
+	}
+	
+	private void lowerThreshold(final double worst) {
+		final long bits = Double.doubleToLongBits(worst);
+		long current = threshold.get();
+		while (bits < current && !threshold.compareAndSet(current, bits)) {
+			current = threshold.get();
+		}
+	}
+
+	/** {@inheritDoc}
+	 * 
+	 * For this collector, the returned distance is the threshold above which distances are
+	 * rejected, which may be larger than the largest distance that will be returned from
+	 * {@link #getDistances()} while the stripes are not yet merged.
+	 */
+	@Override
+	public Optional<Double> getWorstRetainedDistance() {
+		final double t = getThreshold();
+		return t == Double.POSITIVE_INFINITY ? Optional.absent() : Optional.of(t);
+	}
+
+	@Override
+	public TreeSet<MinHashDistance> getDistances() {
+		final TreeSet<MinHashDistance> all = new TreeSet<>();
+		for (int i = 0; i < stripes.length(); i++) {
+			final DefaultDistanceCollector stripe = stripes.get(i);
+			if (stripe != null) {
+				all.addAll(stripe.getDistances());
+			}
+		}
+		while (all.size() > size) {
+			all.pollLast();
+		}
+		return all;
+	}
+
+}
@@ -0,0 +1,212 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collections;
+import java.util.List;
+
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage.Storage;
+import us.kbase.assemblyhomology.minhash.MinHashParameters;
+import us.kbase.assemblyhomology.minhash.exceptions.NotASketchException;
+
+/** The contents of a mash sketch database, held in the heap with the hashes of each sketch
+ * Elias-Fano encoded. The hashes are decoded on demand, and
+ * {@link #getHashes(int, long[], long)} stops decoding at the given maximum hash.
+ *
+ * The hashes in a sketch are the smallest hashes of the sequence's kmers, and so are spread
+ * evenly from 0 to somewhat beyond the largest hash. For n hashes with largest hash u, the
+ * encoding splits each hash into its low floor(log2(u / n)) bits, which are packed together,
+ * and its remaining high bits, which are stored as gaps in unary. This takes at most
+ * 2 + log2(u / n) bits per hash rather than 64. The savings depend on the sketches; sketches of
+ * small sequences, where u approaches 2^64, gain little.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class CompressedMashSketches implements MashSketches {
+
+	private final MinHashParameters parameters;
+	private final int sketchSize;
+	private final List<String> ids;
+	private final int[] counts;
+	private final byte[] lowBits;
+	// the packed low bits of a sketch's hashes followed by the unary coded high bits
+	private final long[][] encoded;
+
+	/** Load the sketches from a sketch database.
+	 * @param reader a reader for the sketch database.
+	 * @return the sketches.
+	 * @throws NotASketchException if the sketch data is corrupt.
+	 */
+	public static CompressedMashSketches load(final MashSketchReader reader)
+			throws NotASketchException {
+		checkNotNull(reader, "reader");
+		final CompressedMashSketches s = new CompressedMashSketches(reader.getParameters(),
+				reader.getSketchSize(), reader.getSketchIDs());
+		for (int i = 0; i < s.encoded.length; i++) {
+			final long[] hashes = reader.getHashes(i);
+			s.encode(i, hashes, hashes.length);
+		}
+		return s;
+	}
+
+	/** Compress sketches held in another form, for example sketches mapped from a
+	 * {@link MashSketchStore}.
+	 * @param sketches the sketches to compress.
+	 * @return the compressed sketches.
+	 */
+	public static CompressedMashSketches copyOf(final MashSketches sketches) {
+		checkNotNull(sketches, "sketches");
+		final CompressedMashSketches s = new CompressedMashSketches(sketches.getParameters(),
+				sketches.getSketchSize(), sketches.getSketchIDs());
+		long[] hashes = new long[sketches.getSketchSize()];
+		for (int i = 0; i < s.encoded.length; i++) {
+			if (sketches.getHashCount(i) > hashes.length) {
+				hashes = new long[sketches.getHashCount(i)];
+			}
+			s.encode(i, hashes, sketches.getHashes(i, hashes));
+		}
+		return s;
+	}
+
+	private CompressedMashSketches(
+			final MinHashParameters parameters,
+			final int sketchSize,
+			final List<String> ids) {
+		this.parameters = parameters;
+		this.sketchSize = sketchSize;
+		this.ids = Collections.unmodifiableList(ids);
+		this.counts = new int[ids.size()];
+		this.lowBits = new byte[ids.size()];
+		this.encoded = new long[ids.size()][];
+	}
+
+	private void encode(final int index, final long[] hashes, final int count) {
+		final int low = count == 0 ? 0 : getLowBitCount(hashes[count - 1], count);
+		final long lowMask = (1L << low) - 1;
+		final long maxHigh = count == 0 ? 0 : hashes[count - 1] >>> low;
+		final int lowWords = (int) (((long) count * low + 63) >>> 6);
+		// one set bit per hash, each after high - previous high unset bits
+		final long highBits = count + maxHigh + 1;
+		final long[] words = new long[lowWords + (int) ((highBits + 63) >>> 6)];
+		for (int k = 0; k < count; k++) {
+			if (low > 0) {
+				final long bit = (long) k * low;
+				final int word = (int) (bit >>> 6);
+				final int shift = (int) (bit & 63);
+				final long v = hashes[k] & lowMask;
+				words[word] |= v << shift;
+				if (shift + low > 64) {
+					words[word + 1] |= v >>> (64 - shift);
+				}
+			}
+			final long pos = (hashes[k] >>> low) + k;
+			words[lowWords + (int) (pos >>> 6)] |= 1L << (pos & 63);
+		}
+		counts[index] = count;
+		lowBits[index] = (byte) low;
+		encoded[index] = words;
+	}
+
+	// floor(log2(max / count)) for the unsigned max, or 0 if max < count
+	private static int getLowBitCount(final long max, final int count) {
+		final long quotient = Long.divideUnsigned(max, count);
+		return quotient == 0 ? 0 : 63 - Long.numberOfLeadingZeros(quotient);
+	}
+
+	@Override
+	public MinHashParameters getParameters() {
+		return parameters;
+	}
+
+	@Override
+	public int getSketchSize() {
+		return sketchSize;
+	}
+
+	@Override
+	public int getSketchCount() {
+		return encoded.length;
+	}
+
+	@Override
+	public List<String> getSketchIDs() {
+		return ids;
+	}
+
+	@Override
+	public String getSketchID(final int index) {
+		checkIndex(index);
+		return ids.get(index);
+	}
+
+	@Override
+	public int getHashCount(final int index) {
+		checkIndex(index);
+		return counts[index];
+	}
+
+	@Override
+	public int getHashes(final int index, final long[] buffer) {
+		return getHashes(index, buffer, -1); // -1 is the largest unsigned hash
+	}
+
+	@Override
+	public int getHashes(final int index, final long[] buffer, final long maxHash) {
+		checkNotNull(buffer, "buffer");
+		checkIndex(index);
+		final int count = counts[index];
+		final int low = lowBits[index];
+		final long[] words = encoded[index];
+		final int lowWords = (int) (((long) count * low + 63) >>> 6);
+		// hashes with a greater high part than the maximum are all greater than the maximum
+		final long maxHigh = maxHash >>> low;
+		int k = 0;
+		for (int word = lowWords; k < count; word++) {
+			long bits = words[word];
+			while (bits != 0) {
+				final long high = ((long) (word - lowWords) << 6) +
+						Long.numberOfTrailingZeros(bits) - k;
+				if (Long.compareUnsigned(high, maxHigh) > 0) {
+					return k;
+				}
+				buffer[k] = (high << low) | getLow(words, k, low);
+				k++;
+				bits &= bits - 1;
+			}
+		}
+		return k;
+	}
+
+	private static long getLow(final long[] words, final int k, final int low) {
+		if (low == 0) {
+			return 0;
+		}
+		final long bit = (long) k * low;
+		final int word = (int) (bit >>> 6);
+		final int shift = (int) (bit & 63);
+		long v = words[word] >>> shift;
+		if (shift + low > 64) {
+			v |= words[word + 1] << (64 - shift);
+		}
+		return v & ((1L << low) - 1);
+	}
+
+	@Override
+	public MinHashMemoryUsage getMemoryUsage() {
+		long hashCount = 0;
+		long hashBytes = 0;
+		for (int i = 0; i < encoded.length; i++) {
+			hashCount += counts[i];
+			hashBytes += encoded[i].length * 8L;
+		}
+		return new MinHashMemoryUsage(Storage.COMPRESSED, encoded.length, hashCount, hashBytes);
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= encoded.length) {
+			throw new IndexOutOfBoundsException("No sketch at index " + index);
+		}
+	}
+
+}
@@ -0,0 +1,110 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collections;
+import java.util.List;
+
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage.Storage;
+import us.kbase.assemblyhomology.minhash.MinHashParameters;
+import us.kbase.assemblyhomology.minhash.exceptions.NotASketchException;
+
+/** The contents of a mash sketch database, decoded into the heap so that the sketches may be
+ * compared repeatedly without rereading the sketch database.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class HeapMashSketches implements MashSketches {
+
+	private final MinHashParameters parameters;
+	private final int sketchSize;
+	private final List<String> ids;
+	private final long[][] hashes;
+	private final long hashCount;
+
+	/** Load the sketches from a sketch database.
+	 * @param reader a reader for the sketch database.
+	 * @return the sketches.
+	 * @throws NotASketchException if the sketch data is corrupt.
+	 */
+	public static HeapMashSketches load(final MashSketchReader reader)
+			throws NotASketchException {
+		checkNotNull(reader, "reader");
+		final long[][] hashes = new long[reader.getSketchCount()][];
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = reader.getHashes(i);
+		}
+		return new HeapMashSketches(reader.getParameters(), reader.getSketchSize(),
+				reader.getSketchIDs(), hashes);
+	}
+
+	private HeapMashSketches(
+			final MinHashParameters parameters,
+			final int sketchSize,
+			final List<String> ids,
+			final long[][] hashes) {
+		this.parameters = parameters;
+		this.sketchSize = sketchSize;
+		this.ids = Collections.unmodifiableList(ids);
+		this.hashes = hashes;
+		long count = 0;
+		for (final long[] h: hashes) {
+			count += h.length;
+		}
+		this.hashCount = count;
+	}
+
+	@Override
+	public MinHashParameters getParameters() {
+		return parameters;
+	}
+
+	@Override
+	public int getSketchSize() {
+		return sketchSize;
+	}
+
+	@Override
+	public int getSketchCount() {
+		return hashes.length;
+	}
+
+	@Override
+	public List<String> getSketchIDs() {
+		return ids;
+	}
+
+	@Override
+	public String getSketchID(final int index) {
+		checkIndex(index);
+		return ids.get(index);
+	}
+
+	@Override
+	public int getHashCount(final int index) {
+		checkIndex(index);
+		return hashes[index].length;
+	}
+
+	@Override
+	public int getHashes(final int index, final long[] buffer) {
+		checkNotNull(buffer, "buffer");
+		checkIndex(index);
+		final long[] h = hashes[index];
+		System.arraycopy(h, 0, buffer, 0, h.length);
+		return h.length;
+	}
+
+	@Override
+	public MinHashMemoryUsage getMemoryUsage() {
+		return new MinHashMemoryUsage(Storage.HEAP, hashes.length, hashCount, hashCount * 8);
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= hashes.length) {
+			throw new IndexOutOfBoundsException("No sketch at index " + index);
+		}
+	}
+
+}
@@ -0,0 +1,600 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.google.common.base.Optional;
+
+import us.kbase.assemblyhomology.minhash.MinHashDBLocation;
+import us.kbase.assemblyhomology.minhash.MinHashDistance;
+import us.kbase.assemblyhomology.minhash.MinHashDistanceFilter;
+import us.kbase.assemblyhomology.minhash.MinHashImplementation;
+import us.kbase.assemblyhomology.minhash.MinHashImplementationInformation;
+import us.kbase.assemblyhomology.minhash.MinHashSearchParameters;
+import us.kbase.assemblyhomology.minhash.MinHashSketchDBName;
+import us.kbase.assemblyhomology.minhash.MinHashSketchDatabase;
+import us.kbase.assemblyhomology.minhash.exceptions.IncompatibleSketchesException;
+import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterException;
+import us.kbase.assemblyhomology.minhash.exceptions.MinHashException;
+import us.kbase.assemblyhomology.minhash.exceptions.NotASketchException;
+import us.kbase.assemblyhomology.minhash.mash.MashLSHIndex.Banding;
+import us.kbase.assemblyhomology.minhash.mash.MashSketchCache.CacheEntry;
+
+/** A MinHash implementation that reads mash sketch databases and computes Mash distances in the
+ * JVM rather than running mash. The results are the same as those of {@link Mash}, but no
+ * processes are started and reference sketch databases are read once and then held in
+ * a {@link MashSketchCache}, either memory mapped from a {@link MashSketchStore} or on the heap,
+ * optionally {@link CompressedMashSketches compressed}. Compressed reference sketches are only
+ * decoded as far as a comparison can reach.
+ * If a reference sketch database has a {@link MashHashIndex}, only the sketches that share
+ * hashes with the query are compared to it.
+ *
+ * Large reference sketch databases are split into ranges of sketches that are compared to the
+ * query in parallel on a {@link ForkJoinPool}. The ranges are scanned in waves of one range per
+ * thread, and after each wave the distances are passed to the filters on the calling thread in
+ * the same order as a serial scan would produce them. The next wave uses the filter's
+ * {@link MinHashDistanceFilter#getDistanceBound() distance bound} to abandon comparisons that
+ * cannot produce a retained distance.
+ *
+ * Query sketch databases may contain more than one sketch, in which case each reference sketch
+ * is compared to all the query sketches in a single scan of the reference sketch database.
+ *
+ * The implementation has the same name as {@link Mash} so that it can query namespaces loaded
+ * with mash sketch databases.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class InProcessMash implements MinHashImplementation {
+
+	/** The version of the implementation. The implementation reads sketch databases written
+	 * by mash 2.0 and produces the same distances as mash 2.0.
+	 */
+	public static final String VERSION = "2.0-jvm";
+
+	/** The distance, roughly the boundary between species, within which sketches are found with
+	 * the requested recall in an approximate search.
+	 */
+	public static final double APPROXIMATE_SEARCH_DISTANCE = 0.05;
+
+	// mash dist is run with -d 0.5 by Mash
+	private static final double MAX_DISTANCE = 0.5;
+
+	// smaller ranges aren't worth the overhead of a task
+	private static final int DEFAULT_MIN_RANGE_SIZE = 1000;
+	// more ranges than threads so the distance bound is tightened several times per scan
+	private static final int RANGES_PER_THREAD = 8;
+
+	private final MinHashImplementationInformation info = new MinHashImplementationInformation(
+			Mash.getImplementationName(), VERSION, Mash.getExpectedFileExtension());
+	private final MashSketchCache cache;
+	private final ForkJoinPool pool;
+	private final int minRangeSize;
+
+	/** Create a new in process mash implementation that compares sketches on the common
+	 * {@link ForkJoinPool}.
+	 * @param cache the cache from which to retrieve reference sketch databases. Query sketch
+	 * databases are not cached.
+	 */
+	public InProcessMash(final MashSketchCache cache) {
+		this(cache, ForkJoinPool.commonPool());
+	}
+
+	/** Create a new in process mash implementation.
+	 * @param cache the cache from which to retrieve reference sketch databases. Query sketch
+	 * databases are not cached.
+	 * @param pool the pool on which to compare sketches. The pool is expected to be shared
+	 * between implementations and is not shut down by the implementation.
+	 */
+	public InProcessMash(final MashSketchCache cache, final ForkJoinPool pool) {
+		this(cache, pool, DEFAULT_MIN_RANGE_SIZE);
+	}
+
+	// for tests
+	private InProcessMash(
+			final MashSketchCache cache,
+			final ForkJoinPool pool,
+			final int minRangeSize) {
+		checkNotNull(cache, "cache");
+		checkNotNull(pool, "pool");
+		this.cache = cache;
+		this.pool = pool;
+		this.minRangeSize = minRangeSize;
+	}
+
+	@Override
+	public MinHashImplementationInformation getImplementationInformation() {
+		return info;
+	}
+
+	@Override
+	public MinHashSketchDatabase getDatabase(
+			final MinHashSketchDBName dbname,
+			final MinHashDBLocation location)
+			throws MinHashException {
+		checkNotNull(dbname, "dbname");
+		checkNotNull(location, "location");
+		Mash.checkFileExtension(location);
+		final MashSketchReader reader = Mash.openSketch(location);
+		return new MinHashSketchDatabase(dbname, info.getImplementationName(),
+				reader.getParameters(), location, reader.getSketchCount());
+	}
+
+	@Override
+	public List<String> getSketchIDs(final MinHashSketchDatabase db) throws MinHashException {
+		checkNotNull(db, "db");
+		Mash.checkFileExtension(db.getLocation());
+		final MashSketchReader reader = Mash.openSketch(db.getLocation());
+		try {
+			return reader.getSketchIDs();
+		} catch (NotASketchException e) {
+			throw couldNotRead(e);
+		}
+	}
+
+	@Override
+	public List<String> computeDistance(
+			final MinHashSketchDatabase query,
+			final Map<MinHashSketchDatabase, MinHashDistanceFilter> references,
+			final boolean strict)
+			throws MinHashException, NotASketchException, IncompatibleSketchesException,
+				MinHashDistanceFilterException {
+		return computeDistance(query, references, strict,
+				MinHashSearchParameters.getBuilder().build());
+	}
+
+	@Override
+	public boolean isApproximateSearchSupported() {
+		return true;
+	}
+
+	/** {@inheritDoc}
+	 *
+	 * An approximate search only compares the query to the candidate sketches found by a
+	 * {@link MashLSHIndex}. The index is tuned so that sketches within
+	 * {@link #APPROXIMATE_SEARCH_DISTANCE} of the query are found with the requested recall.
+	 * More distant sketches are more likely to be missed.
+	 *
+	 * A maximum distance bounds the comparisons as the filters' distance bounds do, and
+	 * excludes sketches from the candidates found with a {@link MashHashIndex}.
+	 */
+	@Override
+	public List<String> computeDistance(
+			final MinHashSketchDatabase query,
+			final Map<MinHashSketchDatabase, MinHashDistanceFilter> references,
+			final boolean strict,
+			final MinHashSearchParameters searchParameters)
+			throws MinHashException, NotASketchException, IncompatibleSketchesException,
+				MinHashDistanceFilterException {
+		checkNotNull(query, "query");
+		checkNotNull(searchParameters, "searchParameters");
+		Mash.checkNoNulls(references);
+		if (query.getSequenceCount() != 1) {
+			throw new IllegalArgumentException("Only 1 query sequence is allowed");
+		}
+		final Map<MinHashSketchDatabase, List<MinHashDistanceFilter>> refs =
+				new LinkedHashMap<>();
+		for (final Entry<MinHashSketchDatabase, MinHashDistanceFilter> r: references.entrySet()) {
+			refs.put(r.getKey(), Arrays.asList(r.getValue()));
+		}
+		return compute(query, refs, strict, searchParameters);
+	}
+
+	@Override
+	public boolean isMultipleQuerySearchSupported() {
+		return true;
+	}
+
+	/** {@inheritDoc}
+	 *
+	 * Each reference sketch database is scanned once. Each reference sketch is read once and
+	 * compared to all the query sketches, and the distances are passed to the filter for the
+	 * query. Approximate searches are performed as for
+	 * {@link #computeDistance(MinHashSketchDatabase, Map, boolean, MinHashSearchParameters)}.
+	 */
+	@Override
+	public List<String> computeDistances(
+			final MinHashSketchDatabase query,
+			final Map<MinHashSketchDatabase, List<MinHashDistanceFilter>> references,
+			final boolean strict,
+			final MinHashSearchParameters searchParameters)
+			throws MinHashException, NotASketchException, IncompatibleSketchesException,
+				MinHashDistanceFilterException {
+		checkNotNull(query, "query");
+		checkNotNull(searchParameters, "searchParameters");
+		Mash.checkFilters(references, query.getSequenceCount());
+		return compute(query, references, strict, searchParameters);
+	}
+
+	private List<String> compute(
+			final MinHashSketchDatabase query,
+			final Map<MinHashSketchDatabase, List<MinHashDistanceFilter>> references,
+			final boolean strict,
+			final MinHashSearchParameters searchParameters)
+			throws MinHashException, NotASketchException, IncompatibleSketchesException,
+				MinHashDistanceFilterException {
+		final List<String> warnings = Mash.checkQueryable(query, references.keySet(), strict);
+		final double maxDistance = Math.min(
+				MAX_DISTANCE, searchParameters.getMaxDistance().or(MAX_DISTANCE));
+		final MashSketchReader queryReader = Mash.openSketch(query.getLocation());
+		final long[][] queryHashes = new long[query.getSequenceCount()][];
+		try {
+			for (int q = 0; q < queryHashes.length; q++) {
+				queryHashes[q] = queryReader.getHashes(q);
+			}
+		} catch (NotASketchException e) {
+			throw couldNotRead(e);
+		}
+		// check all the references before any distances are passed to the filters
+		final Map<MinHashSketchDatabase, CacheEntry> entries = new HashMap<>();
+		for (final MinHashSketchDatabase ref: references.keySet()) {
+			final CacheEntry entry = getCacheEntry(ref.getLocation().getPathToFile().get());
+			checkCompatible(queryReader, entry);
+			entries.put(ref, entry);
+		}
+		for (final Entry<MinHashSketchDatabase, List<MinHashDistanceFilter>> r:
+				references.entrySet()) {
+			final MinHashSketchDatabase ref = r.getKey();
+			final CacheEntry entry = entries.get(ref);
+			final MashSketches sketches = entry.getSketches();
+			// as mash does, compare using the smaller sketch size
+			final int sketchSize = Math.min(queryReader.getSketchSize(), sketches.getSketchSize());
+			final Candidates candidates = getCandidates(entry, queryHashes, sketchSize,
+					queryReader.getKmerSize(), searchParameters, getCutoff(maxDistance));
+			new Scan(sketches, candidates, queryHashes, sketchSize, queryReader.getKmerSize(),
+					maxDistance).run(r.getValue(), ref.getName());
+			for (final MinHashDistanceFilter filter: r.getValue()) {
+				filter.flush();
+			}
+		}
+		return warnings;
+	}
+
+	// the hash seed and alphabet aren't part of the sketch parameters, so they're checked here
+	private static void checkCompatible(final MashSketchReader query, final CacheEntry ref)
+			throws IncompatibleSketchesException {
+		if (query.getHashSeed() != ref.getHashSeed()) {
+			throw new IncompatibleSketchesException(String.format(
+					"Hash seed for sketches are not compatible: %s %s",
+					ref.getHashSeed(), query.getHashSeed()));
+		}
+		if (!query.getAlphabet().equals(ref.getAlphabet())) {
+			throw new IncompatibleSketchesException(String.format(
+					"Alphabet for sketches are not compatible: %s %s",
+					ref.getAlphabet(), query.getAlphabet()));
+		}
+	}
+
+	// the bound for unrounded distances that may be no greater than a rounded maximum distance
+	private static double getCutoff(final double maxDistance) {
+		return maxDistance >= MAX_DISTANCE ?
+				MAX_DISTANCE : MashDistance.getUnroundedBound(maxDistance);
+	}
+
+	/* The sketches in a reference sketch database to compare to the queries. If the queries
+	 * have different candidates, the candidates are the union of the queries' candidates and
+	 * each query has the set of its own candidates.
+	 */
+	private static class Candidates {
+
+		private final int[] ordinals;
+		private final BitSet[] queryCandidates; // null if all queries share the candidates
+
+		private Candidates(final int[] ordinals, final BitSet[] queryCandidates) {
+			this.ordinals = ordinals;
+			this.queryCandidates = queryCandidates;
+		}
+
+		private boolean isCandidate(final int query, final int ordinal) {
+			return queryCandidates == null || queryCandidates[query].get(ordinal);
+		}
+	}
+
+	private Candidates getCandidates(
+			final CacheEntry entry,
+			final long[][] queryHashes,
+			final int sketchSize,
+			final int kmerSize,
+			final MinHashSearchParameters searchParameters,
+			final double cutoff) {
+		final MashSketches sketches = entry.getSketches();
+		final Optional<MashHashIndex> index = entry.getIndex();
+		if (!searchParameters.isApproximate() && !index.isPresent()) {
+			final int[] candidates = new int[sketches.getSketchCount()];
+			for (int i = 0; i < candidates.length; i++) {
+				candidates[i] = i;
+			}
+			return new Candidates(candidates, null);
+		}
+		final MashLSHIndex lsh = searchParameters.isApproximate() ? entry.getLSHIndex() : null;
+		final Banding banding = lsh == null ? null : MashLSHIndex.getBanding(
+				MashDistance.jaccard(APPROXIMATE_SEARCH_DISTANCE, kmerSize),
+				searchParameters.getApproximateRecall().get(), lsh.getSignatureLength());
+		final int[][] perQuery = new int[queryHashes.length][];
+		for (int q = 0; q < queryHashes.length; q++) {
+			if (lsh != null) {
+				perQuery[q] = lsh.getCandidates(queryHashes[q], queryHashes[q].length, banding);
+			} else {
+				perQuery[q] = getCandidates(
+						index.get(), sketches, queryHashes[q], sketchSize, kmerSize, cutoff);
+			}
+		}
+		if (perQuery.length == 1) {
+			return new Candidates(perQuery[0], null);
+		}
+		// scan the union in sketch order so each reference sketch is read once
+		final BitSet union = new BitSet(sketches.getSketchCount());
+		final BitSet[] queryCandidates = new BitSet[perQuery.length];
+		for (int q = 0; q < perQuery.length; q++) {
+			queryCandidates[q] = new BitSet(sketches.getSketchCount());
+			for (final int i: perQuery[q]) {
+				queryCandidates[q].set(i);
+			}
+			union.or(queryCandidates[q]);
+		}
+		return new Candidates(union.stream().toArray(), queryCandidates);
+	}
+
+	/* Compares the queries to the candidate sketches of one reference sketch database. The
+	 * candidates are split into consecutive ranges and each range is scanned by a task with its
+	 * own buffers and results, so the tasks share nothing but read only data. Each reference
+	 * sketch in a range is read once and compared to every query for which it's a candidate.
+	 * The filters aren't required to be thread safe, so the ranges are scanned in waves and the
+	 * results of each wave are passed to the filters by the calling thread before the next wave
+	 * starts.
+	 */
+	private class Scan {
+
+		private final MashSketches sketches;
+		private final Candidates candidates;
+		private final long[][] queryHashes;
+		private final int sketchSize;
+		private final int kmerSize;
+		private final int rangeSize;
+		private final long maxHash;
+		private final double distanceLimit;
+		private final ScanResult[][] results; // range, then query
+
+		private Scan(
+				final MashSketches sketches,
+				final Candidates candidates,
+				final long[][] queryHashes,
+				final int sketchSize,
+				final int kmerSize,
+				final double distanceLimit) {
+			this.sketches = sketches;
+			this.candidates = candidates;
+			this.queryHashes = queryHashes;
+			this.sketchSize = sketchSize;
+			this.kmerSize = kmerSize;
+			this.distanceLimit = distanceLimit;
+			final int count = candidates.ordinals.length;
+			// each candidate is compared to every query
+			final long comparisons = (long) count * queryHashes.length;
+			final int maxRanges = Math.max(1, pool.getParallelism() * RANGES_PER_THREAD);
+			final int ranges = (int) Math.max(1, Math.min(maxRanges, comparisons / minRangeSize));
+			this.rangeSize = Math.max(1, (count + ranges - 1) / ranges);
+			/* Once a query has sketchSize hashes the union sketch is full by the query's
+			 * sketchSize'th hash at the latest, so no comparison reads any reference hash
+			 * greater than the largest such hash and those hashes needn't be decoded.
+			 */
+			long maxHash = 0;
+			for (final long[] q: queryHashes) {
+				final long h = q.length < sketchSize ? -1 : q[sketchSize - 1]; // -1 is the max
+				if (Long.compareUnsigned(h, maxHash) > 0) {
+					maxHash = h;
+				}
+			}
+			this.maxHash = maxHash;
+			this.results = new ScanResult[ranges][];
+		}
+
+		private void run(final List<MinHashDistanceFilter> filters, final MinHashSketchDBName dbname)
+				throws MinHashDistanceFilterException {
+			final int wave = pool.getParallelism();
+			for (int first = 0; first < results.length; first += wave) {
+				final int last = Math.min(results.length, first + wave);
+				final double[] maxDistance = new double[queryHashes.length];
+				for (int q = 0; q < maxDistance.length; q++) {
+					maxDistance[q] = getMaxDistance(filters.get(q));
+				}
+				if (last - first == 1) {
+					// not worth handing off to the pool
+					results[first] = scanRange(first, maxDistance);
+				} else {
+					pool.invoke(new RangeTask(first, last, maxDistance));
+				}
+				for (int r = first; r < last; r++) {
+					for (int q = 0; q < queryHashes.length; q++) {
+						accept(filters.get(q), dbname, results[r][q]);
+					}
+					results[r] = null; // GC
+				}
+			}
+		}
+
+		private void accept(
+				final MinHashDistanceFilter filter,
+				final MinHashSketchDBName dbname,
+				final ScanResult res)
+				throws MinHashDistanceFilterException {
+			if (res == null) {
+				return; // no distances within the cutoff
+			}
+			for (int i = 0; i < res.size; i++) {
+				final double dist = MashDistance.round(res.distances[i]);
+				// the bound may have tightened since the range was scanned
+				final Optional<Double> bound = filter.getDistanceBound();
+				if (dist <= distanceLimit && (!bound.isPresent() || dist <= bound.get())) {
+					filter.accept(new MinHashDistance(
+							dbname, sketches.getSketchID(res.ordinals[i]), dist));
+				}
+			}
+		}
+
+		private double getMaxDistance(final MinHashDistanceFilter filter) {
+			final Optional<Double> bound = filter.getDistanceBound();
+			return getCutoff(bound.isPresent() ?
+					Math.min(bound.get(), distanceLimit) : distanceLimit);
+		}
+
+		private ScanResult[] scanRange(final int range, final double[] maxDistance) {
+			final int start = range * rangeSize;
+			final int end = Math.min(candidates.ordinals.length, start + rangeSize);
+			final ScanResult[] res = new ScanResult[queryHashes.length];
+			// reused for every sketch to avoid allocating per comparison
+			long[] refHashes = new long[sketches.getSketchSize()];
+			for (int c = start; c < end; c++) {
+				final int i = candidates.ordinals[c];
+				if (sketches.getHashCount(i) > refHashes.length) {
+					refHashes = new long[sketches.getHashCount(i)];
+				}
+				final int refCount = sketches.getHashes(i, refHashes, maxHash);
+				for (int q = 0; q < queryHashes.length; q++) {
+					if (!candidates.isCandidate(q, i)) {
+						continue;
+					}
+					final double dist = MashDistance.distance(refHashes, refCount,
+							queryHashes[q], queryHashes[q].length, sketchSize, kmerSize,
+							maxDistance[q]);
+					if (dist <= MAX_DISTANCE && dist <= maxDistance[q]) {
+						if (res[q] == null) {
+							res[q] = new ScanResult(end - start);
+						}
+						res[q].add(i, dist);
+					}
+				}
+			}
+			return res;
+		}
+
+		// splits the ranges in half until one is left
+		@SuppressWarnings("serial")
+		private class RangeTask extends RecursiveAction {
+
+			private final int first;
+			private final int last;
+			private final double[] maxDistance;
+
+			private RangeTask(final int first, final int last, final double[] maxDistance) {
+				this.first = first;
+				this.last = last;
+				this.maxDistance = maxDistance;
+			}
+
+			@Override
+			protected void compute() {
+				if (last - first == 1) {
+					results[first] = scanRange(first, maxDistance);
+				} else {
+					final int mid = (first + last) >>> 1;
+					invokeAll(new RangeTask(first, mid, maxDistance),
+							new RangeTask(mid, last, maxDistance));
+				}
+			}
+		}
+	}
+
+	// the sketch ordinals and unrounded distances found by scanning a range
+	private static class ScanResult {
+
+		private int[] ordinals;
+		private double[] distances;
+		private int size = 0;
+
+		private ScanResult(final int capacity) {
+			// most comparisons in a large database are over the maximum distance
+			final int cap = Math.min(capacity, 16);
+			ordinals = new int[cap];
+			distances = new double[cap];
+		}
+
+		private void add(final int ordinal, final double distance) {
+			if (size == ordinals.length) {
+				final int cap = Math.max(16, size * 2);
+				ordinals = Arrays.copyOf(ordinals, cap);
+				distances = Arrays.copyOf(distances, cap);
+			}
+			ordinals[size] = ordinal;
+			distances[size] = distance;
+			size++;
+		}
+	}
+
+	/* Uses the index to find the sketches that could be within the maximum distance of the
+	 * query, in ascending order of their lower distance bound. Sketches that share no hashes
+	 * with the query are at distance 1 and are never candidates.
+	 */
+	private int[] getCandidates(
+			final MashHashIndex index,
+			final MashSketches sketches,
+			final long[] queryHashes,
+			final int sketchSize,
+			final int kmerSize,
+			final double cutoff) {
+		final int[] shared = index.countSharedHashes(queryHashes, queryHashes.length);
+		final List<Candidate> candidates = new ArrayList<>();
+		for (int i = 0; i < shared.length; i++) {
+			if (shared[i] > 0) {
+				final double bound = MashDistance.lowerBound(shared[i], sketches.getHashCount(i),
+						queryHashes.length, sketchSize, kmerSize);
+				if (bound <= cutoff) {
+					candidates.add(new Candidate(i, bound));
+				}
+			}
+		}
+		Collections.sort(candidates);
+		final int[] ret = new int[candidates.size()];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = candidates.get(i).ordinal;
+		}
+		return ret;
+	}
+
+	private static class Candidate implements Comparable<Candidate> {
+
+		private final int ordinal;
+		private final double bound;
+
+		private Candidate(final int ordinal, final double bound) {
+			this.ordinal = ordinal;
+			this.bound = bound;
+		}
+
+		@Override
+		public int compareTo(final Candidate other) {
+			final int c = Double.compare(bound, other.bound);
+			return c != 0 ? c : Integer.compare(ordinal, other.ordinal);
+		}
+	}
+
+	private CacheEntry getCacheEntry(final Path path) throws MinHashException {
+		try {
+			return cache.getEntry(path);
+		} catch (NotASketchException e) {
+			throw couldNotRead(e);
+		} catch (IOException e) {
+			throw new MinHashException(String.format("Error reading sketch %s: %s",
+					path, e.getMessage()), e);
+		}
+	}
+
+	private NotASketchException couldNotRead(final NotASketchException e) {
+		return new NotASketchException(
+				Mash.getImplementationName().getName() + " could not read sketch",
+				e.getMessage());
+	}
+
+}
@@ -0,0 +1,101 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import com.google.common.base.Optional;
+
+import us.kbase.assemblyhomology.minhash.MinHashDBLocation;
+import us.kbase.assemblyhomology.minhash.MinHashImplementation;
+import us.kbase.assemblyhomology.minhash.MinHashImplementationFactory;
+import us.kbase.assemblyhomology.minhash.MinHashImplementationName;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage;
+
+/** A factory for a {@link InProcessMash} implementation of {@link MinHashImplementation}.
+ * The factory owns the cache of reference sketch databases, so the same factory instance should
+ * be used for the lifetime of the application.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class InProcessMashFactory implements MinHashImplementationFactory {
+
+	private final MashSketchCache cache;
+	private final ForkJoinPool pool;
+
+	/** Create a factory whose implementations compare sketches using all the available
+	 * processors.
+	 */
+	public InProcessMashFactory() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/** Create a factory.
+	 * @param parallelism the maximum number of threads that the implementations from this
+	 * factory, taken together, use to compare sketches.
+	 */
+	public InProcessMashFactory(final int parallelism) {
+		this(parallelism, false);
+	}
+
+	/** Create a factory.
+	 * @param parallelism the maximum number of threads that the implementations from this
+	 * factory, taken together, use to compare sketches.
+	 * @param compressSketches true to hold reference sketches in the heap in compressed form.
+	 * See {@link CompressedMashSketches}.
+	 */
+	public InProcessMashFactory(final int parallelism, final boolean compressSketches) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be > 0");
+		}
+		pool = new ForkJoinPool(parallelism);
+		cache = new MashSketchCache(compressSketches);
+	}
+
+	/** Get an implementation. The implementation neither uses temporary files nor starts
+	 * processes, and so the arguments are ignored.
+	 */
+	@Override
+	public MinHashImplementation getImplementation(
+			final Path tempFileDirectory,
+			final int minhashTimeout) {
+		return new InProcessMash(cache, pool);
+	}
+
+	/** Get the memory used by a reference sketch database, if it has been loaded into the
+	 * cache by a search.
+	 */
+	@Override
+	public Optional<MinHashMemoryUsage> getMemoryUsage(final MinHashDBLocation location) {
+		checkNotNull(location, "location");
+		final Optional<Path> path = location.getPathToFile();
+		return path.isPresent() ? cache.getMemoryUsage(path.get()) : Optional.absent();
+	}
+
+	@Override
+	public MinHashImplementationName getImplementationName() {
+		return Mash.getImplementationName();
+	}
+
+	@Override
+	public Optional<Path> getExpectedFileExtension() {
+		return Optional.of(Mash.getExpectedFileExtension());
+	}
+
+	/** Get the cache of reference sketch databases used by the implementations from this
+	 * factory.
+	 * @return the cache.
+	 */
+	public MashSketchCache getCache() {
+		return cache;
+	}
+
+	/** Get the maximum number of threads used to compare sketches.
+	 * @return the parallelism.
+	 */
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+}
@@ -2,25 +2,38 @@ package us.kbase.assemblyhomology.minhash.mash;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import org.apache.commons.io.IOUtils;
 
+import com.google.common.base.Optional;
+
 import us.kbase.assemblyhomology.core.exceptions.IllegalParameterException;
 import us.kbase.assemblyhomology.core.exceptions.MissingParameterException;
 import us.kbase.assemblyhomology.minhash.MinHashDBLocation;
@@ -29,7 +42,7 @@ import us.kbase.assemblyhomology.minhash.MinHashDistanceFilter;
 import us.kbase.assemblyhomology.minhash.MinHashImplementationInformation;
 import us.kbase.assemblyhomology.minhash.MinHashImplementationName;
 import us.kbase.assemblyhomology.minhash.MinHashImplementation;
-import us.kbase.assemblyhomology.minhash.MinHashParameters;
+import us.kbase.assemblyhomology.minhash.MinHashSearchParameters;
 import us.kbase.assemblyhomology.minhash.MinHashSketchDBName;
 import us.kbase.assemblyhomology.minhash.MinHashSketchDatabase;
 import us.kbase.assemblyhomology.minhash.exceptions.IncompatibleSketchesException;
@@ -40,6 +53,28 @@ import us.kbase.assemblyhomology.minhash.exceptions.NotASketchException;
 
 /** A wrapper for the mash implementation of the MinHash algorithm. Expects the mash binary
  * to be available on the command line.
+ * 
+ * If the wrapper is provided with an executor, mash is run for each reference sketch database
+ * in a search concurrently on the executor, and the results for each database are passed to
+ * its filters, which are then flushed, on the thread that ran mash for the database. As such a
+ * filter is only called from one thread at a time, but different filters, and the collectors
+ * they feed, may be called concurrently.
+ * 
+ * Mash is killed, along with any processes it started if running on Java 17+, if it runs past
+ * the timeout or if the thread running it is interrupted, for example because the search was
+ * cancelled. When mash is run on an executor, interrupting the thread that started the search
+ * cancels the search.
+ * 
+ * When running on an executor, each mash process is given threads with mash's -p option from a
+ * {@link MashThreadBudget} shared with the other searches in flight.
+ * 
+ * If the wrapper is also provided with a {@link MashBatcher}, searches of the same reference
+ * sketch database that arrive within the batcher's window are served by one mash run. The
+ * searches' query sketch databases are combined with mash paste into a temporary file, and mash's
+ * output is routed to each search's filters by the query ID. Searches with the same query IDs
+ * can't share a run. If the query sketch databases can't be combined, each search runs mash
+ * itself. Other than the combined query sketch databases, the wrapper stores no files in the
+ * temporary file directory, as mash's output is parsed as mash writes it.
  * @author gaprice@lbl.gov
  *
  */
@@ -56,6 +91,42 @@ public class Mash implements MinHashImplementation {
 		}
 	}
 	private final static Path MASH_FILE_EXT = Paths.get("msh");
+	private final static double MAX_DISTANCE = 0.5;
+	/* Mash dist writes the reference ID, the query ID, and then the distance. The collectors read
+	 * the distance first, and only decode the reference ID for distances that will be kept.
+	 */
+	private final static int REF_ID_FIELD = 0;
+	private final static int QUERY_ID_FIELD = 1;
+	private final static int DISTANCE_FIELD = 2;
+	
+	// daemon threads, so a hung mash process never keeps the JVM alive
+	private final static ExecutorService STDERR_READERS = Executors.newCachedThreadPool(
+			r -> daemon(r));
+	private final static ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(
+			1, r -> daemon(r));
+	static {
+		// completed mash runs cancel their watchdog checks, which would otherwise stay queued
+		WATCHDOG.setRemoveOnCancelPolicy(true);
+	}
+	// how often to check whether mash has run past the timeout or the search was cancelled
+	private final static long WATCHDOG_INTERVAL_MS = 100;
+	private final static long REAP_WAIT_SEC = 5;
+	
+	// the mash processes running in this JVM
+	private final static Set<Process> RUNNING = ConcurrentHashMap.newKeySet();
+	
+	/** Get the number of mash processes currently running in this JVM.
+	 * @return the number of processes.
+	 */
+	public static int getRunningProcessCount() {
+		return RUNNING.size();
+	}
+	
+	private static Thread daemon(final Runnable r) {
+		final Thread t = Executors.defaultThreadFactory().newThread(r);
+		t.setDaemon(true);
+		return t;
+	}
 	
 	/** Get the name of this implementation - in this case mash.
 	 * @return the implementation name.
@@ -74,20 +145,82 @@ public class Mash implements MinHashImplementation {
 	private final MinHashImplementationInformation info;
 	private final Path tempFileDirectory;
 	private final int mashTimeoutSec;
+	private final Optional<ExecutorService> executor;
+	private final Optional<MashThreadBudget> threadBudget;
+	private final Optional<MashBatcher> batcher;
 	
-	/** Create a new mash wrapper.
+	/** Create a new mash wrapper that runs mash for each reference sketch database in turn.
 	 * @param tempFileDirectory a directory in which temporary files may be stored.
 	 * @param mashTimeoutSec the timeout for the mash process in seconds.
 	 * @throws MinHashInitException if the wrapper could not be initialized.
 	 */
 	public Mash(final Path tempFileDirectory, final int mashTimeoutSec)
 			throws MinHashInitException {
+		this(tempFileDirectory, mashTimeoutSec, Optional.absent(), Optional.absent(),
+				Optional.absent());
+	}
+	
+	/** Create a new mash wrapper that runs mash for the reference sketch databases in a search
+	 * concurrently.
+	 * @param tempFileDirectory a directory in which temporary files may be stored.
+	 * @param mashTimeoutSec the timeout for the mash process in seconds.
+	 * @param executor the executor on which to run mash. The executor is expected to be shared
+	 * between wrappers and bounds the number of concurrent mash processes.
+	 * @param threadBudget the budget from which mash processes are given threads. The budget is
+	 * expected to be shared between wrappers.
+	 * @throws MinHashInitException if the wrapper could not be initialized.
+	 */
+	public Mash(
+			final Path tempFileDirectory,
+			final int mashTimeoutSec,
+			final ExecutorService executor,
+			final MashThreadBudget threadBudget)
+			throws MinHashInitException {
+		this(tempFileDirectory, mashTimeoutSec, Optional.of(checkNotNull(executor, "executor")),
+				Optional.of(checkNotNull(threadBudget, "threadBudget")), Optional.absent());
+	}
+	
+	/** Create a new mash wrapper that runs mash for the reference sketch databases in a search
+	 * concurrently, and that combines searches of the same reference sketch database into one
+	 * mash run.
+	 * @param tempFileDirectory a directory in which temporary files may be stored.
+	 * @param mashTimeoutSec the timeout for the mash process in seconds.
+	 * @param executor the executor on which to run mash. The executor is expected to be shared
+	 * between wrappers and bounds the number of concurrent mash processes.
+	 * @param threadBudget the budget from which mash processes are given threads. The budget is
+	 * expected to be shared between wrappers.
+	 * @param batcher the batcher that gathers searches into batches. The batcher is expected to
+	 * be shared between wrappers.
+	 * @throws MinHashInitException if the wrapper could not be initialized.
+	 */
+	public Mash(
+			final Path tempFileDirectory,
+			final int mashTimeoutSec,
+			final ExecutorService executor,
+			final MashThreadBudget threadBudget,
+			final MashBatcher batcher)
+			throws MinHashInitException {
+		this(tempFileDirectory, mashTimeoutSec, Optional.of(checkNotNull(executor, "executor")),
+				Optional.of(checkNotNull(threadBudget, "threadBudget")),
+				Optional.of(checkNotNull(batcher, "batcher")));
+	}
+	
+	private Mash(
+			final Path tempFileDirectory,
+			final int mashTimeoutSec,
+			final Optional<ExecutorService> executor,
+			final Optional<MashThreadBudget> threadBudget,
+			final Optional<MashBatcher> batcher)
+			throws MinHashInitException {
 		checkNotNull(tempFileDirectory, "tempFileDirectory");
 		if (mashTimeoutSec < 1) {
 			throw new IllegalArgumentException("mashTimeout must be > 0");
 		}
 		this.mashTimeoutSec = mashTimeoutSec;
 		this.tempFileDirectory = tempFileDirectory;
+		this.executor = executor;
+		this.threadBudget = threadBudget;
+		this.batcher = batcher;
 		try {
 			Files.createDirectories(tempFileDirectory);
 		} catch (IOException e) {
@@ -111,6 +244,29 @@ public class Mash implements MinHashImplementation {
 		return mashTimeoutSec;
 	}
 	
+	/** Check whether mash is run concurrently for the reference sketch databases in a search.
+	 * @return true if mash runs on an executor.
+	 */
+	public boolean isConcurrent() {
+		return executor.isPresent();
+	}
+	
+	/** Get the budget from which mash processes are given threads, if mash runs on an executor.
+	 * Otherwise mash uses its default number of threads.
+	 * @return the thread budget.
+	 */
+	public Optional<MashThreadBudget> getThreadBudget() {
+		return threadBudget;
+	}
+	
+	/** Get the batcher that combines searches of the same reference sketch database into one
+	 * mash run, if any.
+	 * @return the batcher.
+	 */
+	public Optional<MashBatcher> getBatcher() {
+		return batcher;
+	}
+	
 	private MinHashImplementationInformation getInfo() throws MinHashInitException {
 		try {
 			final String version = getVersion(getMashOutput("-h"));
@@ -123,46 +279,14 @@ public class Mash implements MinHashImplementation {
 	}
 	
 	// only use when expecting a small amount of output, otherwise will put entire output in mem
-	// or more likely deadlock
 	private String getMashOutput(final String... arguments) throws MinHashException {
-		return getMashOutput(null, arguments);
-	}
-
-	// returns null if outputPath is not null
-	private String getMashOutput(final Path outputPath, final String... arguments)
-			throws MinHashException {
-		final List<String> command = new LinkedList<>(Arrays.asList(MASH.getName()));
-		command.addAll(Arrays.asList(arguments));
+		final StringBuilder output = new StringBuilder();
 		try {
-			final ProcessBuilder pb = new ProcessBuilder(command);
-			if (outputPath != null) {
-				// it's far less complicated if we just redirect to a file rather than have
-				// threads consuming output and error so they don't deadlock
-				pb.redirectOutput(outputPath.toFile());
-			}
-			final Process mash = pb.start();
-			if (!mash.waitFor(mashTimeoutSec, TimeUnit.SECONDS)) {
-				// not sure how to test this
-				throw new MinHashException(String.format(
-						"Timed out waiting for %s to run", MASH.getName()));
-			}
-			if (mash.exitValue() != 0) {
-				try (final InputStream is = mash.getErrorStream()) {
-					throw handleMashException(IOUtils.toString(is));
-				}
-			}
-			if (outputPath != null) {
-				return null;
-			} else {
-				try (final InputStream is = mash.getInputStream()) {
-					return IOUtils.toString(is);
-				}
-			}
-		} catch (IOException | InterruptedException e) {
-			// this is also very difficult to test
-			throw new MinHashException(String.format(
-					"Error running %s: ", MASH.getName()) + e.getMessage(), e);
+			processMashOutput(line -> output.append(line.toString()).append("\n"), arguments);
+		} catch (MinHashDistanceFilterException e) {
+			throw new RuntimeException("Well this is unexpected", e);
 		}
+		return output.toString();
 	}
 
 	private MinHashException handleMashException(String exceptionText)
@@ -200,12 +324,28 @@ public class Mash implements MinHashImplementation {
 		checkNotNull(dbname, "dbname");
 		checkNotNull(location, "location");
 		checkFileExtension(location);
-		final ParamsAndSize pns = getParametersAndSize(location.getPathToFile().get());
-		return new MinHashSketchDatabase(
-				dbname, info.getImplementationName(), pns.params, location, pns.size);
+		final MashSketchReader reader = openSketch(location);
+		return new MinHashSketchDatabase(dbname, info.getImplementationName(),
+				reader.getParameters(), location, reader.getSketchCount());
+	}
+	
+	// reads the sketch in process rather than running mash info, which saves a process
+	// launch per query and avoids writing sketch IDs to a temp file.
+	// shared with the in process implementation.
+	static MashSketchReader openSketch(final MinHashDBLocation location)
+			throws MinHashException {
+		try {
+			return MashSketchReader.open(location.getPathToFile().get());
+		} catch (NotASketchException e) {
+			throw new NotASketchException(
+					MASH.getName() + " could not read sketch", e.getMessage());
+		} catch (IOException e) {
+			throw new MinHashException(String.format("Error reading sketch %s: %s",
+					location.getPathToFile().get(), e.getMessage()), e);
+		}
 	}
 
-	private void checkFileExtension(final MinHashDBLocation location) throws NotASketchException {
+	static void checkFileExtension(final MinHashDBLocation location) throws NotASketchException {
 		final String locStr = location.getPathToFile().get().toString();
 		if (!locStr.endsWith("." + MASH_FILE_EXT.toString())) {
 			throw new NotASketchException(locStr + " is not a mash sketch");
@@ -216,76 +356,273 @@ public class Mash implements MinHashImplementation {
 	public List<String> getSketchIDs(final MinHashSketchDatabase db) throws MinHashException {
 		checkNotNull(db, "db");
 		checkFileExtension(db.getLocation());
-		final List<String> ids = new LinkedList<>();
+		final MashSketchReader reader = openSketch(db.getLocation());
 		try {
-			processMashOutput(
-					//TODO CODE make less brittle
-					l -> ids.add(l.split("\\s+")[2].trim()),
-					true,
-					"info", "-t", db.getLocation().getPathToFile().get().toString());
-		} catch (MinHashDistanceFilterException e) {
-			throw new RuntimeException("Congrats, this should be impossible", e);
+			return reader.getSketchIDs();
+		} catch (NotASketchException e) {
+			throw new NotASketchException(
+					MASH.getName() + " could not read sketch", e.getMessage());
 		}
-		return ids;
 	}
 	
-	private interface LineCollector {
-		void collect(String line) throws MinHashDistanceFilterException;
-	}
-	
-	// use for large output, creates a temp file
+	/* Passes mash's output to the collector a line at a time as mash produces it, rather than
+	 * writing the output to a temporary file and reading it back once mash exits. Stderr is
+	 * drained on a separate thread so mash can't block writing to it, and a timer kills mash
+	 * when it runs past the timeout.
+	 */
 	private void processMashOutput(
-			final LineCollector lineCollector,
-			final boolean skipHeader,
-			final String... command)
+			final MashOutputReader.LineCollector lineCollector,
+			final String... arguments)
 			throws MinHashException, MinHashDistanceFilterException {
-		Path tempFile = null;
+		final List<String> command = new LinkedList<>(Arrays.asList(MASH.getName()));
+		command.addAll(Arrays.asList(arguments));
+		final Process mash;
 		try {
-			tempFile = Files.createTempFile(tempFileDirectory, "mash_output", ".tmp");
-			getMashOutput(tempFile, command);
-			try (final InputStream is = Files.newInputStream(tempFile)) {
-				final BufferedReader br = new BufferedReader(new InputStreamReader(
-						is, StandardCharsets.UTF_8));
-				if (skipHeader) {
-					br.readLine();
-				}
-				for (String line = br.readLine(); line != null; line = br.readLine()) {
-					lineCollector.collect(line);
-				}
-			}
-		// all of the below is really hard to test
+			mash = new ProcessBuilder(command).start();
 		} catch (IOException e) {
-			throw new MinHashException(e.getMessage(), e);
+			// this is also very difficult to test
+			throw new MinHashException(String.format(
+					"Error running %s: ", MASH.getName()) + e.getMessage(), e);
+		}
+		RUNNING.add(mash);
+		final Thread caller = Thread.currentThread();
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(mashTimeoutSec);
+		final AtomicBoolean timedOut = new AtomicBoolean(false);
+		final ScheduledFuture<?> watchdog = WATCHDOG.scheduleWithFixedDelay(() -> {
+			if (System.nanoTime() - deadline > 0) {
+				timedOut.set(true);
+				ProcessKiller.destroy(mash);
+			} else if (caller.isInterrupted()) {
+				// the search was cancelled
+				ProcessKiller.destroy(mash);
+			}
+		}, WATCHDOG_INTERVAL_MS, WATCHDOG_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		final Future<String> stderr = STDERR_READERS.submit(() -> {
+			try (final InputStream is = mash.getErrorStream()) {
+				return IOUtils.toString(is, StandardCharsets.UTF_8);
+			}
+		});
+		try {
+			try (final InputStream is = mash.getInputStream()) {
+				new MashOutputReader(is).read(lineCollector);
+			}
+			// stdout is closed, so mash has exited or is about to
+			mash.waitFor();
+			checkStopped(timedOut);
+			if (mash.exitValue() != 0) {
+				throw handleMashException(getStderr(stderr));
+			}
+		} catch (IOException | InterruptedException e) {
+			if (e instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			}
+			checkStopped(timedOut); // killing mash closes the pipe
+			// this is also very difficult to test
+			throw new MinHashException(String.format(
+					"Error running %s: ", MASH.getName()) + e.getMessage(), e);
 		} finally {
-			if (tempFile != null) {
-				try {
-					Files.delete(tempFile);
-				} catch (IOException e) {
-					throw new MinHashException(e.getMessage(), e);
-				}
+			watchdog.cancel(false);
+			// if the collector threw an exception, mash may still be running
+			destroy(mash);
+			RUNNING.remove(mash);
+		}
+	}
+	
+	private void checkStopped(final AtomicBoolean timedOut) throws MinHashException {
+		if (timedOut.get()) {
+			// not sure how to test this
+			throw new MinHashException(String.format(
+					"Timed out waiting for %s to run", MASH.getName()));
+		}
+		if (Thread.currentThread().isInterrupted()) {
+			throw new MinHashException(String.format(
+					"Search cancelled while waiting for %s to run", MASH.getName()));
+		}
+	}
+	
+	/* Kills mash and any processes it started, and waits for mash to exit so it's reaped
+	 * before the search returns. If mash takes longer to exit than the wait, the JVM reaps it
+	 * later.
+	 */
+	private static void destroy(final Process mash) {
+		ProcessKiller.destroy(mash);
+		// the thread may have been interrupted to cancel the search, which would end the wait
+		final boolean interrupted = Thread.interrupted();
+		try {
+			mash.waitFor(REAP_WAIT_SEC, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			// give up waiting
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	private String getStderr(final Future<String> stderr)
+			throws MinHashException, InterruptedException {
+		try {
+			return stderr.get();
+		} catch (ExecutionException e) {
+			throw new MinHashException(String.format("Error reading %s error output: %s",
+					MASH.getName(), e.getCause().getMessage()), e.getCause());
+		}
+	}
+	
+	/* Caches a filter's distance bound so it isn't fetched, and boxed, for every line. The bound
+	 * never increases, so a stale bound only lets through distances the filter's collector will
+	 * discard. It's refreshed when the filter accepts a distance, and every so often otherwise,
+	 * since the collector may be fed by other filters.
+	 */
+	private static class BoundedFilter {
+		
+		private static final int REFRESH_LINES = 1000;
+		
+		private final MinHashDistanceFilter filter;
+		private double bound;
+		private int lines = 0;
+		
+		private BoundedFilter(final MinHashDistanceFilter filter) {
+			this.filter = filter;
+			refresh();
+		}
+		
+		private void refresh() {
+			final Optional<Double> b = filter.getDistanceBound();
+			bound = b.isPresent() ? b.get() : Double.POSITIVE_INFINITY;
+			lines = 0;
+		}
+		
+		private boolean isWithinBound(final double distance) {
+			if (++lines >= REFRESH_LINES) {
+				refresh();
 			}
+			return distance <= bound;
+		}
+		
+		private void accept(final MinHashDistance distance) throws MinHashDistanceFilterException {
+			filter.accept(distance);
+			refresh();
 		}
 	}
 	
-	private static class DistanceCollector implements LineCollector {
+	private static class DistanceCollector implements MashOutputReader.LineCollector {
 		
-		private final MinHashDistanceFilter distFilter;
+		private final BoundedFilter distFilter;
 		private final MinHashSketchDBName dbname;
+		private final double maxDistance;
 		
 		public DistanceCollector(
 				final MinHashDistanceFilter distFilter,
+				final MinHashSketchDBName dbname,
+				final double maxDistance) {
+			this.distFilter = new BoundedFilter(distFilter);
+			this.dbname = dbname;
+			this.maxDistance = maxDistance;
+		}
+
+		@Override
+		public void collect(final MashOutputReader.Line line)
+				throws MinHashDistanceFilterException {
+			final double distance = line.getDouble(DISTANCE_FIELD);
+			if (distance <= maxDistance && distFilter.isWithinBound(distance)) {
+				distFilter.accept(new MinHashDistance(
+						dbname, line.getField(REF_ID_FIELD), distance));
+			}
+		}
+	}
+	
+	// Routes lines to the filter for the query sequence in the line.
+	private static class MultipleQueryDistanceCollector
+			implements MashOutputReader.LineCollector {
+		
+		private final MashOutputReader.FieldIndex<BoundedFilter> queryToFilter;
+		private final MinHashSketchDBName dbname;
+		private final double maxDistance;
+		
+		public MultipleQueryDistanceCollector(
+				final Map<String, MinHashDistanceFilter> queryToFilter,
+				final MinHashSketchDBName dbname,
+				final double maxDistance) {
+			this.queryToFilter = new MashOutputReader.FieldIndex<>(queryToFilter.entrySet()
+					.stream().collect(Collectors.toMap(
+							e -> e.getKey(), e -> new BoundedFilter(e.getValue()))));
+			this.dbname = dbname;
+			this.maxDistance = maxDistance;
+		}
+
+		@Override
+		public void collect(final MashOutputReader.Line line)
+				throws MinHashDistanceFilterException {
+			final BoundedFilter distFilter = queryToFilter.get(line, QUERY_ID_FIELD);
+			if (distFilter == null) {
+				// should be impossible
+				throw new IllegalStateException("Unexpected query ID in mash output: " +
+						line.getField(QUERY_ID_FIELD));
+			}
+			final double distance = line.getDouble(DISTANCE_FIELD);
+			if (distance <= maxDistance && distFilter.isWithinBound(distance)) {
+				distFilter.accept(new MinHashDistance(
+						dbname, line.getField(REF_ID_FIELD), distance));
+			}
+		}
+	}
+	
+	/* Routes lines to the search and filter for the query sequence in the line. If a search's
+	 * filter fails, the search is failed and gets no more distances, but the other searches in
+	 * the batch carry on.
+	 */
+	private static class BatchDistanceCollector implements MashOutputReader.LineCollector {
+		
+		private static class Target {
+			
+			private final MashBatcher.Member member;
+			private final BoundedFilter filter;
+			
+			private Target(final MashBatcher.Member member, final MinHashDistanceFilter filter) {
+				this.member = member;
+				this.filter = new BoundedFilter(filter);
+			}
+		}
+		
+		private final MashOutputReader.FieldIndex<Target> queryToTarget;
+		private final MinHashSketchDBName dbname;
+		
+		public BatchDistanceCollector(
+				final List<MashBatcher.Member> members,
 				final MinHashSketchDBName dbname) {
-			this.distFilter = distFilter;
+			final Map<String, Target> targets = new HashMap<>();
+			for (final MashBatcher.Member m: members) {
+				for (final Entry<String, MinHashDistanceFilter> e:
+						m.getQueryToFilter().entrySet()) {
+					targets.put(e.getKey(), new Target(m, e.getValue()));
+				}
+			}
+			this.queryToTarget = new MashOutputReader.FieldIndex<>(targets);
 			this.dbname = dbname;
 		}
 
 		@Override
-		public void collect(final String line) throws MinHashDistanceFilterException {
-			//TODO CODE nasty & brittle
-			final String[] sl = line.trim().split("\\s+");
-			final String id = sl[0].trim();
-			final double distance = Double.parseDouble(sl[2].trim());
-			distFilter.accept(new MinHashDistance(dbname, id, distance));
+		public void collect(final MashOutputReader.Line line) {
+			final Target target = queryToTarget.get(line, QUERY_ID_FIELD);
+			if (target == null) {
+				// should be impossible
+				throw new IllegalStateException("Unexpected query ID in mash output: " +
+						line.getField(QUERY_ID_FIELD));
+			}
+			if (target.member.isDone()) {
+				return;
+			}
+			final double distance = line.getDouble(DISTANCE_FIELD);
+			if (distance <= target.member.getMaxDistance() &&
+					target.filter.isWithinBound(distance)) {
+				try {
+					target.filter.accept(new MinHashDistance(
+							dbname, line.getField(REF_ID_FIELD), distance));
+				} catch (MinHashDistanceFilterException | RuntimeException e) {
+					target.member.fail(e);
+				}
+			}
 		}
 	}
 	
@@ -296,26 +633,341 @@ public class Mash implements MinHashImplementation {
 			final boolean strict)
 			throws MinHashException, NotASketchException, IncompatibleSketchesException,
 				MinHashDistanceFilterException {
+		return computeDistance(query, references, strict,
+				MinHashSearchParameters.getBuilder().build());
+	}
+	
+	/** {@inheritDoc}
+	 * 
+	 * Mash does not support approximate searches. If a maximum distance is provided, mash is
+	 * run with the maximum distance as its cutoff.
+	 */
+	@Override
+	public List<String> computeDistance(
+			final MinHashSketchDatabase query,
+			final Map<MinHashSketchDatabase, MinHashDistanceFilter> references,
+			final boolean strict,
+			final MinHashSearchParameters searchParameters)
+			throws MinHashException, NotASketchException, IncompatibleSketchesException,
+				MinHashDistanceFilterException {
 		checkNotNull(query, "query");
+		checkNotNull(searchParameters, "searchParameters");
 		checkNoNulls(references);
 		if (query.getSequenceCount() != 1) {
 			// may want to relax this, but that'll require changing a bunch of stuff
 			throw new IllegalArgumentException("Only 1 query sequence is allowed");
 		}
 		final List<String> warnings = checkQueryable(query, references.keySet(), strict);
+		final double maxDist = getMaxDistance(searchParameters);
+		// the query ID is only needed to tell searches apart in a batch
+		final Optional<String> queryID = batcher.isPresent() ?
+				Optional.of(getSketchIDs(query).get(0)) : Optional.absent();
+		final List<MashRun> runs = new LinkedList<>();
 		for (final Entry<MinHashSketchDatabase, MinHashDistanceFilter> r: references.entrySet()) {
 			final MinHashSketchDatabase ref = r.getKey();
-			final DistanceCollector distanceProcessor = new DistanceCollector(
-					r.getValue(), ref.getName());
-			processMashOutput(distanceProcessor, false, "dist", "-d", "0.5",
-						ref.getLocation().getPathToFile().get().toString(),
-						query.getLocation().getPathToFile().get().toString());
-			r.getValue().flush();
+			final MinHashDistanceFilter filter = r.getValue();
+			runs.add(reservation -> {
+				final double cutoff = getCutoff(Arrays.asList(filter), maxDist);
+				if (!queryID.isPresent() || !runBatched(reservation, ref, query,
+						Collections.singletonMap(queryID.get(), filter), maxDist, cutoff)) {
+					dist(reservation, new DistanceCollector(filter, ref.getName(), maxDist),
+							cutoff, ref, query);
+				}
+				filter.flush();
+			});
+		}
+		runAll(runs);
+		return warnings;
+	}
+
+	@Override
+	public boolean isMultipleQuerySearchSupported() {
+		return true;
+	}
+	
+	/** {@inheritDoc}
+	 * 
+	 * Mash is run once per reference database with all the query sequences. The query sequence
+	 * IDs must be unique. Approximate searches and maximum distances are handled as for
+	 * {@link #computeDistance(MinHashSketchDatabase, Map, boolean, MinHashSearchParameters)}.
+	 */
+	@Override
+	public List<String> computeDistances(
+			final MinHashSketchDatabase query,
+			final Map<MinHashSketchDatabase, List<MinHashDistanceFilter>> references,
+			final boolean strict,
+			final MinHashSearchParameters searchParameters)
+			throws MinHashException, NotASketchException, IncompatibleSketchesException,
+				MinHashDistanceFilterException {
+		checkNotNull(query, "query");
+		checkNotNull(searchParameters, "searchParameters");
+		checkFilters(references, query.getSequenceCount());
+		final List<String> warnings = checkQueryable(query, references.keySet(), strict);
+		final List<String> queryIDs = getSketchIDs(query);
+		if (new HashSet<>(queryIDs).size() != queryIDs.size()) {
+			throw new IllegalArgumentException("Query sequence IDs must be unique");
+		}
+		final double maxDist = getMaxDistance(searchParameters);
+		final List<MashRun> runs = new LinkedList<>();
+		for (final Entry<MinHashSketchDatabase, List<MinHashDistanceFilter>> r:
+				references.entrySet()) {
+			final MinHashSketchDatabase ref = r.getKey();
+			final Map<String, MinHashDistanceFilter> queryToFilter = new HashMap<>();
+			for (int i = 0; i < queryIDs.size(); i++) {
+				queryToFilter.put(queryIDs.get(i), r.getValue().get(i));
+			}
+			runs.add(reservation -> {
+				final double cutoff = getCutoff(r.getValue(), maxDist);
+				if (!runBatched(reservation, ref, query, queryToFilter, maxDist, cutoff)) {
+					dist(reservation, new MultipleQueryDistanceCollector(
+							queryToFilter, ref.getName(), maxDist), cutoff, ref, query);
+				}
+				for (final MinHashDistanceFilter f: r.getValue()) {
+					f.flush();
+				}
+			});
 		}
+		runAll(runs);
 		return warnings;
 	}
+	
+	/* Runs mash dist, with threads from the reservation if present. Otherwise mash uses its
+	 * default number of threads.
+	 */
+	private void dist(
+			final Optional<MashThreadBudget.Reservation> reservation,
+			final MashOutputReader.LineCollector collector,
+			final double cutoff,
+			final MinHashSketchDatabase reference,
+			final MinHashSketchDatabase query)
+			throws MinHashException, MinHashDistanceFilterException {
+		dist(reservation, collector, cutoff, reference.getLocation().getPathToFile().get(),
+				query.getLocation().getPathToFile().get());
+	}
+	
+	private void dist(
+			final Optional<MashThreadBudget.Reservation> reservation,
+			final MashOutputReader.LineCollector collector,
+			final double cutoff,
+			final Path reference,
+			final Path query)
+			throws MinHashException, MinHashDistanceFilterException {
+		final int threads = reservation.isPresent() ? reservation.get().acquire() : 0;
+		try {
+			processMashOutput(collector, getDistArguments(threads, cutoff, reference, query));
+		} finally {
+			if (reservation.isPresent()) {
+				reservation.get().release(threads);
+			}
+		}
+	}
+	
+	// threads < 1 leaves mash to use its default number of threads
+	private String[] getDistArguments(
+			final int threads,
+			final double cutoff,
+			final Path reference,
+			final Path query) {
+		final List<String> args = new LinkedList<>(
+				Arrays.asList("dist", "-d", Double.toString(cutoff)));
+		if (threads > 0) {
+			args.addAll(Arrays.asList("-p", Integer.toString(threads)));
+		}
+		args.add(reference.toString());
+		args.add(query.toString());
+		return args.toArray(new String[args.size()]);
+	}
+	
+	/* Adds the search to a batch and waits for the batch to run. Returns false if there's no
+	 * batcher or if the search must run mash itself.
+	 */
+	private boolean runBatched(
+			final Optional<MashThreadBudget.Reservation> reservation,
+			final MinHashSketchDatabase reference,
+			final MinHashSketchDatabase query,
+			final Map<String, MinHashDistanceFilter> queryToFilter,
+			final double maxDistance,
+			final double cutoff)
+			throws MinHashException, MinHashDistanceFilterException {
+		if (!batcher.isPresent()) {
+			return false;
+		}
+		final MashBatcher.Member member = new MashBatcher.Member(
+				query.getLocation().getPathToFile().get(), queryToFilter, maxDistance, cutoff);
+		if (reservation.isPresent()) {
+			// the batch takes its own threads from the budget
+			reservation.get().skip();
+		}
+		// mash paste requires the query sketches to have the same parameters
+		batcher.get().join(Arrays.asList(reference.getLocation().getPathToFile().get(),
+				query.getParameterSet()), member, members -> runBatch(reference, members));
+		return member.await();
+	}
+	
+	/* Runs mash once for a batch of searches of a reference sketch database, with the searches'
+	 * query sketch databases pasted into one.
+	 */
+	private void runBatch(
+			final MinHashSketchDatabase reference,
+			final List<MashBatcher.Member> members) {
+		if (members.size() == 1) {
+			// nothing to share
+			members.get(0).runAlone();
+			return;
+		}
+		final Path batchQuery = tempFileDirectory.resolve(
+				"batch_query_" + UUID.randomUUID() + "." + MASH_FILE_EXT);
+		final List<String> pasteArgs = new LinkedList<>(
+				Arrays.asList("paste", batchQuery.toString()));
+		double cutoff = 0;
+		for (final MashBatcher.Member m: members) {
+			pasteArgs.add(m.getQuery().toString());
+			cutoff = Math.max(cutoff, m.getCutoff());
+		}
+		// remove the temporary file before the searches return
+		Throwable failure = null;
+		try {
+			try {
+				processMashOutput(line -> {}, pasteArgs.toArray(new String[pasteArgs.size()]));
+			} catch (MinHashException e) {
+				// e.g. the query sketches are incompatible in a way the key doesn't capture
+				members.forEach(m -> m.runAlone());
+				return;
+			}
+			try (final MashThreadBudget.Reservation reservation =
+					threadBudget.get().reserve(1)) {
+				dist(Optional.of(reservation),
+						new BatchDistanceCollector(members, reference.getName()), cutoff,
+						reference.getLocation().getPathToFile().get(), batchQuery);
+			}
+		} catch (MinHashException | MinHashDistanceFilterException | RuntimeException e) {
+			failure = e;
+		} finally {
+			try {
+				Files.deleteIfExists(batchQuery);
+			} catch (IOException e) {
+				// nothing to be done, and the file is small
+			}
+		}
+		for (final MashBatcher.Member m: members) {
+			if (failure == null) {
+				// members whose filters failed are already complete
+				m.complete();
+			} else {
+				m.fail(failure);
+			}
+		}
+	}
+	
+	// runs mash against, and flushes the filters for, a single reference sketch database
+	private interface MashRun {
+		void run(Optional<MashThreadBudget.Reservation> reservation)
+				throws MinHashException, MinHashDistanceFilterException;
+	}
+	
+	private void runAll(final List<MashRun> runs)
+			throws MinHashException, MinHashDistanceFilterException {
+		if (!executor.isPresent()) {
+			for (final MashRun r: runs) {
+				r.run(Optional.absent());
+			}
+			return;
+		}
+		try (final MashThreadBudget.Reservation reservation =
+				threadBudget.get().reserve(runs.size())) {
+			runAll(runs, reservation);
+		}
+	}
+	
+	private void runAll(final List<MashRun> runs, final MashThreadBudget.Reservation reservation)
+			throws MinHashException, MinHashDistanceFilterException {
+		final List<Future<Void>> futures = new LinkedList<>();
+		for (final MashRun r: runs) {
+			futures.add(executor.get().submit(() -> {
+				r.run(Optional.of(reservation));
+				return null;
+			}));
+		}
+		// wait for every run so that no run is still writing to a filter or temp file on return
+		Throwable failure = null;
+		try {
+			for (final Future<Void> f: futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					failure = failure == null ? e.getCause() : failure;
+				}
+			}
+		} catch (InterruptedException e) {
+			// interrupts the runs, which kills mash
+			for (final Future<Void> f: futures) {
+				f.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new MinHashException(String.format(
+					"Search cancelled while waiting for %s to run", MASH.getName()), e);
+		}
+		if (failure instanceof MinHashException) {
+			throw (MinHashException) failure;
+		} else if (failure instanceof MinHashDistanceFilterException) {
+			throw (MinHashDistanceFilterException) failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			// should be impossible
+			throw new MinHashException(failure.getMessage(), failure);
+		}
+	}
+
+	private double getMaxDistance(final MinHashSearchParameters searchParameters) {
+		return Math.min(MAX_DISTANCE, searchParameters.getMaxDistance().or(MAX_DISTANCE));
+	}
+	
+	/* Mash only reports distances up to the requested maximum distance or the bound, if the
+	 * filter already has one from searching other reference databases. With multiple queries,
+	 * the cutoff is the loosest of the filters' bounds.
+	 */
+	private double getCutoff(final List<MinHashDistanceFilter> filters, final double maxDist) {
+		double max = 0;
+		for (final MinHashDistanceFilter f: filters) {
+			final Optional<Double> bound = f.getDistanceBound();
+			final double b = bound.isPresent() ? Math.min(bound.get(), maxDist) : maxDist;
+			if (b >= MAX_DISTANCE) {
+				return MAX_DISTANCE;
+			}
+			max = Math.max(max, MashDistance.getUnroundedBound(b));
+		}
+		return max;
+	}
+	
+	static void checkFilters(
+			final Map<MinHashSketchDatabase, List<MinHashDistanceFilter>> references,
+			final int queryCount) {
+		checkNotNull(references, "references");
+		for (final Entry<MinHashSketchDatabase, List<MinHashDistanceFilter>> e:
+				references.entrySet()) {
+			if (e.getKey() == null) {
+				throw new NullPointerException("Null key in references map");
+			}
+			if (e.getValue() == null) {
+				throw new NullPointerException("Null value in references map");
+			}
+			if (e.getValue().size() != queryCount) {
+				throw new IllegalArgumentException(String.format(
+						"Sketch DB %s has %s filters for %s query sequences",
+						e.getKey().getName().getName(), e.getValue().size(), queryCount));
+			}
+			for (final MinHashDistanceFilter f: e.getValue()) {
+				if (f == null) {
+					throw new NullPointerException("Null filter in references map");
+				}
+			}
+		}
+	}
 
-	private void checkNoNulls(final Map<MinHashSketchDatabase, MinHashDistanceFilter> references) {
+	static void checkNoNulls(final Map<MinHashSketchDatabase, MinHashDistanceFilter> references) {
 		checkNotNull(references, "references");
 		for (final Entry<MinHashSketchDatabase, MinHashDistanceFilter> e: references.entrySet()) {
 			if (e.getKey() == null) {
@@ -327,7 +979,7 @@ public class Mash implements MinHashImplementation {
 		}
 	}
 	
-	private List<String> checkQueryable(
+	static List<String> checkQueryable(
 			final MinHashSketchDatabase query,
 			final Collection<MinHashSketchDatabase> references,
 			final boolean strict)
@@ -344,26 +996,4 @@ public class Mash implements MinHashImplementation {
 		return warnings;
 	}
 
-	private static class ParamsAndSize {
-		final MinHashParameters params;
-		final int size;
-		private ParamsAndSize(final MinHashParameters params, final int size) {
-			this.params = params;
-			this.size = size;
-		}
-	}
-	
-	private ParamsAndSize getParametersAndSize(final Path path) throws MinHashException {
-		final String mashout = getMashOutput("info", "-H", path.toString());
-		//TODO CODE this is nasty. Use a regex or something so we can have 2 problems
-		final String[] lines = mashout.split("\n");
-		final int kmerSize = Integer.parseInt(lines[2].trim().split("\\s+")[2].trim());
-		final int sketchSize = Integer.parseInt(lines[4].trim().split("\\s+")[4].trim());
-		final int size = Integer.parseInt(lines[5].trim().split("\\s+")[1].trim());
-		return new ParamsAndSize(
-				MinHashParameters.getBuilder(kmerSize)
-						.withSketchSize(sketchSize)
-						.build(),
-				size);
-	}
 }
@@ -0,0 +1,297 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import us.kbase.assemblyhomology.minhash.MinHashDistanceFilter;
+import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterException;
+import us.kbase.assemblyhomology.minhash.exceptions.MinHashException;
+
+/** Gathers the searches of a reference sketch database that arrive within a short window into
+ * a batch, so that one mash run can serve them all.
+ *
+ * The first search to arrive opens a batch, and searches that arrive with the same key before
+ * the window closes join it. A search whose query IDs are already in the open batch opens a new
+ * batch, since the searches are told apart by the query IDs in mash's output. When the window
+ * closes the batch is passed to a {@link BatchRunner} on a thread owned by the batcher, which
+ * must complete each {@link Member} of the batch. Meanwhile each search waits in
+ * {@link Member#await()}.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class MashBatcher {
+
+	/** Runs a batch of searches. */
+	public interface BatchRunner {
+
+		/** Run a batch of searches. Each member of the batch must be completed with
+		 * {@link Member#complete()}, {@link Member#runAlone()}, or {@link Member#fail(Throwable)}
+		 * before returning; members that are not are failed. The runner is interrupted if every
+		 * member of the batch is cancelled.
+		 * @param members the members of the batch.
+		 */
+		void run(List<Member> members);
+	}
+
+	private final long windowMS;
+	private final Map<Object, Batch> open = new HashMap<>();
+	private final ScheduledExecutorService timer;
+	private final ExecutorService runners;
+
+	/** Create a batcher.
+	 * @param windowMS how long, in milliseconds, a batch waits for searches to join it after
+	 * it is opened.
+	 */
+	public MashBatcher(final long windowMS) {
+		if (windowMS < 1) {
+			throw new IllegalArgumentException("windowMS must be > 0");
+		}
+		this.windowMS = windowMS;
+		final ThreadFactory daemons = Executors.defaultThreadFactory();
+		final ThreadFactory tf = r -> {
+			// the threads only wait on mash, so don't keep the JVM alive for them
+			final Thread t = daemons.newThread(r);
+			t.setDaemon(true);
+			return t;
+		};
+		timer = Executors.newSingleThreadScheduledExecutor(tf);
+		// the number of batches running at once is bounded by the searches waiting on them
+		runners = Executors.newCachedThreadPool(tf);
+	}
+
+	/** Get how long a batch waits for searches to join it.
+	 * @return the window in milliseconds.
+	 */
+	public long getWindowMS() {
+		return windowMS;
+	}
+
+	/** Get the number of batches that are waiting for searches to join them.
+	 * @return the number of open batches.
+	 */
+	public synchronized int getOpenBatchCount() {
+		return open.size();
+	}
+
+	/** Add a search to the open batch for a key, or open a new batch if there is no open batch
+	 * or the open batch already contains one of the search's query IDs. Call
+	 * {@link Member#await()} to wait for the batch to run.
+	 * @param key the key for the batch. Searches that may share a mash run must have equal keys.
+	 * @param member the search.
+	 * @param runner the runner to use if the search opens a new batch.
+	 */
+	public void join(final Object key, final Member member, final BatchRunner runner) {
+		checkNotNull(key, "key");
+		checkNotNull(member, "member");
+		checkNotNull(runner, "runner");
+		synchronized (this) {
+			if (member.batch != null) {
+				throw new IllegalArgumentException("member has already joined a batch");
+			}
+			Batch batch = open.get(key);
+			if (batch == null || !Collections.disjoint(
+					batch.queryIDs, member.queryToFilter.keySet())) {
+				batch = new Batch();
+				open.put(key, batch);
+				final Batch b = batch;
+				timer.schedule(() -> runners.execute(() -> run(key, b, runner)),
+						windowMS, TimeUnit.MILLISECONDS);
+			}
+			batch.members.add(member);
+			batch.queryIDs.addAll(member.queryToFilter.keySet());
+			member.batcher = this;
+			member.batch = batch;
+		}
+	}
+
+	private void run(final Object key, final Batch batch, final BatchRunner runner) {
+		final List<Member> members;
+		synchronized (this) {
+			// a batch may have been replaced by a newer batch for the same key
+			if (open.get(key) == batch) {
+				open.remove(key);
+			}
+			batch.thread = Thread.currentThread();
+			members = new ArrayList<>(batch.members);
+		}
+		try {
+			if (members.stream().allMatch(m -> m.cancelled)) {
+				return;
+			}
+			runner.run(Collections.unmodifiableList(members));
+			for (final Member m: members) {
+				m.fail(new IllegalStateException("Batch runner failed to complete search"));
+			}
+		} catch (Throwable t) {
+			for (final Member m: members) {
+				m.fail(t);
+			}
+		} finally {
+			synchronized (this) {
+				batch.thread = null;
+			}
+			// clear any interrupt from cancelled searches before returning the thread to the pool
+			Thread.interrupted();
+		}
+	}
+
+	private void cancel(final Member member) {
+		synchronized (this) {
+			member.cancelled = true;
+			final Batch batch = member.batch;
+			if (batch.thread != null && batch.members.stream().allMatch(m -> m.cancelled)) {
+				// kills mash
+				batch.thread.interrupt();
+			}
+		}
+	}
+
+	private static class Batch {
+
+		private final List<Member> members = new LinkedList<>();
+		private final Set<String> queryIDs = new HashSet<>();
+		private Thread thread = null;
+	}
+
+	/** A search that may be served by a batch. */
+	public static class Member {
+
+		private final Path query;
+		private final Map<String, MinHashDistanceFilter> queryToFilter;
+		private final double maxDistance;
+		private final double cutoff;
+		private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+		private MashBatcher batcher = null;
+		private Batch batch = null;
+		private volatile boolean cancelled = false;
+
+		/** Create a search.
+		 * @param query the query sketch database.
+		 * @param queryToFilter the filter for each query sequence ID in the query sketch
+		 * database.
+		 * @param maxDistance the maximum distance to pass to the filters.
+		 * @param cutoff the cutoff to pass to mash for this search.
+		 */
+		public Member(
+				final Path query,
+				final Map<String, MinHashDistanceFilter> queryToFilter,
+				final double maxDistance,
+				final double cutoff) {
+			checkNotNull(query, "query");
+			checkNotNull(queryToFilter, "queryToFilter");
+			if (queryToFilter.isEmpty()) {
+				throw new IllegalArgumentException("queryToFilter cannot be empty");
+			}
+			this.query = query;
+			this.queryToFilter = Collections.unmodifiableMap(new HashMap<>(queryToFilter));
+			this.maxDistance = maxDistance;
+			this.cutoff = cutoff;
+		}
+
+		/** Get the query sketch database.
+		 * @return the path to the query sketch database.
+		 */
+		public Path getQuery() {
+			return query;
+		}
+
+		/** Get the filter for each query sequence ID.
+		 * @return the filters.
+		 */
+		public Map<String, MinHashDistanceFilter> getQueryToFilter() {
+			return queryToFilter;
+		}
+
+		/** Get the maximum distance to pass to the filters.
+		 * @return the maximum distance.
+		 */
+		public double getMaxDistance() {
+			return maxDistance;
+		}
+
+		/** Get the cutoff to pass to mash for this search.
+		 * @return the cutoff.
+		 */
+		public double getCutoff() {
+			return cutoff;
+		}
+
+		/** Check whether the search no longer needs distances from the batch because it has
+		 * been completed, failed, or cancelled.
+		 * @return true if the search is done.
+		 */
+		public boolean isDone() {
+			return cancelled || result.isDone();
+		}
+
+		/** Record that the batch has passed all the distances for the search to its filters.
+		 * The filters have not been flushed.
+		 */
+		public void complete() {
+			result.complete(true);
+		}
+
+		/** Record that the search was not served by the batch and should run mash itself. */
+		public void runAlone() {
+			result.complete(false);
+		}
+
+		/** Record that the search failed.
+		 * @param failure the cause of the failure.
+		 */
+		public void fail(final Throwable failure) {
+			result.completeExceptionally(failure);
+		}
+
+		/** Wait for the batch to run. If the thread is interrupted the search is cancelled, and
+		 * if all the searches in the batch are cancelled, mash is killed.
+		 * @return true if the batch served the search, or false if the search should run mash
+		 * itself.
+		 * @throws MinHashException if the batch failed.
+		 * @throws MinHashDistanceFilterException if one of the search's filters failed.
+		 */
+		public boolean await() throws MinHashException, MinHashDistanceFilterException {
+			if (batch == null) {
+				throw new IllegalStateException("member has not joined a batch");
+			}
+			try {
+				return result.get();
+			} catch (InterruptedException e) {
+				batcher.cancel(this);
+				Thread.currentThread().interrupt();
+				throw new MinHashException(String.format(
+						"Search cancelled while waiting for %s to run",
+						Mash.getImplementationName().getName()), e);
+			} catch (ExecutionException e) {
+				final Throwable cause = e.getCause();
+				if (cause instanceof MinHashException) {
+					throw (MinHashException) cause;
+				} else if (cause instanceof MinHashDistanceFilterException) {
+					throw (MinHashDistanceFilterException) cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				// should be impossible
+				throw new MinHashException(cause.getMessage(), cause);
+			}
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/** Computes the Mash distance between two sketches in the same manner as mash dist.
+ * See Ondov et al. 2016, "Mash: fast genome and metagenome distance estimation using MinHash",
+ * and CommandDistance.cpp in the mash source.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class MashDistance {
+
+	// mash prints distances with the default C++ stream precision
+	private static final MathContext MASH_PRECISION = new MathContext(6, RoundingMode.HALF_EVEN);
+	// rounding to 6 significant digits changes a distance by at most 5e-6 of its size
+	private static final double ROUNDING_MARGIN = 1e-5;
+
+	private MashDistance() {}
+
+	/** Get the name of the implementation used to merge sketches when computing distances.
+	 * This is "vector" when running on Java 17+ from the multi-release jar with the
+	 * jdk.incubator.vector module available, and "scalar" otherwise.
+	 * @return the name of the merge implementation.
+	 */
+	public static String getMergeImplementation() {
+		return SketchMergeKernel.getName();
+	}
+
+	/** Compute the Mash distance between two sketches. The hashes in each sketch must be
+	 * sorted in ascending order when treated as unsigned values, as they are in mash sketch
+	 * files.
+	 *
+	 * The returned distance is not rounded. Use {@link #round(double)} to get the value mash dist
+	 * would print.
+	 * @param reference the hashes in the reference sketch.
+	 * @param query the hashes in the query sketch.
+	 * @param sketchSize the sketch size to use for the comparison. Mash uses the smaller of the
+	 * sketch sizes of the two sketch databases.
+	 * @param kmerSize the kmer size of the sketches.
+	 * @return the distance, between 0 and 1 inclusive.
+	 */
+	public static double distance(
+			final long[] reference,
+			final long[] query,
+			final int sketchSize,
+			final int kmerSize) {
+		checkNotNull(reference, "reference");
+		checkNotNull(query, "query");
+		return distance(reference, reference.length, query, query.length, sketchSize, kmerSize);
+	}
+
+	/** Compute the Mash distance between two sketches held in the start of possibly larger
+	 * buffers, as when reusing buffers across comparisons. Otherwise identical to
+	 * {@link #distance(long[], long[], int, int)}.
+	 * @param reference the buffer containing the hashes in the reference sketch.
+	 * @param referenceLength the number of hashes in the reference sketch.
+	 * @param query the buffer containing the hashes in the query sketch.
+	 * @param queryLength the number of hashes in the query sketch.
+	 * @param sketchSize the sketch size to use for the comparison.
+	 * @param kmerSize the kmer size of the sketches.
+	 * @return the distance, between 0 and 1 inclusive.
+	 */
+	public static double distance(
+			final long[] reference,
+			final int referenceLength,
+			final long[] query,
+			final int queryLength,
+			final int sketchSize,
+			final int kmerSize) {
+		return distance(reference, referenceLength, query, queryLength, sketchSize, kmerSize, 1);
+	}
+
+	/** Compute the Mash distance between two sketches as
+	 * {@link #distance(long[], int, long[], int, int, int)}, but stop comparing the sketches
+	 * as soon as the distance is certain to be greater than a bound.
+	 * @param reference the buffer containing the hashes in the reference sketch.
+	 * @param referenceLength the number of hashes in the reference sketch.
+	 * @param query the buffer containing the hashes in the query sketch.
+	 * @param queryLength the number of hashes in the query sketch.
+	 * @param sketchSize the sketch size to use for the comparison.
+	 * @param kmerSize the kmer size of the sketches.
+	 * @param maxDistance the bound. Distances are never bounded if the bound is 1 or more.
+	 * @return the distance, or {@link Double#POSITIVE_INFINITY} if the distance is greater than
+	 * the bound.
+	 */
+	public static double distance(
+			final long[] reference,
+			final int referenceLength,
+			final long[] query,
+			final int queryLength,
+			final int sketchSize,
+			final int kmerSize,
+			final double maxDistance) {
+		checkNotNull(reference, "reference");
+		checkNotNull(query, "query");
+		if (referenceLength < 0 || referenceLength > reference.length) {
+			throw new IllegalArgumentException("Illegal referenceLength: " + referenceLength);
+		}
+		if (queryLength < 0 || queryLength > query.length) {
+			throw new IllegalArgumentException("Illegal queryLength: " + queryLength);
+		}
+		if (sketchSize < 1) {
+			throw new IllegalArgumentException("sketchSize must be > 0");
+		}
+		if (kmerSize < 1) {
+			throw new IllegalArgumentException("kmerSize must be > 0");
+		}
+		if (!(maxDistance >= 0)) {
+			throw new IllegalArgumentException("maxDistance must be >= 0");
+		}
+		// the distance is greater than the bound iff the Jaccard index is less than this
+		final double minJaccard = maxDistance >= 1 ? 0 : jaccard(maxDistance, kmerSize);
+		final long merge = SketchMergeKernel.merge(
+				reference, referenceLength, query, queryLength, sketchSize, minJaccard);
+		if (merge == SketchMerge.ABANDONED) {
+			return Double.POSITIVE_INFINITY;
+		}
+		final double distance = distance(
+				SketchMerge.getCommon(merge), SketchMerge.getDenominator(merge), kmerSize);
+		return distance > maxDistance ? Double.POSITIVE_INFINITY : distance;
+	}
+
+	/** Compute the Mash distance from the number of hashes shared by two sketches and the size
+	 * of the sketch of their union.
+	 * @param common the number of shared hashes.
+	 * @param denom the size of the union sketch.
+	 * @param kmerSize the kmer size of the sketches.
+	 * @return the distance, between 0 and 1 inclusive.
+	 */
+	public static double distance(final int common, final int denom, final int kmerSize) {
+		if (common == denom) {
+			return 0;
+		}
+		if (common == 0) {
+			return 1;
+		}
+		final double jaccard = (double) common / denom;
+		final double distance = -Math.log(2 * jaccard / (1 + jaccard)) / kmerSize;
+		return distance > 1 ? 1 : distance;
+	}
+
+	/** Compute a lower bound for the Mash distance between two sketches from the number of
+	 * hashes they share, without comparing the hashes. Since the shared hashes counted by
+	 * {@link #distance(long[], long[], int, int)} are a subset of all the shared hashes and the
+	 * union sketch size is the smaller of the sketch size and the size of the union of the
+	 * sketches, the true distance is never less than the bound.
+	 * @param shared the total number of hashes shared by the sketches.
+	 * @param referenceLength the number of hashes in the reference sketch.
+	 * @param queryLength the number of hashes in the query sketch.
+	 * @param sketchSize the sketch size to use for the comparison.
+	 * @param kmerSize the kmer size of the sketches.
+	 * @return the lower bound of the distance.
+	 */
+	public static double lowerBound(
+			final int shared,
+			final int referenceLength,
+			final int queryLength,
+			final int sketchSize,
+			final int kmerSize) {
+		if (shared < 0 || shared > referenceLength || shared > queryLength) {
+			throw new IllegalArgumentException("Illegal shared hash count: " + shared);
+		}
+		if (sketchSize < 1) {
+			throw new IllegalArgumentException("sketchSize must be > 0");
+		}
+		if (kmerSize < 1) {
+			throw new IllegalArgumentException("kmerSize must be > 0");
+		}
+		final int denom = Math.min(sketchSize, referenceLength + queryLength - shared);
+		if (denom == 0) {
+			return 0; // two empty sketches, which distance() also treats as identical
+		}
+		return distance(Math.min(shared, denom), denom, kmerSize);
+	}
+
+	/** Compute the Jaccard index corresponding to a Mash distance. This is the inverse of
+	 * {@link #distance(int, int, int)}.
+	 * @param distance the distance, between 0 and 1 inclusive.
+	 * @param kmerSize the kmer size of the sketches.
+	 * @return the Jaccard index.
+	 */
+	public static double jaccard(final double distance, final int kmerSize) {
+		if (!(distance >= 0 && distance <= 1)) {
+			throw new IllegalArgumentException("distance must be >= 0 and <= 1");
+		}
+		if (kmerSize < 1) {
+			throw new IllegalArgumentException("kmerSize must be > 0");
+		}
+		final double x = Math.exp(-distance * kmerSize);
+		return x / (2 - x);
+	}
+
+	/** Get a bound for unrounded distances from a bound for rounded distances. Any distance
+	 * greater than the returned bound is greater than the given bound after rounding with
+	 * {@link #round(double)}.
+	 * @param roundedBound the bound for rounded distances.
+	 * @return the bound for unrounded distances.
+	 */
+	public static double getUnroundedBound(final double roundedBound) {
+		return roundedBound * (1 + ROUNDING_MARGIN);
+	}
+
+	/** Round a distance to the precision mash dist uses when printing distances, which is 6
+	 * significant digits.
+	 * @param distance the distance to round.
+	 * @return the rounded distance.
+	 */
+	public static double round(final double distance) {
+		if (distance == 0 || distance == 1) {
+			return distance;
+		}
+		return new BigDecimal(distance).round(MASH_PRECISION).doubleValue();
+	}
+
+}
@@ -1,6 +1,9 @@
 package us.kbase.assemblyhomology.minhash.mash;
 
 import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import com.google.common.base.Optional;
 
@@ -10,17 +13,73 @@ import us.kbase.assemblyhomology.minhash.MinHashImplementationName;
 import us.kbase.assemblyhomology.minhash.exceptions.MinHashInitException;
 
 /** A factory for a Mash implementation of {@link MinHashImplementation}.
+ * The factory owns the executor on which the implementations run mash, the budget of threads
+ * given to the mash processes, and the batcher, if any, that combines searches into one mash
+ * run, so the same factory instance should be used for the lifetime of the application.
  * @author gaprice@lbl.gov
  *
  */
 public class MashFactory implements MinHashImplementationFactory {
+	
+	private final ExecutorService executor;
+	private final MashThreadBudget threadBudget;
+	private final int parallelism;
+	private final Optional<MashBatcher> batcher;
+	
+	/** Create a factory whose implementations run up to as many mash processes concurrently as
+	 * there are available processors, and share that many threads between them.
+	 */
+	public MashFactory() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/** Create a factory.
+	 * @param parallelism the maximum number of mash processes that the implementations from
+	 * this factory, taken together, run concurrently, and the number of threads shared between
+	 * those processes.
+	 */
+	public MashFactory(final int parallelism) {
+		this(parallelism, 0);
+	}
+	
+	/** Create a factory.
+	 * @param parallelism the maximum number of mash processes that the implementations from
+	 * this factory, taken together, run concurrently, and the number of threads shared between
+	 * those processes.
+	 * @param batchWindowMS how long, in milliseconds, to wait for other searches of a reference
+	 * sketch database to arrive so that one mash run can serve them all. 0 disables batching.
+	 * See {@link MashBatcher}.
+	 */
+	public MashFactory(final int parallelism, final long batchWindowMS) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be > 0");
+		}
+		if (batchWindowMS < 0) {
+			throw new IllegalArgumentException("batchWindowMS must be >= 0");
+		}
+		this.parallelism = parallelism;
+		batcher = batchWindowMS > 0 ?
+				Optional.of(new MashBatcher(batchWindowMS)) : Optional.absent();
+		threadBudget = new MashThreadBudget(parallelism);
+		final ThreadFactory daemons = Executors.defaultThreadFactory();
+		executor = Executors.newFixedThreadPool(parallelism, r -> {
+			// the threads only wait on mash, so don't keep the JVM alive for them
+			final Thread t = daemons.newThread(r);
+			t.setDaemon(true);
+			return t;
+		});
+	}
 
 	@Override
 	public MinHashImplementation getImplementation(
 			final Path tempFileDirectory,
 			final int minhashTimeout)
 			throws MinHashInitException {
-		return new Mash(tempFileDirectory, minhashTimeout);
+		if (batcher.isPresent()) {
+			return new Mash(
+					tempFileDirectory, minhashTimeout, executor, threadBudget, batcher.get());
+		}
+		return new Mash(tempFileDirectory, minhashTimeout, executor, threadBudget);
 	}
 
 	@Override
@@ -32,5 +91,32 @@ public class MashFactory implements MinHashImplementationFactory {
 	public Optional<Path> getExpectedFileExtension() {
 		return Optional.of(Mash.getExpectedFileExtension());
 	}
+	
+	@Override
+	public int getRunningProcessCount() {
+		return Mash.getRunningProcessCount();
+	}
+	
+	/** Get the maximum number of mash processes run concurrently.
+	 * @return the parallelism.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+	
+	/** Get the budget of threads shared between the mash processes.
+	 * @return the thread budget.
+	 */
+	public MashThreadBudget getThreadBudget() {
+		return threadBudget;
+	}
+	
+	/** Get the batcher that combines searches of the same reference sketch database into one
+	 * mash run, if batching is enabled.
+	 * @return the batcher.
+	 */
+	public Optional<MashBatcher> getBatcher() {
+		return batcher;
+	}
 
 }
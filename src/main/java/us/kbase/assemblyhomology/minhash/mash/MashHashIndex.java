@@ -0,0 +1,398 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+
+import us.kbase.assemblyhomology.minhash.exceptions.NotASketchException;
+
+/** An inverted index from the hashes in a mash sketch database to the sketches that contain
+ * them. The index allows finding the sketches that share hashes with a query sketch without
+ * comparing the query to every sketch in the database. Sketches that share no hashes with the
+ * query are at the maximum distance of 1.
+ *
+ * As with a {@link MashSketchStore}, an index is written next to the sketch database it was
+ * created from, is memory mapped when opened, and is ignored if the sketch database changes or
+ * the index was written with a different layout version.
+ *
+ * The layout, with all values little endian, is:
+ * <pre>
+ * header (64 bytes): magic, version, sketch count, source size, source modification time,
+ *     key count, posting count, key block offset, posting block offset
+ * posting block: for each key in key order, the ordinals of the sketches containing the key's
+ *     hash in ascending order, 4 bytes each.
+ * key block: starting on an 8 byte boundary, key count + 1 entries of (hash, first posting
+ *     index), 16 bytes each, sorted by the unsigned value of the hash. The final entry marks the
+ *     end of the postings.
+ * </pre>
+ * @author gaprice@lbl.gov
+ *
+ */
+public class MashHashIndex {
+
+	/** The suffix appended to a sketch database file name to get the file name of its index. */
+	public static final String INDEX_SUFFIX = ".hashindex";
+
+	/** The version of the index layout written by this class. */
+	public static final int VERSION = 1;
+
+	private static final byte[] MAGIC = "AHHSHIDX".getBytes(StandardCharsets.US_ASCII);
+
+	// header byte offsets
+	private static final int HEADER_VERSION = 8;
+	private static final int HEADER_SKETCH_COUNT = 12;
+	private static final int HEADER_SOURCE_SIZE = 16;
+	private static final int HEADER_SOURCE_MODIFIED = 24;
+	private static final int HEADER_KEY_COUNT = 32;
+	private static final int HEADER_POSTING_COUNT = 40;
+	private static final int HEADER_KEYS_OFFSET = 48;
+	private static final int HEADER_POSTINGS_OFFSET = 56;
+	private static final int HEADER_SIZE = 64;
+
+	private static final int KEY_ENTRY_SIZE = 16;
+	private static final int POSTING_SIZE = 4;
+
+	// blocks are mapped in 1GB chunks to stay under the 2GB mapping limit. Entries never span
+	// chunks since the entry sizes divide the chunk size.
+	private static final int CHUNK_SHIFT = 30;
+	private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+	private final int sketchCount;
+	private final long keyCount;
+	private final ByteBuffer[] keys;
+	private final ByteBuffer[] postings;
+
+	/** Get the path of the index for a sketch database.
+	 * @param sketchDB the path to the sketch database.
+	 * @return the path to the index.
+	 */
+	public static Path getIndexPath(final Path sketchDB) {
+		checkNotNull(sketchDB, "sketchDB");
+		final Path abs = sketchDB.toAbsolutePath();
+		return abs.resolveSibling(abs.getFileName().toString() + INDEX_SUFFIX);
+	}
+
+	/** Write an index for a sketch database, replacing any existing index. The index is written
+	 * to a temporary file and then moved into place, so concurrent readers never see a partial
+	 * index.
+	 *
+	 * The hashes of all the sketches in the database are held in memory while the index is
+	 * built.
+	 * @param sketchDB the path to the sketch database.
+	 * @return the path to the index.
+	 * @throws IOException if the sketch database could not be read or the index could not be
+	 * written.
+	 * @throws NotASketchException if the file is not a valid mash sketch database.
+	 */
+	public static Path write(final Path sketchDB) throws IOException, NotASketchException {
+		final Path index = getIndexPath(sketchDB);
+		// stat first so a concurrent change to the sketch database makes the index stale
+		final long sourceSize = Files.size(sketchDB);
+		final long sourceModified = Files.getLastModifiedTime(sketchDB).toMillis();
+		final MashSketchReader reader = MashSketchReader.open(sketchDB);
+		final int count = reader.getSketchCount();
+		// merge the sorted hash lists of the sketches, ordering equal hashes by sketch ordinal
+		final PriorityQueue<Cursor> queue = new PriorityQueue<>(Math.max(1, count));
+		long postingCount = 0;
+		for (int i = 0; i < count; i++) {
+			final long[] hashes = reader.getHashes(i);
+			postingCount += hashes.length;
+			if (hashes.length > 0) {
+				queue.add(new Cursor(i, hashes));
+			}
+		}
+		final long postingsOffset = HEADER_SIZE;
+		final long keysOffset = align(postingsOffset + postingCount * POSTING_SIZE);
+
+		final Path temp = Files.createTempFile(
+				index.getParent(), index.getFileName().toString(), ".tmp");
+		try {
+			try (final FileChannel fc = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				final ChannelWriter postingWriter = new ChannelWriter(fc, postingsOffset);
+				final ChannelWriter keyWriter = new ChannelWriter(fc, keysOffset);
+				long keyCount = 0;
+				long postingIndex = 0;
+				long lastHash = 0;
+				while (!queue.isEmpty()) {
+					final Cursor c = queue.poll();
+					final long hash = c.hash();
+					if (keyCount == 0 || hash != lastHash) {
+						keyWriter.putLong(hash).putLong(postingIndex);
+						keyCount++;
+						lastHash = hash;
+					}
+					postingWriter.putInt(c.ordinal);
+					postingIndex++;
+					if (c.advance()) {
+						queue.add(c);
+					}
+				}
+				keyWriter.putLong(0).putLong(postingIndex);
+				postingWriter.flush();
+				keyWriter.flush();
+				final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+						.order(ByteOrder.LITTLE_ENDIAN)
+						.put(MAGIC)
+						.putInt(VERSION)
+						.putInt(count)
+						.putLong(sourceSize)
+						.putLong(sourceModified)
+						.putLong(keyCount)
+						.putLong(postingCount)
+						.putLong(keysOffset)
+						.putLong(postingsOffset);
+				header.flip();
+				writeFully(fc, header, 0);
+			}
+			Files.move(temp, index, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		return index;
+	}
+
+	private static class Cursor implements Comparable<Cursor> {
+
+		private final int ordinal;
+		private final long[] hashes;
+		private int position = 0;
+
+		private Cursor(final int ordinal, final long[] hashes) {
+			this.ordinal = ordinal;
+			this.hashes = hashes;
+		}
+
+		private long hash() {
+			return hashes[position];
+		}
+
+		private boolean advance() {
+			return ++position < hashes.length;
+		}
+
+		@Override
+		public int compareTo(final Cursor other) {
+			final int c = Long.compareUnsigned(hash(), other.hash());
+			return c != 0 ? c : Integer.compare(ordinal, other.ordinal);
+		}
+	}
+
+	// writes sequentially from a position in a channel, so several blocks can be written at once
+	private static class ChannelWriter {
+
+		private final FileChannel fc;
+		private final ByteBuffer buf = ByteBuffer.allocate(WRITE_BUFFER_SIZE)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		private long position;
+
+		private ChannelWriter(final FileChannel fc, final long position) {
+			this.fc = fc;
+			this.position = position;
+		}
+
+		private ChannelWriter putLong(final long l) throws IOException {
+			ensureRemaining(8);
+			buf.putLong(l);
+			return this;
+		}
+
+		private ChannelWriter putInt(final int i) throws IOException {
+			ensureRemaining(4);
+			buf.putInt(i);
+			return this;
+		}
+
+		private void ensureRemaining(final int bytes) throws IOException {
+			if (buf.remaining() < bytes) {
+				flush();
+			}
+		}
+
+		private void flush() throws IOException {
+			buf.flip();
+			position += writeFully(fc, buf, position);
+			buf.clear();
+		}
+	}
+
+	private static int writeFully(final FileChannel fc, final ByteBuffer buf, final long position)
+			throws IOException {
+		int written = 0;
+		while (buf.hasRemaining()) {
+			written += fc.write(buf, position + written);
+		}
+		return written;
+	}
+
+	private static long align(final long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	/** Open the index for a sketch database. The index is memory mapped.
+	 * @param sketchDB the path to the sketch database.
+	 * @return the index, or absent if there is no index, the index is out of date, or the
+	 * index cannot be used. In the latter two cases a warning is logged.
+	 * @throws IOException if the index could not be mapped.
+	 */
+	public static Optional<MashHashIndex> open(final Path sketchDB) throws IOException {
+		final Path index = getIndexPath(sketchDB);
+		if (!Files.exists(index)) {
+			return Optional.absent();
+		}
+		try (final FileChannel fc = FileChannel.open(index, StandardOpenOption.READ)) {
+			// the mappings stay valid after the channel is closed
+			return Optional.of(new MashHashIndex(fc, sketchDB));
+		} catch (UnusableIndexException e) {
+			LoggerFactory.getLogger(MashHashIndex.class).warn(
+					"Ignoring hash index {}: {}", index, e.getMessage());
+			return Optional.absent();
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class UnusableIndexException extends Exception {
+
+		private UnusableIndexException(final String message) {
+			super(message);
+		}
+	}
+
+	private MashHashIndex(final FileChannel fc, final Path sketchDB)
+			throws IOException, UnusableIndexException {
+		final long size = fc.size();
+		if (size < HEADER_SIZE) {
+			throw new UnusableIndexException("Index is truncated");
+		}
+		final ByteBuffer header = fc.map(MapMode.READ_ONLY, 0, HEADER_SIZE)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		final byte[] magic = new byte[MAGIC.length];
+		header.get(magic);
+		if (!Arrays.equals(MAGIC, magic)) {
+			throw new UnusableIndexException("Not a hash index");
+		}
+		final int version = header.getInt(HEADER_VERSION);
+		if (version != VERSION) {
+			throw new UnusableIndexException(String.format(
+					"Index version %s is not supported, expected %s", version, VERSION));
+		}
+		if (header.getLong(HEADER_SOURCE_SIZE) != Files.size(sketchDB) ||
+				header.getLong(HEADER_SOURCE_MODIFIED) !=
+					Files.getLastModifiedTime(sketchDB).toMillis()) {
+			throw new UnusableIndexException("Index is out of date");
+		}
+		sketchCount = header.getInt(HEADER_SKETCH_COUNT);
+		keyCount = header.getLong(HEADER_KEY_COUNT);
+		final long postingCount = header.getLong(HEADER_POSTING_COUNT);
+		final long keysOffset = header.getLong(HEADER_KEYS_OFFSET);
+		final long postingsOffset = header.getLong(HEADER_POSTINGS_OFFSET);
+		if (sketchCount < 0 || keyCount < 0 || keyCount > postingCount ||
+				postingsOffset != HEADER_SIZE ||
+				postingCount > (size - HEADER_SIZE) / POSTING_SIZE ||
+				keysOffset != align(postingsOffset + postingCount * POSTING_SIZE) ||
+				keysOffset + (keyCount + 1) * KEY_ENTRY_SIZE != size) {
+			throw new UnusableIndexException("Index header is corrupt");
+		}
+		postings = map(fc, postingsOffset, postingCount * POSTING_SIZE);
+		keys = map(fc, keysOffset, (keyCount + 1) * KEY_ENTRY_SIZE);
+		if (postingStart(0) != 0 || postingStart(keyCount) != postingCount) {
+			throw new UnusableIndexException("Index key block is corrupt");
+		}
+	}
+
+	private static ByteBuffer[] map(final FileChannel fc, final long offset, final long size)
+			throws IOException {
+		final ByteBuffer[] chunks = new ByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT)];
+		for (int i = 0; i < chunks.length; i++) {
+			final long start = (long) i << CHUNK_SHIFT;
+			chunks[i] = fc.map(MapMode.READ_ONLY, offset + start,
+					Math.min(size - start, CHUNK_MASK + 1)).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return chunks;
+	}
+
+	// absolute gets don't change the buffer state, so are safe for concurrent reads
+	private static long getLong(final ByteBuffer[] chunks, final long position) {
+		return chunks[(int) (position >>> CHUNK_SHIFT)].getLong((int) (position & CHUNK_MASK));
+	}
+
+	private static int getInt(final ByteBuffer[] chunks, final long position) {
+		return chunks[(int) (position >>> CHUNK_SHIFT)].getInt((int) (position & CHUNK_MASK));
+	}
+
+	private long key(final long index) {
+		return getLong(keys, index * KEY_ENTRY_SIZE);
+	}
+
+	private long postingStart(final long index) {
+		return getLong(keys, index * KEY_ENTRY_SIZE + 8);
+	}
+
+	/** Get the number of sketches in the sketch database from which the index was built.
+	 * @return the number of sketches.
+	 */
+	public int getSketchCount() {
+		return sketchCount;
+	}
+
+	/** Get the number of distinct hashes in the index.
+	 * @return the number of hashes.
+	 */
+	public long getHashCount() {
+		return keyCount;
+	}
+
+	/** Count the hashes each sketch in the index shares with a query sketch.
+	 * @param query a buffer containing the hashes in the query sketch, sorted in ascending order
+	 * when treated as unsigned values.
+	 * @param queryLength the number of hashes in the query sketch.
+	 * @return the number of shared hashes, indexed by sketch ordinal.
+	 */
+	public int[] countSharedHashes(final long[] query, final int queryLength) {
+		checkNotNull(query, "query");
+		if (queryLength < 0 || queryLength > query.length) {
+			throw new IllegalArgumentException("Illegal queryLength: " + queryLength);
+		}
+		final int[] shared = new int[sketchCount];
+		long low = 0;
+		for (int i = 0; i < queryLength && low < keyCount; i++) {
+			// the query is sorted, so each search can start after the previous hit
+			final long target = query[i] ^ Long.MIN_VALUE;
+			long high = keyCount - 1;
+			while (low <= high) {
+				final long mid = (low + high) >>> 1;
+				final long k = key(mid) ^ Long.MIN_VALUE;
+				if (k < target) {
+					low = mid + 1;
+				} else if (k > target) {
+					high = mid - 1;
+				} else {
+					final long end = postingStart(mid + 1);
+					for (long p = postingStart(mid); p < end; p++) {
+						shared[getInt(postings, p * POSTING_SIZE)]++;
+					}
+					low = mid + 1;
+					break;
+				}
+			}
+		}
+		return shared;
+	}
+
+}
@@ -0,0 +1,262 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A banded locality sensitive hashing index over the sketches in a mash sketch database, used
+ * for approximate searches.
+ *
+ * Each sketch is reduced to a signature of minimum hashes: the hash space is split into
+ * buckets by a remix of each hash, and the signature holds the smallest hash of the sketch in
+ * each bucket. Since a mash sketch contains all the hashes of its sequence below its largest
+ * hash, the signatures of two sketches match in a bucket with a probability close to the
+ * Jaccard index of the sequences. The signature is split into bands of rows, and two sketches
+ * are candidate matches if their signatures match in every row of at least one band.
+ *
+ * The band tables are built from the sketches the first time they are needed and then held in
+ * memory.
+ *
+ * This class is thread safe.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class MashLSHIndex {
+
+	/** The maximum number of buckets in a signature. */
+	public static final int MAX_SIGNATURE_LENGTH = 128;
+
+	// keeps buckets from being empty in all but a tiny fraction of signatures
+	private static final int MIN_HASHES_PER_BUCKET = 8;
+
+	// the unsigned maximum, marking a bucket with no hashes. A real hash with this value just
+	// means the bucket is never matched.
+	private static final long EMPTY = -1;
+
+	private final MashSketches sketches;
+	private final int signatureLength;
+	private final long ordinalMask;
+	// rows per band -> tables for the bands built so far
+	private final Map<Integer, List<long[]>> bands = new HashMap<>();
+
+	/** Create an index. The band tables are not built until required.
+	 * @param sketches the sketches to index.
+	 */
+	public MashLSHIndex(final MashSketches sketches) {
+		checkNotNull(sketches, "sketches");
+		this.sketches = sketches;
+		this.signatureLength = getSignatureLength(sketches.getSketchSize());
+		this.ordinalMask = (1L << Math.max(1, 32 - Integer.numberOfLeadingZeros(
+				sketches.getSketchCount()))) - 1;
+	}
+
+	/** Get the signature length used for sketches of a particular size.
+	 * @param sketchSize the sketch size.
+	 * @return the number of buckets in a signature.
+	 */
+	public static int getSignatureLength(final int sketchSize) {
+		if (sketchSize < 1) {
+			throw new IllegalArgumentException("sketchSize must be > 0");
+		}
+		return Math.max(1, Math.min(MAX_SIGNATURE_LENGTH, sketchSize / MIN_HASHES_PER_BUCKET));
+	}
+
+	/** Get the number of buckets in the signatures in this index.
+	 * @return the signature length.
+	 */
+	public int getSignatureLength() {
+		return signatureLength;
+	}
+
+	/** The number of bands and rows per band used to find candidate matches. */
+	public static class Banding {
+
+		private final int rows;
+		private final int bands;
+
+		private Banding(final int rows, final int bands) {
+			this.rows = rows;
+			this.bands = bands;
+		}
+
+		/** Get the number of rows per band.
+		 * @return the number of rows.
+		 */
+		public int getRows() {
+			return rows;
+		}
+
+		/** Get the number of bands.
+		 * @return the number of bands.
+		 */
+		public int getBands() {
+			return bands;
+		}
+
+		/** Get the probability that a sketch with a given Jaccard index with the query is a
+		 * candidate match.
+		 * @param jaccard the Jaccard index.
+		 * @return the probability.
+		 */
+		public double getRecall(final double jaccard) {
+			return 1 - Math.pow(1 - Math.pow(jaccard, rows), bands);
+		}
+	}
+
+	/** Choose the banding that finds sketches at or above a Jaccard index with at least the
+	 * requested probability while producing the fewest candidates, which is the banding with
+	 * the most rows per band that fits in the signature. If no banding can reach the recall,
+	 * every bucket is used as a band of one row.
+	 * @param jaccard the smallest Jaccard index of the sketches that should be found.
+	 * @param recall the probability with which those sketches should be found.
+	 * @param signatureLength the number of buckets in the signatures.
+	 * @return the banding.
+	 */
+	public static Banding getBanding(
+			final double jaccard,
+			final double recall,
+			final int signatureLength) {
+		if (!(jaccard > 0 && jaccard <= 1)) {
+			throw new IllegalArgumentException("jaccard must be > 0 and <= 1");
+		}
+		if (!(recall > 0 && recall < 1)) {
+			throw new IllegalArgumentException("recall must be > 0 and < 1");
+		}
+		if (signatureLength < 1) {
+			throw new IllegalArgumentException("signatureLength must be > 0");
+		}
+		for (int rows = signatureLength; rows > 0; rows--) {
+			final double p = Math.pow(jaccard, rows);
+			final double bands = p >= 1 ? 1 : Math.ceil(Math.log1p(-recall) / Math.log1p(-p));
+			if (bands <= signatureLength / rows) {
+				return new Banding(rows, (int) bands);
+			}
+		}
+		return new Banding(1, signatureLength);
+	}
+
+	/** Find the sketches that are candidate matches for a query sketch.
+	 * @param query a buffer containing the hashes in the query sketch.
+	 * @param queryLength the number of hashes in the query sketch.
+	 * @param banding the banding to use. The rows times the bands must not exceed the signature
+	 * length.
+	 * @return the ordinals of the candidate sketches in ascending order.
+	 */
+	public int[] getCandidates(final long[] query, final int queryLength, final Banding banding) {
+		checkNotNull(query, "query");
+		checkNotNull(banding, "banding");
+		if (queryLength < 0 || queryLength > query.length) {
+			throw new IllegalArgumentException("Illegal queryLength: " + queryLength);
+		}
+		if (banding.rows * banding.bands > signatureLength) {
+			throw new IllegalArgumentException(String.format(
+					"Banding of %s rows by %s bands exceeds signature length %s",
+					banding.rows, banding.bands, signatureLength));
+		}
+		final List<long[]> tables = getBands(banding.rows, banding.bands);
+		final long[] sig = signature(query, queryLength, new long[signatureLength]);
+		final boolean[] found = new boolean[sketches.getSketchCount()];
+		int count = 0;
+		for (int b = 0; b < banding.bands; b++) {
+			final long key = bandKey(sig, b, banding.rows);
+			if (key == EMPTY) {
+				continue;
+			}
+			final long[] table = tables.get(b);
+			// the table is sorted, so the entries for the key are contiguous
+			int i = Arrays.binarySearch(table, key);
+			if (i < 0) {
+				i = -i - 1;
+			}
+			for (; i < table.length && (table[i] & ~ordinalMask) == key; i++) {
+				final int ordinal = (int) (table[i] & ordinalMask);
+				if (!found[ordinal]) {
+					found[ordinal] = true;
+					count++;
+				}
+			}
+		}
+		final int[] ret = new int[count];
+		for (int i = 0, j = 0; j < count; i++) {
+			if (found[i]) {
+				ret[j++] = i;
+			}
+		}
+		return ret;
+	}
+
+	private synchronized List<long[]> getBands(final int rows, final int bandCount) {
+		if (!bands.containsKey(rows)) {
+			bands.put(rows, new ArrayList<>());
+		}
+		final List<long[]> tables = bands.get(rows);
+		final int built = tables.size();
+		if (built >= bandCount) {
+			return new ArrayList<>(tables);
+		}
+		/* Each table entry packs the band key into the high bits and the sketch ordinal into the
+		 * low bits so a table is just a sorted long[]. Truncating the keys only adds false
+		 * candidates, which are removed when the distances are computed.
+		 */
+		final long[][] newTables = new long[bandCount - built][sketches.getSketchCount()];
+		final int[] sizes = new int[newTables.length];
+		long[] hashes = new long[sketches.getSketchSize()];
+		final long[] sig = new long[signatureLength];
+		for (int i = 0; i < sketches.getSketchCount(); i++) {
+			if (sketches.getHashCount(i) > hashes.length) {
+				hashes = new long[sketches.getHashCount(i)];
+			}
+			signature(hashes, sketches.getHashes(i, hashes), sig);
+			for (int b = 0; b < newTables.length; b++) {
+				final long key = bandKey(sig, built + b, rows);
+				if (key != EMPTY) {
+					newTables[b][sizes[b]++] = key | i;
+				}
+			}
+		}
+		for (int b = 0; b < newTables.length; b++) {
+			final long[] table = Arrays.copyOf(newTables[b], sizes[b]);
+			Arrays.sort(table);
+			tables.add(table);
+		}
+		return new ArrayList<>(tables);
+	}
+
+	private long[] signature(final long[] hashes, final int length, final long[] sig) {
+		Arrays.fill(sig, EMPTY);
+		for (int i = 0; i < length; i++) {
+			final long h = hashes[i];
+			final int bucket = (int) (((mix(h) & 0xFFFFFFFFL) * sig.length) >>> 32);
+			if (Long.compareUnsigned(h, sig[bucket]) < 0) {
+				sig[bucket] = h;
+			}
+		}
+		return sig;
+	}
+
+	/* Returns the key with the ordinal bits cleared, or EMPTY if any bucket in the band is
+	 * empty, since such a band matches nothing.
+	 */
+	private long bandKey(final long[] sig, final int band, final int rows) {
+		long key = band;
+		for (int r = band * rows; r < (band + 1) * rows; r++) {
+			if (sig[r] == EMPTY) {
+				return EMPTY;
+			}
+			key = mix(key ^ sig[r]);
+		}
+		return key & ~ordinalMask;
+	}
+
+	// the murmur3 64 bit finalizer
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+
+}
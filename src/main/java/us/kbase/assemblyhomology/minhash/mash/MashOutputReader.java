@@ -0,0 +1,360 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterException;
+
+/** Reads the output of mash a line at a time directly from the bytes mash writes.
+ *
+ * The reader reuses one buffer for all the output, and splits each line into whitespace
+ * separated fields in place, so no memory is allocated per line. A field is only decoded into
+ * a string when asked for, and numeric fields are parsed from the buffer. Mash dist output can
+ * run to millions of lines, most of which are discarded once the distance is known, so the
+ * distance can be read first and the IDs only decoded for the lines that are kept.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class MashOutputReader {
+
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	// powers of ten that are exactly representable as doubles
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+	// the largest integer such that every smaller integer is exactly representable as a double
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	/** Collects lines of mash output. */
+	public interface LineCollector {
+
+		/** Collect a line. The line is only valid for the duration of the call.
+		 * @param line the line.
+		 * @throws MinHashDistanceFilterException if a filter fails while processing the line.
+		 */
+		void collect(Line line) throws MinHashDistanceFilterException;
+	}
+
+	private final InputStream input;
+	private byte[] buffer;
+	private final Line line = new Line();
+
+	/** Create a reader.
+	 * @param input the mash output.
+	 */
+	public MashOutputReader(final InputStream input) {
+		this(input, DEFAULT_BUFFER_SIZE);
+	}
+
+	/** Create a reader.
+	 * @param input the mash output.
+	 * @param bufferSize the initial size of the buffer. The buffer grows if a line is longer
+	 * than the buffer.
+	 */
+	public MashOutputReader(final InputStream input, final int bufferSize) {
+		checkNotNull(input, "input");
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("bufferSize must be > 0");
+		}
+		this.input = input;
+		this.buffer = new byte[bufferSize];
+	}
+
+	/** Read the output until the end of the stream, passing each line to a collector. Line
+	 * terminators are not included in the line.
+	 * @param collector the collector.
+	 * @throws IOException if the output could not be read.
+	 * @throws MinHashDistanceFilterException if the collector throws an exception.
+	 */
+	public void read(final LineCollector collector)
+			throws IOException, MinHashDistanceFilterException {
+		checkNotNull(collector, "collector");
+		int start = 0; // start of the current line
+		int scan = 0; // where to look for the next line terminator
+		int end = 0; // end of the data in the buffer
+		while (true) {
+			while (scan < end && buffer[scan] != '\n') {
+				scan++;
+			}
+			if (scan < end) {
+				line.set(buffer, start, scan);
+				collector.collect(line);
+				start = ++scan;
+				continue;
+			}
+			if (start > 0) {
+				System.arraycopy(buffer, start, buffer, 0, end - start);
+				end -= start;
+				scan -= start;
+				start = 0;
+			}
+			if (end == buffer.length) {
+				final byte[] b = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, b, 0, end);
+				buffer = b;
+			}
+			final int read = input.read(buffer, end, buffer.length - end);
+			if (read < 0) {
+				if (end > start) {
+					line.set(buffer, start, end);
+					collector.collect(line);
+				}
+				return;
+			}
+			end += read;
+		}
+	}
+
+	private static boolean isWhitespace(final byte b) {
+		// the same characters as \s in a regex
+		return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+	}
+
+	/** A line of mash output, split into fields separated by whitespace. Leading and trailing
+	 * whitespace is ignored.
+	 */
+	public static class Line {
+
+		private byte[] buffer;
+		private int start;
+		private int end;
+		private int fieldCount;
+		private int[] fieldStarts = new int[8];
+		private int[] fieldEnds = new int[8];
+
+		private Line() {}
+
+		private void set(final byte[] buffer, final int start, int end) {
+			if (end > start && buffer[end - 1] == '\r') {
+				end--;
+			}
+			this.buffer = buffer;
+			this.start = start;
+			this.end = end;
+			fieldCount = 0;
+			int i = start;
+			while (true) {
+				while (i < end && isWhitespace(buffer[i])) {
+					i++;
+				}
+				if (i == end) {
+					return;
+				}
+				if (fieldCount == fieldStarts.length) {
+					final int[] s = new int[fieldCount * 2];
+					final int[] e = new int[fieldCount * 2];
+					System.arraycopy(fieldStarts, 0, s, 0, fieldCount);
+					System.arraycopy(fieldEnds, 0, e, 0, fieldCount);
+					fieldStarts = s;
+					fieldEnds = e;
+				}
+				fieldStarts[fieldCount] = i;
+				while (i < end && !isWhitespace(buffer[i])) {
+					i++;
+				}
+				fieldEnds[fieldCount++] = i;
+			}
+		}
+
+		/** Get the number of fields in the line.
+		 * @return the field count.
+		 */
+		public int getFieldCount() {
+			return fieldCount;
+		}
+
+		private void checkField(final int field) {
+			if (field < 0 || field >= fieldCount) {
+				throw new IllegalArgumentException(String.format(
+						"No field %s in line: %s", field, toString()));
+			}
+		}
+
+		/** Get a field as a string.
+		 * @param field the index of the field.
+		 * @return the field.
+		 */
+		public String getField(final int field) {
+			checkField(field);
+			return new String(buffer, fieldStarts[field], fieldEnds[field] - fieldStarts[field],
+					StandardCharsets.UTF_8);
+		}
+
+		/** Parse a field as a double. The result is the same as
+		 * {@link Double#parseDouble(String)}, but no memory is allocated for decimal numbers
+		 * with 15 or fewer significant digits, such as the numbers written by mash.
+		 * @param field the index of the field.
+		 * @return the number.
+		 * @throws NumberFormatException if the field is not a number.
+		 */
+		public double getDouble(final int field) {
+			checkField(field);
+			final int fstart = fieldStarts[field];
+			final int fend = fieldEnds[field];
+			int i = fstart;
+			final boolean negative = buffer[i] == '-';
+			if (negative || buffer[i] == '+') {
+				i++;
+			}
+			long mantissa = 0;
+			int exponent = 0;
+			int digits = 0;
+			boolean point = false;
+			for (; i < fend; i++) {
+				final byte b = buffer[i];
+				if (b >= '0' && b <= '9') {
+					mantissa = mantissa * 10 + (b - '0');
+					digits++;
+					if (point) {
+						exponent--;
+					}
+					if (mantissa >= MAX_EXACT_MANTISSA) {
+						return parseSlow(fstart, fend);
+					}
+				} else if (b == '.' && !point) {
+					point = true;
+				} else {
+					break;
+				}
+			}
+			if (digits == 0) {
+				return parseSlow(fstart, fend);
+			}
+			if (i < fend) {
+				if (buffer[i] != 'e' && buffer[i] != 'E') {
+					return parseSlow(fstart, fend);
+				}
+				i++;
+				final boolean negexp = i < fend && buffer[i] == '-';
+				if (i < fend && (negexp || buffer[i] == '+')) {
+					i++;
+				}
+				if (i == fend || fend - i > 4) {
+					return parseSlow(fstart, fend);
+				}
+				int exp = 0;
+				for (; i < fend; i++) {
+					final byte b = buffer[i];
+					if (b < '0' || b > '9') {
+						return parseSlow(fstart, fend);
+					}
+					exp = exp * 10 + (b - '0');
+				}
+				exponent += negexp ? -exp : exp;
+			}
+			final double value;
+			if (mantissa == 0) {
+				value = 0;
+			} else if (exponent < 0 && exponent >= -(POW10.length - 1)) {
+				// both operands are exact, so the one rounding gives the closest double
+				value = mantissa / POW10[-exponent];
+			} else if (exponent >= 0 && exponent < POW10.length) {
+				value = mantissa * POW10[exponent];
+			} else {
+				return parseSlow(fstart, fend);
+			}
+			return negative ? -value : value;
+		}
+
+		private double parseSlow(final int fstart, final int fend) {
+			return Double.parseDouble(
+					new String(buffer, fstart, fend - fstart, StandardCharsets.UTF_8));
+		}
+
+		private int hash(final int field) {
+			int h = 0;
+			for (int i = fieldStarts[field]; i < fieldEnds[field]; i++) {
+				h = 31 * h + buffer[i];
+			}
+			return h;
+		}
+
+		private boolean fieldEquals(final int field, final byte[] value) {
+			final int fstart = fieldStarts[field];
+			if (fieldEnds[field] - fstart != value.length) {
+				return false;
+			}
+			for (int i = 0; i < value.length; i++) {
+				if (buffer[fstart + i] != value[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/** Get the line, without the line terminator.
+		 * @return the line.
+		 */
+		@Override
+		public String toString() {
+			return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+		}
+	}
+
+	/** Maps the text of a field to a value without decoding the field to a string.
+	 * @param <T> the type of the values.
+	 */
+	public static class FieldIndex<T> {
+
+		private final byte[][] keys;
+		private final Object[] values;
+		private final int mask;
+
+		/** Create an index.
+		 * @param values the values, keyed by the text of the field.
+		 */
+		public FieldIndex(final Map<String, T> values) {
+			checkNotNull(values, "values");
+			int size = 2;
+			while (size < values.size() * 2) {
+				size *= 2;
+			}
+			keys = new byte[size][];
+			this.values = new Object[size];
+			mask = size - 1;
+			for (final Entry<String, T> e: values.entrySet()) {
+				checkNotNull(e.getKey(), "null key in values");
+				final byte[] key = e.getKey().getBytes(StandardCharsets.UTF_8);
+				int h = 0;
+				for (final byte b: key) {
+					h = 31 * h + b;
+				}
+				int i = h & mask;
+				while (keys[i] != null) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = key;
+				this.values[i] = e.getValue();
+			}
+		}
+
+		/** Get the value for the text of a field in a line.
+		 * @param line the line.
+		 * @param field the index of the field.
+		 * @return the value, or null if there is no value for the field text.
+		 */
+		@SuppressWarnings("unchecked")
+		public T get(final Line line, final int field) {
+			checkNotNull(line, "line");
+			line.checkField(field);
+			int i = line.hash(field) & mask;
+			while (keys[i] != null) {
+				if (line.fieldEquals(field, keys[i])) {
+					return (T) values[i];
+				}
+				i = (i + 1) & mask;
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage;
+import us.kbase.assemblyhomology.minhash.exceptions.NotASketchException;
+
+/** A cache of mash sketch databases. If a current {@link MashSketchStore} exists for a sketch
+ * database the store is memory mapped, otherwise the sketch database is decoded into the heap.
+ * If the cache compresses sketches, the sketches are instead always held in the heap as
+ * {@link CompressedMashSketches}, read from the store if it exists.
+ * If a current {@link MashHashIndex} exists for the sketch database it is mapped and cached
+ * along with the sketches.
+ * An entry is reloaded if the sketch database file's size or modification time changes, or if
+ * its store or index is written or removed.
+ * When a sketch database is loaded, any entries for files that have since been changed or
+ * deleted are discarded.
+ *
+ * This class is thread safe.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class MashSketchCache {
+
+	private final Map<Path, CacheEntry> cache = new ConcurrentHashMap<>();
+	private final boolean compress;
+
+	/** Create a cache that does not compress sketches. */
+	public MashSketchCache() {
+		this(false);
+	}
+
+	/** Create a cache.
+	 * @param compress true to hold sketches in the heap in compressed form.
+	 */
+	public MashSketchCache(final boolean compress) {
+		this.compress = compress;
+	}
+
+	/** Check whether the cache compresses sketches.
+	 * @return true if the cache compresses sketches.
+	 */
+	public boolean isCompressed() {
+		return compress;
+	}
+
+	/** The cached data for a sketch database. */
+	public static class CacheEntry {
+
+		private final List<Object> fileState;
+		private final MashSketches sketches;
+		private final int hashSeed;
+		private final String alphabet;
+		private final Optional<MashHashIndex> index;
+		private final MashLSHIndex lshIndex;
+
+		private CacheEntry(
+				final List<Object> fileState,
+				final MashSketches sketches,
+				final MashSketchReader reader,
+				final Optional<MashHashIndex> index) {
+			this.fileState = fileState;
+			this.sketches = sketches;
+			this.hashSeed = reader.getHashSeed();
+			this.alphabet = reader.getAlphabet();
+			this.index = index;
+			this.lshIndex = new MashLSHIndex(sketches);
+		}
+
+		/** Get the sketches from the sketch database.
+		 * @return the sketches.
+		 */
+		public MashSketches getSketches() {
+			return sketches;
+		}
+
+		/** Get the seed for the hash function used to create the sketches.
+		 * @return the hash seed.
+		 */
+		public int getHashSeed() {
+			return hashSeed;
+		}
+
+		/** Get the alphabet used to create the sketches.
+		 * @return the alphabet.
+		 */
+		public String getAlphabet() {
+			return alphabet;
+		}
+
+		/** Get the hash index for the sketch database.
+		 * @return the index, or absent if the sketch database had no current index when it was
+		 * loaded.
+		 */
+		public Optional<MashHashIndex> getIndex() {
+			return index;
+		}
+
+		/** Get the locality sensitive hashing index for the sketches. The index's tables are
+		 * built when first used.
+		 * @return the index.
+		 */
+		public MashLSHIndex getLSHIndex() {
+			return lshIndex;
+		}
+
+		private boolean isCurrent(final Path file) {
+			try {
+				return fileState.equals(getFileState(file));
+			} catch (IOException e) {
+				return false; // deleted or unreadable
+			}
+		}
+	}
+
+	private static List<Object> getFileState(final Path sketchDB) throws IOException {
+		return Arrays.asList(
+				Files.getLastModifiedTime(sketchDB),
+				Files.size(sketchDB),
+				getModified(MashSketchStore.getStorePath(sketchDB)),
+				getModified(MashHashIndex.getIndexPath(sketchDB)));
+	}
+
+	private static FileTime getModified(final Path file) throws IOException {
+		return Files.exists(file) ? Files.getLastModifiedTime(file) : null;
+	}
+
+	/** Get the sketches from a sketch database, loading them if they are not already cached.
+	 * @param sketchDB the path to the sketch database.
+	 * @return the sketches.
+	 * @throws IOException if the sketch database could not be read.
+	 * @throws NotASketchException if the file is not a valid mash sketch database.
+	 */
+	public MashSketches get(final Path sketchDB) throws IOException, NotASketchException {
+		return getEntry(sketchDB).sketches;
+	}
+
+	/** Get the cached data for a sketch database, loading the sketch database if it is not
+	 * already cached. The sketches and index in an entry always come from the same load.
+	 * @param sketchDB the path to the sketch database.
+	 * @return the cache entry.
+	 * @throws IOException if the sketch database could not be read.
+	 * @throws NotASketchException if the file is not a valid mash sketch database.
+	 */
+	public CacheEntry getEntry(Path sketchDB) throws IOException, NotASketchException {
+		checkNotNull(sketchDB, "sketchDB");
+		sketchDB = sketchDB.toAbsolutePath().normalize();
+		final CacheEntry e = cache.get(sketchDB);
+		if (e != null && e.isCurrent(sketchDB)) {
+			return e;
+		}
+		removeStaleEntries();
+		// concurrent loads of the same file may both read it, which is harmless
+		final List<Object> fileState = getFileState(sketchDB);
+		// the sketch database is only mapped, so opening it is cheap even if the store is used
+		final MashSketchReader reader = MashSketchReader.open(sketchDB);
+		final MashSketches sketches = load(sketchDB, reader);
+		Optional<MashHashIndex> index = MashHashIndex.open(sketchDB);
+		if (index.isPresent() && index.get().getSketchCount() != sketches.getSketchCount()) {
+			LoggerFactory.getLogger(getClass()).warn(
+					"Ignoring hash index for {}: sketch count does not match", sketchDB);
+			index = Optional.absent();
+		}
+		final CacheEntry entry = new CacheEntry(fileState, sketches, reader, index);
+		cache.put(sketchDB, entry);
+		final MinHashMemoryUsage mem = sketches.getMemoryUsage();
+		LoggerFactory.getLogger(getClass()).info(
+				"Loaded {}: {} sketches, {} hashes in {} bytes ({}, {} bytes uncompressed)",
+				sketchDB, mem.getSketchCount(), mem.getHashCount(), mem.getHashBytes(),
+				mem.getStorage(), mem.getUncompressedHashBytes());
+		return entry;
+	}
+
+	private MashSketches load(final Path sketchDB, final MashSketchReader reader)
+			throws IOException, NotASketchException {
+		final Optional<MashSketches> store = MashSketchStore.open(sketchDB);
+		if (compress) {
+			// the store's mapping is released once the compressed copy is made
+			return store.isPresent() ? CompressedMashSketches.copyOf(store.get()) :
+				CompressedMashSketches.load(reader);
+		}
+		return store.isPresent() ? store.get() :
+				HeapMashSketches.load(reader);
+	}
+
+	/** Get the memory used by a cached sketch database. The sketch database is not loaded if it
+	 * is not already cached.
+	 * @param sketchDB the path to the sketch database.
+	 * @return the memory usage, or absent if the sketch database is not cached or the cached
+	 * entry is out of date.
+	 */
+	public Optional<MinHashMemoryUsage> getMemoryUsage(final Path sketchDB) {
+		checkNotNull(sketchDB, "sketchDB");
+		final Path p = sketchDB.toAbsolutePath().normalize();
+		final CacheEntry e = cache.get(p);
+		if (e == null || !e.isCurrent(p)) {
+			return Optional.absent();
+		}
+		return Optional.of(e.sketches.getMemoryUsage());
+	}
+
+	private void removeStaleEntries() {
+		final Iterator<Map.Entry<Path, CacheEntry>> i = cache.entrySet().iterator();
+		while (i.hasNext()) {
+			final Map.Entry<Path, CacheEntry> e = i.next();
+			if (!e.getValue().isCurrent(e.getKey())) {
+				i.remove();
+			}
+		}
+	}
+
+	/** Get the number of sketch databases in the cache.
+	 * @return the number of cached sketch databases.
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+}
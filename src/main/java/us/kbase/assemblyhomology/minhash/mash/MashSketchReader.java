@@ -0,0 +1,581 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import us.kbase.assemblyhomology.minhash.MinHashParameters;
+import us.kbase.assemblyhomology.minhash.exceptions.NotASketchException;
+
+/** A reader for mash sketch database (.msh) files that parses the file in process rather than
+ * calling the mash binary.
+ *
+ * Mash serializes sketch databases as an unpacked Cap'n Proto message with the
+ * schema in the mash source at src/mash/capnp/MinHash.capnp. The reader understands just
+ * enough of the Cap'n Proto encoding to walk that schema. When reading from a file the message
+ * segments are memory mapped, so sketch IDs and hashes are decoded on demand rather than
+ * buffered.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class MashSketchReader {
+
+	/* Relevant portions of the mash schema:
+	 *
+	 * struct MinHash {
+	 *     struct ReferenceList {
+	 *         struct Reference {
+	 *             sequence @0 : Text; quality @1 : Text; length @2 : UInt32;
+	 *             length64 @7 : UInt64; name @3 : Text; comment @4 : Text;
+	 *             hashes32 @5 : List(UInt32); hashes64 @6 : List(UInt64); ...
+	 *         }
+	 *         references @0 : List(Reference);
+	 *     }
+	 *     kmerSize @0 : UInt32; windowSize @1 : UInt32; minHashesPerWindow @2 : UInt32;
+	 *     concatenated @3 : Bool; error @6 : Float32; noncanonical @7 : Bool;
+	 *     alphabet @8 : Text; preserveCase @9 : Bool; hashSeed @10 : UInt32 = 42;
+	 *     referenceListOld @4 : ReferenceList; referenceList @11 : ReferenceList;
+	 *     locusList @5 : LocusList;
+	 * }
+	 *
+	 * Mash 2.0 writes the references to referenceListOld.
+	 */
+
+	// byte offsets in the MinHash struct data section
+	private static final int MINHASH_KMER_SIZE = 0;
+	private static final int MINHASH_SKETCH_SIZE = 8;
+	private static final int MINHASH_HASH_SEED = 20;
+	private static final int DEFAULT_HASH_SEED = 42;
+	// pointer indexes in the MinHash struct
+	private static final int MINHASH_REFERENCE_LIST_OLD = 0;
+	private static final int MINHASH_ALPHABET = 2;
+	private static final int MINHASH_REFERENCE_LIST = 3;
+	// pointer indexes in the Reference struct
+	private static final int REFERENCE_NAME = 2;
+	private static final int REFERENCE_HASHES32 = 4;
+	private static final int REFERENCE_HASHES64 = 5;
+
+	// list element sizes
+	private static final int ELEMENT_BYTE = 2;
+	private static final int ELEMENT_FOUR_BYTES = 4;
+	private static final int ELEMENT_EIGHT_BYTES = 5;
+	private static final int ELEMENT_COMPOSITE = 7;
+
+	// guards against garbage segment tables
+	private static final int MAX_SEGMENTS = 1 << 16;
+
+	private final String source;
+	private final ByteBuffer[] segments;
+	private final int kmerSize;
+	private final int sketchSize;
+	private final int hashSeed;
+	private final String alphabet;
+	private final ListRef references;
+
+	/** Open a sketch database file. The file is memory mapped and is not read into the heap.
+	 * @param sketchDB the path to the sketch database file.
+	 * @return a reader for the file.
+	 * @throws IOException if the file could not be read.
+	 * @throws NotASketchException if the file is not a valid mash sketch database.
+	 */
+	public static MashSketchReader open(final Path sketchDB)
+			throws IOException, NotASketchException {
+		checkNotNull(sketchDB, "sketchDB");
+		try (final FileChannel fc = FileChannel.open(sketchDB, StandardOpenOption.READ)) {
+			final long size = fc.size();
+			final ByteBuffer header = readHeader(fc, size, sketchDB.toString());
+			final long[] segSizes = parseSegmentSizes(header, size, sketchDB.toString());
+			final ByteBuffer[] segs = new ByteBuffer[segSizes.length];
+			long pos = segmentTableSize(segSizes.length);
+			for (int i = 0; i < segs.length; i++) {
+				segs[i] = fc.map(MapMode.READ_ONLY, pos, segSizes[i]);
+				pos += segSizes[i];
+			}
+			// the mapping stays valid after the channel is closed
+			return new MashSketchReader(segs, sketchDB.toString());
+		}
+	}
+
+	/** Read a sketch database from a stream. The stream is read to the end of the Cap'n Proto
+	 * message, but is not closed.
+	 * @param sketchDB the sketch database.
+	 * @param sourceInfo a description of the source of the stream for use in error messages.
+	 * @return a reader for the sketch database.
+	 * @throws IOException if the stream could not be read.
+	 * @throws NotASketchException if the stream does not contain a valid mash sketch database.
+	 */
+	public static MashSketchReader read(final InputStream sketchDB, final String sourceInfo)
+			throws IOException, NotASketchException {
+		checkNotNull(sketchDB, "sketchDB");
+		checkNotNull(sourceInfo, "sourceInfo");
+		final byte[] first = new byte[8];
+		readFully(sketchDB, first, sourceInfo);
+		final int segCount = segmentCount(wrap(first), sourceInfo);
+		final byte[] table = new byte[segmentTableSize(segCount)];
+		System.arraycopy(first, 0, table, 0, first.length);
+		final byte[] rest = new byte[table.length - first.length];
+		readFully(sketchDB, rest, sourceInfo);
+		System.arraycopy(rest, 0, table, first.length, rest.length);
+		final long[] segSizes = parseSegmentSizes(wrap(table), Long.MAX_VALUE, sourceInfo);
+		final ByteBuffer[] segs = new ByteBuffer[segCount];
+		for (int i = 0; i < segCount; i++) {
+			final byte[] seg = new byte[(int) segSizes[i]];
+			readFully(sketchDB, seg, sourceInfo);
+			segs[i] = wrap(seg);
+		}
+		return new MashSketchReader(segs, sourceInfo);
+	}
+
+	private static void readFully(final InputStream is, final byte[] b, final String source)
+			throws IOException, NotASketchException {
+		int off = 0;
+		while (off < b.length) {
+			final int read = is.read(b, off, b.length - off);
+			if (read < 0) {
+				throw new NotASketchException(source + ": Sketch data ends unexpectedly");
+			}
+			off += read;
+		}
+	}
+
+	private static ByteBuffer wrap(final byte[] b) {
+		return ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static ByteBuffer readHeader(final FileChannel fc, final long size, final String src)
+			throws IOException, NotASketchException {
+		if (size < 8) {
+			throw new NotASketchException(src + ": Sketch data ends unexpectedly");
+		}
+		final ByteBuffer first = fc.map(MapMode.READ_ONLY, 0, 8).order(ByteOrder.LITTLE_ENDIAN);
+		final int tableSize = segmentTableSize(segmentCount(first, src));
+		if (size < tableSize) {
+			throw new NotASketchException(src + ": Sketch data ends unexpectedly");
+		}
+		return fc.map(MapMode.READ_ONLY, 0, tableSize).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int segmentCount(final ByteBuffer header, final String src)
+			throws NotASketchException {
+		final long segCount = (header.getInt(0) & 0xFFFFFFFFL) + 1;
+		if (segCount > MAX_SEGMENTS) {
+			throw new NotASketchException(String.format(
+					"%s: Illegal sketch segment count: %s", src, segCount));
+		}
+		return (int) segCount;
+	}
+
+	private static int segmentTableSize(final int segCount) {
+		// count + sizes, padded to a word boundary
+		return ((4 + 4 * segCount) + 7) & ~7;
+	}
+
+	private static long[] parseSegmentSizes(
+			final ByteBuffer header,
+			final long dataSize,
+			final String src)
+			throws NotASketchException {
+		final int segCount = segmentCount(header, src);
+		final long[] sizes = new long[segCount];
+		long total = segmentTableSize(segCount);
+		for (int i = 0; i < segCount; i++) {
+			sizes[i] = (header.getInt(4 + 4 * i) & 0xFFFFFFFFL) * 8;
+			if (sizes[i] > Integer.MAX_VALUE) {
+				throw new NotASketchException(String.format(
+						"%s: Sketch segment %s is too large: %s bytes", src, i, sizes[i]));
+			}
+			total += sizes[i];
+		}
+		if (total > dataSize) {
+			throw new NotASketchException(src + ": Sketch data ends unexpectedly");
+		}
+		return sizes;
+	}
+
+	private MashSketchReader(final ByteBuffer[] segments, final String source)
+			throws NotASketchException {
+		this.source = source;
+		this.segments = segments;
+		for (int i = 0; i < segments.length; i++) {
+			segments[i].order(ByteOrder.LITTLE_ENDIAN);
+		}
+		final StructRef root = readStructPointer(0, 0);
+		if (root == null) {
+			throw notASketch("Sketch has no root structure");
+		}
+		kmerSize = readInt(root, MINHASH_KMER_SIZE);
+		sketchSize = readInt(root, MINHASH_SKETCH_SIZE);
+		hashSeed = readInt(root, MINHASH_HASH_SEED) ^ DEFAULT_HASH_SEED;
+		alphabet = readText(root, MINHASH_ALPHABET);
+		if (kmerSize < 1) {
+			throw notASketch("Illegal kmer size: " + (kmerSize & 0xFFFFFFFFL));
+		}
+		if (sketchSize < 1) {
+			throw notASketch("Illegal sketch size: " + (sketchSize & 0xFFFFFFFFL));
+		}
+		ListRef refs = getReferences(root, MINHASH_REFERENCE_LIST);
+		if (refs == null || refs.count == 0) {
+			refs = getReferences(root, MINHASH_REFERENCE_LIST_OLD);
+		}
+		references = refs;
+	}
+
+	private ListRef getReferences(final StructRef root, final int pointerIndex)
+			throws NotASketchException {
+		final StructRef reflist = readStructPointer(root, pointerIndex);
+		if (reflist == null) {
+			return null;
+		}
+		final ListRef refs = readListPointer(reflist, 0);
+		if (refs != null && refs.elementSize != ELEMENT_COMPOSITE) {
+			throw notASketch("Sketch reference list is not a list of structures");
+		}
+		return refs;
+	}
+
+	/** Get the kmer size of the sketches.
+	 * @return the kmer size.
+	 */
+	public int getKmerSize() {
+		return kmerSize;
+	}
+
+	/** Get the sketch size, or maximum number of hashes per sketch.
+	 * @return the sketch size.
+	 */
+	public int getSketchSize() {
+		return sketchSize;
+	}
+
+	/** Get the seed for the hash function used to create the sketches.
+	 * @return the hash seed.
+	 */
+	public int getHashSeed() {
+		return hashSeed;
+	}
+
+	/** Get the alphabet used to create the sketches.
+	 * @return the alphabet.
+	 */
+	public String getAlphabet() {
+		return alphabet;
+	}
+
+	/** Get the parameters of the sketch database.
+	 * @return the parameters.
+	 */
+	public MinHashParameters getParameters() {
+		return MinHashParameters.getBuilder(kmerSize).withSketchSize(sketchSize).build();
+	}
+
+	/** Get the number of sketches in the sketch database.
+	 * @return the number of sketches.
+	 */
+	public int getSketchCount() {
+		return references == null ? 0 : references.count;
+	}
+
+	/** Get the ID of a sketch in the sketch database.
+	 * @param index the index of the sketch.
+	 * @return the sketch ID.
+	 * @throws NotASketchException if the sketch data is corrupt.
+	 */
+	public String getSketchID(final int index) throws NotASketchException {
+		return readText(getReference(index), REFERENCE_NAME);
+	}
+
+	/** Get the IDs of all the sketches in the sketch database in the order they are stored.
+	 * @return the sketch IDs.
+	 * @throws NotASketchException if the sketch data is corrupt.
+	 */
+	public List<String> getSketchIDs() throws NotASketchException {
+		final List<String> ids = new ArrayList<>(getSketchCount());
+		for (int i = 0; i < getSketchCount(); i++) {
+			ids.add(getSketchID(i));
+		}
+		return ids;
+	}
+
+	/** Get the hashes for a sketch in the sketch database. Mash stores 32 bit hashes for small
+	 * kmer sizes and 64 bit hashes otherwise; 32 bit hashes are widened without sign
+	 * extension. The hashes are sorted in ascending order when treated as unsigned values.
+	 * @param index the index of the sketch.
+	 * @return the hashes.
+	 * @throws NotASketchException if the sketch data is corrupt.
+	 */
+	public long[] getHashes(final int index) throws NotASketchException {
+		final ListRef list = getHashList(getReference(index));
+		if (list == null) {
+			return new long[0];
+		}
+		final long[] hashes = new long[list.count];
+		if (list.elementSize == ELEMENT_EIGHT_BYTES) {
+			listBuffer(list).asLongBuffer().get(hashes);
+		} else {
+			final ByteBuffer buf = listBuffer(list);
+			for (int i = 0; i < hashes.length; i++) {
+				hashes[i] = buf.getInt() & 0xFFFFFFFFL;
+			}
+		}
+		return hashes;
+	}
+
+	/** Get the number of hashes in a sketch in the sketch database without decoding the hashes.
+	 * @param index the index of the sketch.
+	 * @return the number of hashes.
+	 * @throws NotASketchException if the sketch data is corrupt.
+	 */
+	public int getHashCount(final int index) throws NotASketchException {
+		final ListRef list = getHashList(getReference(index));
+		return list == null ? 0 : list.count;
+	}
+
+	private ListRef getHashList(final StructRef ref) throws NotASketchException {
+		final ListRef h64 = readListPointer(ref, REFERENCE_HASHES64);
+		if (h64 != null && h64.count > 0) {
+			if (h64.elementSize != ELEMENT_EIGHT_BYTES) {
+				throw notASketch("Expected 64 bit hashes in sketch");
+			}
+			return h64;
+		}
+		final ListRef h32 = readListPointer(ref, REFERENCE_HASHES32);
+		if (h32 != null && h32.elementSize != ELEMENT_FOUR_BYTES) {
+			throw notASketch("Expected 32 bit hashes in sketch");
+		}
+		return h32;
+	}
+
+	private ByteBuffer listBuffer(final ListRef list) {
+		// duplicate() resets the byte order
+		final ByteBuffer buf = segments[list.segment].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		buf.position((int) (list.offset * 8));
+		return buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private StructRef getReference(final int index) {
+		if (index < 0 || index >= getSketchCount()) {
+			throw new IndexOutOfBoundsException("No sketch at index " + index);
+		}
+		return references.getStruct(index);
+	}
+
+	private NotASketchException notASketch(final String message) {
+		return new NotASketchException(source + ": " + message);
+	}
+
+	/* *********************************************************
+	 * Cap'n Proto decoding.
+	 * All offsets are in words unless otherwise noted.
+	 * *********************************************************/
+
+	private static class StructRef {
+
+		private final int segment;
+		private final long dataOffset;
+		private final int dataWords;
+		private final int pointerCount;
+
+		private StructRef(
+				final int segment,
+				final long dataOffset,
+				final int dataWords,
+				final int pointerCount) {
+			this.segment = segment;
+			this.dataOffset = dataOffset;
+			this.dataWords = dataWords;
+			this.pointerCount = pointerCount;
+		}
+
+		private long pointerOffset(final int index) {
+			return dataOffset + dataWords + index;
+		}
+	}
+
+	private static class ListRef {
+
+		private final int segment;
+		private final long offset;
+		private final int elementSize;
+		private final int count;
+		// only for composite lists
+		private final int structDataWords;
+		private final int structPointerCount;
+
+		private ListRef(
+				final int segment,
+				final long offset,
+				final int elementSize,
+				final int count,
+				final int structDataWords,
+				final int structPointerCount) {
+			this.segment = segment;
+			this.offset = offset;
+			this.elementSize = elementSize;
+			this.count = count;
+			this.structDataWords = structDataWords;
+			this.structPointerCount = structPointerCount;
+		}
+
+		private StructRef getStruct(final int index) {
+			final long off = offset + (long) index * (structDataWords + structPointerCount);
+			return new StructRef(segment, off, structDataWords, structPointerCount);
+		}
+	}
+
+	// resolves far pointers. Returns the segment, the location of the pointer that describes
+	// the content, and the location of the content (null if the pointer is null).
+	private long[] resolvePointer(int segment, long pointerOffset) throws NotASketchException {
+		long ptr = readWord(segment, pointerOffset);
+		if (ptr == 0) {
+			return null;
+		}
+		if ((ptr & 3) == 2) { // far pointer
+			final boolean doubleFar = (ptr & 4) != 0;
+			final int targetSeg = checkSegment(ptr >>> 32);
+			final long landingPad = (ptr & 0xFFFFFFFFL) >>> 3;
+			if (!doubleFar) {
+				segment = targetSeg;
+				pointerOffset = landingPad;
+				ptr = readWord(segment, pointerOffset);
+				if ((ptr & 3) == 2) {
+					throw notASketch("Sketch contains a far pointer to a far pointer");
+				}
+				return new long[] {segment, ptr, contentOffset(pointerOffset, ptr)};
+			}
+			final long far = readWord(targetSeg, landingPad);
+			if ((far & 7) != 2) {
+				throw notASketch("Sketch contains an illegal double far pointer");
+			}
+			final long tag = readWord(targetSeg, landingPad + 1);
+			return new long[] {checkSegment(far >>> 32), tag, (far & 0xFFFFFFFFL) >>> 3};
+		}
+		return new long[] {segment, ptr, contentOffset(pointerOffset, ptr)};
+	}
+
+	private long contentOffset(final long pointerOffset, final long ptr) {
+		// signed 30 bit offset from the end of the pointer
+		final long offset = ((int) ptr) >> 2;
+		return pointerOffset + 1 + offset;
+	}
+
+	private int checkSegment(final long segment) throws NotASketchException {
+		if (segment >= segments.length) {
+			throw notASketch("Sketch pointer refers to nonexistent segment " + segment);
+		}
+		return (int) segment;
+	}
+
+	private StructRef readStructPointer(final StructRef parent, final int index)
+			throws NotASketchException {
+		if (index >= parent.pointerCount) {
+			return null;
+		}
+		return readStructPointer(parent.segment, parent.pointerOffset(index));
+	}
+
+	private StructRef readStructPointer(final int segment, final long pointerOffset)
+			throws NotASketchException {
+		final long[] res = resolvePointer(segment, pointerOffset);
+		if (res == null) {
+			return null;
+		}
+		final long ptr = res[1];
+		if ((ptr & 3) != 0) {
+			throw notASketch("Expected a structure pointer in sketch");
+		}
+		final StructRef s = new StructRef(
+				(int) res[0], res[2], (int) ((ptr >>> 32) & 0xFFFF), (int) (ptr >>> 48));
+		checkBounds(s.segment, s.dataOffset, (long) s.dataWords + s.pointerCount);
+		return s;
+	}
+
+	private ListRef readListPointer(final StructRef parent, final int index)
+			throws NotASketchException {
+		if (index >= parent.pointerCount) {
+			return null;
+		}
+		final long[] res = resolvePointer(parent.segment, parent.pointerOffset(index));
+		if (res == null) {
+			return null;
+		}
+		final int segment = (int) res[0];
+		final long ptr = res[1];
+		long offset = res[2];
+		if ((ptr & 3) != 1) {
+			throw notASketch("Expected a list pointer in sketch");
+		}
+		final int elementSize = (int) ((ptr >>> 32) & 7);
+		final long size = ptr >>> 35; // element count, or word count for composite lists
+		if (elementSize == ELEMENT_COMPOSITE) {
+			checkBounds(segment, offset, size + 1);
+			final long tag = readWord(segment, offset);
+			final long count = (tag & 0xFFFFFFFFL) >>> 2;
+			final int dataWords = (int) ((tag >>> 32) & 0xFFFF);
+			final int ptrCount = (int) (tag >>> 48);
+			if (count * (dataWords + ptrCount) > size) {
+				throw notASketch("Sketch structure list overruns its bounds");
+			}
+			offset++;
+			return new ListRef(segment, offset, elementSize, (int) count, dataWords, ptrCount);
+		}
+		final long bits = size * elementBits(elementSize);
+		checkBounds(segment, offset, (bits + 63) / 64);
+		return new ListRef(segment, offset, elementSize, (int) size, 0, 0);
+	}
+
+	private static int elementBits(final int elementSize) {
+		switch (elementSize) {
+			case 0: return 0;
+			case 1: return 1;
+			case 6: return 64;
+			default: return 8 << (elementSize - 2);
+		}
+	}
+
+	private void checkBounds(final int segment, final long offset, final long words)
+			throws NotASketchException {
+		final long segWords = segments[segment].capacity() / 8;
+		if (offset < 0 || offset + words > segWords) {
+			throw notASketch("Sketch pointer is out of bounds");
+		}
+	}
+
+	private long readWord(final int segment, final long offset) throws NotASketchException {
+		checkBounds(segment, offset, 1);
+		return segments[segment].getLong((int) (offset * 8));
+	}
+
+	private int readInt(final StructRef s, final int byteOffset) {
+		if (byteOffset + 4 > s.dataWords * 8) {
+			return 0; // field is not present, so it's the default
+		}
+		return segments[s.segment].getInt((int) (s.dataOffset * 8 + byteOffset));
+	}
+
+	private String readText(final StructRef s, final int pointerIndex)
+			throws NotASketchException {
+		final ListRef text = readListPointer(s, pointerIndex);
+		if (text == null) {
+			return "";
+		}
+		if (text.elementSize != ELEMENT_BYTE) {
+			throw notASketch("Expected text in sketch");
+		}
+		// text is NUL terminated
+		final int length = Math.max(0, text.count - 1);
+		final byte[] b = new byte[length];
+		listBuffer(text).get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,369 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage.Storage;
+import us.kbase.assemblyhomology.minhash.MinHashParameters;
+import us.kbase.assemblyhomology.minhash.exceptions.NotASketchException;
+
+/** A columnar store for the contents of a mash sketch database that is memory mapped rather
+ * than read into the heap. Mapped sketches live in the operating system page cache, and so are
+ * shared between processes on the same host and survive process restarts.
+ *
+ * A store is written next to the sketch database it was created from, and records the size and
+ * modification time of the sketch database. If the sketch database changes, or the store was
+ * written with a different layout version, the store is ignored.
+ *
+ * The layout, with all values little endian, is:
+ * <pre>
+ * header (64 bytes): magic, version, kmer size, sketch size, sketch count, source size,
+ *     source modification time, ID block offset, ID block length, hash block offset
+ * sketch table: sketch count + 1 entries of (first hash index, first ID byte index), 16 bytes
+ *     each. The final entry marks the end of the hashes and IDs.
+ * ID block: the UTF-8 encoded sketch IDs, concatenated.
+ * hash block: starting on an 8 byte boundary, the sorted 64 bit hashes for each sketch,
+ *     concatenated.
+ * </pre>
+ * @author gaprice@lbl.gov
+ *
+ */
+public class MashSketchStore {
+
+	/** The suffix appended to a sketch database file name to get the file name of its store. */
+	public static final String STORE_SUFFIX = ".sketchstore";
+
+	/** The version of the store layout written by this class. */
+	public static final int VERSION = 1;
+
+	private static final byte[] MAGIC = "AHSKSTOR".getBytes(StandardCharsets.US_ASCII);
+
+	// header byte offsets
+	private static final int HEADER_VERSION = 8;
+	private static final int HEADER_KMER_SIZE = 12;
+	private static final int HEADER_SKETCH_SIZE = 16;
+	private static final int HEADER_SKETCH_COUNT = 20;
+	private static final int HEADER_SOURCE_SIZE = 24;
+	private static final int HEADER_SOURCE_MODIFIED = 32;
+	private static final int HEADER_IDS_OFFSET = 40;
+	private static final int HEADER_IDS_LENGTH = 48;
+	private static final int HEADER_HASHES_OFFSET = 56;
+	private static final int HEADER_SIZE = 64;
+
+	private static final int TABLE_ENTRY_SIZE = 16;
+
+	// a single mapping can't exceed 2GB
+	private static final long MAX_MAP_BYTES = Integer.MAX_VALUE & ~7L;
+
+	private MashSketchStore() {}
+
+	/** Get the path of the store for a sketch database.
+	 * @param sketchDB the path to the sketch database.
+	 * @return the path to the store.
+	 */
+	public static Path getStorePath(final Path sketchDB) {
+		checkNotNull(sketchDB, "sketchDB");
+		final Path abs = sketchDB.toAbsolutePath();
+		return abs.resolveSibling(abs.getFileName().toString() + STORE_SUFFIX);
+	}
+
+	/** Write a store for a sketch database, replacing any existing store. The store is written
+	 * to a temporary file and then moved into place, so concurrent readers never see a partial
+	 * store.
+	 * @param sketchDB the path to the sketch database.
+	 * @return the path to the store.
+	 * @throws IOException if the sketch database could not be read or the store could not be
+	 * written.
+	 * @throws NotASketchException if the file is not a valid mash sketch database.
+	 */
+	public static Path write(final Path sketchDB) throws IOException, NotASketchException {
+		final Path store = getStorePath(sketchDB);
+		// stat first so a concurrent change to the sketch database makes the store stale
+		final long sourceSize = Files.size(sketchDB);
+		final long sourceModified = Files.getLastModifiedTime(sketchDB).toMillis();
+		final MashSketchReader reader = MashSketchReader.open(sketchDB);
+		final int count = reader.getSketchCount();
+		if ((long) count + 1 > (MAX_MAP_BYTES / TABLE_ENTRY_SIZE)) {
+			throw new IllegalArgumentException("Too many sketches for a sketch store: " + count);
+		}
+		final ByteBuffer table = ByteBuffer.allocate((count + 1) * TABLE_ENTRY_SIZE)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		final byte[][] ids = new byte[count][];
+		long hashStart = 0;
+		long idStart = 0;
+		for (int i = 0; i < count; i++) {
+			ids[i] = reader.getSketchID(i).getBytes(StandardCharsets.UTF_8);
+			table.putLong(hashStart).putLong(idStart);
+			hashStart += reader.getHashCount(i);
+			idStart += ids[i].length;
+		}
+		table.putLong(hashStart).putLong(idStart);
+		if (idStart > MAX_MAP_BYTES) {
+			throw new IllegalArgumentException("Sketch IDs too large for a sketch store");
+		}
+		final long idsOffset = HEADER_SIZE + table.capacity();
+		final long hashesOffset = align(idsOffset + idStart);
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+				.put(MAGIC)
+				.putInt(VERSION)
+				.putInt(reader.getKmerSize())
+				.putInt(reader.getSketchSize())
+				.putInt(count)
+				.putLong(sourceSize)
+				.putLong(sourceModified)
+				.putLong(idsOffset)
+				.putLong(idStart)
+				.putLong(hashesOffset);
+
+		final Path temp = Files.createTempFile(
+				store.getParent(), store.getFileName().toString(), ".tmp");
+		try {
+			try (final OutputStream os = new BufferedOutputStream(Files.newOutputStream(temp))) {
+				os.write(header.array());
+				os.write(table.array());
+				for (final byte[] id: ids) {
+					os.write(id);
+				}
+				os.write(new byte[(int) (hashesOffset - idsOffset - idStart)]);
+				ByteBuffer buf = ByteBuffer.allocate(0);
+				for (int i = 0; i < count; i++) {
+					final long[] hashes = reader.getHashes(i);
+					if (buf.capacity() < hashes.length * 8) {
+						buf = ByteBuffer.allocate(hashes.length * 8)
+								.order(ByteOrder.LITTLE_ENDIAN);
+					}
+					buf.clear();
+					buf.asLongBuffer().put(hashes);
+					os.write(buf.array(), 0, hashes.length * 8);
+				}
+			}
+			Files.move(temp, store, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		return store;
+	}
+
+	private static long align(final long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	/** Open the store for a sketch database. The store is memory mapped.
+	 * @param sketchDB the path to the sketch database.
+	 * @return the sketches, or absent if there is no store, the store is out of date, or the
+	 * store cannot be used. In the latter two cases a warning is logged.
+	 * @throws IOException if the store could not be mapped.
+	 */
+	public static Optional<MashSketches> open(final Path sketchDB) throws IOException {
+		final Path store = getStorePath(sketchDB);
+		if (!Files.exists(store)) {
+			return Optional.absent();
+		}
+		try (final FileChannel fc = FileChannel.open(store, StandardOpenOption.READ)) {
+			// the mappings stay valid after the channel is closed
+			return Optional.of(new MappedSketches(fc, sketchDB));
+		} catch (UnusableStoreException e) {
+			LoggerFactory.getLogger(MashSketchStore.class).warn(
+					"Ignoring sketch store {}: {}", store, e.getMessage());
+			return Optional.absent();
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class UnusableStoreException extends Exception {
+
+		private UnusableStoreException(final String message) {
+			super(message);
+		}
+	}
+
+	private static class MappedSketches implements MashSketches {
+
+		private final MinHashParameters parameters;
+		private final int sketchSize;
+		private final int sketchCount;
+		private final ByteBuffer table;
+		private final ByteBuffer ids;
+		// the hashes are mapped in chunks of whole sketches to stay under the 2GB limit
+		private final long[] chunkStarts;
+		private final ByteBuffer[] chunks;
+
+		private MappedSketches(final FileChannel fc, final Path sketchDB)
+				throws IOException, UnusableStoreException {
+			final long size = fc.size();
+			if (size < HEADER_SIZE) {
+				throw new UnusableStoreException("Store is truncated");
+			}
+			final ByteBuffer header = map(fc, 0, HEADER_SIZE);
+			final byte[] magic = new byte[MAGIC.length];
+			header.get(magic);
+			if (!Arrays.equals(MAGIC, magic)) {
+				throw new UnusableStoreException("Not a sketch store");
+			}
+			final int version = header.getInt(HEADER_VERSION);
+			if (version != VERSION) {
+				throw new UnusableStoreException(String.format(
+						"Store version %s is not supported, expected %s", version, VERSION));
+			}
+			if (header.getLong(HEADER_SOURCE_SIZE) != Files.size(sketchDB) ||
+					header.getLong(HEADER_SOURCE_MODIFIED) !=
+						Files.getLastModifiedTime(sketchDB).toMillis()) {
+				throw new UnusableStoreException("Store is out of date");
+			}
+			final int kmerSize = header.getInt(HEADER_KMER_SIZE);
+			sketchSize = header.getInt(HEADER_SKETCH_SIZE);
+			sketchCount = header.getInt(HEADER_SKETCH_COUNT);
+			final long idsOffset = header.getLong(HEADER_IDS_OFFSET);
+			final long idsLength = header.getLong(HEADER_IDS_LENGTH);
+			final long hashesOffset = header.getLong(HEADER_HASHES_OFFSET);
+			if (kmerSize < 1 || sketchSize < 1 || sketchCount < 0 ||
+					(long) sketchCount + 1 > MAX_MAP_BYTES / TABLE_ENTRY_SIZE ||
+					idsOffset != HEADER_SIZE + ((long) sketchCount + 1) * TABLE_ENTRY_SIZE ||
+					idsLength < 0 || idsLength > MAX_MAP_BYTES ||
+					hashesOffset != align(idsOffset + idsLength) || hashesOffset > size) {
+				throw new UnusableStoreException("Store header is corrupt");
+			}
+			parameters = MinHashParameters.getBuilder(kmerSize).withSketchSize(sketchSize)
+					.build();
+			table = map(fc, HEADER_SIZE, idsOffset - HEADER_SIZE);
+			ids = map(fc, idsOffset, idsLength);
+			final List<Long> starts = new ArrayList<>();
+			starts.add(0L);
+			long chunkStart = 0;
+			for (int i = 0; i < sketchCount; i++) {
+				final long start = hashStart(i);
+				final long end = hashStart(i + 1);
+				if (end < start || idStart(i + 1) < idStart(i) ||
+						(end - start) * 8 > MAX_MAP_BYTES) {
+					throw new UnusableStoreException("Store sketch table is corrupt");
+				}
+				if ((end - chunkStart) * 8 > MAX_MAP_BYTES) {
+					chunkStart = start;
+					starts.add(chunkStart);
+				}
+			}
+			final long hashCount = hashStart(sketchCount);
+			if (hashStart(0) != 0 || idStart(0) != 0 || idStart(sketchCount) != idsLength ||
+					hashesOffset + hashCount * 8 != size) {
+				throw new UnusableStoreException("Store sketch table is corrupt");
+			}
+			chunkStarts = new long[starts.size()];
+			chunks = new ByteBuffer[starts.size()];
+			for (int i = 0; i < chunks.length; i++) {
+				chunkStarts[i] = starts.get(i);
+				final long end = i + 1 < chunks.length ? starts.get(i + 1) : hashCount;
+				chunks[i] = map(fc, hashesOffset + chunkStarts[i] * 8,
+						(end - chunkStarts[i]) * 8);
+			}
+		}
+
+		private static ByteBuffer map(final FileChannel fc, final long offset, final long size)
+				throws IOException {
+			return fc.map(MapMode.READ_ONLY, offset, size).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		private long hashStart(final int index) {
+			return table.getLong(index * TABLE_ENTRY_SIZE);
+		}
+
+		private int idStart(final int index) {
+			return (int) table.getLong(index * TABLE_ENTRY_SIZE + 8);
+		}
+
+		@Override
+		public MinHashParameters getParameters() {
+			return parameters;
+		}
+
+		@Override
+		public int getSketchSize() {
+			return sketchSize;
+		}
+
+		@Override
+		public int getSketchCount() {
+			return sketchCount;
+		}
+
+		@Override
+		public List<String> getSketchIDs() {
+			final List<String> ret = new ArrayList<>(sketchCount);
+			for (int i = 0; i < sketchCount; i++) {
+				ret.add(getSketchID(i));
+			}
+			return Collections.unmodifiableList(ret);
+		}
+
+		@Override
+		public String getSketchID(final int index) {
+			checkIndex(index);
+			final int start = idStart(index);
+			final byte[] b = new byte[idStart(index + 1) - start];
+			for (int i = 0; i < b.length; i++) {
+				b[i] = ids.get(start + i);
+			}
+			return new String(b, StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public int getHashCount(final int index) {
+			checkIndex(index);
+			return (int) (hashStart(index + 1) - hashStart(index));
+		}
+
+		@Override
+		public int getHashes(final int index, final long[] buffer) {
+			checkNotNull(buffer, "buffer");
+			final int count = getHashCount(index);
+			if (count == 0) {
+				return 0;
+			}
+			final long start = hashStart(index);
+			int chunk = Arrays.binarySearch(chunkStarts, start);
+			if (chunk < 0) {
+				chunk = -chunk - 2; // the chunk starting before the sketch
+			}
+			final ByteBuffer c = chunks[chunk];
+			// absolute gets don't change the buffer state, so are safe for concurrent reads
+			final int offset = (int) ((start - chunkStarts[chunk]) * 8);
+			for (int i = 0; i < count; i++) {
+				buffer[i] = c.getLong(offset + i * 8);
+			}
+			return count;
+		}
+
+		@Override
+		public MinHashMemoryUsage getMemoryUsage() {
+			final long hashCount = hashStart(sketchCount);
+			return new MinHashMemoryUsage(Storage.MAPPED, sketchCount, hashCount, hashCount * 8);
+		}
+
+		private void checkIndex(final int index) {
+			if (index < 0 || index >= sketchCount) {
+				throw new IndexOutOfBoundsException("No sketch at index " + index);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+import java.util.List;
+
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage;
+import us.kbase.assemblyhomology.minhash.MinHashParameters;
+
+/** The contents of a mash sketch database in a form that allows the sketches to be compared
+ * repeatedly without rereading the sketch database.
+ *
+ * Implementations must be safe for concurrent reads.
+ * @author gaprice@lbl.gov
+ *
+ */
+public interface MashSketches {
+
+	/** Get the parameters of the sketch database.
+	 * @return the parameters.
+	 */
+	MinHashParameters getParameters();
+
+	/** Get the kmer size of the sketches.
+	 * @return the kmer size.
+	 */
+	default int getKmerSize() {
+		return getParameters().getKmerSize();
+	}
+
+	/** Get the sketch size, or maximum number of hashes per sketch.
+	 * @return the sketch size.
+	 */
+	int getSketchSize();
+
+	/** Get the number of sketches.
+	 * @return the number of sketches.
+	 */
+	int getSketchCount();
+
+	/** Get the IDs of the sketches in the order they are stored in the sketch database.
+	 * @return the sketch IDs.
+	 */
+	List<String> getSketchIDs();
+
+	/** Get the ID of a sketch.
+	 * @param index the index of the sketch.
+	 * @return the sketch ID.
+	 */
+	String getSketchID(int index);
+
+	/** Get the number of hashes in a sketch.
+	 * @param index the index of the sketch.
+	 * @return the number of hashes.
+	 */
+	int getHashCount(int index);
+
+	/** Copy the hashes for a sketch into a buffer. The hashes are sorted in ascending order when
+	 * treated as unsigned values.
+	 * @param index the index of the sketch.
+	 * @param buffer the buffer into which the hashes will be copied, starting at index 0. The
+	 * buffer must be at least as large as {@link #getHashCount(int)}.
+	 * @return the number of hashes copied.
+	 */
+	int getHashes(int index, long[] buffer);
+
+	/** Copy the smallest hashes for a sketch into a buffer, stopping once the hashes are greater
+	 * than a maximum. All the hashes no greater than the maximum, treated as unsigned values,
+	 * are copied. Implementations may copy more of the hashes, up to all of them, and by default
+	 * copy all of them. Implementations that must decode the hashes use this method to avoid
+	 * decoding hashes that a comparison will never reach.
+	 * @param index the index of the sketch.
+	 * @param buffer the buffer into which the hashes will be copied, starting at index 0. The
+	 * buffer must be at least as large as {@link #getHashCount(int)}.
+	 * @param maxHash the maximum hash, treated as an unsigned value.
+	 * @return the number of hashes copied.
+	 */
+	default int getHashes(final int index, final long[] buffer, final long maxHash) {
+		return getHashes(index, buffer);
+	}
+
+	/** Get the memory occupied by the hashes.
+	 * @return the memory usage.
+	 */
+	MinHashMemoryUsage getMemoryUsage();
+
+}
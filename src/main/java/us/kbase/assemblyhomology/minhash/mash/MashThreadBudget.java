@@ -0,0 +1,120 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+/** A budget of threads shared by the mash processes run by all in-flight searches, from which
+ * each process is given a number of threads with mash's -p option when it starts.
+ *
+ * A search reserves a share of the budget for each of its mash runs when it submits them. When
+ * a run starts, it takes the threads that are free divided by the number of runs, including
+ * itself, that are reserved but not yet started, rounded up, and returns them when it
+ * completes. A lone search therefore gets all the threads, and searches that overlap split
+ * them. A run always gets at least one thread, so the budget may be exceeded by up to one
+ * thread per run that starts when no threads are free.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class MashThreadBudget {
+
+	private final int threads;
+	// may be negative if runs have started when no threads were free
+	private int free;
+	private int unstarted = 0;
+
+	/** Create a budget.
+	 * @param threads the number of threads to share between mash processes.
+	 */
+	public MashThreadBudget(final int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be > 0");
+		}
+		this.threads = threads;
+		this.free = threads;
+	}
+
+	/** Get the number of threads shared between mash processes.
+	 * @return the number of threads.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/** Get the number of threads not currently in use by a mash process.
+	 * @return the number of free threads. This may be negative if more threads are in use
+	 * than are in the budget.
+	 */
+	public synchronized int getFreeThreads() {
+		return free;
+	}
+
+	/** Reserve a share of the budget for the mash runs in a search.
+	 * @param runs the number of runs.
+	 * @return the reservation, which must be closed once the search no longer needs it, even
+	 * if some of the runs never started.
+	 */
+	public Reservation reserve(final int runs) {
+		if (runs < 0) {
+			throw new IllegalArgumentException("runs must be >= 0");
+		}
+		synchronized (this) {
+			unstarted += runs;
+		}
+		return new Reservation(runs);
+	}
+
+	/** The share of the budget reserved for the mash runs in a search. */
+	public class Reservation implements AutoCloseable {
+
+		private int unstartedRuns;
+
+		private Reservation(final int runs) {
+			unstartedRuns = runs;
+		}
+
+		/** Take threads from the budget for a run that is starting. The threads must be
+		 * returned with {@link #release(int)} when the run completes.
+		 * @return the number of threads to give the run.
+		 */
+		public int acquire() {
+			synchronized (MashThreadBudget.this) {
+				// includes this run unless the reservation has been closed
+				final int waiting = Math.max(1, unstarted);
+				if (unstartedRuns > 0) {
+					unstartedRuns--;
+					unstarted--;
+				}
+				final int share = free < 1 ? 1 : (free + waiting - 1) / waiting;
+				free -= share;
+				return share;
+			}
+		}
+
+		/** Return threads to the budget.
+		 * @param threads the threads returned from {@link #acquire()}.
+		 */
+		public void release(final int threads) {
+			synchronized (MashThreadBudget.this) {
+				free += threads;
+			}
+		}
+
+		/** Release the share reserved for a run that will not take threads from the budget, for
+		 * example because a batch run does its work.
+		 */
+		public void skip() {
+			synchronized (MashThreadBudget.this) {
+				if (unstartedRuns > 0) {
+					unstartedRuns--;
+					unstarted--;
+				}
+			}
+		}
+
+		/** Release the shares reserved for runs that never started. */
+		@Override
+		public void close() {
+			synchronized (MashThreadBudget.this) {
+				unstarted -= unstartedRuns;
+				unstartedRuns = 0;
+			}
+		}
+	}
+}
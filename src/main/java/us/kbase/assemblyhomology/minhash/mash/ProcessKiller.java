@@ -0,0 +1,19 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+/** Kills processes. This is the Java 8 version of the class, which can only kill the process
+ * itself. The Java 17+ version, which is loaded from the versioned section of the multi-release
+ * jar, also kills the process's descendants.
+ * @author gaprice@lbl.gov
+ *
+ */
+final class ProcessKiller {
+	
+	private ProcessKiller() {}
+	
+	/** Forcibly kill a process.
+	 * @param process the process to kill.
+	 */
+	static void destroy(final Process process) {
+		process.destroyForcibly();
+	}
+}
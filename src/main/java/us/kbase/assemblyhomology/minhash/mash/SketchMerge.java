@@ -0,0 +1,142 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+/** Merges two sorted sketches in the manner of mash dist, counting the hashes shared by the
+ * sketches and the size of the union sketch. This is the scalar merge, which is always
+ * available and which {@link SketchMergeKernel} implementations use to finish merges.
+ *
+ * The counts are packed into a single long to avoid allocating a result per comparison.
+ * @author gaprice@lbl.gov
+ *
+ */
+final class SketchMerge {
+
+	/** The result of a merge that was abandoned because the distance was certain to be greater
+	 * than the bound.
+	 */
+	static final long ABANDONED = -1;
+
+	// how often, in merge steps, to check whether a comparison can still beat its bound
+	private static final int BOUND_CHECK_INTERVAL = 64;
+
+	private SketchMerge() {}
+
+	/** Merge two sketches from the start.
+	 * @param reference the buffer containing the hashes in the reference sketch.
+	 * @param referenceLength the number of hashes in the reference sketch.
+	 * @param query the buffer containing the hashes in the query sketch.
+	 * @param queryLength the number of hashes in the query sketch.
+	 * @param sketchSize the sketch size to use for the comparison.
+	 * @param minJaccard abandon the merge if the Jaccard index is certain to be less than this
+	 * value. 0 to never abandon the merge.
+	 * @return the packed counts or {@link #ABANDONED}.
+	 */
+	static long merge(
+			final long[] reference,
+			final int referenceLength,
+			final long[] query,
+			final int queryLength,
+			final int sketchSize,
+			final double minJaccard) {
+		return merge(reference, 0, referenceLength, query, 0, queryLength, 0, sketchSize,
+				minJaccard);
+	}
+
+	/** Continue a merge of two sketches. All the hashes before the starting positions must be
+	 * no greater than any hash after them, as is the case after any number of steps of a merge.
+	 * @param reference the buffer containing the hashes in the reference sketch.
+	 * @param i the position in the reference sketch at which to continue the merge.
+	 * @param referenceLength the number of hashes in the reference sketch.
+	 * @param query the buffer containing the hashes in the query sketch.
+	 * @param j the position in the query sketch at which to continue the merge.
+	 * @param queryLength the number of hashes in the query sketch.
+	 * @param common the number of shared hashes before the starting positions.
+	 * @param sketchSize the sketch size to use for the comparison.
+	 * @param minJaccard abandon the merge if the Jaccard index is certain to be less than this
+	 * value. 0 to never abandon the merge.
+	 * @return the packed counts or {@link #ABANDONED}.
+	 */
+	static long merge(
+			final long[] reference,
+			int i,
+			final int referenceLength,
+			final long[] query,
+			int j,
+			final int queryLength,
+			int common,
+			final int sketchSize,
+			final double minJaccard) {
+		int denom = i + j - common;
+		// merge the sorted sketches until the union sketch is full
+		while (denom < sketchSize && i < referenceLength && j < queryLength) {
+			if (denom % BOUND_CHECK_INTERVAL == 0 && !canMeetBound(
+					referenceLength - i, queryLength - j, common, denom, sketchSize, minJaccard)) {
+				return ABANDONED;
+			}
+			// flipping the sign bit makes signed comparison order the hashes as unsigned values
+			final long r = reference[i] ^ Long.MIN_VALUE;
+			final long q = query[j] ^ Long.MIN_VALUE;
+			if (r < q) {
+				i++;
+			} else if (q < r) {
+				j++;
+			} else {
+				i++;
+				j++;
+				common++;
+			}
+			denom++;
+		}
+		if (denom < sketchSize) {
+			// complete the union with whatever remains of the longer sketch
+			denom += referenceLength - i;
+			denom += queryLength - j;
+			if (denom > sketchSize) {
+				denom = sketchSize;
+			}
+		}
+		return ((long) common << 32) | denom;
+	}
+
+	/** Check whether a merge in progress could still reach a Jaccard index.
+	 * @param referenceRemaining the number of hashes remaining in the reference sketch.
+	 * @param queryRemaining the number of hashes remaining in the query sketch.
+	 * @param common the number of shared hashes so far.
+	 * @param denom the size of the union sketch so far.
+	 * @param sketchSize the sketch size to use for the comparison.
+	 * @param minJaccard the Jaccard index. 0 always succeeds.
+	 * @return false if the Jaccard index is certain to be less than minJaccard.
+	 */
+	static boolean canMeetBound(
+			final int referenceRemaining,
+			final int queryRemaining,
+			final int common,
+			final int denom,
+			final int sketchSize,
+			final double minJaccard) {
+		if (minJaccard <= 0) {
+			return true;
+		}
+		/* At best every remaining slot in the union sketch holds a shared hash, which
+		 * adds the same amount to the shared count and the union size.
+		 */
+		final int best = Math.min(sketchSize - denom,
+				Math.min(referenceRemaining, queryRemaining));
+		return common + best >= minJaccard * (denom + best);
+	}
+
+	/** Get the number of shared hashes from a merge result.
+	 * @param merge the result of a merge that was not abandoned.
+	 * @return the number of shared hashes.
+	 */
+	static int getCommon(final long merge) {
+		return (int) (merge >>> 32);
+	}
+
+	/** Get the size of the union sketch from a merge result.
+	 * @param merge the result of a merge that was not abandoned.
+	 * @return the size of the union sketch.
+	 */
+	static int getDenominator(final long merge) {
+		return (int) merge;
+	}
+}
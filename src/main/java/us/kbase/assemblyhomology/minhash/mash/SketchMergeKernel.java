@@ -0,0 +1,40 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+/** Selects how sketches are merged when computing Mash distances. This is the Java 8 version
+ * of the class, which always uses the scalar merge in {@link SketchMerge}. A multi-release
+ * jar replaces it on Java 17+ with a version that can use the incubating Vector API.
+ * @author gaprice@lbl.gov
+ *
+ */
+final class SketchMergeKernel {
+
+	private SketchMergeKernel() {}
+
+	/** Get the name of the merge implementation in use.
+	 * @return the name.
+	 */
+	static String getName() {
+		return "scalar";
+	}
+
+	/** Merge two sketches. See {@link SketchMerge#merge(long[], int, long[], int, int, double)}.
+	 * @param reference the buffer containing the hashes in the reference sketch.
+	 * @param referenceLength the number of hashes in the reference sketch.
+	 * @param query the buffer containing the hashes in the query sketch.
+	 * @param queryLength the number of hashes in the query sketch.
+	 * @param sketchSize the sketch size to use for the comparison.
+	 * @param minJaccard abandon the merge if the Jaccard index is certain to be less than this
+	 * value. 0 to never abandon the merge.
+	 * @return the packed counts or {@link SketchMerge#ABANDONED}.
+	 */
+	static long merge(
+			final long[] reference,
+			final int referenceLength,
+			final long[] query,
+			final int queryLength,
+			final int sketchSize,
+			final double minJaccard) {
+		return SketchMerge.merge(
+				reference, referenceLength, query, queryLength, sketchSize, minJaccard);
+	}
+}
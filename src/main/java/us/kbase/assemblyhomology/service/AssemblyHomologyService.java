@@ -25,6 +25,7 @@ public class AssemblyHomologyService extends ResourceConfig {
 	//TODO JAVADOC
 	
 	private static MongoClient mc;
+	private static AssemblyHomology ah;
 	@SuppressWarnings("unused")
 	private final SLF4JAutoLogger logger; //keep a reference to prevent GC
 	
@@ -71,6 +72,12 @@ public class AssemblyHomologyService extends ResourceConfig {
 		register(LoggingFilter.class);
 		register(ExceptionHandler.class);
 		final AssemblyHomology ah = ab.getAssemblyHomology();
+		AssemblyHomologyService.ah = ah;
+		// build the implementations now rather than on the first search
+		ah.probeImplementations();
+		if (c.getMinhashProbeIntervalSec() > 0) {
+			ah.startHealthProbe(c.getMinhashProbeIntervalSec());
+		}
 		register(new AbstractBinder() {
 			@Override
 			protected void configure() {
@@ -82,6 +89,9 @@ public class AssemblyHomologyService extends ResourceConfig {
 	}
 	
 	static void shutdown() {
+		if (ah != null) {
+			ah.shutdown();
+		}
 		mc.close();
 	}
 }
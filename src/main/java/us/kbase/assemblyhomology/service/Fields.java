@@ -16,6 +16,22 @@ public class Fields {
 	public static final String SERVER_TIME = "servertime";
 	/** The Git commit from which the service was built. */
 	public static final String GIT_HASH = "gitcommithash";
+	/** The number of processes, such as mash processes, running for MinHash searches. */
+	public static final String MINHASH_PROCESSES = "minhashprocesses";
+	/** The result of the most recent health check of each MinHash implementation. */
+	public static final String MINHASH_IMPLEMENTATIONS = "minhashimpls";
+	/** The name of a MinHash implementation. */
+	public static final String MINHASH_IMPL_NAME = "impl";
+	/** The version of a MinHash implementation, absent if the health check failed. */
+	public static final String MINHASH_IMPL_VERSION = "implver";
+	/** Whether the health check of a MinHash implementation succeeded. */
+	public static final String MINHASH_IMPL_HEALTHY = "healthy";
+	/** The error from the health check of a MinHash implementation, if any. */
+	public static final String MINHASH_IMPL_ERROR = "error";
+	/** The time, in milliseconds since the epoch, of the health check of a MinHash
+	 * implementation.
+	 */
+	public static final String MINHASH_IMPL_CHECK_TIME = "checked";
 	
 	/* namespaces */
 	
@@ -45,6 +61,20 @@ public class Fields {
 	 */
 	public static final String NAMESPACE_DB_ID = "database";
 	
+	/* Namespace memory usage */
+	/** Whether a namespace's sketch database is held in memory. */
+	public static final String MEMORY_LOADED = "loaded";
+	/** How the hashes in a namespace's sketch database are held in memory. */
+	public static final String MEMORY_STORAGE = "storage";
+	/** The number of sketches held in memory. */
+	public static final String MEMORY_SKETCH_COUNT = "sketchcount";
+	/** The number of hashes held in memory. */
+	public static final String MEMORY_HASH_COUNT = "hashcount";
+	/** The number of bytes occupied by the hashes held in memory. */
+	public static final String MEMORY_HASH_BYTES = "hashbytes";
+	/** The number of bytes the hashes held in memory would occupy uncompressed. */
+	public static final String MEMORY_UNCOMPRESSED_BYTES = "uncompressedbytes";
+	
 	/* Distances */
 	/** A set of MinHash distances from a query sequence to one or more reference sequences. */
 	public static final String DISTANCES = "distances";
@@ -68,6 +98,10 @@ public class Fields {
 	public static final String DIST_SOURCE_ID = "sourceid";
 	/** Warnings regarding the distances calculated by a MinHash implementation. */
 	public static final String DIST_WARNINGS = "warnings";
+	/** A list of query sequences and their distances to one or more reference sequences. */
+	public static final String DIST_QUERIES = "queries";
+	/** The ID of a query sequence. */
+	public static final String DIST_QUERY_ID = "queryid";
 	
 	/* errors */
 	
@@ -10,7 +10,10 @@ import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -44,7 +47,9 @@ import us.kbase.assemblyhomology.core.exceptions.MissingParameterException;
 import us.kbase.assemblyhomology.core.exceptions.NoSuchNamespaceException;
 import us.kbase.assemblyhomology.minhash.MinHashImplementationInformation;
 import us.kbase.assemblyhomology.minhash.MinHashImplementationName;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage;
 import us.kbase.assemblyhomology.minhash.MinHashParameters;
+import us.kbase.assemblyhomology.minhash.MinHashSearchParameters;
 import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterException;
 import us.kbase.assemblyhomology.service.Fields;
 import us.kbase.assemblyhomology.storage.exceptions.AssemblyHomologyStorageException;
@@ -56,6 +61,8 @@ import us.kbase.assemblyhomology.storage.exceptions.AssemblyHomologyStorageExcep
 @javax.ws.rs.Path(ServicePaths.NAMESPACE_ROOT)
 public class Namespaces {
 
+	private static final double DEFAULT_RECALL = 0.95;
+
 	private final AssemblyHomology ah;
 	private final java.nio.file.Path tempDir;
 	
@@ -98,6 +105,38 @@ public class Namespaces {
 		return fromNamespace(ah.getNamespace(new NamespaceID(namespace)));
 	}
 
+	/** Get the memory used to hold a namespace's sketch database between searches. Sketch
+	 * databases are only held in memory by some MinHash implementations, and only after they
+	 * have been searched.
+	 * @param namespace the ID of the namespace.
+	 * @return the memory usage.
+	 * @throws NoSuchNamespaceException if there is no such namespace.
+	 * @throws MissingParameterException if the ID is missing or white space only.
+	 * @throws IllegalParameterException if the ID is not a valid namespace ID.
+	 * @throws AssemblyHomologyStorageException if an error occurs contacting the storage system.
+	 */
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	@javax.ws.rs.Path(ServicePaths.NAMESPACE_MEMORY)
+	public Map<String, Object> getNamespaceMemory(
+			@PathParam(ServicePaths.NAMESPACE_SELECT_PARAM) final String namespace)
+			throws NoSuchNamespaceException, MissingParameterException,
+				IllegalParameterException, AssemblyHomologyStorageException {
+		final NamespaceID id = new NamespaceID(namespace);
+		final Optional<MinHashMemoryUsage> mem = ah.getMemoryUsage(id);
+		final Map<String, Object> ret = new HashMap<>();
+		ret.put(Fields.NAMESPACE_ID, id.getName());
+		ret.put(Fields.MEMORY_LOADED, mem.isPresent());
+		ret.put(Fields.MEMORY_STORAGE, mem.isPresent() ?
+				mem.get().getStorage().name().toLowerCase() : null);
+		ret.put(Fields.MEMORY_SKETCH_COUNT, mem.isPresent() ? mem.get().getSketchCount() : null);
+		ret.put(Fields.MEMORY_HASH_COUNT, mem.isPresent() ? mem.get().getHashCount() : null);
+		ret.put(Fields.MEMORY_HASH_BYTES, mem.isPresent() ? mem.get().getHashBytes() : null);
+		ret.put(Fields.MEMORY_UNCOMPRESSED_BYTES, mem.isPresent() ?
+				mem.get().getUncompressedHashBytes() : null);
+		return ret;
+	}
+
 	private Map<String, Object> fromNamespace(final NamespaceView ns) {
 		final Map<String, Object> ret = new HashMap<>();
 		final MinHashParameters params = ns.getParameterSet();
@@ -123,6 +162,12 @@ public class Namespaces {
 	 * sketch database parameters do not match the target database parameters.
 	 * @param max the maximum number of matches to return. If missing, &lt; 1, or &gt;
 	 * 100 the maximum is set to 10.
+	 * @param approx if non null, the search may be approximate if the MinHash implementation
+	 * supports approximate searches, trading a loss of recall for speed.
+	 * @param recall the target fraction of the matches an approximate search should find. Only
+	 * allowed if approx is provided. Must be &gt; 0 and &lt; 1. If missing, 0.95 is used.
+	 * @param maxDist the maximum distance of the matches to return. Must be &gt;= 0 and
+	 * &lt;= 1. If missing, the MinHash implementation's maximum distance is used.
 	 * @return the matches.
 	 * @throws IOException if an error occurs retrieving the sketch database file from the
 	 * request or saving the file to a temporary file.
@@ -136,7 +181,7 @@ public class Namespaces {
 	 * @throws IncompatibleNamespacesException if the selected namespaces have incompatible
 	 * MinHash implementations.
 	 * @throws IllegalParameterException if one or more of the namespace IDs are illegal, or if
-	 * max is not an integer if provided.
+	 * max is not an integer if provided, or if recall or maxdist is illegal.
 	 * @throws IncompatibleAuthenticationException if namespaces with different authentication
 	 * sources are requested.
 	 * @throws MinHashDistanceFilterException if a filter exception occurs.
@@ -150,7 +195,10 @@ public class Namespaces {
 			@HeaderParam("Authorization") final String auth,
 			@PathParam(ServicePaths.NAMESPACE_SELECT_PARAM) final String namespaces,
 			@QueryParam("notstrict") final String notStrict,
-			@QueryParam("max") final String max)
+			@QueryParam("max") final String max,
+			@QueryParam("approx") final String approx,
+			@QueryParam("recall") final String recall,
+			@QueryParam("maxdist") final String maxDist)
 			throws IOException, NoSuchNamespaceException, IncompatibleSketchesException,
 				MissingParameterException, AssemblyHomologyStorageException,
 				InvalidSketchException, IncompatibleNamespacesException,
@@ -158,6 +206,106 @@ public class Namespaces {
 				AuthenticationException, MinHashDistanceFilterException { 
 		final int maxReturn = getMaxReturn(max);
 		final boolean strict = notStrict == null;
+		final MinHashSearchParameters searchParams = getSearchParameters(
+				approx, recall, maxDist);
+		final SequenceMatches res = search(request, namespaces, (nsIDs, query) ->
+				ah.measureDistance(nsIDs, query, maxReturn, strict, getToken(auth), searchParams));
+		final Map<String, Object> ret = fromMatches(res);
+		ret.put(Fields.DISTANCES, toDistances(res));
+		return ret;
+	}
+	
+	/** Search one or more namespaces with multiple query sequences. Expects a sketch database
+	 * file containing one or more sketches in the request body. The namespaces are searched
+	 * once for all the query sequences.
+	 * @param request the incoming servlet request.
+	 * @param auth the authorization token.
+	 * @param namespaces a comma delimited string of namespace IDs.
+	 * @param notStrict if non null, MinHash searches will continue if possible if the query
+	 * sketch database parameters do not match the target database parameters.
+	 * @param max the maximum number of matches to return per query sequence. If missing, &lt; 1,
+	 * or &gt; 100 the maximum is set to 10.
+	 * @param approx if non null, the search may be approximate if the MinHash implementation
+	 * supports approximate searches, trading a loss of recall for speed.
+	 * @param recall the target fraction of the matches an approximate search should find. Only
+	 * allowed if approx is provided. Must be &gt; 0 and &lt; 1. If missing, 0.95 is used.
+	 * @param maxDist the maximum distance of the matches to return. Must be &gt;= 0 and
+	 * &lt;= 1. If missing, the MinHash implementation's maximum distance is used.
+	 * @return the matches for each query sequence.
+	 * @throws IOException if an error occurs retrieving the sketch database file from the
+	 * request or saving the file to a temporary file.
+	 * @throws NoSuchNamespaceException if one of the requested namespaces does not exist.
+	 * @throws IncompatibleSketchesException if the provided sketch parameters are incompatible
+	 * with one or more of the target sketches.
+	 * @throws MissingParameterException if the namespace IDs parameter is missing.
+	 * @throws AssemblyHomologyStorageException if an error occurs contacting the storage system.
+	 * @throws InvalidSketchException if the sketch file provided in the request body is not
+	 * a sketch, has too many sketches, or has duplicate sketch IDs.
+	 * @throws IncompatibleNamespacesException if the selected namespaces have incompatible
+	 * MinHash implementations.
+	 * @throws IllegalParameterException if one or more of the namespace IDs are illegal, or if
+	 * max is not an integer if provided, or if recall or maxdist is illegal.
+	 * @throws IncompatibleAuthenticationException if namespaces with different authentication
+	 * sources are requested.
+	 * @throws MinHashDistanceFilterException if a filter exception occurs.
+	 * @throws AuthenticationException if an authentication error occurs.
+	 */
+	@POST
+	@Produces(MediaType.APPLICATION_JSON)
+	@javax.ws.rs.Path(ServicePaths.NAMESPACE_MULTI_SEARCH)
+	public Map<String, Object> multiSearchNamespaces(
+			@Context HttpServletRequest request,
+			@HeaderParam("Authorization") final String auth,
+			@PathParam(ServicePaths.NAMESPACE_SELECT_PARAM) final String namespaces,
+			@QueryParam("notstrict") final String notStrict,
+			@QueryParam("max") final String max,
+			@QueryParam("approx") final String approx,
+			@QueryParam("recall") final String recall,
+			@QueryParam("maxdist") final String maxDist)
+			throws IOException, NoSuchNamespaceException, IncompatibleSketchesException,
+				MissingParameterException, AssemblyHomologyStorageException,
+				InvalidSketchException, IncompatibleNamespacesException,
+				IllegalParameterException, IncompatibleAuthenticationException,
+				AuthenticationException, MinHashDistanceFilterException {
+		final int maxReturn = getMaxReturn(max);
+		final boolean strict = notStrict == null;
+		final MinHashSearchParameters searchParams = getSearchParameters(
+				approx, recall, maxDist);
+		final Map<String, SequenceMatches> res = search(request, namespaces, (nsIDs, query) ->
+				ah.measureDistances(nsIDs, query, maxReturn, strict, getToken(auth), searchParams));
+		// the namespaces, implementation, and warnings are the same for every query
+		final Map<String, Object> ret = fromMatches(res.values().iterator().next());
+		final List<Map<String, Object>> queries = new LinkedList<>();
+		for (final Entry<String, SequenceMatches> e: res.entrySet()) {
+			final Map<String, Object> query = new HashMap<>();
+			query.put(Fields.DIST_QUERY_ID, e.getKey());
+			query.put(Fields.DISTANCES, toDistances(e.getValue()));
+			queries.add(query);
+		}
+		ret.put(Fields.DIST_QUERIES, queries);
+		return ret;
+	}
+	
+	private interface Search<T> {
+		
+		T search(Set<NamespaceID> namespaceIDs, Path query)
+				throws MissingParameterException, NoSuchNamespaceException,
+					AssemblyHomologyStorageException, InvalidSketchException,
+					IncompatibleNamespacesException, IncompatibleSketchesException,
+					IncompatibleAuthenticationException, AuthenticationException,
+					MinHashDistanceFilterException;
+	}
+	
+	// saves the sketch database in the request body to a temporary file and runs the search
+	private <T> T search(
+			final HttpServletRequest request,
+			final String namespaces,
+			final Search<T> search)
+			throws IOException, NoSuchNamespaceException, IncompatibleSketchesException,
+				MissingParameterException, AssemblyHomologyStorageException,
+				InvalidSketchException, IncompatibleNamespacesException,
+				IllegalParameterException, IncompatibleAuthenticationException,
+				AuthenticationException, MinHashDistanceFilterException {
 		final Set<NamespaceView> nss = ah.getNamespaces(getNamespaceIDs(namespaces));
 		final Set<MinHashImplementationName> impls = nss.stream().map(
 				n -> n.getImplementationName()).collect(Collectors.toSet());
@@ -171,32 +319,36 @@ public class Namespaces {
 		if (expectedFileExtension.isPresent()) {
 			ext += "." + expectedFileExtension.get().toString();
 		}
-		final SequenceMatches res;
 		Path tempFile = null;
 		// should catch IOException and do something with it?
 		try (final InputStream is = request.getInputStream()) {
 			tempFile = Files.createTempFile(tempDir, "assyhomol_input", ext);
 			Files.copy(is, tempFile, StandardCopyOption.REPLACE_EXISTING);
-			res = ah.measureDistance(
-					nss.stream().map(n -> n.getID()).collect(Collectors.toSet()),
-					tempFile, maxReturn, strict, getToken(auth));
+			return search.search(
+					nss.stream().map(n -> n.getID()).collect(Collectors.toSet()), tempFile);
 		} finally {
 			if (tempFile != null) {
 				Files.delete(tempFile);
 			}
 		}
-		final MinHashImplementationInformation impl = res.getImplementationInformation();
+	}
+	
+	private Map<String, Object> fromMatches(final SequenceMatches matches) {
+		final MinHashImplementationInformation impl = matches.getImplementationInformation();
 		final Map<String, Object> ret = new HashMap<>();
-		ret.put(Fields.DIST_NAMESPACES, res.getNamespaces().stream().map(n -> fromNamespace(n))
-				.collect(Collectors.toSet()));
-		ret.put(Fields.DIST_WARNINGS, res.getWarnings());
+		ret.put(Fields.DIST_NAMESPACES, matches.getNamespaces().stream()
+				.map(n -> fromNamespace(n)).collect(Collectors.toSet()));
+		ret.put(Fields.DIST_WARNINGS, matches.getWarnings());
 		ret.put(Fields.DIST_IMPLEMENTATION, impl.getImplementationName().getName());
 		ret.put(Fields.DIST_IMPLEMENTATION_VERSION, impl.getImplementationVersion());
-		ret.put(Fields.DISTANCES, res.getDistances().stream()
-				.map(d -> fromDistance(d))
-				.collect(Collectors.toList()));
 		return ret;
 	}
+	
+	private List<Map<String, Object>> toDistances(final SequenceMatches matches) {
+		return matches.getDistances().stream()
+				.map(d -> fromDistance(d))
+				.collect(Collectors.toList());
+	}
 
 	private Token getToken(final String auth) throws MissingParameterException {
 		return isNullOrEmpty(auth) ? null : new Token(auth);
@@ -226,6 +378,47 @@ public class Namespaces {
 		}
 	}
 
+	private MinHashSearchParameters getSearchParameters(
+			final String approx,
+			final String recall,
+			final String maxDist)
+			throws IllegalParameterException {
+		final MinHashSearchParameters.Builder b = MinHashSearchParameters.getBuilder();
+		if (maxDist != null) {
+			final double d;
+			try {
+				d = Double.parseDouble(maxDist);
+			} catch (NumberFormatException e) {
+				throw new IllegalParameterException("Illegal value for maxdist: " + maxDist);
+			}
+			if (!(d >= 0 && d <= 1)) {
+				throw new IllegalParameterException("Illegal value for maxdist: " + maxDist +
+						". Must be >= 0 and <= 1");
+			}
+			b.withMaxDistance(d);
+		}
+		if (approx == null) {
+			if (recall != null) {
+				throw new IllegalParameterException("recall may only be provided with approx");
+			}
+			return b.build();
+		}
+		if (recall == null) {
+			return b.withApproximateRecall(DEFAULT_RECALL).build();
+		}
+		final double r;
+		try {
+			r = Double.parseDouble(recall);
+		} catch (NumberFormatException e) {
+			throw new IllegalParameterException("Illegal value for recall: " + recall);
+		}
+		if (!(r > 0 && r < 1)) {
+			throw new IllegalParameterException("Illegal value for recall: " + recall +
+					". Must be > 0 and < 1");
+		}
+		return b.withApproximateRecall(r).build();
+	}
+
 	private Map<String, Object> fromDistance(final SequenceDistanceAndMetadata dist) {
 		final Map<String, Object> ret = new HashMap<>();
 		ret.put(Fields.DIST_DISTANCE, dist.getDistance().getDistance());
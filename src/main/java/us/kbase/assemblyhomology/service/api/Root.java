@@ -1,8 +1,12 @@
 package us.kbase.assemblyhomology.service.api;
 
 import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
+import javax.inject.Inject;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
@@ -11,10 +15,14 @@ import javax.ws.rs.core.MediaType;
 import com.google.common.collect.ImmutableMap;
 
 import us.kbase.assemblyhomology.GitCommit;
+import us.kbase.assemblyhomology.core.AssemblyHomology;
+import us.kbase.assemblyhomology.core.MinHashImplementationHealth;
 import us.kbase.assemblyhomology.service.Fields;
 
 /** The root of the server - returns basic information about the service, like
- * the server name, the version, the server local time, and the git hash from the build.
+ * the server name, the version, the server local time, the git hash from the build, the
+ * number of processes running for MinHash searches, and the result of the most recent health
+ * check of each MinHash implementation.
  * @author gaprice@lbl.gov
  *
  */
@@ -29,17 +37,49 @@ public class Root {
 	private static final String VERSION = "0.1.4";
 	private static final String SERVER_NAME = "Assembly Homology service";
 	
+	private final AssemblyHomology ah;
+	
+	/** Create the root endpoint.
+	 * @param ah the assembly homology instance.
+	 */
+	@Inject
+	public Root(final AssemblyHomology ah) {
+		this.ah = ah;
+	}
+	
 	/** Return the root information.
 	 * @return the root information.
 	 */
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
 	public Map<String, Object> rootJSON() {
-		return ImmutableMap.of(
-				Fields.SERVER_NAME, SERVER_NAME,
-				Fields.VERSION, VERSION,
-				Fields.SERVER_TIME, Instant.now().toEpochMilli(),
-				Fields.GIT_HASH, GitCommit.COMMIT);
+		return ImmutableMap.<String, Object>builder()
+				.put(Fields.SERVER_NAME, SERVER_NAME)
+				.put(Fields.VERSION, VERSION)
+				.put(Fields.SERVER_TIME, Instant.now().toEpochMilli())
+				.put(Fields.GIT_HASH, GitCommit.COMMIT)
+				.put(Fields.MINHASH_PROCESSES, ah.getRunningProcessCount())
+				.put(Fields.MINHASH_IMPLEMENTATIONS, getImplementationHealth())
+				.build();
+	}
+	
+	private List<Map<String, Object>> getImplementationHealth() {
+		return ah.getImplementationHealth().values().stream()
+				.sorted((h1, h2) -> h1.getImplementationName().getName()
+						.compareTo(h2.getImplementationName().getName()))
+				.map(h -> toMap(h))
+				.collect(Collectors.toList());
+	}
+	
+	private Map<String, Object> toMap(final MinHashImplementationHealth health) {
+		final Map<String, Object> ret = new HashMap<>();
+		ret.put(Fields.MINHASH_IMPL_NAME, health.getImplementationName().getName());
+		ret.put(Fields.MINHASH_IMPL_VERSION, health.getImplementationInformation().isPresent() ?
+				health.getImplementationInformation().get().getImplementationVersion() : null);
+		ret.put(Fields.MINHASH_IMPL_HEALTHY, health.isHealthy());
+		ret.put(Fields.MINHASH_IMPL_ERROR, health.getError().orNull());
+		ret.put(Fields.MINHASH_IMPL_CHECK_TIME, health.getCheckTime().toEpochMilli());
+		return ret;
 	}
 
 }
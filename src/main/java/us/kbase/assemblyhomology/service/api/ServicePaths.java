@@ -14,6 +14,8 @@ public class ServicePaths {
 	private static final String NAMESPACE = "namespace";
 	private static final String NAMESPACE_ID = "{" + NAMESPACE + "}";
 	private static final String SEARCH = "search";
+	private static final String MULTI_SEARCH = "multisearch";
+	private static final String MEMORY = "memory";
 	
 	
 	/* Root endpoint */
@@ -31,6 +33,10 @@ public class ServicePaths {
 	public static final String NAMESPACE_SELECT_PARAM = NAMESPACE;
 	/** The location for searching a namespace with a sketch file. */
 	public static final String NAMESPACE_SEARCH = NAMESPACE_SELECT + SEP + SEARCH;
+	/** The location for searching a namespace with a sketch file containing multiple sketches. */
+	public static final String NAMESPACE_MULTI_SEARCH = NAMESPACE_SELECT + SEP + MULTI_SEARCH;
+	/** The location for the memory used to hold a namespace's sketch database. */
+	public static final String NAMESPACE_MEMORY = NAMESPACE_SELECT + SEP + MEMORY;
 	
 	
 }
@@ -0,0 +1,104 @@
+package us.kbase.assemblyhomology.util;
+
+import static us.kbase.assemblyhomology.util.Util.checkNoNullsInCollection;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/** An immutable set of primitive longs. The set uses open addressing with linear probing, so
+ * checking for a value neither boxes the value nor follows references.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class LongHashSet {
+	
+	// 0 marks an empty slot, so whether the set contains 0 is stored separately
+	private final long[] slots;
+	private final int mask;
+	private final boolean containsZero;
+	private final int size;
+	
+	/** Create a set.
+	 * @param values the values in the set.
+	 */
+	public LongHashSet(final Collection<Long> values) {
+		checkNoNullsInCollection(values, "values");
+		int capacity = 2;
+		// keep the load factor at or below 0.5
+		while (capacity < values.size() * 2) {
+			capacity *= 2;
+		}
+		slots = new long[capacity];
+		mask = capacity - 1;
+		boolean zero = false;
+		int count = 0;
+		for (final long v: values) {
+			if (v == 0) {
+				if (!zero) {
+					count++;
+				}
+				zero = true;
+				continue;
+			}
+			int i = index(v);
+			while (slots[i] != 0 && slots[i] != v) {
+				i = (i + 1) & mask;
+			}
+			if (slots[i] == 0) {
+				slots[i] = v;
+				count++;
+			}
+		}
+		containsZero = zero;
+		size = count;
+	}
+	
+	private int index(final long value) {
+		// spread the bits so sequential IDs don't cluster
+		final long h = value * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+	
+	/** Check if the set contains a value.
+	 * @param value the value.
+	 * @return true if the set contains the value.
+	 */
+	public boolean contains(final long value) {
+		if (value == 0) {
+			return containsZero;
+		}
+		int i = index(value);
+		while (slots[i] != 0) {
+			if (slots[i] == value) {
+				return true;
+			}
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+	
+	/** Get the number of values in the set.
+	 * @return the set size.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/** Get the values in the set as boxed values.
+	 * @return a new, mutable set containing the values.
+	 */
+	public Set<Long> toSet() {
+		final Set<Long> ret = new HashSet<>();
+		if (containsZero) {
+			ret.add(0L);
+		}
+		for (final long v: slots) {
+			if (v != 0) {
+				ret.add(v);
+			}
+		}
+		return ret;
+	}
+
+}
@@ -0,0 +1,21 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+/** Kills processes. This is the Java 17+ version of the class, which is loaded from the
+ * versioned section of the multi-release jar and kills the process's descendants along with
+ * the process.
+ * @author gaprice@lbl.gov
+ *
+ */
+final class ProcessKiller {
+	
+	private ProcessKiller() {}
+	
+	/** Forcibly kill a process and its descendants.
+	 * @param process the process to kill.
+	 */
+	static void destroy(final Process process) {
+		// kill the descendants first, since they can't be found once their parent is gone
+		process.descendants().forEach(ProcessHandle::destroyForcibly);
+		process.destroyForcibly();
+	}
+}
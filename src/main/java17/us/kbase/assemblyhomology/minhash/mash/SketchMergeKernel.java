@@ -0,0 +1,64 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+/** Selects how sketches are merged when computing Mash distances. This is the Java 17+ version
+ * of the class, which is loaded from the versioned section of the multi-release jar. It uses
+ * {@link VectorSketchMerge} if the jdk.incubator.vector module is present in the boot layer,
+ * e.g. the JVM was started with --add-modules jdk.incubator.vector, the preferred vector
+ * species holds at least two hashes, and the vector merge has not been disabled by setting
+ * the {@link #DISABLE_PROPERTY} system property to true. Otherwise it uses the scalar merge
+ * in {@link SketchMerge}.
+ * @author gaprice@lbl.gov
+ *
+ */
+final class SketchMergeKernel {
+
+	/** The system property that disables the vector merge when set to true. */
+	static final String DISABLE_PROPERTY = "assemblyhomology.minhash.vector.disable";
+
+	private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+	private static final boolean VECTOR = isVectorAvailable();
+
+	private SketchMergeKernel() {}
+
+	private static boolean isVectorAvailable() {
+		if (Boolean.getBoolean(DISABLE_PROPERTY) ||
+				!ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+			return false;
+		}
+		// VectorSketchMerge is only loaded, and so the module only linked, from here on
+		return VectorSketchMerge.isSupported();
+	}
+
+	/** Get the name of the merge implementation in use.
+	 * @return the name.
+	 */
+	static String getName() {
+		return VECTOR ? "vector" : "scalar";
+	}
+
+	/** Merge two sketches. See {@link SketchMerge#merge(long[], int, long[], int, int, double)}.
+	 * @param reference the buffer containing the hashes in the reference sketch.
+	 * @param referenceLength the number of hashes in the reference sketch.
+	 * @param query the buffer containing the hashes in the query sketch.
+	 * @param queryLength the number of hashes in the query sketch.
+	 * @param sketchSize the sketch size to use for the comparison.
+	 * @param minJaccard abandon the merge if the Jaccard index is certain to be less than this
+	 * value. 0 to never abandon the merge.
+	 * @return the packed counts or {@link SketchMerge#ABANDONED}.
+	 */
+	static long merge(
+			final long[] reference,
+			final int referenceLength,
+			final long[] query,
+			final int queryLength,
+			final int sketchSize,
+			final double minJaccard) {
+		if (VECTOR) {
+			return VectorSketchMerge.merge(
+					reference, referenceLength, query, queryLength, sketchSize, minJaccard);
+		}
+		return SketchMerge.merge(
+				reference, referenceLength, query, queryLength, sketchSize, minJaccard);
+	}
+}
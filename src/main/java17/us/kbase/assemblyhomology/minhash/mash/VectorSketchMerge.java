@@ -0,0 +1,94 @@
+package us.kbase.assemblyhomology.minhash.mash;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** Merges two sorted sketches with the incubating Vector API, producing the same counts as
+ * {@link SketchMerge}.
+ *
+ * The merge steps through the sketches a block of hashes at a time. Each hash in the reference
+ * block is compared with every hash in the query block to count the shared hashes. The
+ * block with the smaller last hash is then consumed whole, along with the hashes in the other
+ * block that are no greater than that last hash, which leaves the merge in the same state as
+ * the scalar merge after the same hashes. A step adds at most two blocks of hashes to the
+ * union sketch, so once the union sketch is nearly full or either sketch has less than a
+ * block left, the scalar merge finishes the comparison.
+ * @author gaprice@lbl.gov
+ *
+ */
+final class VectorSketchMerge {
+
+	private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+
+	private VectorSketchMerge() {}
+
+	/** Check whether the vector merge is worth using on this platform.
+	 * @return true if the preferred vector species holds more than one hash.
+	 */
+	static boolean isSupported() {
+		return LANES > 1;
+	}
+
+	/** Merge two sketches. See {@link SketchMerge#merge(long[], int, long[], int, int, double)}.
+	 * @param reference the buffer containing the hashes in the reference sketch.
+	 * @param referenceLength the number of hashes in the reference sketch.
+	 * @param query the buffer containing the hashes in the query sketch.
+	 * @param queryLength the number of hashes in the query sketch.
+	 * @param sketchSize the sketch size to use for the comparison.
+	 * @param minJaccard abandon the merge if the Jaccard index is certain to be less than this
+	 * value. 0 to never abandon the merge.
+	 * @return the packed counts or {@link SketchMerge#ABANDONED}.
+	 */
+	static long merge(
+			final long[] reference,
+			final int referenceLength,
+			final long[] query,
+			final int queryLength,
+			final int sketchSize,
+			final double minJaccard) {
+		int i = 0;
+		int j = 0;
+		int common = 0;
+		// the size of the union sketch so far is i + j - common
+		while (i + LANES <= referenceLength && j + LANES <= queryLength &&
+				i + j - common + 2 * LANES <= sketchSize) {
+			if (!SketchMerge.canMeetBound(referenceLength - i, queryLength - j, common,
+					i + j - common, sketchSize, minJaccard)) {
+				return SketchMerge.ABANDONED;
+			}
+			final LongVector r = LongVector.fromArray(SPECIES, reference, i);
+			// hashes are unique within a sketch, so each query hash matches at most one lane
+			VectorMask<Long> shared = r.eq(query[j]);
+			for (int k = 1; k < LANES; k++) {
+				shared = shared.or(r.eq(query[j + k]));
+			}
+			common += shared.trueCount();
+			// flipping the sign bit makes signed comparison order the hashes as unsigned values
+			final long rLast = reference[i + LANES - 1] ^ Long.MIN_VALUE;
+			final long qLast = query[j + LANES - 1] ^ Long.MIN_VALUE;
+			if (rLast < qLast) {
+				j += countNotGreater(query, j, rLast);
+				i += LANES;
+			} else if (qLast < rLast) {
+				i += countNotGreater(reference, i, qLast);
+				j += LANES;
+			} else {
+				i += LANES;
+				j += LANES;
+			}
+		}
+		return SketchMerge.merge(reference, i, referenceLength, query, j, queryLength, common,
+				sketchSize, minJaccard);
+	}
+
+	// counts the hashes in a block no greater than a sign flipped hash
+	private static int countNotGreater(final long[] hashes, final int start, final long max) {
+		return LongVector.fromArray(SPECIES, hashes, start)
+				.lanewise(VectorOperators.XOR, Long.MIN_VALUE)
+				.compare(VectorOperators.LE, max)
+				.trueCount();
+	}
+}
@@ -87,6 +87,12 @@ public class AssemblyHomologyConfigTest {
 		assertThat("incorrect mongo pwd", cfg.getMongoPwd(), is(Optional.absent()));
 		assertThat("incorrect retry writes", cfg.getMongoRetryWrites(), is(false));
 		assertThat("incorrect minhash timeout", cfg.getMinhashTimeoutSec(), is(30));
+		assertThat("incorrect minhash in process", cfg.isMinhashInProcess(), is(false));
+		assertThat("incorrect minhash parallelism", cfg.getMinhashParallelism(),
+				is(Runtime.getRuntime().availableProcessors()));
+		assertThat("incorrect minhash compress", cfg.isMinhashCompressSketches(), is(false));
+		assertThat("incorrect minhash probe", cfg.getMinhashProbeIntervalSec(), is(0));
+		assertThat("incorrect minhash batch", cfg.getMinhashBatchWindowMS(), is(0));
 		assertThat("incorrect temp dir", cfg.getPathToTemporaryFileDirectory(),
 				is(Paths.get("/foo/bar/baz")));
 		assertThat("incorrect ignore ip headers", cfg.isIgnoreIPHeaders(), is(false));
@@ -109,6 +115,11 @@ public class AssemblyHomologyConfigTest {
 					 "mongo-pwd=\n" +
 					 "mongo-retrywrites=\n" +
 					 "minhash-timeout=\n" +
+					 "minhash-in-process=true1\n" +
+					 "minhash-parallelism=\n" +
+					 "minhash-compress-sketches=true1\n" +
+					 "minhash-probe-interval=\n" +
+					 "minhash-batch-window=\n" +
 					 "dont-trust-x-ip-headers=true1\n" +
 					 "temp-dir=/foo/bar/baz\n" +
 					 "filters=   ,    \t   ,   ")
@@ -125,6 +136,12 @@ public class AssemblyHomologyConfigTest {
 		assertThat("incorrect mongo pwd", cfg.getMongoPwd(), is(Optional.absent()));
 		assertThat("incorrect retry writes", cfg.getMongoRetryWrites(), is(false));
 		assertThat("incorrect minhash timeout", cfg.getMinhashTimeoutSec(), is(30));
+		assertThat("incorrect minhash in process", cfg.isMinhashInProcess(), is(false));
+		assertThat("incorrect minhash parallelism", cfg.getMinhashParallelism(),
+				is(Runtime.getRuntime().availableProcessors()));
+		assertThat("incorrect minhash compress", cfg.isMinhashCompressSketches(), is(false));
+		assertThat("incorrect minhash probe", cfg.getMinhashProbeIntervalSec(), is(0));
+		assertThat("incorrect minhash batch", cfg.getMinhashBatchWindowMS(), is(0));
 		assertThat("incorrect temp dir", cfg.getPathToTemporaryFileDirectory(),
 				is(Paths.get("/foo/bar/baz")));
 		assertThat("incorrect ignore ip headers", cfg.isIgnoreIPHeaders(), is(false));
@@ -148,6 +165,11 @@ public class AssemblyHomologyConfigTest {
 					 "mongo-pwd=somepwd\n" +
 					 "mongo-retrywrites=	false	\n" +
 					 "minhash-timeout=600\n" +
+					 "minhash-in-process=true\n" +
+					 "minhash-parallelism=16\n" +
+					 "minhash-compress-sketches=true\n" +
+					 "minhash-probe-interval=300\n" +
+					 "minhash-batch-window=50\n" +
 					 "dont-trust-x-ip-headers=true\n" +
 					 "temp-dir=/foo/bar/baz\n" +
 					 "filters=foo,  \t   ,   bar  \n" +
@@ -170,6 +192,11 @@ public class AssemblyHomologyConfigTest {
 				equalTo("somepwd".toCharArray()));
 		assertThat("incorrect retry writes", cfg.getMongoRetryWrites(), is(false));
 		assertThat("incorrect minhash timeout", cfg.getMinhashTimeoutSec(), is(600));
+		assertThat("incorrect minhash in process", cfg.isMinhashInProcess(), is(true));
+		assertThat("incorrect minhash parallelism", cfg.getMinhashParallelism(), is(16));
+		assertThat("incorrect minhash compress", cfg.isMinhashCompressSketches(), is(true));
+		assertThat("incorrect minhash probe", cfg.getMinhashProbeIntervalSec(), is(300));
+		assertThat("incorrect minhash batch", cfg.getMinhashBatchWindowMS(), is(50));
 		assertThat("incorrect temp dir", cfg.getPathToTemporaryFileDirectory(),
 				is(Paths.get("/foo/bar/baz")));
 		assertThat("incorrect ignore ip headers", cfg.isIgnoreIPHeaders(), is(true));
@@ -400,6 +427,78 @@ public class AssemblyHomologyConfigTest {
 						"assemblyhomology, must have a minimum value of 1, was 0"));
 	}
 	
+	@Test
+	public void configFailMinhashParallelismNotInt() throws Throwable {
+		failConfigBoth(
+				"[assemblyhomology]\n" +
+				"minhash-parallelism=baz\n" +
+				"mongo-host=foo\n" +
+				"mongo-db=bar",
+				new AssemblyHomologyConfigurationException(
+						"Parameter minhash-parallelism in configuration file " +
+						"some file, section assemblyhomology, must be an integer, was baz"));
+	}
+	
+	@Test
+	public void configFailMinhashParallelismBelowMinimum() throws Throwable {
+		failConfigBoth(
+				"[assemblyhomology]\n" +
+				"minhash-parallelism=0\n" +
+				"mongo-host=foo\n" +
+				"mongo-db=bar",
+				new AssemblyHomologyConfigurationException(
+						"Parameter minhash-parallelism in configuration file some file, section " +
+						"assemblyhomology, must have a minimum value of 1, was 0"));
+	}
+	
+	@Test
+	public void configFailMinhashProbeIntervalNotInt() throws Throwable {
+		failConfigBoth(
+				"[assemblyhomology]\n" +
+				"minhash-probe-interval=baz\n" +
+				"mongo-host=foo\n" +
+				"mongo-db=bar",
+				new AssemblyHomologyConfigurationException(
+						"Parameter minhash-probe-interval in configuration file " +
+						"some file, section assemblyhomology, must be an integer, was baz"));
+	}
+	
+	@Test
+	public void configFailMinhashProbeIntervalBelowMinimum() throws Throwable {
+		failConfigBoth(
+				"[assemblyhomology]\n" +
+				"minhash-probe-interval=-1\n" +
+				"mongo-host=foo\n" +
+				"mongo-db=bar",
+				new AssemblyHomologyConfigurationException(
+						"Parameter minhash-probe-interval in configuration file some file, " +
+						"section assemblyhomology, must have a minimum value of 0, was -1"));
+	}
+	
+	@Test
+	public void configFailMinhashBatchWindowNotInt() throws Throwable {
+		failConfigBoth(
+				"[assemblyhomology]\n" +
+				"minhash-batch-window=baz\n" +
+				"mongo-host=foo\n" +
+				"mongo-db=bar",
+				new AssemblyHomologyConfigurationException(
+						"Parameter minhash-batch-window in configuration file " +
+						"some file, section assemblyhomology, must be an integer, was baz"));
+	}
+	
+	@Test
+	public void configFailMinhashBatchWindowBelowMinimum() throws Throwable {
+		failConfigBoth(
+				"[assemblyhomology]\n" +
+				"minhash-batch-window=-1\n" +
+				"mongo-host=foo\n" +
+				"mongo-db=bar",
+				new AssemblyHomologyConfigurationException(
+						"Parameter minhash-batch-window in configuration file some file, " +
+						"section assemblyhomology, must have a minimum value of 0, was -1"));
+	}
+	
 	@Test
 	public void configFailNoHost() throws Throwable {
 		failConfigBoth(
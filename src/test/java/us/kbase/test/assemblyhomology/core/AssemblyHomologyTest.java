@@ -9,6 +9,8 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.argThat;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static us.kbase.test.assemblyhomology.TestCommon.set;
@@ -22,10 +24,18 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.AfterClass;
@@ -43,6 +53,8 @@ import us.kbase.assemblyhomology.core.AssemblyHomology;
 import us.kbase.assemblyhomology.core.FilterID;
 import us.kbase.assemblyhomology.core.LoadID;
 import us.kbase.assemblyhomology.core.MinHashDistanceFilterFactory;
+import us.kbase.assemblyhomology.core.MinHashDistanceFilterFactory.FilterBuilder;
+import us.kbase.assemblyhomology.core.MinHashImplementationHealth;
 import us.kbase.assemblyhomology.core.Namespace;
 import us.kbase.assemblyhomology.core.NamespaceID;
 import us.kbase.assemblyhomology.core.NamespaceView;
@@ -69,7 +81,10 @@ import us.kbase.assemblyhomology.minhash.MinHashImplementation;
 import us.kbase.assemblyhomology.minhash.MinHashImplementationFactory;
 import us.kbase.assemblyhomology.minhash.MinHashImplementationInformation;
 import us.kbase.assemblyhomology.minhash.MinHashImplementationName;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage.Storage;
 import us.kbase.assemblyhomology.minhash.MinHashParameters;
+import us.kbase.assemblyhomology.minhash.MinHashSearchParameters;
 import us.kbase.assemblyhomology.minhash.MinHashSketchDBName;
 import us.kbase.assemblyhomology.minhash.MinHashSketchDatabase;
 import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterAuthenticationException;
@@ -375,6 +390,363 @@ public class AssemblyHomologyTest {
 		}
 	}
 	
+	@Test
+	public void getMemoryUsage() throws Exception {
+		final AssemblyHomologyStorage s = mock(AssemblyHomologyStorage.class);
+		final MinHashImplementationFactory fac = mock(MinHashImplementationFactory.class);
+		when(fac.getImplementationName()).thenReturn(new MinHashImplementationName("mash"));
+		
+		final AssemblyHomology ah = new AssemblyHomology(
+				s, Arrays.asList(fac), MTFAC, Paths.get("foo"), 30);
+		
+		when(s.getNamespace(new NamespaceID("baz"))).thenReturn(NS2);
+		when(s.getNamespace(new NamespaceID("bat"))).thenReturn(NS1);
+		when(fac.getMemoryUsage(NS2.getSketchDatabase().getLocation())).thenReturn(
+				Optional.of(new MinHashMemoryUsage(Storage.COMPRESSED, 3, 3000, 16000)));
+		when(fac.getMemoryUsage(NS1.getSketchDatabase().getLocation()))
+				.thenReturn(Optional.absent());
+		
+		assertThat("incorrect memory", ah.getMemoryUsage(new NamespaceID("baz")),
+				is(Optional.of(new MinHashMemoryUsage(Storage.COMPRESSED, 3, 3000, 16000))));
+		assertThat("incorrect memory", ah.getMemoryUsage(new NamespaceID("bat")),
+				is(Optional.absent()));
+	}
+	
+	@Test
+	public void getRunningProcessCount() throws Exception {
+		final MinHashImplementationFactory f1 = mock(MinHashImplementationFactory.class);
+		final MinHashImplementationFactory f2 = mock(MinHashImplementationFactory.class);
+		when(f1.getImplementationName()).thenReturn(new MinHashImplementationName("foo"));
+		when(f2.getImplementationName()).thenReturn(new MinHashImplementationName("bar"));
+		when(f1.getRunningProcessCount()).thenReturn(3);
+		when(f2.getRunningProcessCount()).thenReturn(4);
+		
+		assertThat("incorrect count", new AssemblyHomology(
+				mock(AssemblyHomologyStorage.class), Collections.emptyList(), MTFAC,
+				Paths.get("foo"), 30).getRunningProcessCount(), is(0));
+		assertThat("incorrect count", new AssemblyHomology(
+				mock(AssemblyHomologyStorage.class), Arrays.asList(f1, f2), MTFAC,
+				Paths.get("foo"), 30).getRunningProcessCount(), is(7));
+	}
+
+	@Test
+	public void probeImplementations() throws Exception {
+		final MinHashImplementationFactory f1 = mock(MinHashImplementationFactory.class);
+		final MinHashImplementationFactory f2 = mock(MinHashImplementationFactory.class);
+		final MinHashImplementation impl = mock(MinHashImplementation.class);
+		when(f1.getImplementationName()).thenReturn(new MinHashImplementationName("Foo"));
+		when(f2.getImplementationName()).thenReturn(new MinHashImplementationName("bar"));
+		final MinHashImplementationInformation info = new MinHashImplementationInformation(
+				new MinHashImplementationName("Foo"), "1.0", null);
+		when(f1.getImplementation(Paths.get("foo"), 30)).thenReturn(impl);
+		when(impl.getImplementationInformation()).thenReturn(info);
+		when(f2.getImplementation(Paths.get("foo"), 30))
+				.thenThrow(new MinHashInitException("no bar for you"));
+
+		final AssemblyHomology ah = new AssemblyHomology(
+				mock(AssemblyHomologyStorage.class), Arrays.asList(f1, f2), MTFAC,
+				Paths.get("foo"), 30);
+
+		assertThat("incorrect health", ah.getImplementationHealth(), is(Collections.emptyMap()));
+
+		final Map<MinHashImplementationName, MinHashImplementationHealth> res =
+				ah.probeImplementations();
+
+		assertThat("incorrect health", res, is(ah.getImplementationHealth()));
+		assertThat("incorrect health count", res.size(), is(2));
+		final MinHashImplementationHealth h1 = res.get(new MinHashImplementationName("Foo"));
+		assertThat("incorrect healthy", h1.isHealthy(), is(true));
+		assertThat("incorrect info", h1.getImplementationInformation(), is(Optional.of(info)));
+		assertThat("incorrect error", h1.getError(), is(Optional.absent()));
+		TestCommon.assertCloseToNow(h1.getCheckTime());
+		final MinHashImplementationHealth h2 = res.get(new MinHashImplementationName("bar"));
+		assertThat("incorrect healthy", h2.isHealthy(), is(false));
+		assertThat("incorrect info", h2.getImplementationInformation(), is(Optional.absent()));
+		assertThat("incorrect error", h2.getError(), is(Optional.of("no bar for you")));
+		TestCommon.assertCloseToNow(h2.getCheckTime());
+
+		assertLogEventsCorrect(logEvents, new LogEvent(Level.ERROR,
+				"Error probing the bar MinHash implementation: no bar for you",
+				AssemblyHomology.class));
+	}
+
+	@Test
+	public void measureDistanceReusesImplementation() throws Exception {
+		final AssemblyHomologyStorage storage = mock(AssemblyHomologyStorage.class);
+		final MinHashImplementationFactory fac = mock(MinHashImplementationFactory.class);
+		final MinHashImplementation impl = mock(MinHashImplementation.class);
+
+		when(fac.getImplementationName()).thenReturn(new MinHashImplementationName("mash"));
+
+		final AssemblyHomology ah = new AssemblyHomology(
+				storage, Arrays.asList(fac), MTFAC, Paths.get("temp_dir"), 1);
+
+		when(storage.getNamespace(new NamespaceID("ns1"))).thenReturn(getMashNamespace());
+		when(fac.getImplementation(Paths.get("temp_dir"), 1)).thenReturn(impl);
+		when(impl.getDatabase(
+				new MinHashSketchDBName("<query>"), new MinHashDBLocation(EMPTY_FILE_MSH2)))
+				.thenThrow(new NotASketchException("foo"));
+
+		for (int i = 0; i < 2; i++) {
+			failMeasureDistance(ah, set(new NamespaceID("ns1")), EMPTY_FILE_MSH2, true, null,
+					new InvalidSketchException("The input sketch is not a valid sketch."));
+		}
+		verify(fac, times(1)).getImplementation(Paths.get("temp_dir"), 1);
+	}
+
+	@Test
+	public void measureDistanceRetriesFailedBuild() throws Exception {
+		final AssemblyHomologyStorage storage = mock(AssemblyHomologyStorage.class);
+		final MinHashImplementationFactory fac = mock(MinHashImplementationFactory.class);
+
+		when(fac.getImplementationName()).thenReturn(new MinHashImplementationName("mash"));
+
+		final AssemblyHomology ah = new AssemblyHomology(
+				storage, Arrays.asList(fac), MTFAC, Paths.get("temp_dir"), 1);
+
+		when(storage.getNamespace(new NamespaceID("ns1"))).thenReturn(getMashNamespace());
+		when(fac.getImplementation(Paths.get("temp_dir"), 1))
+				.thenThrow(new MinHashInitException("aw crap"));
+
+		for (int i = 0; i < 2; i++) {
+			failMeasureDistance(ah, set(new NamespaceID("ns1")), EMPTY_FILE_MSH2, true, null,
+					new IllegalStateException("Application is misconfigured. Error attempting " +
+							"to build the mash MinHash implementation."));
+		}
+		verify(fac, times(2)).getImplementation(Paths.get("temp_dir"), 1);
+	}
+
+	@Test
+	public void measureDistanceAfterProbe() throws Exception {
+		final AssemblyHomologyStorage storage = mock(AssemblyHomologyStorage.class);
+		final MinHashImplementationFactory fac = mock(MinHashImplementationFactory.class);
+		final MinHashImplementation impl1 = mock(MinHashImplementation.class);
+		final MinHashImplementation impl2 = mock(MinHashImplementation.class);
+		final MinHashImplementationInformation info = new MinHashImplementationInformation(
+				new MinHashImplementationName("mash"), "1.0", null);
+
+		when(fac.getImplementationName()).thenReturn(new MinHashImplementationName("mash"));
+
+		final AssemblyHomology ah = new AssemblyHomology(
+				storage, Arrays.asList(fac), MTFAC, Paths.get("temp_dir"), 1);
+
+		when(storage.getNamespace(new NamespaceID("ns1"))).thenReturn(getMashNamespace());
+		when(fac.getImplementation(Paths.get("temp_dir"), 1))
+				.thenReturn(impl1)
+				.thenThrow(new MinHashInitException("mash went away"))
+				.thenReturn(impl2);
+		when(impl1.getImplementationInformation()).thenReturn(info);
+		when(impl2.getDatabase(
+				new MinHashSketchDBName("<query>"), new MinHashDBLocation(EMPTY_FILE_MSH2)))
+				.thenThrow(new NotASketchException("foo"));
+
+		// the first probe builds the implementation, the second fails and discards it, and the
+		// search builds it again
+		ah.probeImplementations();
+		assertThat("incorrect healthy", ah.getImplementationHealth()
+				.get(new MinHashImplementationName("mash")).isHealthy(), is(true));
+		ah.probeImplementations();
+		assertThat("incorrect error", ah.getImplementationHealth()
+				.get(new MinHashImplementationName("mash")).getError(),
+				is(Optional.of("mash went away")));
+
+		failMeasureDistance(ah, set(new NamespaceID("ns1")), EMPTY_FILE_MSH2, true, null,
+				new InvalidSketchException("The input sketch is not a valid sketch."));
+
+		verify(fac, times(3)).getImplementation(Paths.get("temp_dir"), 1);
+		verify(impl1, never()).getDatabase(any(), any());
+	}
+
+	@Test
+	public void measureDistanceCoalescesIdenticalSearches() throws Exception {
+		final AssemblyHomologyStorage storage = mock(AssemblyHomologyStorage.class);
+		final MinHashImplementationFactory fac = mock(MinHashImplementationFactory.class);
+		final MinHashImplementation impl = mock(MinHashImplementation.class);
+		final MinHashImplementationInformation info = new MinHashImplementationInformation(
+				new MinHashImplementationName("mash"), "1.0", null);
+
+		when(fac.getImplementationName()).thenReturn(new MinHashImplementationName("mash"));
+
+		final AssemblyHomology ah = new AssemblyHomology(
+				storage, Arrays.asList(fac), MTFAC, Paths.get("temp_dir"), 1);
+
+		when(storage.getNamespace(new NamespaceID("ns1"))).thenReturn(getMashNamespace());
+		when(fac.getImplementation(Paths.get("temp_dir"), 1)).thenReturn(impl);
+		final MinHashSketchDatabase query = new MinHashSketchDatabase(
+				new MinHashSketchDBName("<query>"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(EMPTY_FILE_MSH2),
+				1);
+		when(impl.getDatabase(
+				new MinHashSketchDBName("<query>"), new MinHashDBLocation(EMPTY_FILE_MSH2)))
+				.thenReturn(query);
+		when(impl.getImplementationInformation()).thenReturn(info);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		when(impl.computeDistance(eq(query), any(), eq(true))).thenAnswer(inv -> {
+			started.countDown();
+			release.await();
+			return Collections.emptyList();
+		});
+
+		final ExecutorService searches = Executors.newFixedThreadPool(3);
+		try {
+			final List<Future<SequenceMatches>> results = new LinkedList<>();
+			results.add(searches.submit(() -> ah.measureDistance(
+					set(new NamespaceID("ns1")), EMPTY_FILE_MSH2, 5, true, null)));
+			started.await();
+			results.add(searches.submit(() -> ah.measureDistance(
+					set(new NamespaceID("ns1")), EMPTY_FILE_MSH2, 5, true, null)));
+			// a different return count is a different search
+			results.add(searches.submit(() -> ah.measureDistance(
+					set(new NamespaceID("ns1")), EMPTY_FILE_MSH2, 6, true, null)));
+			// let the searches reach the implementation or start waiting on the first search
+			Thread.sleep(200);
+			release.countDown();
+
+			final SequenceMatches expected = new SequenceMatches(
+					set(new NamespaceView(getMashNamespace())), info,
+					Collections.emptyList(), Collections.emptySet());
+			for (final Future<SequenceMatches> res: results) {
+				assertThat("incorrect matches", res.get(), is(expected));
+			}
+		} finally {
+			searches.shutdownNow();
+		}
+		verify(impl, times(2)).computeDistance(eq(query), any(), eq(true));
+	}
+
+	@Test
+	public void measureDistanceRetriesWhenIdenticalSearchInterrupted() throws Exception {
+		final AssemblyHomologyStorage storage = mock(AssemblyHomologyStorage.class);
+		final MinHashImplementationFactory fac = mock(MinHashImplementationFactory.class);
+		final MinHashImplementation impl = mock(MinHashImplementation.class);
+		final MinHashImplementationInformation info = new MinHashImplementationInformation(
+				new MinHashImplementationName("mash"), "1.0", null);
+
+		when(fac.getImplementationName()).thenReturn(new MinHashImplementationName("mash"));
+
+		final AssemblyHomology ah = new AssemblyHomology(
+				storage, Arrays.asList(fac), MTFAC, Paths.get("temp_dir"), 1);
+
+		when(storage.getNamespace(new NamespaceID("ns1"))).thenReturn(getMashNamespace());
+		when(fac.getImplementation(Paths.get("temp_dir"), 1)).thenReturn(impl);
+		final MinHashSketchDatabase query = new MinHashSketchDatabase(
+				new MinHashSketchDBName("<query>"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(EMPTY_FILE_MSH2),
+				1);
+		when(impl.getDatabase(
+				new MinHashSketchDBName("<query>"), new MinHashDBLocation(EMPTY_FILE_MSH2)))
+				.thenReturn(query);
+		when(impl.getImplementationInformation()).thenReturn(info);
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+		when(impl.computeDistance(eq(query), any(), eq(true))).thenAnswer(inv -> {
+			if (calls.incrementAndGet() == 1) {
+				started.countDown();
+				// wait to be interrupted
+				new CountDownLatch(1).await();
+			}
+			return Collections.emptyList();
+		});
+
+		final ExecutorService searches = Executors.newFixedThreadPool(2);
+		try {
+			final Future<SequenceMatches> leader = searches.submit(() -> ah.measureDistance(
+					set(new NamespaceID("ns1")), EMPTY_FILE_MSH2, 5, true, null));
+			started.await();
+			final Future<SequenceMatches> follower = searches.submit(() -> ah.measureDistance(
+					set(new NamespaceID("ns1")), EMPTY_FILE_MSH2, 5, true, null));
+			// let the follower start waiting on the leader
+			Thread.sleep(200);
+			leader.cancel(true);
+
+			// the follower runs the search itself rather than failing with the leader
+			assertThat("incorrect matches", follower.get(), is(new SequenceMatches(
+					set(new NamespaceView(getMashNamespace())), info,
+					Collections.emptyList(), Collections.emptySet())));
+		} finally {
+			searches.shutdownNow();
+		}
+		verify(impl, times(2)).computeDistance(eq(query), any(), eq(true));
+	}
+
+	private Namespace getMashNamespace() throws Exception {
+		final MinHashSketchDatabase ref1 = new MinHashSketchDatabase(
+				new MinHashSketchDBName("ns1"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(EMPTY_FILE_MSH),
+				2000);
+		return Namespace.getBuilder(
+				new NamespaceID("ns1"), ref1, new LoadID("load1"), Instant.ofEpochMilli(10000))
+				.build();
+	}
+
+	@Test
+	public void healthProbe() throws Exception {
+		final AssemblyHomology ah = new AssemblyHomology(
+				mock(AssemblyHomologyStorage.class), Collections.emptyList(), MTFAC,
+				Paths.get("foo"), 30);
+
+		assertThat("incorrect running", ah.isHealthProbeRunning(), is(false));
+		ah.stopHealthProbe(); // no-op
+		ah.startHealthProbe(3600);
+		assertThat("incorrect running", ah.isHealthProbeRunning(), is(true));
+		failStartHealthProbe(ah, 3600,
+				new IllegalArgumentException("The health probe is already running"));
+		ah.stopHealthProbe();
+		assertThat("incorrect running", ah.isHealthProbeRunning(), is(false));
+
+		failStartHealthProbe(ah, 0, new IllegalArgumentException("periodInSeconds must be > 0"));
+		assertThat("incorrect running", ah.isHealthProbeRunning(), is(false));
+	}
+
+	private void failStartHealthProbe(
+			final AssemblyHomology ah,
+			final long period,
+			final Exception expected) {
+		try {
+			ah.startHealthProbe(period);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void getMemoryUsageFail() throws Exception {
+		final AssemblyHomologyStorage s = mock(AssemblyHomologyStorage.class);
+		
+		final AssemblyHomology ah = new AssemblyHomology(
+				s, Collections.emptyList(), MTFAC, Paths.get("foo"), 30);
+		failGetMemoryUsage(ah, null, new NullPointerException("namespaceID"));
+		
+		when(s.getNamespace(new NamespaceID("bar")))
+				.thenThrow(new NoSuchNamespaceException("bar"));
+		when(s.getNamespace(new NamespaceID("baz"))).thenReturn(NS2);
+		
+		failGetMemoryUsage(ah, new NamespaceID("bar"), new NoSuchNamespaceException("bar"));
+		failGetMemoryUsage(ah, new NamespaceID("baz"), new IllegalStateException(
+				"Application is misconfigured. Implementation mash stored in database but " +
+				"not available."));
+	}
+	
+	private void failGetMemoryUsage(
+			final AssemblyHomology ah,
+			final NamespaceID id,
+			final Exception expected) {
+		try {
+			ah.getMemoryUsage(id);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+	
 	@Test
 	public void getNamespaces() throws Exception {
 		final AssemblyHomologyStorage s = mock(AssemblyHomologyStorage.class);
@@ -510,17 +882,500 @@ public class AssemblyHomologyTest {
 		measureDistance(MinHashParameters.getBuilder(31).withSketchSize(1500).build(), false,
 				warnings, 5, 5);
 	}
-
-	private void measureDistance(
-			final MinHashParameters queryParams,
-			final boolean strict,
-			final Set<String> expectedWarnings,
-			final int returnSize,
-			final int expectedReturnSize) /// TODO NOW TEST this isn't actually checked. Add a method to get the collector from the filter to check max size.
+
+	@Test
+	public void measureDistanceApproximate() throws Exception {
+		measureDistance(MinHashParameters.getBuilder(31).withSketchSize(1000).build(), true,
+				set("An approximate search with a target recall of 0.9 was performed. Some " +
+						"matches may be missing from the results."),
+				7, 7, MinHashSearchParameters.getBuilder().withApproximateRecall(0.9).build(),
+				true);
+	}
+	
+	@Test
+	public void measureDistanceApproximateUnsupported() throws Exception {
+		measureDistance(MinHashParameters.getBuilder(31).withSketchSize(1000).build(), true,
+				set("MinHash implementation mash does not support approximate searches. An " +
+						"exact search was performed."),
+				7, 7, MinHashSearchParameters.getBuilder().withApproximateRecall(0.9).build(),
+				false);
+	}
+	
+	@Test
+	public void measureDistanceWithMaxDistance() throws Exception {
+		measureDistance(MinHashParameters.getBuilder(31).withSketchSize(1000).build(), true,
+				Collections.emptySet(), 7, 7,
+				MinHashSearchParameters.getBuilder().withMaxDistance(0.3).build(), false);
+	}
+	
+	@Test
+	public void measureDistanceApproximateWithMaxDistance() throws Exception {
+		measureDistance(MinHashParameters.getBuilder(31).withSketchSize(1000).build(), true,
+				set("An approximate search with a target recall of 0.9 was performed. Some " +
+						"matches may be missing from the results."),
+				7, 7, MinHashSearchParameters.getBuilder().withApproximateRecall(0.9)
+						.withMaxDistance(0.4).build(),
+				true);
+	}
+	
+	@Test
+	public void measureDistanceApproximateUnsupportedWithMaxDistance() throws Exception {
+		measureDistance(MinHashParameters.getBuilder(31).withSketchSize(1000).build(), true,
+				set("MinHash implementation mash does not support approximate searches. An " +
+						"exact search was performed."),
+				7, 7, MinHashSearchParameters.getBuilder().withApproximateRecall(0.9)
+						.withMaxDistance(0.35).build(),
+				false);
+	}
+	
+	@Test
+	public void measureDistanceExactWithSearchParameters() throws Exception {
+		measureDistance(MinHashParameters.getBuilder(31).withSketchSize(1000).build(), true,
+				Collections.emptySet(), 7, 7, MinHashSearchParameters.getBuilder().build(), true);
+	}
+
+	private void measureDistance(
+			final MinHashParameters queryParams,
+			final boolean strict,
+			final Set<String> expectedWarnings,
+			final int returnSize,
+			final int expectedReturnSize)
+			throws Exception {
+		measureDistance(queryParams, strict, expectedWarnings, returnSize, expectedReturnSize,
+				null, false);
+	}
+	
+	private void measureDistance(
+			final MinHashParameters queryParams,
+			final boolean strict,
+			final Set<String> expectedWarnings,
+			final int returnSize,
+			final int expectedReturnSize, /// TODO NOW TEST this isn't actually checked. Add a method to get the collector from the filter to check max size.
+			final MinHashSearchParameters searchParams, // null to use the default method
+			final boolean approxSupported)
+			throws Exception {
+		final AssemblyHomologyStorage storage = mock(AssemblyHomologyStorage.class);
+		final MinHashImplementationFactory fac = mock(MinHashImplementationFactory.class);
+		final MinHashImplementation mash = mock(MinHashImplementation.class);
+		
+		when(fac.getImplementationName()).thenReturn(new MinHashImplementationName("mash"));
+		
+		final AssemblyHomology ah = new AssemblyHomology(
+				storage, Arrays.asList(fac), MTFAC, Paths.get("temp_dir"), 5);
+		
+		final MinHashSketchDatabase ref1 = new MinHashSketchDatabase(
+				new MinHashSketchDBName("ns1"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(EMPTY_FILE_MSH),
+				2000);
+		final Namespace ns1 = Namespace.getBuilder(
+				new NamespaceID("ns1"), ref1, new LoadID("load1"), Instant.ofEpochMilli(10000))
+				.build();
+		when(storage.getNamespace(new NamespaceID("ns1"))).thenReturn(ns1);
+		
+		final MinHashSketchDatabase ref2 = new MinHashSketchDatabase(
+				new MinHashSketchDBName("ns2"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(EMPTY_FILE_MSH2),
+				4000);
+		final Namespace ns2 = Namespace.getBuilder(
+				new NamespaceID("ns2"), ref2, new LoadID("load2"), Instant.ofEpochMilli(20000))
+				.build();
+		when(storage.getNamespace(new NamespaceID("ns2"))).thenReturn(ns2);
+		
+		when(fac.getImplementation(Paths.get("temp_dir"), 5)).thenReturn(mash);
+		
+		final MinHashSketchDatabase query = new MinHashSketchDatabase(
+				new MinHashSketchDBName("<query>"),
+				new MinHashImplementationName("mash"),
+				queryParams,
+				new MinHashDBLocation(EMPTY_FILE_MSH3),
+				1);
+		when(mash.getDatabase(
+				new MinHashSketchDBName("<query>"), new MinHashDBLocation(EMPTY_FILE_MSH)))
+				.thenReturn(query);
+		
+		final DistFilterArgMatch match = new DistFilterArgMatch(
+				ImmutableMap.of(
+						ref1, DefaultDistanceFilter.class,
+						ref2, DefaultDistanceFilter.class
+				),
+				ImmutableMap.of(
+						ref1, Arrays.asList(
+								new MinHashDistance(new MinHashSketchDBName("ns1"), "seq1", 0.1),
+								new MinHashDistance(new MinHashSketchDBName("ns1"), "seq5", 0.4)
+						),
+						ref2, Arrays.asList(
+								new MinHashDistance(new MinHashSketchDBName("ns2"), "seq2", 0.2)
+						)
+				));
+		
+		when(mash.isApproximateSearchSupported()).thenReturn(approxSupported);
+		final Optional<Double> maxDist = searchParams == null ?
+				Optional.absent() : searchParams.getMaxDistance();
+		if (searchParams != null && searchParams.isApproximate() && approxSupported) {
+			when(mash.computeDistance(eq(query), argThat(match), eq(strict), eq(searchParams)))
+					.thenReturn(Collections.emptyList()); // minhash warnings are ignored
+		} else if (maxDist.isPresent()) {
+			// the approximate search parameters are dropped
+			when(mash.computeDistance(eq(query), argThat(match), eq(strict), eq(
+					MinHashSearchParameters.getBuilder().withMaxDistance(maxDist.get()).build())))
+					.thenReturn(Collections.emptyList());
+		} else {
+			when(mash.computeDistance(eq(query), argThat(match), eq(strict)))
+					.thenReturn(Collections.emptyList()); // minhash warnings are ignored
+		}
+		
+		when(storage.getSequenceMetadata(
+				new NamespaceID("ns1"), new LoadID("load1"), Arrays.asList("seq1", "seq5")))
+				.thenReturn(Arrays.asList(
+						SequenceMetadata.getBuilder("seq1", "ss1", Instant.ofEpochMilli(10000))
+								.build(),
+						SequenceMetadata.getBuilder("seq5", "ss5", Instant.ofEpochMilli(50000))
+								.build()));
+		// for searches where seq5 is beyond the maximum distance
+		when(storage.getSequenceMetadata(
+				new NamespaceID("ns1"), new LoadID("load1"), Arrays.asList("seq1")))
+				.thenReturn(Arrays.asList(
+						SequenceMetadata.getBuilder("seq1", "ss1", Instant.ofEpochMilli(10000))
+								.build()));
+		
+		when(storage.getSequenceMetadata(
+				new NamespaceID("ns2"), new LoadID("load2"), Arrays.asList("seq2")))
+				.thenReturn(Arrays.asList(
+						SequenceMetadata.getBuilder("seq2", "ss2", Instant.ofEpochMilli(20000))
+								.build()));
+		
+		when(mash.getImplementationInformation()).thenReturn(new MinHashImplementationInformation(
+				new MinHashImplementationName("mash"), "2.0", Paths.get("msh")));
+
+		final SequenceMatches res;
+		if (searchParams == null) {
+			res = ah.measureDistance(
+					set(new NamespaceID("ns1"), new NamespaceID("ns2")),
+					EMPTY_FILE_MSH, // needs to exist or exception will be thrown. 
+					returnSize,
+					strict,
+					null);
+		} else {
+			res = ah.measureDistance(
+					set(new NamespaceID("ns1"), new NamespaceID("ns2")),
+					EMPTY_FILE_MSH,
+					returnSize,
+					strict,
+					null,
+					searchParams);
+		}
+		
+		final SequenceMatches expected = new SequenceMatches(
+				set(new NamespaceView(ns1), new NamespaceView(ns2)),
+				new MinHashImplementationInformation(
+						new MinHashImplementationName("mash"), "2.0", Paths.get("msh")),
+				Arrays.asList(
+						new SequenceDistanceAndMetadata(
+								new NamespaceID("ns1"),
+								new MinHashDistance(new MinHashSketchDBName("ns1"), "seq1", 0.1),
+								SequenceMetadata.getBuilder(
+										"seq1", "ss1", Instant.ofEpochMilli(10000)).build()),
+						new SequenceDistanceAndMetadata(
+								new NamespaceID("ns2"),
+								new MinHashDistance(new MinHashSketchDBName("ns2"), "seq2", 0.2),
+								SequenceMetadata.getBuilder(
+										"seq2", "ss2", Instant.ofEpochMilli(20000)).build()),
+						new SequenceDistanceAndMetadata(
+								new NamespaceID("ns1"),
+								new MinHashDistance(new MinHashSketchDBName("ns1"), "seq5", 0.4),
+								SequenceMetadata.getBuilder(
+										"seq5", "ss5", Instant.ofEpochMilli(50000)).build())
+						).stream()
+						// the mock implementation ignores the maximum distance
+						.filter(d -> !maxDist.isPresent() ||
+								d.getDistance().getDistance() <= maxDist.get())
+						.collect(Collectors.toList()),
+				expectedWarnings);
+		
+		assertThat("incorrect matches", res, is(expected));
+	}
+	
+	private class MultiDistFilterArgMatch implements
+			ArgumentMatcher<Map<MinHashSketchDatabase, List<MinHashDistanceFilter>>> {
+
+		final Map<MinHashSketchDatabase, List<List<MinHashDistance>>> toCollect;
+		
+		public MultiDistFilterArgMatch(
+				final Map<MinHashSketchDatabase, List<List<MinHashDistance>>> toCollect) {
+			this.toCollect = toCollect;
+		}
+		
+		@Override
+		public boolean matches(final Map<MinHashSketchDatabase, List<MinHashDistanceFilter>> arg) {
+			if (!arg.keySet().equals(toCollect.keySet())) {
+				return false;
+			}
+			for (final MinHashSketchDatabase db: toCollect.keySet()) {
+				final List<MinHashDistanceFilter> filters = arg.get(db);
+				if (filters.size() != toCollect.get(db).size()) {
+					return false;
+				}
+				for (int i = 0; i < filters.size(); i++) {
+					if (!(filters.get(i) instanceof DefaultDistanceFilter)) {
+						return false;
+					}
+					for (final MinHashDistance d: toCollect.get(db).get(i)) {
+						try {
+							filters.get(i).accept(d);
+						} catch (Exception e) {
+							throw new TestException(e.getMessage(), e);
+						}
+					}
+				}
+			}
+			return true;
+		}
+	}
+	
+	@Test
+	public void measureDistances() throws Exception {
+		final AssemblyHomologyStorage storage = mock(AssemblyHomologyStorage.class);
+		final MinHashImplementationFactory fac = mock(MinHashImplementationFactory.class);
+		final MinHashImplementation mash = mock(MinHashImplementation.class);
+		
+		when(fac.getImplementationName()).thenReturn(new MinHashImplementationName("mash"));
+		
+		final AssemblyHomology ah = new AssemblyHomology(
+				storage, Arrays.asList(fac), MTFAC, Paths.get("temp_dir"), 5);
+		
+		final MinHashSketchDatabase ref1 = new MinHashSketchDatabase(
+				new MinHashSketchDBName("ns1"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(EMPTY_FILE_MSH),
+				2000);
+		final Namespace ns1 = Namespace.getBuilder(
+				new NamespaceID("ns1"), ref1, new LoadID("load1"), Instant.ofEpochMilli(10000))
+				.build();
+		when(storage.getNamespace(new NamespaceID("ns1"))).thenReturn(ns1);
+		
+		final MinHashSketchDatabase ref2 = new MinHashSketchDatabase(
+				new MinHashSketchDBName("ns2"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(EMPTY_FILE_MSH2),
+				4000);
+		final Namespace ns2 = Namespace.getBuilder(
+				new NamespaceID("ns2"), ref2, new LoadID("load2"), Instant.ofEpochMilli(20000))
+				.build();
+		when(storage.getNamespace(new NamespaceID("ns2"))).thenReturn(ns2);
+		
+		when(fac.getImplementation(Paths.get("temp_dir"), 5)).thenReturn(mash);
+		
+		final MinHashSketchDatabase query = new MinHashSketchDatabase(
+				new MinHashSketchDBName("<query>"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(EMPTY_FILE_MSH3),
+				2);
+		when(mash.getDatabase(
+				new MinHashSketchDBName("<query>"), new MinHashDBLocation(EMPTY_FILE_MSH)))
+				.thenReturn(query);
+		when(mash.isMultipleQuerySearchSupported()).thenReturn(true);
+		when(mash.isApproximateSearchSupported()).thenReturn(true);
+		when(mash.getSketchIDs(query)).thenReturn(Arrays.asList("q2", "q1"));
+		
+		final MinHashSketchDBName n1 = new MinHashSketchDBName("ns1");
+		final MinHashSketchDBName n2 = new MinHashSketchDBName("ns2");
+		final MinHashSearchParameters params = MinHashSearchParameters.getBuilder()
+				.withApproximateRecall(0.9).build();
+		when(mash.computeDistances(eq(query), argThat(new MultiDistFilterArgMatch(ImmutableMap.of(
+				ref1, Arrays.asList(
+						Arrays.asList(new MinHashDistance(n1, "seq1", 0.1)),
+						Arrays.asList(new MinHashDistance(n1, "seq1", 0.3),
+								new MinHashDistance(n1, "seq5", 0.4))),
+				ref2, Arrays.asList(
+						Arrays.asList(new MinHashDistance(n2, "seq2", 0.2)),
+						Collections.emptyList())))),
+				eq(true), eq(params)))
+				.thenReturn(Collections.emptyList()); // minhash warnings are ignored
+		
+		// the metadata for all the queries is fetched at once
+		when(storage.getSequenceMetadata(
+				new NamespaceID("ns1"), new LoadID("load1"), Arrays.asList("seq1", "seq5")))
+				.thenReturn(Arrays.asList(
+						SequenceMetadata.getBuilder("seq1", "ss1", Instant.ofEpochMilli(10000))
+								.build(),
+						SequenceMetadata.getBuilder("seq5", "ss5", Instant.ofEpochMilli(50000))
+								.build()));
+		when(storage.getSequenceMetadata(
+				new NamespaceID("ns2"), new LoadID("load2"), Arrays.asList("seq2")))
+				.thenReturn(Arrays.asList(
+						SequenceMetadata.getBuilder("seq2", "ss2", Instant.ofEpochMilli(20000))
+								.build()));
+		
+		when(mash.getImplementationInformation()).thenReturn(new MinHashImplementationInformation(
+				new MinHashImplementationName("mash"), "2.0", Paths.get("msh")));
+		
+		final Map<String, SequenceMatches> res = ah.measureDistances(
+				set(new NamespaceID("ns1"), new NamespaceID("ns2")),
+				EMPTY_FILE_MSH, 10, true, null, params);
+		
+		final Set<NamespaceView> nss = set(new NamespaceView(ns1), new NamespaceView(ns2));
+		final MinHashImplementationInformation info = new MinHashImplementationInformation(
+				new MinHashImplementationName("mash"), "2.0", Paths.get("msh"));
+		final Set<String> warnings = set("An approximate search with a target recall of 0.9 " +
+				"was performed. Some matches may be missing from the results.");
+		final SequenceMetadata seq1 = SequenceMetadata.getBuilder(
+				"seq1", "ss1", Instant.ofEpochMilli(10000)).build();
+		
+		assertThat("incorrect matches", res, is(ImmutableMap.of(
+				"q2", new SequenceMatches(nss, info, Arrays.asList(
+						new SequenceDistanceAndMetadata(new NamespaceID("ns1"),
+								new MinHashDistance(n1, "seq1", 0.1), seq1),
+						new SequenceDistanceAndMetadata(new NamespaceID("ns2"),
+								new MinHashDistance(n2, "seq2", 0.2),
+								SequenceMetadata.getBuilder(
+										"seq2", "ss2", Instant.ofEpochMilli(20000)).build())),
+						warnings),
+				"q1", new SequenceMatches(nss, info, Arrays.asList(
+						new SequenceDistanceAndMetadata(new NamespaceID("ns1"),
+								new MinHashDistance(n1, "seq1", 0.3), seq1),
+						new SequenceDistanceAndMetadata(new NamespaceID("ns1"),
+								new MinHashDistance(n1, "seq5", 0.4),
+								SequenceMetadata.getBuilder(
+										"seq5", "ss5", Instant.ofEpochMilli(50000)).build())),
+						warnings))));
+		// matches are in the order of the query sketch database
+		assertThat("incorrect order", new LinkedList<>(res.keySet()),
+				is(Arrays.asList("q2", "q1")));
+	}
+	
+	@Test
+	public void measureDistancesSingleQuery() throws Exception {
+		// implementations without multiple query support still accept a single query
+		final AssemblyHomologyStorage storage = mock(AssemblyHomologyStorage.class);
+		final MinHashImplementationFactory fac = mock(MinHashImplementationFactory.class);
+		final MinHashImplementation mash = mock(MinHashImplementation.class);
+		
+		when(fac.getImplementationName()).thenReturn(new MinHashImplementationName("mash"));
+		
+		final AssemblyHomology ah = new AssemblyHomology(
+				storage, Arrays.asList(fac), MTFAC, Paths.get("temp_dir"), 5);
+		
+		final MinHashSketchDatabase ref1 = new MinHashSketchDatabase(
+				new MinHashSketchDBName("ns1"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(EMPTY_FILE_MSH),
+				2000);
+		final Namespace ns1 = Namespace.getBuilder(
+				new NamespaceID("ns1"), ref1, new LoadID("load1"), Instant.ofEpochMilli(10000))
+				.build();
+		when(storage.getNamespace(new NamespaceID("ns1"))).thenReturn(ns1);
+		when(fac.getImplementation(Paths.get("temp_dir"), 5)).thenReturn(mash);
+		
+		final MinHashSketchDatabase query = new MinHashSketchDatabase(
+				new MinHashSketchDBName("<query>"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(EMPTY_FILE_MSH3),
+				1);
+		when(mash.getDatabase(
+				new MinHashSketchDBName("<query>"), new MinHashDBLocation(EMPTY_FILE_MSH)))
+				.thenReturn(query);
+		when(mash.getSketchIDs(query)).thenReturn(Arrays.asList("q1"));
+		
+		final MinHashSketchDBName n1 = new MinHashSketchDBName("ns1");
+		when(mash.computeDistance(eq(query), argThat(new DistFilterArgMatch(
+				ImmutableMap.of(ref1, DefaultDistanceFilter.class),
+				ImmutableMap.of(ref1, Arrays.asList(new MinHashDistance(n1, "seq1", 0.1))))),
+				eq(false)))
+				.thenReturn(Collections.emptyList());
+		
+		when(storage.getSequenceMetadata(
+				new NamespaceID("ns1"), new LoadID("load1"), Arrays.asList("seq1")))
+				.thenReturn(Arrays.asList(
+						SequenceMetadata.getBuilder("seq1", "ss1", Instant.ofEpochMilli(10000))
+								.build()));
+		when(mash.getImplementationInformation()).thenReturn(new MinHashImplementationInformation(
+				new MinHashImplementationName("mash"), "2.0", Paths.get("msh")));
+		
+		final Map<String, SequenceMatches> res = ah.measureDistances(
+				set(new NamespaceID("ns1")), EMPTY_FILE_MSH, 10, false, null,
+				MinHashSearchParameters.getBuilder().build());
+		
+		assertThat("incorrect matches", res, is(ImmutableMap.of(
+				"q1", new SequenceMatches(
+						set(new NamespaceView(ns1)),
+						new MinHashImplementationInformation(
+								new MinHashImplementationName("mash"), "2.0", Paths.get("msh")),
+						Arrays.asList(new SequenceDistanceAndMetadata(new NamespaceID("ns1"),
+								new MinHashDistance(n1, "seq1", 0.1),
+								SequenceMetadata.getBuilder(
+										"seq1", "ss1", Instant.ofEpochMilli(10000)).build())),
+						Collections.emptySet()))));
+	}
+	
+	@Test
+	public void measureDistancesFailNulls() throws Exception {
+		final AssemblyHomology ah = new AssemblyHomology(
+				mock(AssemblyHomologyStorage.class), Collections.emptyList(), MTFAC,
+				Paths.get("temp_dir"), 5);
+		final Set<NamespaceID> ids = set(new NamespaceID("ns1"));
+		final MinHashSearchParameters p = MinHashSearchParameters.getBuilder().build();
+		
+		failMeasureDistances(ah, null, EMPTY_FILE_MSH, p,
+				new NullPointerException("namespaceIDs"));
+		failMeasureDistances(ah, set(new NamespaceID("ns1"), null), EMPTY_FILE_MSH, p,
+				new NullPointerException("Null item in collection namespaceIDs"));
+		failMeasureDistances(ah, ids, null, p, new NullPointerException("sketchDB"));
+		failMeasureDistances(ah, ids, EMPTY_FILE_MSH, null,
+				new NullPointerException("searchParameters"));
+		failMeasureDistances(ah, Collections.emptySet(), EMPTY_FILE_MSH, p,
+				new IllegalArgumentException("No namespace IDs provided"));
+	}
+	
+	@Test
+	public void measureDistancesFailNoSketches() throws Exception {
+		failMeasureDistances(0, true, Collections.emptyList(), new InvalidSketchException(
+				"Query sketch database must have at least one sketch"));
+	}
+	
+	@Test
+	public void measureDistancesFailUnsupported() throws Exception {
+		failMeasureDistances(2, false, Arrays.asList("q1", "q2"), new InvalidSketchException(
+				"MinHash implementation mash only supports query sketch databases with " +
+				"exactly one sketch"));
+	}
+	
+	@Test
+	public void measureDistancesFailTooManySketches() throws Exception {
+		failMeasureDistances(1001, true, Collections.emptyList(), new InvalidSketchException(
+				"Query sketch database may have at most 1000 sketches"));
+	}
+	
+	@Test
+	public void measureDistancesFailDuplicateIDs() throws Exception {
+		failMeasureDistances(3, true, Arrays.asList("q1", "q2", "q1"), new InvalidSketchException(
+				"Query sketch database contains duplicate sketch ID q1"));
+	}
+	
+	@Test
+	public void measureDistancesFailGetSketchIDs() throws Exception {
+		failMeasureDistances(2, true, null, new IllegalStateException(
+				"Error reading query sketch database: oh poop"));
+	}
+	
+	// ids null to throw an exception on getting the query sketch IDs
+	private void failMeasureDistances(
+			final int queryCount,
+			final boolean multipleQuerySupported,
+			final List<String> ids,
+			final Exception expected)
 			throws Exception {
 		final AssemblyHomologyStorage storage = mock(AssemblyHomologyStorage.class);
 		final MinHashImplementationFactory fac = mock(MinHashImplementationFactory.class);
-		final MinHashImplementation mash = mock(MinHashImplementation.class);
+		final MinHashImplementation impl = mock(MinHashImplementation.class);
 		
 		when(fac.getImplementationName()).thenReturn(new MinHashImplementationName("mash"));
 		
@@ -533,100 +1388,45 @@ public class AssemblyHomologyTest {
 				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
 				new MinHashDBLocation(EMPTY_FILE_MSH),
 				2000);
-		final Namespace ns1 = Namespace.getBuilder(
+		when(storage.getNamespace(new NamespaceID("ns1"))).thenReturn(Namespace.getBuilder(
 				new NamespaceID("ns1"), ref1, new LoadID("load1"), Instant.ofEpochMilli(10000))
-				.build();
-		when(storage.getNamespace(new NamespaceID("ns1"))).thenReturn(ns1);
-		
-		final MinHashSketchDatabase ref2 = new MinHashSketchDatabase(
-				new MinHashSketchDBName("ns2"),
-				new MinHashImplementationName("mash"),
-				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
-				new MinHashDBLocation(EMPTY_FILE_MSH2),
-				4000);
-		final Namespace ns2 = Namespace.getBuilder(
-				new NamespaceID("ns2"), ref2, new LoadID("load2"), Instant.ofEpochMilli(20000))
-				.build();
-		when(storage.getNamespace(new NamespaceID("ns2"))).thenReturn(ns2);
-		
-		when(fac.getImplementation(Paths.get("temp_dir"), 5)).thenReturn(mash);
+				.build());
+		when(fac.getImplementation(Paths.get("temp_dir"), 5)).thenReturn(impl);
+		when(impl.getImplementationInformation()).thenReturn(new MinHashImplementationInformation(
+				new MinHashImplementationName("mash"), "2.0", Paths.get("msh")));
 		
 		final MinHashSketchDatabase query = new MinHashSketchDatabase(
 				new MinHashSketchDBName("<query>"),
 				new MinHashImplementationName("mash"),
-				queryParams,
-				new MinHashDBLocation(EMPTY_FILE_MSH3),
-				1);
-		when(mash.getDatabase(
-				new MinHashSketchDBName("<query>"), new MinHashDBLocation(EMPTY_FILE_MSH)))
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(EMPTY_FILE_MSH2),
+				queryCount);
+		when(impl.getDatabase(
+				new MinHashSketchDBName("<query>"), new MinHashDBLocation(EMPTY_FILE_MSH2)))
 				.thenReturn(query);
+		when(impl.isMultipleQuerySearchSupported()).thenReturn(multipleQuerySupported);
+		if (ids == null) {
+			when(impl.getSketchIDs(query)).thenThrow(new MinHashException("oh poop"));
+		} else {
+			when(impl.getSketchIDs(query)).thenReturn(ids);
+		}
 		
-		final DistFilterArgMatch match = new DistFilterArgMatch(
-				ImmutableMap.of(
-						ref1, DefaultDistanceFilter.class,
-						ref2, DefaultDistanceFilter.class
-				),
-				ImmutableMap.of(
-						ref1, Arrays.asList(
-								new MinHashDistance(new MinHashSketchDBName("ns1"), "seq1", 0.1),
-								new MinHashDistance(new MinHashSketchDBName("ns1"), "seq5", 0.4)
-						),
-						ref2, Arrays.asList(
-								new MinHashDistance(new MinHashSketchDBName("ns2"), "seq2", 0.2)
-						)
-				));
-		
-		when(mash.computeDistance(eq(query), argThat(match), eq(strict)))
-				.thenReturn(Collections.emptyList()); // minhash warnings are ignored
-		
-		when(storage.getSequenceMetadata(
-				new NamespaceID("ns1"), new LoadID("load1"), Arrays.asList("seq1", "seq5")))
-				.thenReturn(Arrays.asList(
-						SequenceMetadata.getBuilder("seq1", "ss1", Instant.ofEpochMilli(10000))
-								.build(),
-						SequenceMetadata.getBuilder("seq5", "ss5", Instant.ofEpochMilli(50000))
-								.build()));
-		
-		when(storage.getSequenceMetadata(
-				new NamespaceID("ns2"), new LoadID("load2"), Arrays.asList("seq2")))
-				.thenReturn(Arrays.asList(
-						SequenceMetadata.getBuilder("seq2", "ss2", Instant.ofEpochMilli(20000))
-								.build()));
-		
-		when(mash.getImplementationInformation()).thenReturn(new MinHashImplementationInformation(
-				new MinHashImplementationName("mash"), "2.0", Paths.get("msh")));
-
-		final SequenceMatches res = ah.measureDistance(
-				set(new NamespaceID("ns1"), new NamespaceID("ns2")),
-				EMPTY_FILE_MSH, // needs to exist or exception will be thrown. 
-				returnSize,
-				strict,
-				null);
-		
-		final SequenceMatches expected = new SequenceMatches(
-				set(new NamespaceView(ns1), new NamespaceView(ns2)),
-				new MinHashImplementationInformation(
-						new MinHashImplementationName("mash"), "2.0", Paths.get("msh")),
-				Arrays.asList(
-						new SequenceDistanceAndMetadata(
-								new NamespaceID("ns1"),
-								new MinHashDistance(new MinHashSketchDBName("ns1"), "seq1", 0.1),
-								SequenceMetadata.getBuilder(
-										"seq1", "ss1", Instant.ofEpochMilli(10000)).build()),
-						new SequenceDistanceAndMetadata(
-								new NamespaceID("ns2"),
-								new MinHashDistance(new MinHashSketchDBName("ns2"), "seq2", 0.2),
-								SequenceMetadata.getBuilder(
-										"seq2", "ss2", Instant.ofEpochMilli(20000)).build()),
-						new SequenceDistanceAndMetadata(
-								new NamespaceID("ns1"),
-								new MinHashDistance(new MinHashSketchDBName("ns1"), "seq5", 0.4),
-								SequenceMetadata.getBuilder(
-										"seq5", "ss5", Instant.ofEpochMilli(50000)).build())
-						),
-				expectedWarnings);
-		
-		assertThat("incorrect matches", res, is(expected));
+		failMeasureDistances(ah, set(new NamespaceID("ns1")), EMPTY_FILE_MSH2,
+				MinHashSearchParameters.getBuilder().build(), expected);
+	}
+	
+	private void failMeasureDistances(
+			final AssemblyHomology ah,
+			final Set<NamespaceID> namespaceIDs,
+			final Path query,
+			final MinHashSearchParameters searchParameters,
+			final Exception expected) {
+		try {
+			ah.measureDistances(namespaceIDs, query, 10, true, null, searchParameters);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
 	}
 	
 	private class DistColArgMatch implements ArgumentMatcher<MinHashDistanceCollector> {
@@ -661,6 +1461,7 @@ public class AssemblyHomologyTest {
 		final DistColArgMatch dcmatch = new DistColArgMatch(Arrays.asList(
 				new MinHashDistance(new MinHashSketchDBName("ns1"), "mockymock", 0.12)));
 		
+		when(ffac.getFilterBuilder(isNull())).thenCallRealMethod();
 		when(ffac.getFilter(argThat(dcmatch), isNull())).thenReturn(filter);
 		
 		final AssemblyHomology ah = new AssemblyHomology(
@@ -766,6 +1567,227 @@ public class AssemblyHomologyTest {
 		assertThat("incorrect matches", res, is(expected));
 	}
 
+	@Test
+	public void measureDistanceBuildsFiltersDuringSearch() throws Exception {
+		final AssemblyHomologyStorage storage = mock(AssemblyHomologyStorage.class);
+		final MinHashImplementationFactory ifac = mock(MinHashImplementationFactory.class);
+		final MinHashImplementation mash = mock(MinHashImplementation.class);
+		when(ifac.getImplementationName()).thenReturn(new MinHashImplementationName("mash"));
+		final MinHashDistanceFilterFactory ffac = mock(MinHashDistanceFilterFactory.class);
+		when(ffac.getID()).thenReturn(new FilterID("filter"));
+		when(ffac.getAuthSource()).thenReturn(Optional.absent());
+		final MinHashDistanceFilter filter = mock(MinHashDistanceFilter.class);
+		
+		final CountDownLatch searching = new CountDownLatch(1);
+		// the filter isn't available until the search has started
+		when(ffac.getFilterBuilder(isNull())).thenAnswer(inv -> {
+			if (!searching.await(10, TimeUnit.SECONDS)) {
+				throw new TestException("search didn't start");
+			}
+			return (FilterBuilder) c -> filter;
+		});
+		
+		final AssemblyHomology ah = new AssemblyHomology(
+				storage, Arrays.asList(ifac), Arrays.asList(ffac), Paths.get("temp_dir"), 5);
+		
+		final List<Namespace> namespaces = new LinkedList<>();
+		for (final String ns: Arrays.asList("ns1", "ns2")) {
+			final MinHashSketchDatabase ref = new MinHashSketchDatabase(
+					new MinHashSketchDBName(ns),
+					new MinHashImplementationName("mash"),
+					MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+					new MinHashDBLocation(ns.equals("ns1") ? EMPTY_FILE_MSH : EMPTY_FILE_MSH2),
+					2000);
+			namespaces.add(Namespace.getBuilder(
+					new NamespaceID(ns), ref, new LoadID("load1"), Instant.ofEpochMilli(10000))
+					.withNullableFilterID(new FilterID("filter"))
+					.build());
+			when(storage.getNamespace(new NamespaceID(ns))).thenReturn(namespaces.get(
+					namespaces.size() - 1));
+		}
+		
+		when(ifac.getImplementation(Paths.get("temp_dir"), 5)).thenReturn(mash);
+		
+		final MinHashSketchDatabase query = new MinHashSketchDatabase(
+				new MinHashSketchDBName("<query>"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(EMPTY_FILE_MSH3),
+				1);
+		when(mash.getDatabase(
+				new MinHashSketchDBName("<query>"), new MinHashDBLocation(EMPTY_FILE_MSH)))
+				.thenReturn(query);
+		when(mash.getImplementationInformation()).thenReturn(new MinHashImplementationInformation(
+				new MinHashImplementationName("mash"), "2.0", Paths.get("msh")));
+		
+		final MinHashDistance d1 = new MinHashDistance(new MinHashSketchDBName("ns1"), "s1", 0.1);
+		final MinHashDistance d2 = new MinHashDistance(new MinHashSketchDBName("ns2"), "s2", 0.2);
+		when(mash.computeDistance(eq(query), any(), eq(false))).thenAnswer(inv -> {
+			@SuppressWarnings("unchecked")
+			final Map<MinHashSketchDatabase, MinHashDistanceFilter> dbs =
+					(Map<MinHashSketchDatabase, MinHashDistanceFilter>) inv.getArguments()[1];
+			// the distances are buffered until the filter is built
+			dbs.get(namespaces.get(0).getSketchDatabase()).accept(d1);
+			dbs.get(namespaces.get(1).getSketchDatabase()).accept(d2);
+			searching.countDown();
+			return Collections.emptyList();
+		});
+		
+		final SequenceMatches res = ah.measureDistance(
+				set(new NamespaceID("ns1"), new NamespaceID("ns2")),
+				EMPTY_FILE_MSH, // needs to exist or exception will be thrown.
+				5,
+				false,
+				null);
+		
+		final SequenceMatches expected = new SequenceMatches(
+				set(new NamespaceView(namespaces.get(0), ffac),
+						new NamespaceView(namespaces.get(1), ffac)),
+				new MinHashImplementationInformation(
+						new MinHashImplementationName("mash"), "2.0", Paths.get("msh")),
+				Collections.emptyList(),
+				Collections.emptySet());
+		
+		assertThat("incorrect matches", res, is(expected));
+		verify(filter).accept(d1);
+		verify(filter).accept(d2);
+		// namespaces with the same filter factory share one filter
+		verify(ffac, times(1)).getFilterBuilder(isNull());
+	}
+	
+	@Test
+	public void measureDistancesBuildsFiltersFromOneBuilder() throws Exception {
+		final AssemblyHomologyStorage storage = mock(AssemblyHomologyStorage.class);
+		final MinHashImplementationFactory ifac = mock(MinHashImplementationFactory.class);
+		final MinHashImplementation mash = mock(MinHashImplementation.class);
+		when(ifac.getImplementationName()).thenReturn(new MinHashImplementationName("mash"));
+		final MinHashDistanceFilterFactory ffac = mock(MinHashDistanceFilterFactory.class);
+		when(ffac.getID()).thenReturn(new FilterID("filter"));
+		when(ffac.getAuthSource()).thenReturn(Optional.absent());
+		
+		final AtomicInteger filters = new AtomicInteger();
+		when(ffac.getFilterBuilder(eq(new Token("tkn")))).thenReturn(c -> {
+			filters.incrementAndGet();
+			return new DefaultDistanceFilter(c);
+		});
+		
+		final AssemblyHomology ah = new AssemblyHomology(
+				storage, Arrays.asList(ifac), Arrays.asList(ffac), Paths.get("temp_dir"), 5);
+		
+		final MinHashSketchDatabase ref1 = new MinHashSketchDatabase(
+				new MinHashSketchDBName("ns1"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(EMPTY_FILE_MSH),
+				2000);
+		final Namespace ns1 = Namespace.getBuilder(
+				new NamespaceID("ns1"), ref1, new LoadID("load1"), Instant.ofEpochMilli(10000))
+				.withNullableFilterID(new FilterID("filter"))
+				.build();
+		when(storage.getNamespace(new NamespaceID("ns1"))).thenReturn(ns1);
+		
+		when(ifac.getImplementation(Paths.get("temp_dir"), 5)).thenReturn(mash);
+		
+		final MinHashSketchDatabase query = new MinHashSketchDatabase(
+				new MinHashSketchDBName("<query>"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(EMPTY_FILE_MSH3),
+				3);
+		when(mash.getDatabase(
+				new MinHashSketchDBName("<query>"), new MinHashDBLocation(EMPTY_FILE_MSH)))
+				.thenReturn(query);
+		when(mash.isMultipleQuerySearchSupported()).thenReturn(true);
+		when(mash.getSketchIDs(query)).thenReturn(Arrays.asList("q1", "q2", "q3"));
+		when(mash.getImplementationInformation()).thenReturn(new MinHashImplementationInformation(
+				new MinHashImplementationName("mash"), "2.0", Paths.get("msh")));
+		
+		final MinHashSearchParameters params = MinHashSearchParameters.getBuilder().build();
+		when(mash.computeDistances(eq(query), any(), eq(true), eq(params)))
+				.thenReturn(Collections.emptyList());
+		
+		final Map<String, SequenceMatches> res = ah.measureDistances(
+				set(new NamespaceID("ns1")), EMPTY_FILE_MSH, 10, true, new Token("tkn"), params);
+		
+		final SequenceMatches expected = new SequenceMatches(
+				set(new NamespaceView(ns1, ffac)),
+				new MinHashImplementationInformation(
+						new MinHashImplementationName("mash"), "2.0", Paths.get("msh")),
+				Collections.emptyList(),
+				Collections.emptySet());
+		assertThat("incorrect matches", res, is(ImmutableMap.of(
+				"q1", expected, "q2", expected, "q3", expected)));
+		// the factory is called once per search, and the builder once per query
+		verify(ffac, times(1)).getFilterBuilder(eq(new Token("tkn")));
+		verify(ffac, never()).getFilter(any(MinHashDistanceCollector.class), any());
+		assertThat("incorrect filter count", filters.get(), is(3));
+	}
+	
+	@Test
+	public void measureDistanceFailComputeDistanceCancelsFilterBuild() throws Exception {
+		final AssemblyHomologyStorage storage = mock(AssemblyHomologyStorage.class);
+		final MinHashImplementationFactory ifac = mock(MinHashImplementationFactory.class);
+		final MinHashImplementation impl = mock(MinHashImplementation.class);
+		when(ifac.getImplementationName()).thenReturn(new MinHashImplementationName("mash"));
+		final MinHashDistanceFilterFactory ffac = mock(MinHashDistanceFilterFactory.class);
+		when(ffac.getID()).thenReturn(new FilterID("filter"));
+		when(ffac.getAuthSource()).thenReturn(Optional.absent());
+		
+		final CountDownLatch building = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		// the builder blocks, e.g. on a slow remote service, until it is interrupted
+		when(ffac.getFilterBuilder(isNull())).thenAnswer(inv -> {
+			building.countDown();
+			try {
+				new CountDownLatch(1).await();
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+			throw new TestException("not interrupted");
+		});
+		
+		final AssemblyHomology ah = new AssemblyHomology(
+				storage, Arrays.asList(ifac), Arrays.asList(ffac), Paths.get("temp_dir"), 6674);
+		
+		final MinHashSketchDatabase ref1 = new MinHashSketchDatabase(
+				new MinHashSketchDBName("ns1"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(EMPTY_FILE_MSH),
+				2000);
+		final Namespace ns1 = Namespace.getBuilder(
+				new NamespaceID("ns1"), ref1, new LoadID("load1"), Instant.ofEpochMilli(10000))
+				.withNullableFilterID(new FilterID("filter"))
+				.build();
+		when(storage.getNamespace(new NamespaceID("ns1"))).thenReturn(ns1);
+		
+		when(ifac.getImplementation(Paths.get("temp_dir"), 6674)).thenReturn(impl);
+		
+		final MinHashSketchDatabase query = new MinHashSketchDatabase(
+				new MinHashSketchDBName("<query>"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(EMPTY_FILE_MSH2),
+				1);
+		when(impl.getDatabase(
+				new MinHashSketchDBName("<query>"), new MinHashDBLocation(EMPTY_FILE_MSH2)))
+				.thenReturn(query);
+		when(impl.getImplementationInformation()).thenReturn(new MinHashImplementationInformation(
+				new MinHashImplementationName("mash"), "2.0", Paths.get("msh")));
+		
+		when(impl.computeDistance(eq(query), any(), eq(true))).thenAnswer(inv -> {
+			if (!building.await(10, TimeUnit.SECONDS)) {
+				throw new TestException("filter build didn't start");
+			}
+			throw new MinHashException("he must have died while carving it");
+		});
+		
+		failMeasureDistance(ah, set(new NamespaceID("ns1")), EMPTY_FILE_MSH2, true, null,
+				new IllegalStateException("Unexpected error running MinHash implementation mash"));
+		assertThat("filter build not interrupted", interrupted.await(10, TimeUnit.SECONDS),
+				is(true));
+	}
+	
 	@Test
 	public void measureDistanceWithConfiguredFilterAndAuth() throws Exception {
 		final AssemblyHomologyStorage storage = mock(AssemblyHomologyStorage.class);
@@ -780,6 +1802,7 @@ public class AssemblyHomologyTest {
 		final DistColArgMatch dcmatch = new DistColArgMatch(Arrays.asList(
 				new MinHashDistance(new MinHashSketchDBName("ns1"), "mockymock", 0.12)));
 		
+		when(ffac.getFilterBuilder(eq(new Token("tkn")))).thenCallRealMethod();
 		when(ffac.getFilter(argThat(dcmatch), eq(new Token("tkn")))).thenReturn(filter);
 		
 		final AssemblyHomology ah = new AssemblyHomology(
@@ -904,10 +1927,12 @@ public class AssemblyHomologyTest {
 		
 		final DistColArgMatch dcmatch1 = new DistColArgMatch(Arrays.asList(
 				new MinHashDistance(new MinHashSketchDBName("ns1"), "mockymock", 0.12)));
+		when(ffac1.getFilterBuilder(eq(new Token("tkn")))).thenCallRealMethod();
 		when(ffac1.getFilter(argThat(dcmatch1), eq(new Token("tkn")))).thenReturn(filter1);
 
 		final DistColArgMatch dcmatch2 = new DistColArgMatch(Arrays.asList(
 				new MinHashDistance(new MinHashSketchDBName("ns2"), "mockymock2", 0.13)));
+		when(ffac2.getFilterBuilder(eq(new Token("tkn")))).thenCallRealMethod();
 		when(ffac2.getFilter(argThat(dcmatch2), eq(new Token("tkn")))).thenReturn(filter2);
 
 		final AssemblyHomology ah = new AssemblyHomology(storage, Arrays.asList(ifac),
@@ -1032,6 +2057,13 @@ public class AssemblyHomologyTest {
 		failMeasureDistance(ah, set(), p, true, null, new IllegalArgumentException(
 				"No namespace IDs provided"));
 		failMeasureDistance(ah, i, null, true, null, new NullPointerException("sketchDB"));
+		try {
+			ah.measureDistance(i, p, 10, true, null, null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new NullPointerException("searchParameters"));
+		}
 	}
 	
 	@Test
@@ -1439,6 +2471,7 @@ public class AssemblyHomologyTest {
 				new MinHashSketchDBName("<query>"), new MinHashDBLocation(EMPTY_FILE_MSH2)))
 				.thenReturn(query);
 		
+		when(ffac.getFilterBuilder(eq(new Token("baz")))).thenCallRealMethod();
 		when(ffac.getFilter(any(MinHashDistanceCollector.class), eq(new Token("baz"))))
 				.thenThrow(new MinHashDistanceFilterAuthenticationException("bad auth"));
 		
@@ -0,0 +1,98 @@
+package us.kbase.test.assemblyhomology.core;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Paths;
+import java.time.Instant;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import nl.jqno.equalsverifier.EqualsVerifier;
+import us.kbase.assemblyhomology.core.MinHashImplementationHealth;
+import us.kbase.assemblyhomology.minhash.MinHashImplementationInformation;
+import us.kbase.assemblyhomology.minhash.MinHashImplementationName;
+import us.kbase.test.assemblyhomology.TestCommon;
+
+public class MinHashImplementationHealthTest {
+	
+	private static final MinHashImplementationInformation INFO =
+			new MinHashImplementationInformation(
+					new MinHashImplementationName("mash"), "2.0", Paths.get("msh"));
+	
+	@Test
+	public void equals() {
+		EqualsVerifier.forClass(MinHashImplementationHealth.class).usingGetClass().verify();
+	}
+	
+	@Test
+	public void constructHealthy() {
+		final MinHashImplementationHealth h = new MinHashImplementationHealth(
+				INFO, Instant.ofEpochMilli(10000));
+		
+		assertThat("incorrect name", h.getImplementationName(),
+				is(new MinHashImplementationName("mash")));
+		assertThat("incorrect info", h.getImplementationInformation(), is(Optional.of(INFO)));
+		assertThat("incorrect error", h.getError(), is(Optional.absent()));
+		assertThat("incorrect healthy", h.isHealthy(), is(true));
+		assertThat("incorrect time", h.getCheckTime(), is(Instant.ofEpochMilli(10000)));
+	}
+	
+	@Test
+	public void constructUnhealthy() {
+		final MinHashImplementationHealth h = new MinHashImplementationHealth(
+				new MinHashImplementationName("mash"), "no mash", Instant.ofEpochMilli(10000));
+		
+		assertThat("incorrect name", h.getImplementationName(),
+				is(new MinHashImplementationName("mash")));
+		assertThat("incorrect info", h.getImplementationInformation(), is(Optional.absent()));
+		assertThat("incorrect error", h.getError(), is(Optional.of("no mash")));
+		assertThat("incorrect healthy", h.isHealthy(), is(false));
+		assertThat("incorrect time", h.getCheckTime(), is(Instant.ofEpochMilli(10000)));
+	}
+	
+	@Test
+	public void constructFail() {
+		final MinHashImplementationName n = new MinHashImplementationName("mash");
+		final Instant t = Instant.ofEpochMilli(10000);
+		
+		failConstruct(null, t, new NullPointerException("info"));
+		failConstruct(INFO, null, new NullPointerException("checkTime"));
+		
+		failConstruct(null, "e", t, new NullPointerException("implementationName"));
+		failConstruct(n, null, t,
+				new IllegalArgumentException("error cannot be null or whitespace only"));
+		failConstruct(n, "  \t ", t,
+				new IllegalArgumentException("error cannot be null or whitespace only"));
+		failConstruct(n, "e", null, new NullPointerException("checkTime"));
+	}
+	
+	private void failConstruct(
+			final MinHashImplementationInformation info,
+			final Instant checkTime,
+			final Exception expected) {
+		try {
+			new MinHashImplementationHealth(info, checkTime);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+	
+	private void failConstruct(
+			final MinHashImplementationName name,
+			final String error,
+			final Instant checkTime,
+			final Exception expected) {
+		try {
+			new MinHashImplementationHealth(name, error, checkTime);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+}
@@ -10,12 +10,15 @@ import java.util.Set;
 
 import org.junit.Test;
 
+import com.google.common.base.Optional;
+
 import us.kbase.assemblyhomology.filters.KBaseAuthenticatedFilter;
 import us.kbase.assemblyhomology.minhash.DefaultDistanceCollector;
 import us.kbase.assemblyhomology.minhash.MinHashDistance;
 import us.kbase.assemblyhomology.minhash.MinHashDistanceCollector;
 import us.kbase.assemblyhomology.minhash.MinHashSketchDBName;
 import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterException;
+import us.kbase.assemblyhomology.util.LongHashSet;
 import us.kbase.test.assemblyhomology.TestCommon;
 
 public class KBaseAuthenticatedFilterTest {
@@ -36,14 +39,43 @@ public class KBaseAuthenticatedFilterTest {
 				new MinHashDistance(new MinHashSketchDBName("d"), "8_1_1", 0.1))));
 	}
 	
+	@Test
+	public void constructWithLongHashSet() throws Exception {
+		final MinHashDistanceCollector col = new DefaultDistanceCollector(10);
+		final LongHashSet wsids = new LongHashSet(set(5L, 8L, 10L));
+		
+		final KBaseAuthenticatedFilter fil = new KBaseAuthenticatedFilter(wsids, col);
+		assertThat("incorrect ws ids", fil.getWorkspaceIDs(), is(set(10L, 8L, 5L)));
+		
+		fil.accept(new MinHashDistance(new MinHashSketchDBName("d"), "8_1_1", 0.1));
+		fil.accept(new MinHashDistance(new MinHashSketchDBName("d"), "9_1_1", 0.1));
+		
+		assertThat("incorrect distances", col.getDistances(), is(set(
+				new MinHashDistance(new MinHashSketchDBName("d"), "8_1_1", 0.1))));
+	}
+	
 	@Test
 	public void constructFail() {
 		final MinHashDistanceCollector col = new DefaultDistanceCollector(10);
 		
-		failConstruct(null, col, new NullPointerException("workspaceIDs"));
+		failConstruct((Set<Long>) null, col, new NullPointerException("workspaceIDs"));
 		failConstruct(set(), null, new NullPointerException("collector"));
 		failConstruct(set(1L, null), col, new NullPointerException(
 				"Null item in collection workspaceIDs"));
+		failConstruct((LongHashSet) null, col, new NullPointerException("workspaceIDs"));
+		failConstruct(new LongHashSet(set()), null, new NullPointerException("collector"));
+	}
+	
+	private void failConstruct(
+			final LongHashSet wsids,
+			final MinHashDistanceCollector col,
+			final Exception expected) {
+		try {
+			new KBaseAuthenticatedFilter(wsids, col);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
 	}
 	
 	private void failConstruct(
@@ -84,6 +116,20 @@ public class KBaseAuthenticatedFilterTest {
 				new MinHashDistance(new MinHashSketchDBName("d6"), "6_10000_33", 0.6))));
 	}
 	
+	@Test
+	public void getDistanceBound() throws Exception {
+		final MinHashDistanceCollector col = new DefaultDistanceCollector(1);
+		
+		final KBaseAuthenticatedFilter fil = new KBaseAuthenticatedFilter(set(8L), col);
+		assertThat("incorrect bound", fil.getDistanceBound(), is(Optional.absent()));
+		
+		fil.accept(new MinHashDistance(new MinHashSketchDBName("d1"), "1_4_18", 0.2));
+		assertThat("incorrect bound", fil.getDistanceBound(), is(Optional.absent()));
+		
+		fil.accept(new MinHashDistance(new MinHashSketchDBName("d1"), "8_23_6", 0.3));
+		assertThat("incorrect bound", fil.getDistanceBound(), is(Optional.of(0.3)));
+	}
+	
 	@Test
 	public void acceptFail() throws Exception {
 		failAccept(null, new NullPointerException("dist"));
@@ -142,6 +188,14 @@ public class KBaseAuthenticatedFilterTest {
 		assertThat("bad validation", KBaseAuthenticatedFilter.validateUPA("1_1_1"), is(1L));
 		assertThat("bad validation", KBaseAuthenticatedFilter.validateUPA(
 				"10000000000000_1000000000000000_1000000000000"), is(10000000000000L));
+		// UPAs that are valid but aren't parsed on the fast path
+		assertThat("bad validation", KBaseAuthenticatedFilter.validateUPA("+6_1_1"), is(6L));
+		assertThat("bad validation", KBaseAuthenticatedFilter.validateUPA("1_+2_+3"), is(1L));
+		assertThat("bad validation", KBaseAuthenticatedFilter.validateUPA(
+				"1000000000000000000_1_1"), is(1000000000000000000L));
+		assertThat("bad validation", KBaseAuthenticatedFilter.validateUPA(
+				"1_1_9223372036854775807"), is(1L));
+		assertThat("bad validation", KBaseAuthenticatedFilter.validateUPA("007_01_1"), is(7L));
 	}
 	
 	@Test
@@ -0,0 +1,291 @@
+package us.kbase.test.assemblyhomology.filters;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static us.kbase.test.assemblyhomology.TestCommon.set;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import us.kbase.assemblyhomology.core.Token;
+import us.kbase.assemblyhomology.filters.WorkspaceIDCache;
+import us.kbase.assemblyhomology.filters.WorkspaceIDCache.WorkspaceIDLoader;
+import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterAuthenticationException;
+import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterException;
+import us.kbase.test.assemblyhomology.TestCommon;
+
+public class WorkspaceIDCacheTest {
+
+	private static class TestClock extends Clock {
+
+		private long millis = 10000;
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(final ZoneId zone) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(millis);
+		}
+
+		@Override
+		public long millis() {
+			return millis;
+		}
+	}
+
+	// runs refreshes when told to
+	private static class TestExecutor implements Executor {
+
+		private final List<Runnable> tasks = new LinkedList<>();
+
+		@Override
+		public void execute(final Runnable command) {
+			tasks.add(command);
+		}
+
+		public void runAll() {
+			while (!tasks.isEmpty()) {
+				tasks.remove(0).run();
+			}
+		}
+	}
+
+	// returns the call number as the workspace ID for each call
+	private static class CountingLoader implements WorkspaceIDLoader {
+
+		private final AtomicInteger calls = new AtomicInteger();
+		private final List<Token> tokens = new LinkedList<>();
+		private MinHashDistanceFilterException toThrow = null;
+
+		@Override
+		public synchronized Set<Long> load(final Token token)
+				throws MinHashDistanceFilterException {
+			tokens.add(token);
+			final long call = calls.incrementAndGet();
+			if (toThrow != null) {
+				throw toThrow;
+			}
+			return set(call, 1000L);
+		}
+	}
+
+	@Test
+	public void construct() throws Exception {
+		final WorkspaceIDCache c = new WorkspaceIDCache(t -> set(), 10, 1);
+		assertThat("incorrect ttl", c.getTimeToLiveMS(), is(10L));
+		assertThat("incorrect size", c.size(), is(0));
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		final WorkspaceIDLoader l = t -> set();
+		final Clock c = new TestClock();
+		final Executor e = new TestExecutor();
+		failConstruct(null, 1, 1, c, e, new NullPointerException("loader"));
+		failConstruct(l, 1, 1, null, e, new NullPointerException("clock"));
+		failConstruct(l, 1, 1, c, null, new NullPointerException("refresher"));
+		failConstruct(l, 0, 1, c, e, new IllegalArgumentException("ttlMS must be > 0"));
+		failConstruct(l, 1, 0, c, e, new IllegalArgumentException("maxSize must be > 0"));
+	}
+
+	private void failConstruct(
+			final WorkspaceIDLoader loader,
+			final long ttlMS,
+			final int maxSize,
+			final Clock clock,
+			final Executor refresher,
+			final Exception expected) {
+		try {
+			new WorkspaceIDCache(loader, ttlMS, maxSize, clock, refresher);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void getPerToken() throws Exception {
+		final CountingLoader l = new CountingLoader();
+		final WorkspaceIDCache c = new WorkspaceIDCache(
+				l, 100, 10, new TestClock(), new TestExecutor());
+		assertThat("incorrect ids", c.get(new Token("foo")).toSet(), is(set(1L, 1000L)));
+		assertThat("incorrect ids", c.get(null).toSet(), is(set(2L, 1000L)));
+		assertThat("incorrect ids", c.get(new Token("bar")).toSet(), is(set(3L, 1000L)));
+		assertThat("incorrect ids", c.get(new Token("foo")).toSet(), is(set(1L, 1000L)));
+		assertThat("incorrect ids", c.get(null).toSet(), is(set(2L, 1000L)));
+		assertThat("incorrect calls", l.calls.get(), is(3));
+		assertThat("incorrect tokens", l.tokens,
+				is(Arrays.asList(new Token("foo"), null, new Token("bar"))));
+		assertThat("incorrect size", c.size(), is(3));
+		// cached IDs are shared rather than copied
+		assertThat("not shared", c.get(new Token("bar")), sameInstance(c.get(new Token("bar"))));
+	}
+
+	@Test
+	public void staleWhileRevalidate() throws Exception {
+		final CountingLoader l = new CountingLoader();
+		final TestClock clock = new TestClock();
+		final TestExecutor exe = new TestExecutor();
+		final WorkspaceIDCache c = new WorkspaceIDCache(l, 100, 10, clock, exe);
+		final Token t = new Token("foo");
+		assertThat("incorrect ids", c.get(t).toSet(), is(set(1L, 1000L)));
+		clock.millis += 99;
+		assertThat("incorrect ids", c.get(t).toSet(), is(set(1L, 1000L)));
+		assertThat("incorrect tasks", exe.tasks.size(), is(0));
+
+		clock.millis += 1;
+		// stale entries are served while the refresh is pending, with only one refresh
+		assertThat("incorrect ids", c.get(t).toSet(), is(set(1L, 1000L)));
+		assertThat("incorrect ids", c.get(t).toSet(), is(set(1L, 1000L)));
+		assertThat("incorrect tasks", exe.tasks.size(), is(1));
+		exe.runAll();
+		assertThat("incorrect ids", c.get(t).toSet(), is(set(2L, 1000L)));
+		assertThat("incorrect tasks", exe.tasks.size(), is(0));
+		assertThat("incorrect calls", l.calls.get(), is(2));
+	}
+
+	@Test
+	public void reloadWhenTooStale() throws Exception {
+		final CountingLoader l = new CountingLoader();
+		final TestClock clock = new TestClock();
+		final TestExecutor exe = new TestExecutor();
+		final WorkspaceIDCache c = new WorkspaceIDCache(l, 100, 10, clock, exe);
+		final Token t = new Token("foo");
+		assertThat("incorrect ids", c.get(t).toSet(), is(set(1L, 1000L)));
+		clock.millis += 199;
+		assertThat("incorrect ids", c.get(t).toSet(), is(set(1L, 1000L)));
+		assertThat("incorrect tasks", exe.tasks.size(), is(1));
+		clock.millis += 1;
+		assertThat("incorrect ids", c.get(t).toSet(), is(set(2L, 1000L)));
+		// the old refresh updates the discarded entry
+		exe.runAll();
+		assertThat("incorrect ids", c.get(t).toSet(), is(set(2L, 1000L)));
+		assertThat("incorrect size", c.size(), is(1));
+	}
+
+	@Test
+	public void refreshFail() throws Exception {
+		final CountingLoader l = new CountingLoader();
+		final TestClock clock = new TestClock();
+		final TestExecutor exe = new TestExecutor();
+		final WorkspaceIDCache c = new WorkspaceIDCache(l, 100, 10, clock, exe);
+		final Token t = new Token("foo");
+		c.get(t);
+		clock.millis += 100;
+
+		// a failed refresh keeps the stale entry and tries again on the next request
+		l.toThrow = new MinHashDistanceFilterException("ws down");
+		assertThat("incorrect ids", c.get(t).toSet(), is(set(1L, 1000L)));
+		exe.runAll();
+		assertThat("incorrect ids", c.get(t).toSet(), is(set(1L, 1000L)));
+		assertThat("incorrect tasks", exe.tasks.size(), is(1));
+
+		// a refresh that finds the token is invalid discards the entry
+		l.toThrow = new MinHashDistanceFilterAuthenticationException("Invalid token");
+		exe.runAll();
+		assertThat("incorrect size", c.size(), is(0));
+		failGet(c, t, new MinHashDistanceFilterAuthenticationException("Invalid token"));
+		assertThat("incorrect size", c.size(), is(0));
+
+		l.toThrow = null;
+		assertThat("incorrect ids", c.get(t).toSet(), is(set(5L, 1000L)));
+	}
+
+	@Test
+	public void getFail() throws Exception {
+		final CountingLoader l = new CountingLoader();
+		final WorkspaceIDCache c = new WorkspaceIDCache(
+				l, 100, 10, new TestClock(), new TestExecutor());
+		l.toThrow = new MinHashDistanceFilterException("ws down");
+		failGet(c, null, new MinHashDistanceFilterException("ws down"));
+		// failed loads are not cached
+		assertThat("incorrect size", c.size(), is(0));
+		l.toThrow = null;
+		assertThat("incorrect ids", c.get(null).toSet(), is(set(2L, 1000L)));
+	}
+
+	private void failGet(final WorkspaceIDCache c, final Token t, final Exception expected) {
+		try {
+			c.get(t);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void evictLeastRecentlyUsed() throws Exception {
+		final CountingLoader l = new CountingLoader();
+		final WorkspaceIDCache c = new WorkspaceIDCache(
+				l, 100, 2, new TestClock(), new TestExecutor());
+		c.get(new Token("foo"));
+		c.get(new Token("bar"));
+		c.get(new Token("foo"));
+		c.get(new Token("baz")); // evicts bar
+		assertThat("incorrect size", c.size(), is(2));
+		assertThat("incorrect ids", c.get(new Token("foo")).toSet(), is(set(1L, 1000L)));
+		assertThat("incorrect ids", c.get(new Token("baz")).toSet(), is(set(3L, 1000L)));
+		assertThat("incorrect ids", c.get(new Token("bar")).toSet(), is(set(4L, 1000L)));
+		assertThat("incorrect calls", l.calls.get(), is(4));
+	}
+
+	@Test
+	public void concurrentMissesLoadOnce() throws Exception {
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+		final WorkspaceIDCache c = new WorkspaceIDCache(t -> {
+			calls.incrementAndGet();
+			loading.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			return set(6L);
+		}, 10000, 10, new TestClock(), new TestExecutor());
+		final ExecutorService exe = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<Set<Long>>> futures = new LinkedList<>();
+			futures.add(exe.submit(() -> c.get(new Token("foo")).toSet()));
+			loading.await();
+			for (int i = 0; i < 3; i++) {
+				futures.add(exe.submit(() -> c.get(new Token("foo")).toSet()));
+			}
+			// give the waiters time to reach the cache
+			Thread.sleep(100);
+			release.countDown();
+			for (final Future<Set<Long>> f: futures) {
+				assertThat("incorrect ids", f.get(), is(set(6L)));
+			}
+		} finally {
+			exe.shutdownNow();
+		}
+		assertThat("incorrect calls", calls.get(), is(1));
+	}
+
+}
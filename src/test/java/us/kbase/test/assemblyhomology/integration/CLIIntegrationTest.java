@@ -52,6 +52,8 @@ import us.kbase.assemblyhomology.minhash.MinHashImplementationName;
 import us.kbase.assemblyhomology.minhash.MinHashParameters;
 import us.kbase.assemblyhomology.minhash.MinHashSketchDBName;
 import us.kbase.assemblyhomology.minhash.MinHashSketchDatabase;
+import us.kbase.assemblyhomology.minhash.mash.MashHashIndex;
+import us.kbase.assemblyhomology.minhash.mash.MashSketchStore;
 import us.kbase.assemblyhomology.storage.exceptions.AssemblyHomologyStorageException;
 import us.kbase.test.assemblyhomology.MongoStorageTestManager;
 import us.kbase.test.assemblyhomology.TestCommon;
@@ -209,6 +211,9 @@ public class CLIIntegrationTest {
 		final Path nsInfo = TEMP_DIR.resolve("namespace.yaml");
 		final Path seqInfo = TEMP_DIR.resolve("seqmeta.jsonlines");
 		final List<Map<String, Object>> seqmeta = createInputFiles(nsInfo, seqInfo);
+		// other tests may have written the files next to the shared sketch database
+		Files.deleteIfExists(MashSketchStore.getStorePath(sketchDB));
+		Files.deleteIfExists(MashHashIndex.getIndexPath(sketchDB));
 		final CLIRunResult crr = testCLI(0, Arrays.asList("Generated load id"), true,
 				"-c", CONFIG_FILE.toString(),
 				"load",
@@ -219,6 +224,10 @@ public class CLIIntegrationTest {
 		final LoadID loadID = new LoadID(last(crr.out.split("\\s+")));
 		
 		checkNamespaceAndSeqs(sketchDB, seqmeta, loadID);
+		// the sketch store and hash index are opt in
+		assertThat("sketch store", Files.exists(MashSketchStore.getStorePath(sketchDB)),
+				is(false));
+		assertThat("hash index", Files.exists(MashHashIndex.getIndexPath(sketchDB)), is(false));
 	}
 	
 	@Test
@@ -234,11 +243,15 @@ public class CLIIntegrationTest {
 				"-l", "myneatid",
 				"-k", sketchDB.toString(),
 				"-n", nsInfo.toString(),
-				"-s", seqInfo.toString());
+				"-s", seqInfo.toString(),
+				"-m",
+				"-x");
 		
 		final LoadID loadID = new LoadID("myneatid");
 		
 		checkNamespaceAndSeqs(sketchDB, seqmeta, loadID);
+		assertThat("no sketch store", MashSketchStore.open(sketchDB).isPresent(), is(true));
+		assertThat("no hash index", MashHashIndex.open(sketchDB).isPresent(), is(true));
 	}
 	
 	@Test
@@ -254,11 +267,15 @@ public class CLIIntegrationTest {
 				"--load-id", "myneatid",
 				"--sketch-db", sketchDB.toString(),
 				"--namespace-yaml", nsInfo.toString(),
-				"--sequence-metadata", seqInfo.toString());
+				"--sequence-metadata", seqInfo.toString(),
+				"--hash-index",
+				"--sketch-store");
 		
 		final LoadID loadID = new LoadID("myneatid");
 		
 		checkNamespaceAndSeqs(sketchDB, seqmeta, loadID);
+		assertThat("no sketch store", MashSketchStore.open(sketchDB).isPresent(), is(true));
+		assertThat("no hash index", MashHashIndex.open(sketchDB).isPresent(), is(true));
 	}
 	
 	@Test
@@ -343,7 +360,8 @@ public class CLIIntegrationTest {
 
 	private void checkNamespaceAndSeqs(final Path sketchDB, final List<Map<String, Object>> seqmeta,
 			final LoadID loadID) throws AssemblyHomologyStorageException, NoSuchNamespaceException,
-			MissingParameterException, IllegalParameterException, NoSuchSequenceException {
+			MissingParameterException, IllegalParameterException, NoSuchSequenceException,
+			IOException {
 		final Namespace ns = MANAGER.storage.getNamespace(new NamespaceID("id1"));
 		
 		final Namespace expected = Namespace.getBuilder(
@@ -396,9 +396,25 @@ public class ServiceIntegrationTest {
 		r.remove("gitcommithash");
 		RootTest.assertGitCommitFromRootAcceptable(gitcommit);
 		
+		// mash is built when the server starts
+		@SuppressWarnings("unchecked")
+		final List<Map<String, Object>> impls = (List<Map<String, Object>>) r.get("minhashimpls");
+		r.remove("minhashimpls");
+		assertThat("incorrect impl count", impls.size(), is(1));
+		final Map<String, Object> impl = new HashMap<>(impls.get(0));
+		assertThat("incorrect check time",
+				(long) impl.remove("checked") <= Instant.now().toEpochMilli(), is(true));
+		assertThat("incorrect impl version", impl.remove("implver") instanceof String, is(true));
+		final Map<String, Object> expectedImpl = new HashMap<>();
+		expectedImpl.put("impl", "mash");
+		expectedImpl.put("healthy", true);
+		expectedImpl.put("error", null);
+		assertThat("incorrect impl", impl, is(expectedImpl));
+		
 		final Map<String, Object> expected = ImmutableMap.of(
 				"version", RootTest.SERVER_VER,
-				"servname", "Assembly Homology service");
+				"servname", "Assembly Homology service",
+				"minhashprocesses", 0);
 		
 		assertThat("root json incorrect", r, is(expected));
 	}
@@ -4,12 +4,18 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
+import com.google.common.base.Optional;
+
 import us.kbase.assemblyhomology.minhash.DefaultDistanceCollector;
 import us.kbase.assemblyhomology.minhash.MinHashDistance;
 import us.kbase.assemblyhomology.minhash.MinHashSketchDBName;
@@ -43,6 +49,104 @@ public class DefaultDistanceCollectorTest {
 		assertThat("incorrect distances", col.getDistances(), is(expected));
 	}
 	
+	@Test
+	public void acceptDuplicates() {
+		final MinHashDistance d4 = new MinHashDistance(DBNAME, "15792_3029_1", 0.01);
+		// duplicates of retained distances don't displace other distances
+		final DefaultDistanceCollector col = new DefaultDistanceCollector(3);
+		for (final MinHashDistance d: Arrays.asList(D2, D2, D3, D2, D1, D1, D3, d4, D2)) {
+			col.accept(new MinHashDistance(d.getReferenceDBName(), d.getSequenceID(),
+					d.getDistance()));
+		}
+		assertThat("incorrect distances", col.getDistances(),
+				is(new TreeSet<>(Arrays.asList(D1, D2, D3))));
+		assertThat("incorrect worst", col.getWorstRetainedDistance(),
+				is(Optional.of(0.00921302)));
+
+		final DefaultDistanceCollector col2 = new DefaultDistanceCollector(2);
+		for (final MinHashDistance d: Arrays.asList(D1, D1, D1)) {
+			col2.accept(d);
+		}
+		assertThat("incorrect distances", col2.getDistances(),
+				is(new TreeSet<>(Arrays.asList(D1))));
+		assertThat("incorrect worst", col2.getWorstRetainedDistance(), is(Optional.absent()));
+	}
+	
+	@Test
+	public void acceptManyWithTies() {
+		// distances are equal in groups of 7, so ties are broken on the db name and sequence ID
+		final MinHashSketchDBName dbname2 = new MinHashSketchDBName("othername");
+		final List<MinHashDistance> dists = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			final int r = (i * 7919) % 1000;
+			dists.add(new MinHashDistance(r % 2 == 0 ? DBNAME : dbname2, "id" + (r % 13),
+					(r / 7) / 1000.0));
+		}
+		final TreeSet<MinHashDistance> all = new TreeSet<>(dists);
+		for (final int size: Arrays.asList(1, 2, 7, 50, 333, 1000)) {
+			final DefaultDistanceCollector col = new DefaultDistanceCollector(size);
+			for (final MinHashDistance d: dists) {
+				col.accept(d);
+			}
+			final TreeSet<MinHashDistance> expected = new TreeSet<>();
+			for (final MinHashDistance d: all) {
+				if (expected.size() == size) {
+					break;
+				}
+				expected.add(d);
+			}
+			assertThat("incorrect distances", col.getDistances(), is(expected));
+			assertThat("incorrect worst", col.getWorstRetainedDistance(), is(
+					all.size() < size ? Optional.absent() :
+						Optional.of(expected.last().getDistance())));
+		}
+	}
+	
+	@Test
+	public void acceptConcurrently() throws Exception {
+		final DefaultDistanceCollector col = new DefaultDistanceCollector(10);
+		final ExecutorService exe = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				final int thread = t;
+				futures.add(exe.submit(() -> {
+					for (int i = 0; i < 10000; i++) {
+						col.accept(new MinHashDistance(
+								DBNAME, thread + "_" + i, (i * 4 + thread) / 1000000.0));
+						col.getWorstRetainedDistance();
+					}
+				}));
+			}
+			for (final Future<?> f: futures) {
+				f.get();
+			}
+		} finally {
+			exe.shutdownNow();
+		}
+		final TreeSet<MinHashDistance> expected = new TreeSet<>();
+		for (int i = 0; i < 10; i++) {
+			expected.add(new MinHashDistance(DBNAME, (i % 4) + "_" + (i / 4), i / 1000000.0));
+		}
+		assertThat("incorrect distances", col.getDistances(), is(expected));
+		assertThat("incorrect worst", col.getWorstRetainedDistance(),
+				is(Optional.of(0.000009)));
+	}
+	
+	@Test
+	public void getWorstRetainedDistance() {
+		final DefaultDistanceCollector col = new DefaultDistanceCollector(2);
+		assertThat("incorrect worst", col.getWorstRetainedDistance(), is(Optional.absent()));
+		col.accept(D3);
+		assertThat("incorrect worst", col.getWorstRetainedDistance(), is(Optional.absent()));
+		col.accept(D1);
+		assertThat("incorrect worst", col.getWorstRetainedDistance(),
+				is(Optional.of(0.00921302)));
+		col.accept(D2);
+		assertThat("incorrect worst", col.getWorstRetainedDistance(),
+				is(Optional.of(0.00236402)));
+	}
+	
 	@Test
 	public void failConstruct() {
 		try {
@@ -60,7 +164,7 @@ public class DefaultDistanceCollectorTest {
 			new DefaultDistanceCollector(1).accept(null);
 			fail("expected exception");
 		} catch (Exception got) {
-			TestCommon.assertExceptionCorrect(got, new NullPointerException("item"));
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("dist"));
 		}
 	}
 
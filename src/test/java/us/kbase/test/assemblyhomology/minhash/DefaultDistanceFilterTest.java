@@ -1,12 +1,17 @@
 package us.kbase.test.assemblyhomology.minhash;
 
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.isNull;
 
 import org.junit.Test;
 
+import com.google.common.base.Optional;
+
 import us.kbase.assemblyhomology.minhash.DefaultDistanceCollector;
 import us.kbase.assemblyhomology.minhash.DefaultDistanceFilter;
 import us.kbase.assemblyhomology.minhash.MinHashDistance;
@@ -22,6 +27,18 @@ public class DefaultDistanceFilterTest {
 		new DefaultDistanceFilter(new DefaultDistanceCollector(1)).flush();
 	}
 	
+	@Test
+	public void getDistanceBound() throws Exception {
+		final MinHashDistanceCollector col = mock(MinHashDistanceCollector.class);
+		
+		final DefaultDistanceFilter f = new DefaultDistanceFilter(col);
+		
+		when(col.getWorstRetainedDistance()).thenReturn(Optional.absent(), Optional.of(0.2));
+		
+		assertThat("incorrect bound", f.getDistanceBound(), is(Optional.absent()));
+		assertThat("incorrect bound", f.getDistanceBound(), is(Optional.of(0.2)));
+	}
+	
 	@Test
 	public void accept() throws Exception {
 		final MinHashDistanceCollector col = mock(MinHashDistanceCollector.class);
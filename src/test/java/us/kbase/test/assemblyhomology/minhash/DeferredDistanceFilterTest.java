@@ -0,0 +1,213 @@
+package us.kbase.test.assemblyhomology.minhash;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import us.kbase.assemblyhomology.minhash.DeferredDistanceFilter;
+import us.kbase.assemblyhomology.minhash.MinHashDistance;
+import us.kbase.assemblyhomology.minhash.MinHashDistanceFilter;
+import us.kbase.assemblyhomology.minhash.MinHashSketchDBName;
+import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterAuthenticationException;
+import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterException;
+import us.kbase.test.assemblyhomology.TestCommon;
+
+public class DeferredDistanceFilterTest {
+
+	private static final MinHashSketchDBName DBNAME = new MinHashSketchDBName("myname");
+
+	private static final MinHashDistance D1 = new MinHashDistance(DBNAME, "1_1_1", 0.1);
+	private static final MinHashDistance D2 = new MinHashDistance(DBNAME, "2_1_1", 0.2);
+	private static final MinHashDistance D3 = new MinHashDistance(DBNAME, "3_1_1", 0.3);
+
+	// records the calls made to the filter
+	private static class RecordingFilter implements MinHashDistanceFilter {
+
+		private final List<Object> calls = Collections.synchronizedList(new LinkedList<>());
+
+		@Override
+		public void accept(final MinHashDistance dist) {
+			calls.add(dist);
+		}
+
+		@Override
+		public void flush() {
+			calls.add("flush");
+		}
+
+		@Override
+		public Optional<Double> getDistanceBound() {
+			return Optional.of(0.5);
+		}
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		failConstruct(null, 1, new NullPointerException("filter"));
+		failConstruct(new CompletableFuture<>(), -1,
+				new IllegalArgumentException("maxBuffered must be >= 0"));
+	}
+
+	private void failConstruct(
+			final Future<MinHashDistanceFilter> filter,
+			final int maxBuffered,
+			final Exception expected) {
+		try {
+			new DeferredDistanceFilter(filter, maxBuffered);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void bufferUntilReady() throws Exception {
+		final CompletableFuture<MinHashDistanceFilter> future = new CompletableFuture<>();
+		final RecordingFilter rec = new RecordingFilter();
+		final DeferredDistanceFilter f = new DeferredDistanceFilter(future, 10);
+
+		f.accept(D1);
+		f.accept(D2);
+		assertThat("incorrect bound", f.getDistanceBound(), is(Optional.absent()));
+		assertThat("incorrect calls", rec.calls, is(Arrays.asList()));
+
+		future.complete(rec);
+		f.accept(D3);
+		assertThat("incorrect calls", rec.calls, is(Arrays.asList(D1, D2, D3)));
+		assertThat("incorrect bound", f.getDistanceBound(), is(Optional.of(0.5)));
+		f.flush();
+		assertThat("incorrect calls", rec.calls, is(Arrays.asList(D1, D2, D3, "flush")));
+		// nothing was buffered, so no extra flush
+		f.finish();
+		assertThat("incorrect calls", rec.calls, is(Arrays.asList(D1, D2, D3, "flush")));
+	}
+
+	@Test
+	public void waitWhenBufferFull() throws Exception {
+		final CompletableFuture<MinHashDistanceFilter> future = new CompletableFuture<>();
+		final RecordingFilter rec = new RecordingFilter();
+		final DeferredDistanceFilter f = new DeferredDistanceFilter(future, 1);
+		f.accept(D1);
+		final Thread completer = new Thread(() -> {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				// just complete
+			}
+			future.complete(rec);
+		});
+		completer.start();
+		f.accept(D2);
+		assertThat("incorrect calls", rec.calls, is(Arrays.asList(D1, D2)));
+		completer.join();
+	}
+
+	@Test
+	public void flushWaits() throws Exception {
+		final CompletableFuture<MinHashDistanceFilter> future = new CompletableFuture<>();
+		final RecordingFilter rec = new RecordingFilter();
+		final DeferredDistanceFilter f = new DeferredDistanceFilter(future, 10);
+		f.accept(D2);
+		future.complete(rec);
+		f.flush();
+		assertThat("incorrect calls", rec.calls, is(Arrays.asList(D2, "flush")));
+	}
+
+	@Test
+	public void finishDrainsBuffer() throws Exception {
+		final RecordingFilter rec = new RecordingFilter();
+		final CompletableFuture<MinHashDistanceFilter> future = new CompletableFuture<>();
+		final DeferredDistanceFilter f = new DeferredDistanceFilter(future, 10);
+		f.accept(D3);
+		f.accept(D1);
+		future.complete(rec);
+		f.finish();
+		assertThat("incorrect calls", rec.calls, is(Arrays.asList(D3, D1, "flush")));
+		f.finish();
+		assertThat("incorrect calls", rec.calls, is(Arrays.asList(D3, D1, "flush")));
+
+		// an empty filter that was never used doesn't flush
+		final RecordingFilter rec2 = new RecordingFilter();
+		new DeferredDistanceFilter(CompletableFuture.completedFuture(rec2), 10).finish();
+		assertThat("incorrect calls", rec2.calls, is(Arrays.asList()));
+	}
+
+	@Test
+	public void sharedFilter() throws Exception {
+		final RecordingFilter rec = new RecordingFilter();
+		final CompletableFuture<MinHashDistanceFilter> future = new CompletableFuture<>();
+		final DeferredDistanceFilter f1 = new DeferredDistanceFilter(future, 10);
+		final DeferredDistanceFilter f2 = new DeferredDistanceFilter(future, 10);
+		f1.accept(D1);
+		f2.accept(D2);
+		future.complete(rec);
+		f2.accept(D3);
+		f1.flush();
+		f2.flush();
+		assertThat("incorrect calls", rec.calls, is(Arrays.asList(D2, D3, D1, "flush", "flush")));
+	}
+
+	@Test
+	public void acceptFail() throws Exception {
+		final DeferredDistanceFilter f = new DeferredDistanceFilter(
+				CompletableFuture.completedFuture(new RecordingFilter()), 1);
+		try {
+			f.accept(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("dist"));
+		}
+	}
+
+	@Test
+	public void buildFail() throws Exception {
+		buildFail(new MinHashDistanceFilterAuthenticationException("bad auth"));
+		buildFail(new MinHashDistanceFilterException("ws down"));
+		buildFail(new IllegalStateException("oops"));
+		buildFail(new Exception("checked"), new MinHashDistanceFilterException("checked"));
+	}
+
+	private void buildFail(final Exception e) throws Exception {
+		buildFail(e, e);
+	}
+
+	private void buildFail(final Exception thrown, final Exception expected) throws Exception {
+		final CompletableFuture<MinHashDistanceFilter> future = new CompletableFuture<>();
+		future.completeExceptionally(thrown);
+		failDeferred(new DeferredDistanceFilter(future, 0), "accept", expected);
+		failDeferred(new DeferredDistanceFilter(future, 10), "flush", expected);
+		failDeferred(new DeferredDistanceFilter(future, 10), "finish", expected);
+		assertThat("incorrect bound", new DeferredDistanceFilter(future, 10).getDistanceBound(),
+				is(Optional.absent()));
+	}
+
+	private void failDeferred(
+			final DeferredDistanceFilter f,
+			final String method,
+			final Exception expected) {
+		try {
+			if (method.equals("accept")) {
+				f.accept(D1);
+			} else if (method.equals("flush")) {
+				f.flush();
+			} else {
+				f.finish();
+			}
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+package us.kbase.test.assemblyhomology.minhash;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import nl.jqno.equalsverifier.EqualsVerifier;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage.Storage;
+import us.kbase.test.assemblyhomology.TestCommon;
+
+public class MinHashMemoryUsageTest {
+
+	@Test
+	public void equals() {
+		EqualsVerifier.forClass(MinHashMemoryUsage.class).usingGetClass().verify();
+	}
+	
+	@Test
+	public void construct() {
+		final MinHashMemoryUsage m = new MinHashMemoryUsage(Storage.COMPRESSED, 3, 3000, 16000);
+		
+		assertThat("incorrect storage", m.getStorage(), is(Storage.COMPRESSED));
+		assertThat("incorrect sketch count", m.getSketchCount(), is(3));
+		assertThat("incorrect hash count", m.getHashCount(), is(3000L));
+		assertThat("incorrect bytes", m.getHashBytes(), is(16000L));
+		assertThat("incorrect uncompressed bytes", m.getUncompressedHashBytes(), is(24000L));
+	}
+	
+	@Test
+	public void constructEmpty() {
+		final MinHashMemoryUsage m = new MinHashMemoryUsage(Storage.HEAP, 0, 0, 0);
+		
+		assertThat("incorrect storage", m.getStorage(), is(Storage.HEAP));
+		assertThat("incorrect sketch count", m.getSketchCount(), is(0));
+		assertThat("incorrect hash count", m.getHashCount(), is(0L));
+		assertThat("incorrect bytes", m.getHashBytes(), is(0L));
+		assertThat("incorrect uncompressed bytes", m.getUncompressedHashBytes(), is(0L));
+	}
+	
+	@Test
+	public void constructFail() {
+		failConstruct(null, 1, 1, 1, new NullPointerException("storage"));
+		failConstruct(Storage.MAPPED, -1, 1, 1,
+				new IllegalArgumentException("sketchCount must be >= 0"));
+		failConstruct(Storage.MAPPED, 1, -1, 1,
+				new IllegalArgumentException("hashCount must be >= 0"));
+		failConstruct(Storage.MAPPED, 1, 1, -1,
+				new IllegalArgumentException("hashBytes must be >= 0"));
+	}
+	
+	private void failConstruct(
+			final Storage storage,
+			final int sketchCount,
+			final long hashCount,
+			final long hashBytes,
+			final Exception expected) {
+		try {
+			new MinHashMemoryUsage(storage, sketchCount, hashCount, hashBytes);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+	
+}
@@ -0,0 +1,99 @@
+package us.kbase.test.assemblyhomology.minhash;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import nl.jqno.equalsverifier.EqualsVerifier;
+import us.kbase.assemblyhomology.minhash.MinHashSearchParameters;
+import us.kbase.test.assemblyhomology.TestCommon;
+
+public class MinHashSearchParametersTest {
+	
+	@Test
+	public void equals() {
+		EqualsVerifier.forClass(MinHashSearchParameters.class).usingGetClass().verify();
+	}
+	
+	@Test
+	public void buildExact() {
+		final MinHashSearchParameters p = MinHashSearchParameters.getBuilder().build();
+		
+		assertThat("incorrect recall", p.getApproximateRecall(), is(Optional.absent()));
+		assertThat("incorrect approx", p.isApproximate(), is(false));
+		assertThat("incorrect max dist", p.getMaxDistance(), is(Optional.absent()));
+	}
+	
+	@Test
+	public void buildApproximate() {
+		final MinHashSearchParameters p = MinHashSearchParameters.getBuilder()
+				.withApproximateRecall(0.95)
+				.build();
+		
+		assertThat("incorrect recall", p.getApproximateRecall(), is(Optional.of(0.95)));
+		assertThat("incorrect approx", p.isApproximate(), is(true));
+		assertThat("incorrect max dist", p.getMaxDistance(), is(Optional.absent()));
+	}
+	
+	@Test
+	public void buildMaxDistance() {
+		final MinHashSearchParameters p = MinHashSearchParameters.getBuilder()
+				.withMaxDistance(0.05)
+				.build();
+		
+		assertThat("incorrect recall", p.getApproximateRecall(), is(Optional.absent()));
+		assertThat("incorrect approx", p.isApproximate(), is(false));
+		assertThat("incorrect max dist", p.getMaxDistance(), is(Optional.of(0.05)));
+		
+		final MinHashSearchParameters p2 = MinHashSearchParameters.getBuilder()
+				.withApproximateRecall(0.9)
+				.withMaxDistance(0)
+				.build();
+		
+		assertThat("incorrect recall", p2.getApproximateRecall(), is(Optional.of(0.9)));
+		assertThat("incorrect max dist", p2.getMaxDistance(), is(Optional.of(0.0)));
+		
+		assertThat("incorrect max dist", MinHashSearchParameters.getBuilder()
+				.withMaxDistance(1).build().getMaxDistance(), is(Optional.of(1.0)));
+	}
+	
+	@Test
+	public void withMaxDistanceFail() {
+		failWithMaxDistance(-0.1);
+		failWithMaxDistance(1.1);
+		failWithMaxDistance(Double.NaN);
+	}
+	
+	private void failWithMaxDistance(final double maxDistance) {
+		try {
+			MinHashSearchParameters.getBuilder().withMaxDistance(maxDistance);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new IllegalArgumentException("maxDistance must be >= 0 and <= 1"));
+		}
+	}
+	
+	@Test
+	public void withApproximateRecallFail() {
+		failWithApproximateRecall(0);
+		failWithApproximateRecall(1);
+		failWithApproximateRecall(-0.1);
+		failWithApproximateRecall(1.1);
+		failWithApproximateRecall(Double.NaN);
+	}
+	
+	private void failWithApproximateRecall(final double recall) {
+		try {
+			MinHashSearchParameters.getBuilder().withApproximateRecall(recall);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new IllegalArgumentException("recall must be > 0 and < 1"));
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package us.kbase.test.assemblyhomology.minhash;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import us.kbase.assemblyhomology.minhash.MinHashDistance;
+import us.kbase.assemblyhomology.minhash.MinHashSketchDBName;
+import us.kbase.assemblyhomology.minhash.StripedDistanceCollector;
+import us.kbase.test.assemblyhomology.TestCommon;
+
+public class StripedDistanceCollectorTest {
+	
+	private static final MinHashSketchDBName DBNAME = new MinHashSketchDBName("myname");
+
+	private static final MinHashDistance D1 = new MinHashDistance(DBNAME, "15792_446_1", 0);
+	private static final MinHashDistance D2 = new MinHashDistance(
+			DBNAME, "15792_431_1", 0.00236402);
+	private static final MinHashDistance D3 = new MinHashDistance(
+			DBNAME, "15792_341_2", 0.00921302);
+	
+	private static final List<MinHashDistance> DISTS = Arrays.asList(D2, D1, D3);
+	
+	@Test
+	public void construct() {
+		assertThat("incorrect stripes", new StripedDistanceCollector(1, 1).getStripeCount(),
+				is(1));
+		assertThat("incorrect stripes", new StripedDistanceCollector(1, 5).getStripeCount(),
+				is(8));
+		assertThat("incorrect stripes", new StripedDistanceCollector(1, 8).getStripeCount(),
+				is(8));
+		final int procs = Runtime.getRuntime().availableProcessors();
+		final int stripes = new StripedDistanceCollector(1).getStripeCount();
+		assertThat("incorrect stripes", stripes >= procs && stripes < procs * 2, is(true));
+	}
+	
+	@Test
+	public void acceptAndGet() {
+		acceptAndGet(100, new TreeSet<>(Arrays.asList(D1, D2, D3)));
+		acceptAndGet(3, new TreeSet<>(Arrays.asList(D1, D2, D3)));
+		acceptAndGet(2, new TreeSet<>(Arrays.asList(D1, D2)));
+		acceptAndGet(1, new TreeSet<>(Arrays.asList(D1)));
+	}
+	
+	private void acceptAndGet(final int size, final TreeSet<MinHashDistance> expected) {
+		final StripedDistanceCollector col = new StripedDistanceCollector(size, 4);
+		for (final MinHashDistance d: DISTS) {
+			col.accept(d);
+		}
+		assertThat("incorrect distances", col.getDistances(), is(expected));
+	}
+	
+	@Test
+	public void getWorstRetainedDistance() {
+		final StripedDistanceCollector col = new StripedDistanceCollector(2, 1);
+		assertThat("incorrect worst", col.getWorstRetainedDistance(), is(Optional.absent()));
+		col.accept(D3);
+		assertThat("incorrect worst", col.getWorstRetainedDistance(), is(Optional.absent()));
+		col.accept(D1);
+		assertThat("incorrect worst", col.getWorstRetainedDistance(),
+				is(Optional.of(0.00921302)));
+		col.accept(D2);
+		assertThat("incorrect worst", col.getWorstRetainedDistance(),
+				is(Optional.of(0.00236402)));
+	}
+	
+	@Test
+	public void acceptConcurrently() throws Exception {
+		final StripedDistanceCollector col = new StripedDistanceCollector(10, 4);
+		final ExecutorService exe = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				final int thread = t;
+				futures.add(exe.submit(() -> {
+					// feed the distances in descending order so the threshold keeps dropping
+					for (int i = 9999; i >= 0; i--) {
+						col.accept(new MinHashDistance(
+								DBNAME, thread + "_" + i, (i * 4 + thread) / 1000000.0));
+						col.getWorstRetainedDistance();
+					}
+				}));
+			}
+			for (final Future<?> f: futures) {
+				f.get();
+			}
+		} finally {
+			exe.shutdownNow();
+		}
+		final TreeSet<MinHashDistance> expected = new TreeSet<>();
+		for (int i = 0; i < 10; i++) {
+			expected.add(new MinHashDistance(DBNAME, (i % 4) + "_" + (i / 4), i / 1000000.0));
+		}
+		assertThat("incorrect distances", col.getDistances(), is(expected));
+		// the threshold is the worst distance in the best stripe
+		final double worst = col.getWorstRetainedDistance().get();
+		assertThat("incorrect worst", worst >= 0.000009 && worst <= 0.000039, is(true));
+	}
+	
+	@Test
+	public void failConstruct() {
+		failConstruct(0, 1, new IllegalArgumentException("size must be > 0"));
+		failConstruct(1, 0, new IllegalArgumentException("stripes must be > 0"));
+	}
+	
+	private void failConstruct(final int size, final int stripes, final Exception expected) {
+		try {
+			new StripedDistanceCollector(size, stripes);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+	
+	@Test
+	public void failAccept() {
+		try {
+			new StripedDistanceCollector(1).accept(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("dist"));
+		}
+	}
+
+}
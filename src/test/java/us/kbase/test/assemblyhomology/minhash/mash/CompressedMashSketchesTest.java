@@ -0,0 +1,289 @@
+package us.kbase.test.assemblyhomology.minhash.mash;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage.Storage;
+import us.kbase.assemblyhomology.minhash.MinHashParameters;
+import us.kbase.assemblyhomology.minhash.mash.CompressedMashSketches;
+import us.kbase.assemblyhomology.minhash.mash.HeapMashSketches;
+import us.kbase.assemblyhomology.minhash.mash.MashSketchReader;
+import us.kbase.assemblyhomology.minhash.mash.MashSketchStore;
+import us.kbase.assemblyhomology.minhash.mash.MashSketches;
+import us.kbase.test.assemblyhomology.TestCommon;
+import us.kbase.test.assemblyhomology.data.TestDataManager;
+
+public class CompressedMashSketchesTest {
+
+	private static Path TEMP_DIR;
+	private static Path TARGET_4SEQS;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		TEMP_DIR = TestCommon.getTempDir().resolve(
+				"CompressedMashSketchesTest_" + UUID.randomUUID().toString());
+		Files.createDirectories(TEMP_DIR);
+		TARGET_4SEQS = TEMP_DIR.resolve("kb_4seqs_k31_s1000.msh");
+		TestDataManager.install(Paths.get("kb_4seqs_k31_s1000.msh"), TARGET_4SEQS);
+	}
+
+	@AfterClass
+	public static void breakDown() throws Exception {
+		final boolean deleteTempFiles = TestCommon.isDeleteTempFiles();
+		if (TEMP_DIR != null && Files.exists(TEMP_DIR) && deleteTempFiles) {
+			FileUtils.deleteQuietly(TEMP_DIR.toFile());
+		}
+	}
+
+	// sketches held in arrays, to test hash distributions that real sketches rarely have
+	private static class ArraySketches implements MashSketches {
+
+		private final long[][] hashes;
+
+		private ArraySketches(final long[]... hashes) {
+			this.hashes = hashes;
+		}
+
+		@Override
+		public MinHashParameters getParameters() {
+			return MinHashParameters.getBuilder(21).withSketchSize(getSketchSize()).build();
+		}
+
+		@Override
+		public int getSketchSize() {
+			int max = 1;
+			for (final long[] h: hashes) {
+				max = Math.max(max, h.length);
+			}
+			return max;
+		}
+
+		@Override
+		public int getSketchCount() {
+			return hashes.length;
+		}
+
+		@Override
+		public List<String> getSketchIDs() {
+			final List<String> ret = new ArrayList<>();
+			for (int i = 0; i < hashes.length; i++) {
+				ret.add(getSketchID(i));
+			}
+			return ret;
+		}
+
+		@Override
+		public String getSketchID(final int index) {
+			return "s" + index;
+		}
+
+		@Override
+		public int getHashCount(final int index) {
+			return hashes[index].length;
+		}
+
+		@Override
+		public int getHashes(final int index, final long[] buffer) {
+			System.arraycopy(hashes[index], 0, buffer, 0, hashes[index].length);
+			return hashes[index].length;
+		}
+
+		@Override
+		public MinHashMemoryUsage getMemoryUsage() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	@Test
+	public void load() throws Exception {
+		final CompressedMashSketches s = CompressedMashSketches.load(
+				MashSketchReader.open(TARGET_4SEQS));
+		final HeapMashSketches h = HeapMashSketches.load(MashSketchReader.open(TARGET_4SEQS));
+		checkSame(s, h);
+		final MinHashMemoryUsage mem = s.getMemoryUsage();
+		assertThat("incorrect storage", mem.getStorage(), is(Storage.COMPRESSED));
+		assertThat("incorrect sketch count", mem.getSketchCount(), is(4));
+		assertThat("incorrect hash count", mem.getHashCount(), is(4000L));
+		assertThat("not compressed", mem.getHashBytes() < mem.getUncompressedHashBytes(),
+				is(true));
+		assertThat("incorrect heap memory", h.getMemoryUsage(),
+				is(new MinHashMemoryUsage(Storage.HEAP, 4, 4000, 32000)));
+	}
+
+	@Test
+	public void copyOfStore() throws Exception {
+		MashSketchStore.write(TARGET_4SEQS);
+		try {
+			final MashSketches store = MashSketchStore.open(TARGET_4SEQS).get();
+			checkSame(CompressedMashSketches.copyOf(store), store);
+		} finally {
+			Files.delete(MashSketchStore.getStorePath(TARGET_4SEQS));
+		}
+	}
+
+	@Test
+	public void edgeCases() throws Exception {
+		final ArraySketches a = new ArraySketches(
+				new long[0],
+				new long[] {0},
+				new long[] {-1},
+				new long[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, // no low bits
+				new long[] {0, -1},
+				new long[] {1, Long.MAX_VALUE, Long.MIN_VALUE, -2, -1}, // unsigned order
+				new long[] {Long.MAX_VALUE});
+		final CompressedMashSketches s = CompressedMashSketches.copyOf(a);
+		checkSame(s, a);
+		final MinHashMemoryUsage mem = s.getMemoryUsage();
+		assertThat("incorrect storage", mem.getStorage(), is(Storage.COMPRESSED));
+		assertThat("incorrect sketch count", mem.getSketchCount(), is(7));
+		assertThat("incorrect hash count", mem.getHashCount(), is(20L));
+	}
+
+	@Test
+	public void random() throws Exception {
+		final Random rand = new Random(42);
+		final long[][] hashes = new long[200][];
+		for (int i = 0; i < hashes.length; i++) {
+			// the smallest hashes of a sequence, spread over a range set by the sequence size
+			final int count = rand.nextInt(1500);
+			final long range = rand.nextInt(3) == 0 ? -1 :
+					(rand.nextLong() >>> (1 + rand.nextInt(60))) | 1;
+			final Long[] h = new Long[count];
+			for (int j = 0; j < count; j++) {
+				h[j] = range == -1 ? rand.nextLong() : (rand.nextLong() >>> 1) % range;
+			}
+			hashes[i] = sortUnique(h);
+		}
+		final ArraySketches a = new ArraySketches(hashes);
+		checkSame(CompressedMashSketches.copyOf(a), a);
+	}
+
+	private long[] sortUnique(final Long[] hashes) {
+		Arrays.sort(hashes, (a, b) -> Long.compareUnsigned(a, b));
+		final long[] ret = new long[hashes.length];
+		int count = 0;
+		for (final Long h: hashes) {
+			if (count == 0 || ret[count - 1] != h) {
+				ret[count++] = h;
+			}
+		}
+		return Arrays.copyOf(ret, count);
+	}
+
+	private void checkSame(final MashSketches got, final MashSketches expected) {
+		assertThat("incorrect params", got.getParameters(), is(expected.getParameters()));
+		assertThat("incorrect sketch size", got.getSketchSize(), is(expected.getSketchSize()));
+		assertThat("incorrect count", got.getSketchCount(), is(expected.getSketchCount()));
+		assertThat("incorrect ids", got.getSketchIDs(), is(expected.getSketchIDs()));
+		final long[] exp = new long[expected.getSketchSize()];
+		final long[] buffer = new long[expected.getSketchSize()];
+		for (int i = 0; i < expected.getSketchCount(); i++) {
+			final int count = expected.getHashes(i, exp);
+			assertThat("incorrect id", got.getSketchID(i), is(expected.getSketchID(i)));
+			assertThat("incorrect hash count", got.getHashCount(i), is(count));
+			assertThat("incorrect copied count", got.getHashes(i, buffer), is(count));
+			assertThat("incorrect hashes", Arrays.copyOf(buffer, count),
+					is(Arrays.copyOf(exp, count)));
+			// bounded decodes copy at least the hashes up to the bound
+			for (int j = 0; j < count; j += Math.max(1, count / 10)) {
+				checkBounded(got, i, exp, count, exp[j]);
+				checkBounded(got, i, exp, count, exp[j] - 1);
+			}
+			checkBounded(got, i, exp, count, 0);
+			checkBounded(got, i, exp, count, -1);
+		}
+	}
+
+	private void checkBounded(
+			final MashSketches got,
+			final int index,
+			final long[] expected,
+			final int count,
+			final long maxHash) {
+		final long[] buffer = new long[count];
+		final int copied = got.getHashes(index, buffer, maxHash);
+		int required = 0;
+		while (required < count && Long.compareUnsigned(expected[required], maxHash) <= 0) {
+			required++;
+		}
+		assertThat("too few hashes copied", copied >= required, is(true));
+		assertThat("too many hashes copied", copied <= count, is(true));
+		assertThat("incorrect hashes", Arrays.copyOf(buffer, copied),
+				is(Arrays.copyOf(expected, copied)));
+	}
+
+	@Test
+	public void getFail() throws Exception {
+		final CompressedMashSketches s = CompressedMashSketches.copyOf(
+				new ArraySketches(new long[] {1, 2}));
+		failGet(s, -1, new long[2], new IndexOutOfBoundsException("No sketch at index -1"));
+		failGet(s, 1, new long[2], new IndexOutOfBoundsException("No sketch at index 1"));
+		failGet(s, 0, null, new NullPointerException("buffer"));
+		try {
+			s.getSketchID(1);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new IndexOutOfBoundsException("No sketch at index 1"));
+		}
+		try {
+			s.getHashCount(-1);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new IndexOutOfBoundsException("No sketch at index -1"));
+		}
+	}
+
+	private void failGet(
+			final CompressedMashSketches s,
+			final int index,
+			final long[] buffer,
+			final Exception expected) {
+		try {
+			s.getHashes(index, buffer);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+		try {
+			s.getHashes(index, buffer, 0);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		try {
+			CompressedMashSketches.load(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("reader"));
+		}
+		try {
+			CompressedMashSketches.copyOf(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("sketches"));
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+package us.kbase.test.assemblyhomology.minhash.mash;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import us.kbase.assemblyhomology.minhash.MinHashDBLocation;
+import us.kbase.assemblyhomology.minhash.MinHashImplementationInformation;
+import us.kbase.assemblyhomology.minhash.MinHashImplementationName;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage.Storage;
+import us.kbase.assemblyhomology.minhash.mash.InProcessMash;
+import us.kbase.assemblyhomology.minhash.mash.InProcessMashFactory;
+import us.kbase.test.assemblyhomology.TestCommon;
+import us.kbase.test.assemblyhomology.data.TestDataManager;
+
+public class InProcessMashFactoryTest {
+
+	@Test
+	public void getImplementationName() throws Exception {
+		assertThat("incorrect name", new InProcessMashFactory().getImplementationName(),
+				is(new MinHashImplementationName("mash")));
+	}
+
+	@Test
+	public void getExpectedFileExtension() throws Exception {
+		assertThat("incorrect exception", new InProcessMashFactory().getExpectedFileExtension(),
+				is(Optional.of(Paths.get("msh"))));
+	}
+
+	@Test
+	public void getImplementation() throws Exception {
+		final InProcessMashFactory fac = new InProcessMashFactory();
+		final InProcessMash impl = (InProcessMash) fac.getImplementation(
+				TestCommon.getTempDir(), 30);
+
+		assertThat("incorrect info", impl.getImplementationInformation(),
+				is(new MinHashImplementationInformation(
+						new MinHashImplementationName("mash"),
+						"2.0-jvm",
+						Paths.get("msh"))));
+		assertThat("incorrect cache size", fac.getCache().size(), is(0));
+	}
+
+	@Test
+	public void parallelism() throws Exception {
+		assertThat("incorrect parallelism", new InProcessMashFactory().getParallelism(),
+				is(Runtime.getRuntime().availableProcessors()));
+		assertThat("incorrect parallelism", new InProcessMashFactory(1).getParallelism(),
+				is(1));
+		assertThat("incorrect parallelism", new InProcessMashFactory(32).getParallelism(),
+				is(32));
+	}
+
+	@Test
+	public void compressSketches() throws Exception {
+		assertThat("incorrect compression", new InProcessMashFactory().getCache().isCompressed(),
+				is(false));
+		assertThat("incorrect compression", new InProcessMashFactory(2, false).getCache()
+				.isCompressed(), is(false));
+		final InProcessMashFactory fac = new InProcessMashFactory(2, true);
+		assertThat("incorrect compression", fac.getCache().isCompressed(), is(true));
+		assertThat("incorrect parallelism", fac.getParallelism(), is(2));
+	}
+
+	@Test
+	public void getMemoryUsage() throws Exception {
+		final Path target = TestCommon.getTempDir().resolve(
+				"InProcessMashFactoryTest_" + UUID.randomUUID().toString() + ".msh");
+		TestDataManager.install(Paths.get("kb_4seqs_k31_s1000.msh"), target);
+		try {
+			final InProcessMashFactory fac = new InProcessMashFactory();
+			final MinHashDBLocation loc = new MinHashDBLocation(target);
+			assertThat("incorrect memory", fac.getMemoryUsage(loc), is(Optional.absent()));
+			fac.getCache().get(target);
+			assertThat("incorrect memory", fac.getMemoryUsage(loc), is(Optional.of(
+					new MinHashMemoryUsage(Storage.HEAP, 4, 4000, 32000))));
+		} finally {
+			Files.delete(target);
+		}
+	}
+
+	@Test
+	public void getMemoryUsageFail() throws Exception {
+		try {
+			new InProcessMashFactory().getMemoryUsage(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("location"));
+		}
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		try {
+			new InProcessMashFactory(0);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new IllegalArgumentException("parallelism must be > 0"));
+		}
+	}
+
+}
@@ -0,0 +1,1032 @@
+package us.kbase.test.assemblyhomology.minhash.mash;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Constructor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import us.kbase.assemblyhomology.minhash.DefaultDistanceCollector;
+import us.kbase.assemblyhomology.minhash.DefaultDistanceFilter;
+import us.kbase.assemblyhomology.minhash.MinHashDBLocation;
+import us.kbase.assemblyhomology.minhash.MinHashDistance;
+import us.kbase.assemblyhomology.minhash.MinHashDistanceCollector;
+import us.kbase.assemblyhomology.minhash.MinHashDistanceFilter;
+import us.kbase.assemblyhomology.minhash.MinHashImplementationInformation;
+import us.kbase.assemblyhomology.minhash.MinHashImplementationName;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage.Storage;
+import us.kbase.assemblyhomology.minhash.MinHashParameters;
+import us.kbase.assemblyhomology.minhash.MinHashSearchParameters;
+import us.kbase.assemblyhomology.minhash.MinHashSketchDBName;
+import us.kbase.assemblyhomology.minhash.MinHashSketchDatabase;
+import us.kbase.assemblyhomology.minhash.exceptions.IncompatibleSketchesException;
+import us.kbase.assemblyhomology.minhash.exceptions.NotASketchException;
+import us.kbase.assemblyhomology.minhash.mash.CompressedMashSketches;
+import us.kbase.assemblyhomology.minhash.mash.HeapMashSketches;
+import us.kbase.assemblyhomology.minhash.mash.InProcessMash;
+import us.kbase.assemblyhomology.minhash.mash.MashDistance;
+import us.kbase.assemblyhomology.minhash.mash.MashHashIndex;
+import us.kbase.assemblyhomology.minhash.mash.MashSketchCache;
+import us.kbase.assemblyhomology.minhash.mash.MashSketchReader;
+import us.kbase.assemblyhomology.minhash.mash.MashSketchStore;
+import us.kbase.assemblyhomology.minhash.mash.MashSketches;
+import us.kbase.test.assemblyhomology.TestCommon;
+import us.kbase.test.assemblyhomology.data.TestDataManager;
+
+public class InProcessMashTest {
+
+	/* The expected distances are those produced by mash 2.0 - see MashTest. */
+
+	private static Path TEMP_DIR;
+	private static Path EMPTY_FILE;
+	private static Path EMPTY_FILE_MSH;
+	private static final Path QUERY_K21_S1000 = Paths.get("kb_15792_446_1_k21_s1000.msh");
+	private static final Path QUERY_K31_S1000 = Paths.get("kb_15792_446_1_k31_s1000.msh");
+	private static final Path QUERY_K31_S500 = Paths.get("kb_15792_446_1_k31_s500.msh");
+	private static final Path QUERY_K31_S1500 = Paths.get("kb_15792_446_1_k31_s1500.msh");
+	private static final Path QUERY_K31_S1000_SEED43 = Paths.get(
+			"kb_15792_446_1_k31_s1000_seed43.msh");
+	private static final Path QUERY_K31_S1000_ACGU = Paths.get(
+			"kb_15792_446_1_k31_s1000_ACGU.msh");
+	private static final Path TARGET_4SEQS = Paths.get("kb_4seqs_k31_s1000.msh");
+	private static final Path TARGET_4SEQS_2 = Paths.get("kb_4seqs_k31_s1000_2.msh");
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		TEMP_DIR = TestCommon.getTempDir().resolve(
+				"InProcessMashTest_" + UUID.randomUUID().toString());
+		Files.createDirectories(TEMP_DIR);
+		for (final Path f: Arrays.asList(QUERY_K21_S1000, QUERY_K31_S1000, QUERY_K31_S500,
+				QUERY_K31_S1500, QUERY_K31_S1000_SEED43, QUERY_K31_S1000_ACGU, TARGET_4SEQS,
+				TARGET_4SEQS_2)) {
+			TestDataManager.install(f, TEMP_DIR.resolve(f));
+		}
+		EMPTY_FILE = TEMP_DIR.resolve(UUID.randomUUID().toString());
+		Files.createFile(EMPTY_FILE);
+
+		EMPTY_FILE_MSH = Paths.get(EMPTY_FILE.toString() + ".msh");
+		Files.createFile(EMPTY_FILE_MSH);
+	}
+
+	@AfterClass
+	public static void breakDown() throws Exception {
+		final boolean deleteTempFiles = TestCommon.isDeleteTempFiles();
+		if (TEMP_DIR != null && Files.exists(TEMP_DIR) && deleteTempFiles) {
+			FileUtils.deleteQuietly(TEMP_DIR.toFile());
+		}
+	}
+
+	@Test
+	public void construct() throws Exception {
+		final InProcessMash m = new InProcessMash(new MashSketchCache());
+		assertThat("incorrect impl info", m.getImplementationInformation(),
+				is(new MinHashImplementationInformation(
+						new MinHashImplementationName("mash"), "2.0-jvm", Paths.get("msh"))));
+		assertThat("incorrect approx support", m.isApproximateSearchSupported(), is(true));
+		assertThat("incorrect multi query support", m.isMultipleQuerySearchSupported(), is(true));
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		try {
+			new InProcessMash(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("cache"));
+		}
+		try {
+			new InProcessMash(new MashSketchCache(), null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("pool"));
+		}
+	}
+
+	@Test
+	public void getDatabase() throws Exception {
+		final InProcessMash m = new InProcessMash(new MashSketchCache());
+
+		final MinHashSketchDatabase db = m.getDatabase(
+				new MinHashSketchDBName("myname"),
+				new MinHashDBLocation(TEMP_DIR.resolve(QUERY_K21_S1000)));
+
+		assertThat("incorrect db", db, is(new MinHashSketchDatabase(
+				new MinHashSketchDBName("myname"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(21).withSketchSize(1000).build(),
+				new MinHashDBLocation(TEMP_DIR.resolve(QUERY_K21_S1000)),
+				1)));
+
+		final MinHashSketchDatabase db2 = m.getDatabase(
+				new MinHashSketchDBName("myname2"),
+				new MinHashDBLocation(TEMP_DIR.resolve(TARGET_4SEQS)));
+
+		assertThat("incorrect db", db2, is(new MinHashSketchDatabase(
+				new MinHashSketchDBName("myname2"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(TEMP_DIR.resolve(TARGET_4SEQS)),
+				4)));
+	}
+
+	@Test
+	public void getDataBaseFail() throws Exception {
+		final MinHashSketchDBName name = new MinHashSketchDBName("bar");
+		final MinHashDBLocation db = new MinHashDBLocation(TEMP_DIR.resolve(QUERY_K21_S1000));
+
+		failGetDatabase(null, db, new NullPointerException("dbname"));
+		failGetDatabase(name, null, new NullPointerException("location"));
+
+		Exception got = failGetDatabase(name, new MinHashDBLocation(EMPTY_FILE),
+				new NotASketchException(EMPTY_FILE.toString() + " is not a mash sketch"));
+
+		assertThat("incorrect mash output",
+				((NotASketchException) got).getMinHashErrorOutput().isPresent(), is(false));
+
+		got = failGetDatabase(name, new MinHashDBLocation(EMPTY_FILE_MSH),
+				new NotASketchException("mash could not read sketch"));
+
+		assertThat("incorrect mash output",
+				((NotASketchException) got).getMinHashErrorOutput().get(),
+				containsString("Sketch data ends unexpectedly"));
+	}
+
+	private Exception failGetDatabase(
+			final MinHashSketchDBName name,
+			final MinHashDBLocation db,
+			final Exception expected) {
+		try {
+			new InProcessMash(new MashSketchCache()).getDatabase(name, db);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+			return got;
+		}
+		return null;
+	}
+
+	@Test
+	public void getSketchIDs() throws Exception {
+		final InProcessMash m = new InProcessMash(new MashSketchCache());
+
+		final MinHashSketchDatabase db = new MinHashSketchDatabase(
+				new MinHashSketchDBName("myname2"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(TEMP_DIR.resolve(TARGET_4SEQS)),
+				4);
+
+		assertThat("incorrect ids", m.getSketchIDs(db),
+				is(Arrays.asList("15792_446_1", "15792_431_1", "15792_3029_1", "15792_341_2")));
+	}
+
+	@Test
+	public void computeDistanceSingleTarget() throws Exception {
+		final MinHashSketchDatabase query = getQuery(QUERY_K31_S1000, 1000);
+		computeDistance(query, true, Collections.emptyList());
+	}
+
+	@Test
+	public void computeDistanceSingleTargetNonStrict() throws Exception {
+		final MinHashSketchDatabase query = getQuery(QUERY_K31_S1500, 1500);
+		computeDistance(query, false, Arrays.asList("Sketch DB myname2: Query sketch size 1500 " +
+				"is larger than target sketch size 1000"));
+	}
+
+	private MinHashSketchDatabase getQuery(final Path file, final int sketchSize)
+			throws Exception {
+		return new MinHashSketchDatabase(
+				new MinHashSketchDBName("myname"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(sketchSize).build(),
+				new MinHashDBLocation(TEMP_DIR.resolve(file)),
+				1);
+	}
+
+	private MinHashSketchDatabase getTarget(final MinHashSketchDBName name, final Path file)
+			throws Exception {
+		return new MinHashSketchDatabase(
+				name,
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(TEMP_DIR.resolve(file)),
+				4);
+	}
+
+	private void computeDistance(
+			final MinHashSketchDatabase query,
+			final boolean strict,
+			final List<String> warnings)
+			throws Exception {
+		final MinHashSketchDBName targName = new MinHashSketchDBName("myname2");
+		final MinHashDistance dist1 = new MinHashDistance(targName, "15792_446_1", 0);
+		final MinHashDistance dist2 = new MinHashDistance(targName, "15792_431_1", 0.00236402);
+		final MinHashDistance dist3 = new MinHashDistance(targName, "15792_341_2", 0.00921302);
+
+		TreeSet<MinHashDistance> expected = new TreeSet<>(Arrays.asList(dist1, dist2, dist3));
+
+		computeDistance(targName, query, 100, strict, expected, warnings);
+		computeDistance(targName, query, 3, strict, expected, warnings);
+
+		expected = new TreeSet<>(Arrays.asList(dist1, dist2));
+
+		computeDistance(targName, query, 2, strict, expected, warnings);
+
+		expected = new TreeSet<>(Arrays.asList(dist1));
+
+		computeDistance(targName, query, 1, strict, expected, warnings);
+	}
+
+	private void computeDistance(
+			final MinHashSketchDBName targName,
+			final MinHashSketchDatabase query,
+			final int maxReturnCount,
+			final boolean strict,
+			final TreeSet<MinHashDistance> expected,
+			final List<String> expectedWarnings)
+			throws Exception {
+		final InProcessMash m = new InProcessMash(new MashSketchCache());
+
+		final MinHashDistanceCollector col = new DefaultDistanceCollector(maxReturnCount);
+		final List<String> warn = m.computeDistance(query,
+				ImmutableMap.of(getTarget(targName, TARGET_4SEQS), new DefaultDistanceFilter(col)),
+				strict);
+
+		assertThat("incorrect distances", col.getDistances(), is(expected));
+		assertThat("incorrect warnings", warn, is(expectedWarnings));
+	}
+
+	@Test
+	public void computeDistanceTwoTargets() throws Exception {
+		computeDistanceTwoTargets(getQuery(QUERY_K31_S1000, 1000), true, Collections.emptyList());
+	}
+
+	@Test
+	public void computeDistanceTwoTargetsNonStrict() throws Exception {
+		computeDistanceTwoTargets(getQuery(QUERY_K31_S1500, 1500), false, Arrays.asList(
+				"Sketch DB myname2: Query sketch size 1500 is larger than target sketch " +
+				"size 1000",
+				"Sketch DB myname4: Query sketch size 1500 is larger than target sketch " +
+				"size 1000"));
+	}
+
+	@Test
+	public void computeDistanceTwoTargetsFromStores() throws Exception {
+		final Path dir = Paths.get("stores_" + UUID.randomUUID().toString());
+		Files.createDirectories(TEMP_DIR.resolve(dir));
+		for (final Path f: Arrays.asList(TARGET_4SEQS, TARGET_4SEQS_2)) {
+			Files.copy(TEMP_DIR.resolve(f), TEMP_DIR.resolve(dir).resolve(f));
+			MashSketchStore.write(TEMP_DIR.resolve(dir).resolve(f));
+		}
+		final MashSketchCache cache = new MashSketchCache();
+		assertThat("store not used", cache.get(TEMP_DIR.resolve(dir).resolve(TARGET_4SEQS))
+				instanceof HeapMashSketches, is(false));
+		computeDistanceTwoTargets(getQuery(QUERY_K31_S1000, 1000), true, Collections.emptyList(),
+				dir.resolve(TARGET_4SEQS), dir.resolve(TARGET_4SEQS_2));
+	}
+
+	@Test
+	public void computeDistanceTwoTargetsCompressed() throws Exception {
+		final Path dir = Paths.get("compressed_" + UUID.randomUUID().toString());
+		Files.createDirectories(TEMP_DIR.resolve(dir));
+		for (final Path f: Arrays.asList(TARGET_4SEQS, TARGET_4SEQS_2)) {
+			Files.copy(TEMP_DIR.resolve(f), TEMP_DIR.resolve(dir).resolve(f));
+		}
+		// one target is compressed from the store, one from the sketch database
+		MashSketchStore.write(TEMP_DIR.resolve(dir).resolve(TARGET_4SEQS));
+		final MashSketchCache cache = new MashSketchCache(true);
+		assertThat("not compressed", cache.isCompressed(), is(true));
+		assertThat("not compressed", cache.get(TEMP_DIR.resolve(dir).resolve(TARGET_4SEQS))
+				instanceof CompressedMashSketches, is(true));
+		computeDistanceTwoTargets(getQuery(QUERY_K31_S1000, 1000), true, Collections.emptyList(),
+				dir.resolve(TARGET_4SEQS), dir.resolve(TARGET_4SEQS_2), true);
+		// the larger query sketch bounds the hashes decoded by the 1000th hash
+		computeDistanceTwoTargets(getQuery(QUERY_K31_S1500, 1500), false, Arrays.asList(
+				"Sketch DB myname2: Query sketch size 1500 is larger than target sketch " +
+				"size 1000",
+				"Sketch DB myname4: Query sketch size 1500 is larger than target sketch " +
+				"size 1000"),
+				dir.resolve(TARGET_4SEQS), dir.resolve(TARGET_4SEQS_2), true);
+	}
+
+	@Test
+	public void computeDistanceTwoTargetsFromIndexes() throws Exception {
+		final Path dir = Paths.get("indexes_" + UUID.randomUUID().toString());
+		Files.createDirectories(TEMP_DIR.resolve(dir));
+		for (final Path f: Arrays.asList(TARGET_4SEQS, TARGET_4SEQS_2)) {
+			Files.copy(TEMP_DIR.resolve(f), TEMP_DIR.resolve(dir).resolve(f));
+			MashHashIndex.write(TEMP_DIR.resolve(dir).resolve(f));
+		}
+		// one target is mapped, one is on the heap
+		MashSketchStore.write(TEMP_DIR.resolve(dir).resolve(TARGET_4SEQS));
+		final MashSketchCache cache = new MashSketchCache();
+		assertThat("index not used", cache.getEntry(TEMP_DIR.resolve(dir).resolve(TARGET_4SEQS_2))
+				.getIndex().isPresent(), is(true));
+		computeDistanceTwoTargets(getQuery(QUERY_K31_S1000, 1000), true, Collections.emptyList(),
+				dir.resolve(TARGET_4SEQS), dir.resolve(TARGET_4SEQS_2));
+		computeDistanceTwoTargets(getQuery(QUERY_K31_S1500, 1500), false, Arrays.asList(
+				"Sketch DB myname2: Query sketch size 1500 is larger than target sketch " +
+				"size 1000",
+				"Sketch DB myname4: Query sketch size 1500 is larger than target sketch " +
+				"size 1000"),
+				dir.resolve(TARGET_4SEQS), dir.resolve(TARGET_4SEQS_2));
+	}
+
+	@Test
+	public void computeDistanceApproximate() throws Exception {
+		final MinHashSketchDBName targName = new MinHashSketchDBName("myname2");
+		// the close matches are found, and the distances are exact
+		final TreeSet<MinHashDistance> expected = new TreeSet<>(Arrays.asList(
+				new MinHashDistance(targName, "15792_446_1", 0),
+				new MinHashDistance(targName, "15792_431_1", 0.00236402),
+				new MinHashDistance(targName, "15792_341_2", 0.00921302)));
+
+		final MashSketchCache cache = new MashSketchCache();
+		for (final double recall: Arrays.asList(0.5, 0.95, 0.99)) {
+			final MinHashDistanceCollector col = new DefaultDistanceCollector(100);
+			final List<String> warn = new InProcessMash(cache).computeDistance(
+					getQuery(QUERY_K31_S1000, 1000),
+					ImmutableMap.of(getTarget(targName, TARGET_4SEQS),
+							new DefaultDistanceFilter(col)),
+					true,
+					MinHashSearchParameters.getBuilder().withApproximateRecall(recall).build());
+
+			assertThat("incorrect distances", col.getDistances(), is(expected));
+			assertThat("incorrect warnings", warn, is(Collections.emptyList()));
+		}
+		// exact searches with search parameters are unaffected
+		final MinHashDistanceCollector col = new DefaultDistanceCollector(100);
+		new InProcessMash(cache).computeDistance(
+				getQuery(QUERY_K31_S1000, 1000),
+				ImmutableMap.of(getTarget(targName, TARGET_4SEQS), new DefaultDistanceFilter(col)),
+				true,
+				MinHashSearchParameters.getBuilder().build());
+		assertThat("incorrect distances", col.getDistances(), is(expected));
+	}
+
+	@Test
+	public void computeDistanceFailNullSearchParameters() throws Exception {
+		try {
+			new InProcessMash(new MashSketchCache()).computeDistance(
+					getQuery(QUERY_K31_S1000, 1000),
+					ImmutableMap.of(getTarget(new MinHashSketchDBName("t"), TARGET_4SEQS),
+							new DefaultDistanceFilter(new DefaultDistanceCollector(1))),
+					true,
+					null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("searchParameters"));
+		}
+	}
+
+	private InProcessMash getInProcessMash(
+			final MashSketchCache cache,
+			final ForkJoinPool pool,
+			final int minRangeSize)
+			throws Exception {
+		final Constructor<InProcessMash> con = InProcessMash.class.getDeclaredConstructor(
+				MashSketchCache.class, ForkJoinPool.class, int.class);
+		con.setAccessible(true);
+		return con.newInstance(cache, pool, minRangeSize);
+	}
+
+	@Test
+	public void computeDistanceParallel() throws Exception {
+		final MinHashSketchDBName targName1 = new MinHashSketchDBName("myname2");
+		final MinHashSketchDBName targName2 = new MinHashSketchDBName("myname4");
+		final TreeSet<MinHashDistance> expected = new TreeSet<>(Arrays.asList(
+				new MinHashDistance(targName1, "15792_446_1", 0),
+				new MinHashDistance(targName1, "15792_431_1", 0.00236402),
+				new MinHashDistance(targName1, "15792_341_2", 0.00921302),
+				new MinHashDistance(targName2, "15792_326_2", 0.00664804),
+				new MinHashDistance(targName2, "15792_467_1", 0.00673197),
+				new MinHashDistance(targName2, "15792_314_2", 0.00917961)));
+
+		final MashSketchCache cache = new MashSketchCache();
+		final ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			// range sizes of 1 and 2 sketches, and 1 range with a single thread
+			for (final int minRangeSize: Arrays.asList(1, 2, 5)) {
+				final MinHashDistanceCollector col = new DefaultDistanceCollector(100);
+				final List<MinHashDistance> accepted = new LinkedList<>();
+				final List<String> warn = getInProcessMash(cache, pool, minRangeSize)
+						.computeDistance(getQuery(QUERY_K31_S1000, 1000),
+								ImmutableMap.of(
+										getTarget(targName1, TARGET_4SEQS),
+										new DefaultDistanceFilter(col),
+										getTarget(targName2, TARGET_4SEQS_2),
+										new MinHashDistanceFilter() {
+
+											@Override
+											public void accept(final MinHashDistance dist) {
+												accepted.add(dist);
+												col.accept(dist);
+											}
+
+											@Override
+											public void flush() {}
+										}),
+								true);
+
+				assertThat("incorrect distances", col.getDistances(), is(expected));
+				assertThat("incorrect warnings", warn, is(Collections.emptyList()));
+				// distances are passed to the filter in sketch order, as for a serial scan
+				assertThat("incorrect order", accepted, is(Arrays.asList(
+						new MinHashDistance(targName2, "15792_326_2", 0.00664804),
+						new MinHashDistance(targName2, "15792_467_1", 0.00673197),
+						new MinHashDistance(targName2, "15792_314_2", 0.00917961))));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void computeDistanceBounded() throws Exception {
+		// the collectors fill up while scanning, and the bound prunes the rest of the scan
+		final MinHashSketchDBName targName1 = new MinHashSketchDBName("myname2");
+		final MinHashSketchDBName targName2 = new MinHashSketchDBName("myname4");
+		final List<MinHashDistance> all = Arrays.asList(
+				new MinHashDistance(targName1, "15792_446_1", 0),
+				new MinHashDistance(targName1, "15792_431_1", 0.00236402),
+				new MinHashDistance(targName2, "15792_326_2", 0.00664804),
+				new MinHashDistance(targName2, "15792_467_1", 0.00673197),
+				new MinHashDistance(targName2, "15792_314_2", 0.00917961),
+				new MinHashDistance(targName1, "15792_341_2", 0.00921302));
+
+		final MashSketchCache cache = new MashSketchCache();
+		final ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			for (final int minRangeSize: Arrays.asList(1, 1000)) {
+				for (int size = 1; size <= all.size(); size++) {
+					final MinHashDistanceCollector col = new DefaultDistanceCollector(size);
+					getInProcessMash(cache, pool, minRangeSize).computeDistance(
+							getQuery(QUERY_K31_S1000, 1000),
+							ImmutableMap.of(
+									getTarget(targName1, TARGET_4SEQS),
+									new DefaultDistanceFilter(col),
+									getTarget(targName2, TARGET_4SEQS_2),
+									new DefaultDistanceFilter(col)),
+							true);
+
+					assertThat("incorrect distances", col.getDistances(),
+							is(new TreeSet<>(all.subList(0, size))));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/* Computes the expected distances between each sketch in a query sketch database and a
+	 * target sketch database one pair at a time.
+	 */
+	private List<List<MinHashDistance>> getPairwiseDistances(
+			final Path query,
+			final MinHashSketchDBName targName,
+			final Path target)
+			throws Exception {
+		final MashSketchReader q = MashSketchReader.open(TEMP_DIR.resolve(query));
+		final MashSketchReader t = MashSketchReader.open(TEMP_DIR.resolve(target));
+		final List<List<MinHashDistance>> ret = new LinkedList<>();
+		for (int i = 0; i < q.getSketchCount(); i++) {
+			final List<MinHashDistance> dists = new LinkedList<>();
+			for (int j = 0; j < t.getSketchCount(); j++) {
+				final double d = MashDistance.round(MashDistance.distance(
+						t.getHashes(j), q.getHashes(i), 1000, 31));
+				if (d <= 0.5) {
+					dists.add(new MinHashDistance(targName, t.getSketchID(j), d));
+				}
+			}
+			ret.add(dists);
+		}
+		return ret;
+	}
+
+	@Test
+	public void computeDistancesMultipleQueries() throws Exception {
+		// the query sketch database is a reference database, so each query matches itself
+		final MinHashSketchDatabase query = new MinHashSketchDatabase(
+				new MinHashSketchDBName("myname"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(TEMP_DIR.resolve(TARGET_4SEQS)),
+				4);
+		final MinHashSketchDBName targName1 = new MinHashSketchDBName("myname2");
+		final MinHashSketchDBName targName2 = new MinHashSketchDBName("myname4");
+		final List<List<MinHashDistance>> expected1 = getPairwiseDistances(
+				TARGET_4SEQS, targName1, TARGET_4SEQS);
+		final List<List<MinHashDistance>> expected2 = getPairwiseDistances(
+				TARGET_4SEQS, targName2, TARGET_4SEQS_2);
+		// check the query with the same ID as the single query gets the same results
+		assertThat("incorrect query ID", MashSketchReader.open(TEMP_DIR.resolve(TARGET_4SEQS))
+				.getSketchID(0), is("15792_446_1"));
+		assertThat("incorrect distances", new TreeSet<>(expected1.get(0)).headSet(
+				new MinHashDistance(targName1, "15792_341_2", 0.00921302), true),
+				is(new TreeSet<>(Arrays.asList(
+						new MinHashDistance(targName1, "15792_446_1", 0),
+						new MinHashDistance(targName1, "15792_431_1", 0.00236402),
+						new MinHashDistance(targName1, "15792_341_2", 0.00921302)))));
+
+		final Path dir = Paths.get("multi_" + UUID.randomUUID().toString());
+		Files.createDirectories(TEMP_DIR.resolve(dir));
+		for (final Path f: Arrays.asList(TARGET_4SEQS, TARGET_4SEQS_2)) {
+			Files.copy(TEMP_DIR.resolve(f), TEMP_DIR.resolve(dir).resolve(f));
+			MashHashIndex.write(TEMP_DIR.resolve(dir).resolve(f));
+		}
+		final MashSketchCache cache = new MashSketchCache();
+		final ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			// scan every sketch, and scan the union of the candidates from the indexes
+			for (final Path d: Arrays.asList(Paths.get(""), dir)) {
+				for (final int minRangeSize: Arrays.asList(1, 3, 1000)) {
+					final List<MinHashDistanceCollector> cols = new LinkedList<>();
+					final List<MinHashDistanceFilter> filters1 = new LinkedList<>();
+					final List<MinHashDistanceFilter> filters2 = new LinkedList<>();
+					for (int i = 0; i < 4; i++) {
+						final MinHashDistanceCollector col = new DefaultDistanceCollector(100);
+						cols.add(col);
+						filters1.add(new DefaultDistanceFilter(col));
+						filters2.add(new BufferedDistanceFilter(col));
+					}
+					final List<String> warn = getInProcessMash(cache, pool, minRangeSize)
+							.computeDistances(query,
+									ImmutableMap.of(
+											getTarget(targName1, d.resolve(TARGET_4SEQS)),
+											filters1,
+											getTarget(targName2, d.resolve(TARGET_4SEQS_2)),
+											filters2),
+									true,
+									MinHashSearchParameters.getBuilder().build());
+
+					assertThat("incorrect warnings", warn, is(Collections.emptyList()));
+					for (int i = 0; i < 4; i++) {
+						final TreeSet<MinHashDistance> expected = new TreeSet<>(expected1.get(i));
+						expected.addAll(expected2.get(i));
+						assertThat("incorrect distances for query " + i,
+								cols.get(i).getDistances(), is(expected));
+					}
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void computeDistancesMaxDistance() throws Exception {
+		final MinHashSketchDatabase query = new MinHashSketchDatabase(
+				new MinHashSketchDBName("myname"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(TEMP_DIR.resolve(TARGET_4SEQS)),
+				4);
+		final MinHashSketchDBName targName = new MinHashSketchDBName("myname2");
+		final List<List<MinHashDistance>> all = getPairwiseDistances(
+				TARGET_4SEQS, targName, TARGET_4SEQS_2);
+
+		final Path dir = Paths.get("maxdist_" + UUID.randomUUID().toString());
+		Files.createDirectories(TEMP_DIR.resolve(dir));
+		Files.copy(TEMP_DIR.resolve(TARGET_4SEQS_2), TEMP_DIR.resolve(dir).resolve(TARGET_4SEQS_2));
+		MashHashIndex.write(TEMP_DIR.resolve(dir).resolve(TARGET_4SEQS_2));
+		final MashSketchCache cache = new MashSketchCache();
+		final ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			// the index path also drops candidates beyond the maximum distance
+			for (final Path d: Arrays.asList(Paths.get(""), dir)) {
+				for (final double maxDist: Arrays.asList(0.0, 0.00664804, 0.05, 0.2, 1.0)) {
+					final List<MinHashDistanceCollector> cols = new LinkedList<>();
+					final List<MinHashDistanceFilter> filters = new LinkedList<>();
+					for (int i = 0; i < 4; i++) {
+						final MinHashDistanceCollector col = new DefaultDistanceCollector(100);
+						cols.add(col);
+						filters.add(new DefaultDistanceFilter(col));
+					}
+					getInProcessMash(cache, pool, 1).computeDistances(query,
+							ImmutableMap.of(getTarget(targName, d.resolve(TARGET_4SEQS_2)),
+									filters),
+							true,
+							MinHashSearchParameters.getBuilder().withMaxDistance(maxDist).build());
+
+					for (int i = 0; i < 4; i++) {
+						final TreeSet<MinHashDistance> expected = all.get(i).stream()
+								.filter(dist -> dist.getDistance() <= maxDist)
+								.collect(Collectors.toCollection(TreeSet::new));
+						assertThat("incorrect distances for query " + i + " at " + maxDist,
+								cols.get(i).getDistances(), is(expected));
+					}
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void computeDistancesMultipleQueriesApproximate() throws Exception {
+		final MinHashSketchDatabase query = new MinHashSketchDatabase(
+				new MinHashSketchDBName("myname"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(TEMP_DIR.resolve(TARGET_4SEQS)),
+				4);
+		final MinHashSketchDBName targName = new MinHashSketchDBName("myname2");
+		final List<String> ids = MashSketchReader.open(TEMP_DIR.resolve(TARGET_4SEQS))
+				.getSketchIDs();
+		final List<MinHashDistanceCollector> cols = new LinkedList<>();
+		final List<MinHashDistanceFilter> filters = new LinkedList<>();
+		for (int i = 0; i < 4; i++) {
+			final MinHashDistanceCollector col = new DefaultDistanceCollector(1);
+			cols.add(col);
+			filters.add(new DefaultDistanceFilter(col));
+		}
+		new InProcessMash(new MashSketchCache()).computeDistances(
+				query,
+				ImmutableMap.of(getTarget(targName, TARGET_4SEQS), filters),
+				true,
+				MinHashSearchParameters.getBuilder().withApproximateRecall(0.95).build());
+
+		// identical sketches are always candidates
+		for (int i = 0; i < 4; i++) {
+			assertThat("incorrect distances for query " + i, cols.get(i).getDistances(),
+					is(new TreeSet<>(Arrays.asList(
+							new MinHashDistance(targName, ids.get(i), 0)))));
+		}
+	}
+
+	@Test
+	public void computeDistancesSingleQuery() throws Exception {
+		final MinHashSketchDBName targName = new MinHashSketchDBName("myname2");
+		final MinHashDistanceCollector col = new DefaultDistanceCollector(100);
+		new InProcessMash(new MashSketchCache()).computeDistances(
+				getQuery(QUERY_K31_S1000, 1000),
+				ImmutableMap.of(getTarget(targName, TARGET_4SEQS),
+						Arrays.asList(new DefaultDistanceFilter(col))),
+				true,
+				MinHashSearchParameters.getBuilder().build());
+
+		assertThat("incorrect distances", col.getDistances(), is(new TreeSet<>(Arrays.asList(
+				new MinHashDistance(targName, "15792_446_1", 0),
+				new MinHashDistance(targName, "15792_431_1", 0.00236402),
+				new MinHashDistance(targName, "15792_341_2", 0.00921302)))));
+	}
+
+	@Test
+	public void computeDistancesFail() throws Exception {
+		final MinHashSketchDatabase query = getQuery(QUERY_K31_S1000, 1000);
+		final MinHashSketchDatabase target = getTarget(
+				new MinHashSketchDBName("target"), TARGET_4SEQS);
+		final MinHashDistanceFilter f = new DefaultDistanceFilter(new DefaultDistanceCollector(1));
+		final MinHashSearchParameters p = MinHashSearchParameters.getBuilder().build();
+		final Map<MinHashSketchDatabase, List<MinHashDistanceFilter>> nullkey = new HashMap<>();
+		nullkey.put(null, Arrays.asList(f));
+		final Map<MinHashSketchDatabase, List<MinHashDistanceFilter>> nullval = new HashMap<>();
+		nullval.put(target, null);
+
+		failComputeDistances(null, ImmutableMap.of(target, Arrays.asList(f)), p,
+				new NullPointerException("query"));
+		failComputeDistances(query, null, p, new NullPointerException("references"));
+		failComputeDistances(query, ImmutableMap.of(target, Arrays.asList(f)), null,
+				new NullPointerException("searchParameters"));
+		failComputeDistances(query, nullkey, p,
+				new NullPointerException("Null key in references map"));
+		failComputeDistances(query, nullval, p,
+				new NullPointerException("Null value in references map"));
+		failComputeDistances(query, ImmutableMap.of(target, Arrays.asList(f, null)), p,
+				new IllegalArgumentException(
+						"Sketch DB target has 2 filters for 1 query sequences"));
+		failComputeDistances(query, ImmutableMap.of(target, Arrays.asList((
+				MinHashDistanceFilter) null)), p,
+				new NullPointerException("Null filter in references map"));
+	}
+
+	private void failComputeDistances(
+			final MinHashSketchDatabase query,
+			final Map<MinHashSketchDatabase, List<MinHashDistanceFilter>> references,
+			final MinHashSearchParameters params,
+			final Exception expected) {
+		try {
+			new InProcessMash(new MashSketchCache()).computeDistances(
+					query, references, true, params);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	private class BufferedDistanceFilter implements MinHashDistanceFilter {
+
+		private final List<MinHashDistance> buffer = new LinkedList<>();
+		private final MinHashDistanceCollector collector;
+
+		public BufferedDistanceFilter(final MinHashDistanceCollector collector) {
+			this.collector = collector;
+		}
+
+		@Override
+		public void accept(final MinHashDistance dist) {
+			buffer.add(dist);
+		}
+
+		@Override
+		public void flush() {
+			for (final MinHashDistance d: buffer) {
+				collector.accept(d);
+			}
+			buffer.clear();
+		}
+	}
+
+	private void computeDistanceTwoTargets(
+			final MinHashSketchDatabase query,
+			final boolean strict,
+			final List<String> warnings)
+			throws Exception {
+		computeDistanceTwoTargets(query, strict, warnings, TARGET_4SEQS, TARGET_4SEQS_2);
+	}
+
+	private void computeDistanceTwoTargets(
+			final MinHashSketchDatabase query,
+			final boolean strict,
+			final List<String> warnings,
+			final Path target1,
+			final Path target2)
+			throws Exception {
+		computeDistanceTwoTargets(query, strict, warnings, target1, target2, false);
+	}
+
+	private void computeDistanceTwoTargets(
+			final MinHashSketchDatabase query,
+			final boolean strict,
+			final List<String> warnings,
+			final Path target1,
+			final Path target2,
+			final boolean compress)
+			throws Exception {
+		final MinHashSketchDBName targName1 = new MinHashSketchDBName("myname2");
+		final MinHashSketchDBName targName2 = new MinHashSketchDBName("myname4");
+		final MinHashDistance dist1_1 = new MinHashDistance(targName1, "15792_446_1", 0);
+		final MinHashDistance dist1_2 = new MinHashDistance(targName1, "15792_431_1", 0.00236402);
+		final MinHashDistance dist1_3 = new MinHashDistance(targName1, "15792_341_2", 0.00921302);
+		final MinHashDistance dist2_1 = new MinHashDistance(targName2, "15792_326_2", 0.00664804);
+		final MinHashDistance dist2_2 = new MinHashDistance(targName2, "15792_467_1", 0.00673197);
+		final MinHashDistance dist2_3 = new MinHashDistance(targName2, "15792_314_2", 0.00917961);
+
+		final TreeSet<MinHashDistance> expected = new TreeSet<>(Arrays.asList(
+				dist1_1, dist1_2, dist2_1, dist2_2, dist2_3, dist1_3));
+
+		// reuse the cache to check cached sketches give the same results
+		final MashSketchCache cache = new MashSketchCache(compress);
+		for (int i = 0; i < 2; i++) {
+			final MinHashDistanceCollector col = new DefaultDistanceCollector(100);
+			final List<String> warn = new InProcessMash(cache).computeDistance(query,
+					ImmutableMap.of(
+							getTarget(targName1, target1), new DefaultDistanceFilter(col),
+							getTarget(targName2, target2),
+									new BufferedDistanceFilter(col)),
+					strict);
+
+			assertThat("incorrect distances", col.getDistances(), is(expected));
+			assertThat("incorrect warnings", warn, is(warnings));
+			assertThat("incorrect cache size", cache.size(), is(2));
+		}
+	}
+
+	@Test
+	public void cache() throws Exception {
+		final Path target = TEMP_DIR.resolve("cachetest.msh");
+		Files.copy(TEMP_DIR.resolve(TARGET_4SEQS), target);
+		final MashSketchCache cache = new MashSketchCache();
+
+		final MashSketches s = cache.get(target);
+		assertThat("incorrect count", s.getSketchCount(), is(4));
+		assertThat("incorrect ids", s.getSketchIDs(), is(Arrays.asList(
+				"15792_446_1", "15792_431_1", "15792_3029_1", "15792_341_2")));
+		assertThat("incorrect sketch size", s.getSketchSize(), is(1000));
+		assertThat("incorrect params", s.getParameters(),
+				is(MinHashParameters.getBuilder(31).withSketchSize(1000).build()));
+		assertThat("store used", s instanceof HeapMashSketches, is(true));
+		assertThat("index used", cache.getEntry(target).getIndex().isPresent(), is(false));
+		assertThat("not cached", cache.get(target), sameInstance(s));
+		assertThat("not cached", cache.get(TEMP_DIR.resolve("./cachetest.msh")), sameInstance(s));
+		assertThat("incorrect cache size", cache.size(), is(1));
+
+		// writing a store or index causes a reload
+		MashSketchStore.write(target);
+		final MashSketches mapped = cache.get(target);
+		assertThat("store not used", mapped instanceof HeapMashSketches, is(false));
+		MashHashIndex.write(target);
+		assertThat("index not used", cache.getEntry(target).getIndex().isPresent(), is(true));
+		assertThat("incorrect ids", cache.get(target).getSketchIDs(), is(s.getSketchIDs()));
+		assertThat("incorrect cache size", cache.size(), is(1));
+
+		// changing the file causes a reload
+		Files.copy(TEMP_DIR.resolve(QUERY_K31_S500), target, StandardCopyOption.REPLACE_EXISTING);
+		final MashSketches s2 = cache.get(target);
+		assertThat("incorrect count", s2.getSketchCount(), is(1));
+		assertThat("incorrect sketch size", s2.getSketchSize(), is(500));
+		assertThat("incorrect cache size", cache.size(), is(1));
+
+		// deleted files are evicted when another file is loaded
+		Files.delete(target);
+		cache.get(TEMP_DIR.resolve(TARGET_4SEQS));
+		assertThat("incorrect cache size", cache.size(), is(1));
+	}
+
+	@Test
+	public void cacheMemoryUsage() throws Exception {
+		final Path target = TEMP_DIR.resolve("cachememtest.msh");
+		Files.copy(TEMP_DIR.resolve(TARGET_4SEQS), target);
+		final MashSketchCache cache = new MashSketchCache();
+		assertThat("not compressed", cache.isCompressed(), is(false));
+		final MashSketchCache compressed = new MashSketchCache(true);
+
+		// not loaded
+		assertThat("incorrect memory", cache.getMemoryUsage(target), is(Optional.absent()));
+
+		cache.get(target);
+		compressed.get(target);
+		assertThat("incorrect memory", cache.getMemoryUsage(target), is(Optional.of(
+				new MinHashMemoryUsage(Storage.HEAP, 4, 4000, 32000))));
+		assertThat("incorrect memory", cache.getMemoryUsage(
+				TEMP_DIR.resolve("./cachememtest.msh")), is(Optional.of(
+						new MinHashMemoryUsage(Storage.HEAP, 4, 4000, 32000))));
+		final MinHashMemoryUsage mem = compressed.getMemoryUsage(target).get();
+		assertThat("incorrect storage", mem.getStorage(), is(Storage.COMPRESSED));
+		assertThat("incorrect sketches", mem.getSketchCount(), is(4));
+		assertThat("incorrect hashes", mem.getHashCount(), is(4000L));
+		assertThat("not compressed", mem.getHashBytes() < 32000, is(true));
+
+		MashSketchStore.write(target);
+		// out of date
+		assertThat("incorrect memory", cache.getMemoryUsage(target), is(Optional.absent()));
+		cache.get(target);
+		assertThat("incorrect memory", cache.getMemoryUsage(target), is(Optional.of(
+				new MinHashMemoryUsage(Storage.MAPPED, 4, 4000, 32000))));
+		compressed.get(target);
+		assertThat("incorrect storage", compressed.getMemoryUsage(target).get().getStorage(),
+				is(Storage.COMPRESSED));
+
+		try {
+			cache.getMemoryUsage(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("sketchDB"));
+		}
+	}
+
+	@Test
+	public void computeDistanceFailBasicInputs() throws Exception {
+		final MinHashSketchDatabase query = getQuery(QUERY_K31_S1000, 1000);
+		final MinHashSketchDatabase target = getTarget(
+				new MinHashSketchDBName("target"), TARGET_4SEQS);
+		final DefaultDistanceFilter filter = new DefaultDistanceFilter(
+				new DefaultDistanceCollector(1));
+		final Map<MinHashSketchDatabase, MinHashDistanceFilter> targets = ImmutableMap.of(
+				target, filter);
+
+		final Map<MinHashSketchDatabase, MinHashDistanceFilter> nullKey = new HashMap<>();
+		nullKey.put(null, filter);
+		final Map<MinHashSketchDatabase, MinHashDistanceFilter> nullVal = new HashMap<>();
+		nullVal.put(target, null);
+
+		failComputeDistance(null, targets, false, new NullPointerException("query"));
+		failComputeDistance(query, null, false, new NullPointerException("references"));
+		failComputeDistance(query, nullKey, false,
+				new NullPointerException("Null key in references map"));
+		failComputeDistance(query, nullVal, false,
+				new NullPointerException("Null value in references map"));
+		failComputeDistance(target, targets, false, new IllegalArgumentException(
+				"Only 1 query sequence is allowed"));
+	}
+
+	@Test
+	public void computeDistanceFailMismatchedSketchDbs() throws Exception {
+		final Map<MinHashSketchDatabase, MinHashDistanceFilter> targets = ImmutableMap.of(
+				getTarget(new MinHashSketchDBName("target"), TARGET_4SEQS),
+				new DefaultDistanceFilter(new DefaultDistanceCollector(1)));
+
+		failComputeDistance(getQuery(QUERY_K31_S1500, 1500), targets, true,
+				new IncompatibleSketchesException(
+						"Query sketch size 1500 does not match target 1000"));
+
+		final MinHashSketchDatabase kmer = new MinHashSketchDatabase(
+				new MinHashSketchDBName("myname"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(21).withSketchSize(1000).build(),
+				new MinHashDBLocation(TEMP_DIR.resolve(QUERY_K21_S1000)),
+				1);
+
+		failComputeDistance(kmer, targets, false,
+				new IncompatibleSketchesException(
+						"Kmer size for sketches are not compatible: 31 21"));
+
+		failComputeDistance(getQuery(QUERY_K31_S500, 500), targets, false,
+				new IncompatibleSketchesException(
+						"Query sketch size 500 may not be smaller than the target sketch " +
+						"size 1000"));
+	}
+
+	@Test
+	public void computeDistanceFailMismatchedSeedAndAlphabet() throws Exception {
+		final DefaultDistanceCollector col = new DefaultDistanceCollector(1);
+		final Map<MinHashSketchDatabase, MinHashDistanceFilter> targets = ImmutableMap.of(
+				getTarget(new MinHashSketchDBName("target"), TARGET_4SEQS),
+				new DefaultDistanceFilter(col));
+
+		failComputeDistance(getQuery(QUERY_K31_S1000_SEED43, 1000), targets, false,
+				new IncompatibleSketchesException(
+						"Hash seed for sketches are not compatible: 42 43"));
+		failComputeDistance(getQuery(QUERY_K31_S1000_ACGU, 1000), targets, false,
+				new IncompatibleSketchesException(
+						"Alphabet for sketches are not compatible: ACGT ACGU"));
+
+		// a compatible reference gets no distances if another reference is incompatible
+		final Map<MinHashSketchDatabase, MinHashDistanceFilter> mixed = new LinkedHashMap<>();
+		mixed.putAll(targets);
+		mixed.put(getQuery(QUERY_K31_S1000_SEED43, 1000), new DefaultDistanceFilter(col));
+		failComputeDistance(getQuery(QUERY_K31_S1000, 1000), mixed, false,
+				new IncompatibleSketchesException(
+						"Hash seed for sketches are not compatible: 43 42"));
+		assertThat("incorrect distances", col.getDistances(), is(new TreeSet<>()));
+	}
+
+	@Test
+	public void computeDistanceFailBadFiles() throws Exception {
+		final MinHashSketchDatabase query = getQuery(QUERY_K31_S1000, 1000);
+		final MinHashSketchDatabase target = getTarget(
+				new MinHashSketchDBName("target"), TARGET_4SEQS);
+		final MinHashSketchDatabase extension = new MinHashSketchDatabase(
+				new MinHashSketchDBName("myname"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(TEMP_DIR.resolve(EMPTY_FILE)),
+				1);
+		final MinHashDistanceFilter f = new DefaultDistanceFilter(new DefaultDistanceCollector(1));
+
+		failComputeDistance(extension, ImmutableMap.of(target, f), false,
+				new NotASketchException(EMPTY_FILE.toString() + " is not a mash sketch"));
+		failComputeDistance(query, ImmutableMap.of(target, f, extension, f), false,
+				new NotASketchException(EMPTY_FILE.toString() + " is not a mash sketch"));
+
+		final MinHashSketchDatabase emptyFile = new MinHashSketchDatabase(
+				new MinHashSketchDBName("myname"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(TEMP_DIR.resolve(EMPTY_FILE_MSH)),
+				1);
+
+		NotASketchException got = (NotASketchException) failComputeDistance(
+				emptyFile, ImmutableMap.of(target, f), false, new NotASketchException(
+						"mash could not read sketch"));
+		assertThat("incorrect mash output", got.getMinHashErrorOutput().get(),
+				containsString("Sketch data ends unexpectedly"));
+
+		got = (NotASketchException) failComputeDistance(
+				query, ImmutableMap.of(target, f, emptyFile, f), false, new NotASketchException(
+						"mash could not read sketch"));
+		assertThat("incorrect mash output", got.getMinHashErrorOutput().get(),
+				containsString("Sketch data ends unexpectedly"));
+	}
+
+	private Exception failComputeDistance(
+			final MinHashSketchDatabase query,
+			final Map<MinHashSketchDatabase, MinHashDistanceFilter> references,
+			final boolean strict,
+			final Exception expected) {
+		try {
+			new InProcessMash(new MashSketchCache()).computeDistance(query, references, strict);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+			return got;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,263 @@
+package us.kbase.test.assemblyhomology.minhash.mash;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import us.kbase.assemblyhomology.minhash.DefaultDistanceCollector;
+import us.kbase.assemblyhomology.minhash.DefaultDistanceFilter;
+import us.kbase.assemblyhomology.minhash.MinHashDistanceFilter;
+import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterException;
+import us.kbase.assemblyhomology.minhash.exceptions.MinHashException;
+import us.kbase.assemblyhomology.minhash.mash.MashBatcher;
+import us.kbase.assemblyhomology.minhash.mash.MashBatcher.Member;
+import us.kbase.test.assemblyhomology.TestCommon;
+
+public class MashBatcherTest {
+
+	private static final Path QUERY = Paths.get("query.msh");
+
+	private static MinHashDistanceFilter filter() {
+		return new DefaultDistanceFilter(new DefaultDistanceCollector(10));
+	}
+
+	private static Member member(final String... queryIDs) {
+		final ImmutableMap.Builder<String, MinHashDistanceFilter> b = ImmutableMap.builder();
+		for (final String id: queryIDs) {
+			b.put(id, filter());
+		}
+		return new Member(QUERY, b.build(), 0.3, 0.5);
+	}
+
+	@Test
+	public void construct() throws Exception {
+		final MashBatcher b = new MashBatcher(20);
+		assertThat("incorrect window", b.getWindowMS(), is(20L));
+		assertThat("incorrect open batches", b.getOpenBatchCount(), is(0));
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		try {
+			new MashBatcher(0);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new IllegalArgumentException("windowMS must be > 0"));
+		}
+	}
+
+	@Test
+	public void member() throws Exception {
+		final MinHashDistanceFilter f = filter();
+		final Member m = new Member(QUERY, ImmutableMap.of("id", f), 0.1, 0.2);
+		assertThat("incorrect query", m.getQuery(), is(QUERY));
+		assertThat("incorrect filters", m.getQueryToFilter(), is(ImmutableMap.of("id", f)));
+		assertThat("incorrect max dist", m.getMaxDistance(), is(0.1));
+		assertThat("incorrect cutoff", m.getCutoff(), is(0.2));
+		assertThat("incorrect done", m.isDone(), is(false));
+		m.complete();
+		assertThat("incorrect done", m.isDone(), is(true));
+	}
+
+	@Test
+	public void memberFail() throws Exception {
+		final Map<String, MinHashDistanceFilter> f = ImmutableMap.of("id", filter());
+		failMember(null, f, new NullPointerException("query"));
+		failMember(QUERY, null, new NullPointerException("queryToFilter"));
+		failMember(QUERY, Collections.emptyMap(),
+				new IllegalArgumentException("queryToFilter cannot be empty"));
+	}
+
+	private void failMember(
+			final Path query,
+			final Map<String, MinHashDistanceFilter> queryToFilter,
+			final Exception expected) {
+		try {
+			new Member(query, queryToFilter, 0.3, 0.5);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void batch() throws Exception {
+		final MashBatcher b = new MashBatcher(100);
+		final List<List<Member>> batches = new CopyOnWriteArrayList<>();
+		final MashBatcher.BatchRunner runner = members -> {
+			batches.add(members);
+			members.get(0).complete();
+			members.get(1).runAlone();
+		};
+		final Member m1 = member("id1", "id2");
+		final Member m2 = member("id3");
+		b.join("key", m1, runner);
+		b.join("key", m2, runner);
+		assertThat("incorrect open batches", b.getOpenBatchCount(), is(1));
+
+		assertThat("incorrect result", m1.await(), is(true));
+		assertThat("incorrect result", m2.await(), is(false));
+		assertThat("incorrect batches", batches, is(Arrays.asList(Arrays.asList(m1, m2))));
+		assertThat("incorrect open batches", b.getOpenBatchCount(), is(0));
+	}
+
+	@Test
+	public void batchPerKeyAndQueryID() throws Exception {
+		final MashBatcher b = new MashBatcher(100);
+		final List<List<Member>> batches = new CopyOnWriteArrayList<>();
+		final MashBatcher.BatchRunner runner = members -> {
+			batches.add(members);
+			members.forEach(Member::complete);
+		};
+		final Member m1 = member("id1", "id2");
+		final Member m2 = member("id2");
+		final Member m3 = member("id1");
+		b.join("key", m1, runner);
+		b.join("key2", m3, runner);
+		assertThat("incorrect open batches", b.getOpenBatchCount(), is(2));
+		// replaces the open batch for key
+		b.join("key", m2, runner);
+		assertThat("incorrect open batches", b.getOpenBatchCount(), is(2));
+
+		for (final Member m: Arrays.asList(m1, m2, m3)) {
+			assertThat("incorrect result", m.await(), is(true));
+		}
+		assertThat("incorrect batch count", batches.size(), is(3));
+		for (final List<Member> batch: batches) {
+			assertThat("incorrect batch size", batch.size(), is(1));
+		}
+		assertThat("incorrect open batches", b.getOpenBatchCount(), is(0));
+	}
+
+	@Test
+	public void batchFail() throws Exception {
+		final MashBatcher b = new MashBatcher(100);
+		final Member m1 = member("id1");
+		final Member m2 = member("id2");
+		final Member m3 = member("id3");
+		b.join("key", m1, members -> {
+			members.get(0).fail(new MinHashException("mash failed"));
+			members.get(1).fail(new MinHashDistanceFilterException("filter failed"));
+			// the third member is not completed
+		});
+		b.join("key", m2, members -> {});
+		b.join("key", m3, members -> {});
+
+		failAwait(m1, new MinHashException("mash failed"));
+		failAwait(m2, new MinHashDistanceFilterException("filter failed"));
+		failAwait(m3, new IllegalStateException("Batch runner failed to complete search"));
+
+		final Member m4 = member("id1");
+		final Member m5 = member("id2");
+		b.join("key", m4, members -> {
+			throw new IllegalArgumentException("runner failed");
+		});
+		b.join("key", m5, members -> {});
+		failAwait(m4, new IllegalArgumentException("runner failed"));
+		failAwait(m5, new IllegalArgumentException("runner failed"));
+	}
+
+	@Test
+	public void joinFail() throws Exception {
+		final MashBatcher b = new MashBatcher(10);
+		final Member m = member("id");
+		final MashBatcher.BatchRunner runner = members -> members.get(0).complete();
+		failJoin(b, null, m, runner, new NullPointerException("key"));
+		failJoin(b, "key", null, runner, new NullPointerException("member"));
+		failJoin(b, "key", m, null, new NullPointerException("runner"));
+
+		b.join("key", m, runner);
+		failJoin(b, "key", m, runner,
+				new IllegalArgumentException("member has already joined a batch"));
+		assertThat("incorrect result", m.await(), is(true));
+	}
+
+	private void failJoin(
+			final MashBatcher b,
+			final Object key,
+			final Member m,
+			final MashBatcher.BatchRunner runner,
+			final Exception expected) {
+		try {
+			b.join(key, m, runner);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void awaitFailNotJoined() throws Exception {
+		failAwait(member("id"), new IllegalStateException("member has not joined a batch"));
+	}
+
+	private void failAwait(final Member m, final Exception expected) {
+		try {
+			m.await();
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void cancel() throws Exception {
+		final MashBatcher b = new MashBatcher(10);
+		final CountDownLatch running = new CountDownLatch(1);
+		final AtomicBoolean interrupted = new AtomicBoolean(false);
+		final Member m = member("id");
+		b.join("key", m, members -> {
+			running.countDown();
+			try {
+				Thread.sleep(10000);
+			} catch (InterruptedException e) {
+				interrupted.set(true);
+			}
+			members.get(0).complete();
+		});
+		final Thread waiter = Thread.currentThread();
+		final Thread canceller = new Thread(() -> {
+			try {
+				running.await();
+			} catch (InterruptedException e) {
+				// nothing to do
+			}
+			waiter.interrupt();
+		});
+		canceller.start();
+		try {
+			m.await();
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new MinHashException("Search cancelled while waiting for mash to run"));
+		}
+		// clear the interrupt set by await()
+		assertThat("incorrect interrupt", Thread.interrupted(), is(true));
+		assertThat("incorrect done", m.isDone(), is(true));
+		final long start = System.nanoTime();
+		while (!interrupted.get() &&
+				System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5)) {
+			Thread.sleep(10);
+		}
+		// the last search in the batch was cancelled, so the runner is interrupted
+		assertThat("runner not interrupted", interrupted.get(), is(true));
+	}
+
+}
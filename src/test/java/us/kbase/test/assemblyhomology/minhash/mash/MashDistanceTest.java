@@ -0,0 +1,356 @@
+package us.kbase.test.assemblyhomology.minhash.mash;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import us.kbase.assemblyhomology.minhash.mash.MashDistance;
+import us.kbase.test.assemblyhomology.TestCommon;
+
+public class MashDistanceTest {
+
+	private static final long[] EMPTY = new long[0];
+
+	@Test
+	public void identical() throws Exception {
+		final long[] s = new long[] {1, 2, 3, 4};
+		assertThat("incorrect dist", MashDistance.distance(s, s, 4, 21), is(0.0));
+		assertThat("incorrect dist", MashDistance.distance(EMPTY, EMPTY, 4, 21), is(0.0));
+	}
+
+	@Test
+	public void disjoint() throws Exception {
+		assertThat("incorrect dist", MashDistance.distance(
+				new long[] {1, 3, 5}, new long[] {2, 4, 6}, 3, 21), is(1.0));
+		assertThat("incorrect dist", MashDistance.distance(
+				new long[] {1, 3, 5}, EMPTY, 3, 21), is(1.0));
+	}
+
+	@Test
+	public void partialOverlap() throws Exception {
+		// jaccard 2/4, sketch full after 4 comparisons
+		assertThat("incorrect dist", MashDistance.distance(
+				new long[] {1, 2, 3, 4}, new long[] {1, 2, 5, 6}, 4, 21),
+				is(0.019307862290864973));
+		// sketch size limits the merge
+		assertThat("incorrect dist", MashDistance.distance(
+				new long[] {1, 2, 3, 4, 7}, new long[] {1, 2, 5, 6, 7}, 4, 21),
+				is(0.019307862290864973));
+	}
+
+	@Test
+	public void completeUnion() throws Exception {
+		// the union is completed from the remainder of the query sketch and capped at the
+		// sketch size, so jaccard is 2/4
+		assertThat("incorrect dist", MashDistance.distance(
+				new long[] {1, 2}, new long[] {1, 2, 3, 4, 5}, 4, 21),
+				is(0.019307862290864973));
+		assertThat("incorrect dist", MashDistance.distance(
+				new long[] {1, 2, 3, 4, 5}, new long[] {1, 2}, 4, 21),
+				is(0.019307862290864973));
+		// union is smaller than the sketch size
+		assertThat("incorrect dist", MashDistance.distance(
+				new long[] {1, 2}, new long[] {1, 2, 3, 4}, 10, 21),
+				is(0.019307862290864973));
+	}
+
+	@Test
+	public void unsignedOrder() throws Exception {
+		// -1 is the largest unsigned hash, so sorts after 1
+		assertThat("incorrect dist", MashDistance.distance(
+				new long[] {1, -1}, new long[] {-1}, 2, 21), is(0.019307862290864973));
+	}
+
+	@Test
+	public void withLengths() throws Exception {
+		// trailing buffer contents are ignored
+		assertThat("incorrect dist", MashDistance.distance(
+				new long[] {1, -1, 5, 6}, 2, new long[] {-1, 7}, 1, 2, 21),
+				is(0.019307862290864973));
+		assertThat("incorrect dist", MashDistance.distance(
+				new long[] {1, 2, 3}, 0, new long[] {1, 2, 3}, 3, 3, 21), is(1.0));
+	}
+
+	@Test
+	public void fromCounts() throws Exception {
+		assertThat("incorrect dist", MashDistance.distance(10, 10, 21), is(0.0));
+		assertThat("incorrect dist", MashDistance.distance(0, 10, 21), is(1.0));
+		assertThat("incorrect dist", MashDistance.distance(900, 1000, 31),
+				is(0.0017441039119443775));
+		// capped at 1
+		assertThat("incorrect dist", MashDistance.distance(1, 1000, 1), is(1.0));
+	}
+
+	@Test
+	public void lowerBound() throws Exception {
+		assertThat("incorrect bound", MashDistance.lowerBound(0, 10, 10, 10, 21), is(1.0));
+		assertThat("incorrect bound", MashDistance.lowerBound(10, 10, 10, 10, 21), is(0.0));
+		assertThat("incorrect bound", MashDistance.lowerBound(0, 0, 0, 10, 21), is(0.0));
+		// union of 1100 capped at the sketch size
+		assertThat("incorrect bound", MashDistance.lowerBound(900, 1000, 1000, 1000, 31),
+				is(MashDistance.distance(900, 1000, 31)));
+		// union of 3 smaller than the sketch size
+		assertThat("incorrect bound", MashDistance.lowerBound(1, 2, 2, 1000, 21),
+				is(MashDistance.distance(1, 3, 21)));
+		// more shared hashes than fit in the union sketch
+		assertThat("incorrect bound", MashDistance.lowerBound(3, 3, 3, 2, 21), is(0.0));
+	}
+
+	@Test
+	public void lowerBoundIsLower() throws Exception {
+		// the union sketch here only contains one of the two shared hashes
+		final long[] ref = new long[] {1, 2, 3, 10, 11};
+		final long[] query = new long[] {4, 5, 6, 10, 11};
+		final double dist = MashDistance.distance(ref, query, 4, 21);
+		assertThat("incorrect dist", dist, is(1.0));
+		assertThat("incorrect bound", MashDistance.lowerBound(2, 5, 5, 4, 21),
+				is(MashDistance.distance(2, 4, 21)));
+		assertThat("bound too high", MashDistance.lowerBound(2, 5, 5, 4, 21) <= dist, is(true));
+	}
+
+	@Test
+	public void lowerBoundFail() throws Exception {
+		failLowerBound(-1, 1, 1, 1, 1,
+				new IllegalArgumentException("Illegal shared hash count: -1"));
+		failLowerBound(2, 1, 2, 1, 1,
+				new IllegalArgumentException("Illegal shared hash count: 2"));
+		failLowerBound(2, 2, 1, 1, 1,
+				new IllegalArgumentException("Illegal shared hash count: 2"));
+		failLowerBound(1, 1, 1, 0, 1, new IllegalArgumentException("sketchSize must be > 0"));
+		failLowerBound(1, 1, 1, 1, 0, new IllegalArgumentException("kmerSize must be > 0"));
+	}
+
+	private void failLowerBound(
+			final int shared,
+			final int refLength,
+			final int queryLength,
+			final int sketchSize,
+			final int kmerSize,
+			final Exception expected) {
+		try {
+			MashDistance.lowerBound(shared, refLength, queryLength, sketchSize, kmerSize);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void bounded() throws Exception {
+		// 1000 hash sketches sharing every other hash
+		final long[] ref = new long[1000];
+		final long[] query = new long[1000];
+		for (int i = 0; i < 1000; i++) {
+			ref[i] = i * 2;
+			query[i] = i % 2 == 0 ? i * 2 : i * 2 + 1;
+		}
+		final double dist = MashDistance.distance(ref, query, 1000, 21);
+		assertThat("incorrect dist", MashDistance.distance(ref, 1000, query, 1000, 1000, 21,
+				dist), is(dist));
+		assertThat("incorrect dist", MashDistance.distance(ref, 1000, query, 1000, 1000, 21,
+				0.5), is(dist));
+		assertThat("incorrect dist", MashDistance.distance(ref, 1000, query, 1000, 1000, 21,
+				1), is(dist));
+		assertThat("incorrect dist", MashDistance.distance(ref, 1000, query, 1000, 1000, 21,
+				dist * 0.999), is(Double.POSITIVE_INFINITY));
+		assertThat("incorrect dist", MashDistance.distance(ref, 1000, query, 1000, 1000, 21,
+				0), is(Double.POSITIVE_INFINITY));
+		assertThat("incorrect dist", MashDistance.distance(ref, 1000, ref, 1000, 1000, 21,
+				0), is(0.0));
+
+		// disjoint sketches are abandoned early, but the result is the same
+		final long[] disjoint = new long[1000];
+		for (int i = 0; i < 1000; i++) {
+			disjoint[i] = i * 2 + 1;
+		}
+		assertThat("incorrect dist", MashDistance.distance(ref, 1000, disjoint, 1000, 1000, 21,
+				0.1), is(Double.POSITIVE_INFINITY));
+	}
+
+	@Test
+	public void mergeImplementation() throws Exception {
+		final String impl = MashDistance.getMergeImplementation();
+		assertThat("incorrect impl " + impl, impl.equals("scalar") || impl.equals("vector"),
+				is(true));
+	}
+
+	@Test
+	public void matchesSimpleMerge() throws Exception {
+		/* checks the merge implementation in use, which may process blocks of hashes, against a
+		 * plain merge for sketches with lengths and overlaps around typical block sizes.
+		 */
+		final Random rand = new Random(42);
+		for (int i = 0; i < 2000; i++) {
+			final long[] hashes = new long[1 + rand.nextInt(600)];
+			for (int j = 0; j < hashes.length; j++) {
+				hashes[j] = rand.nextLong();
+			}
+			final long[] ref = sample(hashes, rand);
+			final long[] query = sample(hashes, rand);
+			final int sketchSize = 1 + rand.nextInt(400);
+			final double expected = simpleDistance(ref, query, sketchSize, 21);
+			assertThat("incorrect dist", MashDistance.distance(ref, query, sketchSize, 21),
+					is(expected));
+			final double bound = rand.nextDouble() * 0.3;
+			assertThat("incorrect bounded dist", MashDistance.distance(ref, ref.length,
+					query, query.length, sketchSize, 21, bound),
+					is(expected > bound ? Double.POSITIVE_INFINITY : expected));
+		}
+	}
+
+	// sorted as unsigned values, as in sketches
+	private long[] sample(final long[] hashes, final Random rand) {
+		final int keep = rand.nextInt(hashes.length + 1);
+		final Long[] sample = new Long[keep];
+		int count = 0;
+		for (int i = 0; i < hashes.length && count < keep; i++) {
+			// keeps a random selection of hashes, biased towards the start
+			if (rand.nextInt(hashes.length - i) < keep - count + hashes.length / 10) {
+				sample[count++] = hashes[i];
+			}
+		}
+		final Long[] sorted = Arrays.copyOf(sample, count);
+		Arrays.sort(sorted, (a, b) -> Long.compareUnsigned(a, b));
+		final long[] ret = new long[count];
+		for (int i = 0; i < count; i++) {
+			ret[i] = sorted[i];
+		}
+		return ret;
+	}
+
+	private double simpleDistance(
+			final long[] ref,
+			final long[] query,
+			final int sketchSize,
+			final int kmerSize) {
+		int i = 0;
+		int j = 0;
+		int common = 0;
+		int denom = 0;
+		while (denom < sketchSize && (i < ref.length || j < query.length)) {
+			if (j == query.length ||
+					(i < ref.length && Long.compareUnsigned(ref[i], query[j]) < 0)) {
+				i++;
+			} else if (i == ref.length || Long.compareUnsigned(query[j], ref[i]) < 0) {
+				j++;
+			} else {
+				i++;
+				j++;
+				common++;
+			}
+			denom++;
+		}
+		return MashDistance.distance(common, denom, kmerSize);
+	}
+
+	@Test
+	public void boundedFail() throws Exception {
+		try {
+			MashDistance.distance(new long[1], 1, new long[1], 1, 1, 1, -0.1);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new IllegalArgumentException("maxDistance must be >= 0"));
+		}
+	}
+
+	@Test
+	public void getUnroundedBound() throws Exception {
+		assertThat("incorrect bound", MashDistance.getUnroundedBound(0), is(0.0));
+		for (final double d: new double[] {0.00236402, 0.1, 0.123456, 0.5}) {
+			final double bound = MashDistance.getUnroundedBound(d);
+			assertThat("bound too small", bound > d, is(true));
+			// anything over the bound rounds to more than the original
+			assertThat("bound too large", MashDistance.round(Math.nextUp(bound)) > d, is(true));
+		}
+	}
+
+	@Test
+	public void jaccard() throws Exception {
+		assertThat("incorrect jaccard", MashDistance.jaccard(0, 21), is(1.0));
+		assertThat("incorrect jaccard", MashDistance.jaccard(0.05, 31), is(0.1187233859726435));
+		// the inverse of distance()
+		final double j = MashDistance.jaccard(MashDistance.distance(900, 1000, 31), 31);
+		assertThat("incorrect jaccard", Math.abs(j - 0.9) < 1e-12, is(true));
+	}
+
+	@Test
+	public void jaccardFail() throws Exception {
+		failJaccard(-0.1, 1, new IllegalArgumentException("distance must be >= 0 and <= 1"));
+		failJaccard(1.1, 1, new IllegalArgumentException("distance must be >= 0 and <= 1"));
+		failJaccard(Double.NaN, 1,
+				new IllegalArgumentException("distance must be >= 0 and <= 1"));
+		failJaccard(0.5, 0, new IllegalArgumentException("kmerSize must be > 0"));
+	}
+
+	private void failJaccard(final double distance, final int kmerSize, final Exception expected) {
+		try {
+			MashDistance.jaccard(distance, kmerSize);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void round() throws Exception {
+		assertThat("incorrect round", MashDistance.round(0), is(0.0));
+		assertThat("incorrect round", MashDistance.round(1), is(1.0));
+		assertThat("incorrect round", MashDistance.round(0.019307862290864973), is(0.0193079));
+		assertThat("incorrect round", MashDistance.round(0.0017441039119443775), is(0.0017441));
+		assertThat("incorrect round", MashDistance.round(0.123456789), is(0.123457));
+	}
+
+	@Test
+	public void distanceFail() throws Exception {
+		failDistance(null, EMPTY, 1, 1, new NullPointerException("reference"));
+		failDistance(EMPTY, null, 1, 1, new NullPointerException("query"));
+		failDistance(EMPTY, EMPTY, 0, 1, new IllegalArgumentException("sketchSize must be > 0"));
+		failDistance(EMPTY, EMPTY, 1, 0, new IllegalArgumentException("kmerSize must be > 0"));
+	}
+
+	@Test
+	public void distanceWithLengthsFail() throws Exception {
+		final long[] a = new long[] {1, 2};
+		failDistance(null, 0, a, 0, new NullPointerException("reference"));
+		failDistance(a, 0, null, 0, new NullPointerException("query"));
+		failDistance(a, -1, a, 0, new IllegalArgumentException("Illegal referenceLength: -1"));
+		failDistance(a, 3, a, 0, new IllegalArgumentException("Illegal referenceLength: 3"));
+		failDistance(a, 0, a, -1, new IllegalArgumentException("Illegal queryLength: -1"));
+		failDistance(a, 0, a, 3, new IllegalArgumentException("Illegal queryLength: 3"));
+	}
+
+	private void failDistance(
+			final long[] ref,
+			final int refLength,
+			final long[] query,
+			final int queryLength,
+			final Exception expected) {
+		try {
+			MashDistance.distance(ref, refLength, query, queryLength, 2, 21);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	private void failDistance(
+			final long[] ref,
+			final long[] query,
+			final int sketchSize,
+			final int kmerSize,
+			final Exception expected) {
+		try {
+			MashDistance.distance(ref, query, sketchSize, kmerSize);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+}
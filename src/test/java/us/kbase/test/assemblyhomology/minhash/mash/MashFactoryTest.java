@@ -2,6 +2,7 @@ package us.kbase.test.assemblyhomology.minhash.mash;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -34,10 +35,18 @@ public class MashFactoryTest {
 	public void getImplementation() throws Exception {
 		final Path temp = TestCommon.getTempDir();
 		
-		final Mash impl = (Mash) new MashFactory().getImplementation(temp, 30);
+		final MashFactory fac = new MashFactory();
+		final Mash impl = (Mash) fac.getImplementation(temp, 30);
 		
 		assertThat("incorrect temp dir", impl.getTemporaryFileDirectory(), is(temp));
 		assertThat("incorrect timeout", impl.getMashTimeoutSec(), is(30));
+		assertThat("incorrect concurrency", impl.isConcurrent(), is(true));
+		assertThat("incorrect batcher", impl.getBatcher(), is(Optional.absent()));
+		// implementations share the factory's budget
+		assertThat("incorrect budget", impl.getThreadBudget(),
+				is(Optional.of(fac.getThreadBudget())));
+		assertThat("incorrect budget", ((Mash) fac.getImplementation(temp, 30)).getThreadBudget(),
+				is(Optional.of(fac.getThreadBudget())));
 		assertThat("incorrect info", impl.getImplementationInformation(),
 				is(new MinHashImplementationInformation(
 						new MinHashImplementationName("mash"),
@@ -45,4 +54,53 @@ public class MashFactoryTest {
 						Paths.get("msh"))));
 	}
 	
+	@Test
+	public void batchWindow() throws Exception {
+		assertThat("incorrect batcher", new MashFactory().getBatcher(), is(Optional.absent()));
+		assertThat("incorrect batcher", new MashFactory(4, 0).getBatcher(),
+				is(Optional.absent()));
+		
+		final MashFactory fac = new MashFactory(4, 50);
+		assertThat("incorrect window", fac.getBatcher().get().getWindowMS(), is(50L));
+		// implementations share the factory's batcher
+		final Mash impl = (Mash) fac.getImplementation(TestCommon.getTempDir(), 30);
+		assertThat("incorrect batcher", impl.getBatcher(), is(fac.getBatcher()));
+	}
+	
+	@Test
+	public void getRunningProcessCount() throws Exception {
+		assertThat("incorrect process count", new MashFactory().getRunningProcessCount(),
+				is(0));
+	}
+	
+	@Test
+	public void parallelism() throws Exception {
+		assertThat("incorrect parallelism", new MashFactory().getParallelism(),
+				is(Runtime.getRuntime().availableProcessors()));
+		assertThat("incorrect parallelism", new MashFactory(1).getParallelism(), is(1));
+		assertThat("incorrect parallelism", new MashFactory(32).getParallelism(), is(32));
+		assertThat("incorrect threads", new MashFactory().getThreadBudget().getThreads(),
+				is(Runtime.getRuntime().availableProcessors()));
+		assertThat("incorrect threads", new MashFactory(6).getThreadBudget().getThreads(),
+				is(6));
+	}
+	
+	@Test
+	public void constructFail() throws Exception {
+		try {
+			new MashFactory(0);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new IllegalArgumentException("parallelism must be > 0"));
+		}
+		try {
+			new MashFactory(1, -1);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new IllegalArgumentException("batchWindowMS must be >= 0"));
+		}
+	}
+	
 }
@@ -0,0 +1,220 @@
+package us.kbase.test.assemblyhomology.minhash.mash;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import us.kbase.assemblyhomology.minhash.mash.MashHashIndex;
+import us.kbase.assemblyhomology.minhash.mash.MashSketchReader;
+import us.kbase.test.assemblyhomology.TestCommon;
+import us.kbase.test.assemblyhomology.data.TestDataManager;
+
+public class MashHashIndexTest {
+
+	private static Path TEMP_DIR;
+	private static final Path QUERY_K31_S1000 = Paths.get("kb_15792_446_1_k31_s1000.msh");
+	private static final Path QUERY_K31_S500 = Paths.get("kb_15792_446_1_k31_s500.msh");
+	private static final Path TARGET_4SEQS = Paths.get("kb_4seqs_k31_s1000.msh");
+	private static final Path TARGET_4SEQS_2 = Paths.get("kb_4seqs_k31_s1000_2.msh");
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		TEMP_DIR = TestCommon.getTempDir().resolve(
+				"MashHashIndexTest_" + UUID.randomUUID().toString());
+		Files.createDirectories(TEMP_DIR);
+		for (final Path f: Arrays.asList(QUERY_K31_S1000, QUERY_K31_S500)) {
+			TestDataManager.install(f, TEMP_DIR.resolve(f));
+		}
+	}
+
+	@AfterClass
+	public static void breakDown() throws Exception {
+		final boolean deleteTempFiles = TestCommon.isDeleteTempFiles();
+		if (TEMP_DIR != null && Files.exists(TEMP_DIR) && deleteTempFiles) {
+			FileUtils.deleteQuietly(TEMP_DIR.toFile());
+		}
+	}
+
+	// each test gets its own copy of the sketch DB so indexes don't interfere
+	private Path install(final Path file) throws Exception {
+		final Path dir = TEMP_DIR.resolve(UUID.randomUUID().toString());
+		Files.createDirectories(dir);
+		final Path target = dir.resolve(file);
+		TestDataManager.install(file, target);
+		return target;
+	}
+
+	@Test
+	public void getIndexPath() throws Exception {
+		assertThat("incorrect path", MashHashIndex.getIndexPath(Paths.get("/foo/bar.msh")),
+				is(Paths.get("/foo/bar.msh.hashindex")));
+		assertThat("incorrect path", MashHashIndex.getIndexPath(Paths.get("bar.msh")),
+				is(Paths.get("bar.msh.hashindex").toAbsolutePath()));
+	}
+
+	@Test
+	public void writeAndOpen() throws Exception {
+		checkIndex(TARGET_4SEQS, QUERY_K31_S1000);
+		checkIndex(TARGET_4SEQS_2, QUERY_K31_S1000);
+		checkIndex(TARGET_4SEQS, QUERY_K31_S500);
+		// the query sketch is one of the target sketches
+		checkIndex(QUERY_K31_S1000, QUERY_K31_S1000);
+	}
+
+	private void checkIndex(final Path target, final Path query) throws Exception {
+		final Path sketchDB = install(target);
+		final Path index = MashHashIndex.write(sketchDB);
+		assertThat("incorrect index path", index, is(MashHashIndex.getIndexPath(sketchDB)));
+		assertThat("no leftover temp files", Files.list(sketchDB.getParent()).count(), is(2L));
+
+		final Optional<MashHashIndex> i = MashHashIndex.open(sketchDB);
+		assertThat("no index", i.isPresent(), is(true));
+		final MashSketchReader r = MashSketchReader.open(sketchDB);
+		assertThat("incorrect sketch count", i.get().getSketchCount(), is(r.getSketchCount()));
+		final Set<Long> all = new HashSet<>();
+		for (int s = 0; s < r.getSketchCount(); s++) {
+			for (final long h: r.getHashes(s)) {
+				all.add(h);
+			}
+		}
+		assertThat("incorrect hash count", i.get().getHashCount(), is((long) all.size()));
+
+		final long[] q = MashSketchReader.open(TEMP_DIR.resolve(query)).getHashes(0);
+		final int[] expected = new int[r.getSketchCount()];
+		for (int s = 0; s < expected.length; s++) {
+			final Set<Long> hashes = new HashSet<>();
+			for (final long h: r.getHashes(s)) {
+				hashes.add(h);
+			}
+			for (final long h: q) {
+				if (hashes.contains(h)) {
+					expected[s]++;
+				}
+			}
+		}
+		assertThat("incorrect shared counts", i.get().countSharedHashes(q, q.length),
+				is(expected));
+	}
+
+	@Test
+	public void countSharedHashes() throws Exception {
+		final Path sketchDB = install(TARGET_4SEQS);
+		MashHashIndex.write(sketchDB);
+		final MashHashIndex i = MashHashIndex.open(sketchDB).get();
+		final long[] q = MashSketchReader.open(TEMP_DIR.resolve(QUERY_K31_S1000)).getHashes(0);
+
+		// the first sketch in the target is the same sequence as the query
+		assertThat("incorrect count", i.countSharedHashes(q, q.length)[0], is(1000));
+		assertThat("incorrect count", i.countSharedHashes(q, 10)[0], is(10));
+		assertThat("incorrect counts", i.countSharedHashes(q, 0), is(new int[4]));
+		assertThat("incorrect counts", i.countSharedHashes(new long[] {1, 2, 3}, 3),
+				is(new int[4]));
+	}
+
+	@Test
+	public void countSharedHashesFail() throws Exception {
+		final Path sketchDB = install(TARGET_4SEQS);
+		MashHashIndex.write(sketchDB);
+		final MashHashIndex i = MashHashIndex.open(sketchDB).get();
+		failCountSharedHashes(i, null, 0, new NullPointerException("query"));
+		failCountSharedHashes(i, new long[2], -1,
+				new IllegalArgumentException("Illegal queryLength: -1"));
+		failCountSharedHashes(i, new long[2], 3,
+				new IllegalArgumentException("Illegal queryLength: 3"));
+	}
+
+	private void failCountSharedHashes(
+			final MashHashIndex index,
+			final long[] query,
+			final int queryLength,
+			final Exception expected) {
+		try {
+			index.countSharedHashes(query, queryLength);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void openMissing() throws Exception {
+		final Path sketchDB = install(TARGET_4SEQS);
+		assertThat("incorrect index", MashHashIndex.open(sketchDB), is(Optional.absent()));
+	}
+
+	@Test
+	public void openStale() throws Exception {
+		final Path sketchDB = install(TARGET_4SEQS);
+		MashHashIndex.write(sketchDB);
+		Files.setLastModifiedTime(sketchDB, FileTime.fromMillis(
+				Files.getLastModifiedTime(sketchDB).toMillis() + 10000));
+		assertThat("incorrect index", MashHashIndex.open(sketchDB), is(Optional.absent()));
+	}
+
+	@Test
+	public void openWrongVersion() throws Exception {
+		openModified(8, new byte[] {2, 0, 0, 0});
+	}
+
+	@Test
+	public void openBadMagic() throws Exception {
+		openModified(0, "BADMAGIC".getBytes());
+	}
+
+	@Test
+	public void openCorruptHeader() throws Exception {
+		// posting count
+		openModified(40, new byte[] {5, 0, 0, 0, 0, 0, 0, 0});
+	}
+
+	private void openModified(final long position, final byte[] bytes) throws Exception {
+		final Path sketchDB = install(TARGET_4SEQS);
+		final Path index = MashHashIndex.write(sketchDB);
+		try (final FileChannel fc = FileChannel.open(index, StandardOpenOption.WRITE)) {
+			fc.write(ByteBuffer.wrap(bytes), position);
+		}
+		assertThat("incorrect index", MashHashIndex.open(sketchDB), is(Optional.absent()));
+	}
+
+	@Test
+	public void openTruncated() throws Exception {
+		final Path sketchDB = install(TARGET_4SEQS);
+		final Path index = MashHashIndex.write(sketchDB);
+		for (final long size: Arrays.asList(10000L, 63L, 0L)) {
+			try (final FileChannel fc = FileChannel.open(index, StandardOpenOption.WRITE)) {
+				fc.truncate(size);
+			}
+			assertThat("incorrect index", MashHashIndex.open(sketchDB), is(Optional.absent()));
+		}
+	}
+
+	@Test
+	public void writeFail() throws Exception {
+		try {
+			MashHashIndex.write(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("sketchDB"));
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+package us.kbase.test.assemblyhomology.minhash.mash;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import us.kbase.assemblyhomology.minhash.mash.MashLSHIndex;
+import us.kbase.assemblyhomology.minhash.mash.MashLSHIndex.Banding;
+import us.kbase.assemblyhomology.minhash.mash.MashSketchCache;
+import us.kbase.assemblyhomology.minhash.mash.MashSketchReader;
+import us.kbase.test.assemblyhomology.TestCommon;
+import us.kbase.test.assemblyhomology.data.TestDataManager;
+
+public class MashLSHIndexTest {
+
+	private static Path TEMP_DIR;
+	private static final Path QUERY_K31_S1000 = Paths.get("kb_15792_446_1_k31_s1000.msh");
+	private static final Path TARGET_4SEQS = Paths.get("kb_4seqs_k31_s1000.msh");
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		TEMP_DIR = TestCommon.getTempDir().resolve(
+				"MashLSHIndexTest_" + UUID.randomUUID().toString());
+		Files.createDirectories(TEMP_DIR);
+		for (final Path f: Arrays.asList(QUERY_K31_S1000, TARGET_4SEQS)) {
+			TestDataManager.install(f, TEMP_DIR.resolve(f));
+		}
+	}
+
+	@AfterClass
+	public static void breakDown() throws Exception {
+		final boolean deleteTempFiles = TestCommon.isDeleteTempFiles();
+		if (TEMP_DIR != null && Files.exists(TEMP_DIR) && deleteTempFiles) {
+			FileUtils.deleteQuietly(TEMP_DIR.toFile());
+		}
+	}
+
+	private MashLSHIndex getIndex() throws Exception {
+		return new MashLSHIndex(new MashSketchCache().get(TEMP_DIR.resolve(TARGET_4SEQS)));
+	}
+
+	@Test
+	public void getSignatureLength() throws Exception {
+		assertThat("incorrect length", MashLSHIndex.getSignatureLength(1), is(1));
+		assertThat("incorrect length", MashLSHIndex.getSignatureLength(15), is(1));
+		assertThat("incorrect length", MashLSHIndex.getSignatureLength(16), is(2));
+		assertThat("incorrect length", MashLSHIndex.getSignatureLength(1000), is(125));
+		assertThat("incorrect length", MashLSHIndex.getSignatureLength(10000), is(128));
+		assertThat("incorrect length", getIndex().getSignatureLength(), is(125));
+	}
+
+	@Test
+	public void getSignatureLengthFail() throws Exception {
+		try {
+			MashLSHIndex.getSignatureLength(0);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new IllegalArgumentException("sketchSize must be > 0"));
+		}
+	}
+
+	@Test
+	public void getBanding() throws Exception {
+		checkBanding(0.5, 0.95, 128, 3, 23);
+		checkBanding(0.9, 0.99, 128, 10, 11);
+		// low similarity needs single row bands
+		checkBanding(0.1, 0.95, 128, 1, 29);
+		// recall out of reach, use every bucket
+		checkBanding(0.01, 0.99, 128, 1, 128);
+		checkBanding(1, 0.5, 10, 10, 1);
+	}
+
+	private void checkBanding(
+			final double jaccard,
+			final double recall,
+			final int signatureLength,
+			final int rows,
+			final int bands) {
+		final Banding b = MashLSHIndex.getBanding(jaccard, recall, signatureLength);
+		assertThat("incorrect rows", b.getRows(), is(rows));
+		assertThat("incorrect bands", b.getBands(), is(bands));
+		assertThat("bands exceed signature", rows * bands <= signatureLength, is(true));
+		if (bands < signatureLength) {
+			assertThat("recall too low", b.getRecall(jaccard) >= recall, is(true));
+		}
+	}
+
+	@Test
+	public void getBandingFail() throws Exception {
+		failGetBanding(0, 0.5, 1, new IllegalArgumentException("jaccard must be > 0 and <= 1"));
+		failGetBanding(1.1, 0.5, 1,
+				new IllegalArgumentException("jaccard must be > 0 and <= 1"));
+		failGetBanding(0.5, 0, 1, new IllegalArgumentException("recall must be > 0 and < 1"));
+		failGetBanding(0.5, 1, 1, new IllegalArgumentException("recall must be > 0 and < 1"));
+		failGetBanding(0.5, 0.5, 0,
+				new IllegalArgumentException("signatureLength must be > 0"));
+	}
+
+	private void failGetBanding(
+			final double jaccard,
+			final double recall,
+			final int signatureLength,
+			final Exception expected) {
+		try {
+			MashLSHIndex.getBanding(jaccard, recall, signatureLength);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void getCandidates() throws Exception {
+		final MashLSHIndex i = getIndex();
+		final long[] q = MashSketchReader.open(TEMP_DIR.resolve(QUERY_K31_S1000)).getHashes(0);
+
+		// the first sketch in the target is the same sequence as the query
+		final Banding all = MashLSHIndex.getBanding(1, 0.5, 125);
+		assertThat("incorrect candidates", i.getCandidates(q, q.length, all), is(new int[] {0}));
+		final Banding low = MashLSHIndex.getBanding(0.1, 0.99, 125);
+		final int[] candidates = i.getCandidates(q, q.length, low);
+		assertThat("missing query", candidates[0], is(0));
+		final int[] sorted = Arrays.copyOf(candidates, candidates.length);
+		Arrays.sort(sorted);
+		assertThat("unsorted candidates", candidates, is(sorted));
+		// tables built for the banding above are reused
+		assertThat("incorrect candidates", i.getCandidates(q, q.length, low), is(candidates));
+
+		assertThat("incorrect candidates", i.getCandidates(q, 0, low), is(new int[0]));
+		assertThat("incorrect candidates", i.getCandidates(new long[] {1, 2, 3}, 3, low),
+				is(new int[0]));
+	}
+
+	@Test
+	public void getCandidatesFail() throws Exception {
+		final MashLSHIndex i = getIndex();
+		final Banding b = MashLSHIndex.getBanding(0.5, 0.5, 125);
+		failGetCandidates(i, null, 0, b, new NullPointerException("query"));
+		failGetCandidates(i, new long[2], 0, null, new NullPointerException("banding"));
+		failGetCandidates(i, new long[2], -1, b,
+				new IllegalArgumentException("Illegal queryLength: -1"));
+		failGetCandidates(i, new long[2], 3, b,
+				new IllegalArgumentException("Illegal queryLength: 3"));
+		failGetCandidates(i, new long[2], 2, MashLSHIndex.getBanding(1, 0.5, 126),
+				new IllegalArgumentException(
+						"Banding of 126 rows by 1 bands exceeds signature length 125"));
+	}
+
+	private void failGetCandidates(
+			final MashLSHIndex index,
+			final long[] query,
+			final int queryLength,
+			final Banding banding,
+			final Exception expected) {
+		try {
+			index.getCandidates(query, queryLength, banding);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		try {
+			new MashLSHIndex(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("sketches"));
+		}
+	}
+
+}
@@ -0,0 +1,197 @@
+package us.kbase.test.assemblyhomology.minhash.mash;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import us.kbase.assemblyhomology.minhash.exceptions.MinHashDistanceFilterException;
+import us.kbase.assemblyhomology.minhash.mash.MashOutputReader;
+import us.kbase.assemblyhomology.minhash.mash.MashOutputReader.FieldIndex;
+import us.kbase.test.assemblyhomology.TestCommon;
+
+public class MashOutputReaderTest {
+
+	private static InputStream toStream(final String s) {
+		return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		failConstruct(null, 1, new NullPointerException("input"));
+		failConstruct(toStream("foo"), 0, new IllegalArgumentException("bufferSize must be > 0"));
+	}
+
+	private void failConstruct(
+			final InputStream input,
+			final int bufferSize,
+			final Exception expected) {
+		try {
+			new MashOutputReader(input, bufferSize);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void readLines() throws Exception {
+		final String output = "ref1\tquery1\t0.00236402\t0\t986/1000\n" +
+				"\n" +
+				"  ref2 \t query1  0.5 \r\n" +
+				"rëf3\tquery2\t1e-05\t0.99\t0/1000";
+		for (final int bufferSize: Arrays.asList(1, 3, 8, 1000)) {
+			final List<String> lines = new LinkedList<>();
+			final List<List<String>> fields = new LinkedList<>();
+			new MashOutputReader(toStream(output), bufferSize).read(l -> {
+				lines.add(l.toString());
+				final List<String> f = new LinkedList<>();
+				for (int i = 0; i < l.getFieldCount(); i++) {
+					f.add(l.getField(i));
+				}
+				fields.add(f);
+			});
+			assertThat("incorrect lines", lines, is(Arrays.asList(
+					"ref1\tquery1\t0.00236402\t0\t986/1000",
+					"",
+					"  ref2 \t query1  0.5 ",
+					"rëf3\tquery2\t1e-05\t0.99\t0/1000")));
+			assertThat("incorrect fields", fields, is(Arrays.asList(
+					Arrays.asList("ref1", "query1", "0.00236402", "0", "986/1000"),
+					Arrays.asList(),
+					Arrays.asList("ref2", "query1", "0.5"),
+					Arrays.asList("rëf3", "query2", "1e-05", "0.99", "0/1000"))));
+		}
+	}
+
+	@Test
+	public void readEmpty() throws Exception {
+		final List<String> lines = new LinkedList<>();
+		new MashOutputReader(toStream("")).read(l -> lines.add(l.toString()));
+		assertThat("incorrect lines", lines, is(Arrays.asList()));
+	}
+
+	@Test
+	public void readFail() throws Exception {
+		try {
+			new MashOutputReader(toStream("foo\nbar")).read(l -> {
+				throw new MinHashDistanceFilterException("oh no " + l.getField(0));
+			});
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new MinHashDistanceFilterException("oh no foo"));
+		}
+		try {
+			new MashOutputReader(toStream("foo")).read(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("collector"));
+		}
+	}
+
+	@Test
+	public void getDouble() throws Exception {
+		final List<String> numbers = Arrays.asList("0", "-0", "1", "0.5", ".5", "5.", "+3",
+				"0.00236402", "0.0092130", "1e-05", "1.5E+10", "2.3e-300", "1e22", "1e23",
+				"9007199254740993", "123456789012345678901234567890", "4.9e-324",
+				"1.7976931348623157e308", "Infinity", "-NaN", "1f", "0x1p3");
+		final StringBuilder output = new StringBuilder();
+		for (final String n: numbers) {
+			output.append("ref\tquery\t").append(n).append("\n");
+		}
+		final List<Double> got = new LinkedList<>();
+		new MashOutputReader(toStream(output.toString())).read(l -> got.add(l.getDouble(2)));
+		for (int i = 0; i < numbers.size(); i++) {
+			// compare bits to distinguish -0 and 0
+			assertThat("incorrect number for " + numbers.get(i),
+					Double.doubleToRawLongBits(got.get(i)),
+					is(Double.doubleToRawLongBits(Double.parseDouble(numbers.get(i)))));
+		}
+	}
+
+	@Test
+	public void getDoubleFail() throws Exception {
+		for (final String n: Arrays.asList("-", ".", "1e", "1e+", "1.2.3", "1e5x", "foo")) {
+			try {
+				new MashOutputReader(toStream("ref " + n)).read(l -> l.getDouble(1));
+				fail("expected exception");
+			} catch (NumberFormatException got) {
+				// the message depends on the JVM
+			}
+		}
+	}
+
+	@Test
+	public void getFieldFail() throws Exception {
+		final List<Exception> errors = new LinkedList<>();
+		new MashOutputReader(toStream(" ref\tquery ")).read(l -> {
+			for (final int field: Arrays.asList(-1, 2)) {
+				try {
+					l.getField(field);
+					fail("expected exception");
+				} catch (IllegalArgumentException e) {
+					errors.add(e);
+				}
+			}
+		});
+		TestCommon.assertExceptionCorrect(errors.get(0),
+				new IllegalArgumentException("No field -1 in line:  ref\tquery "));
+		TestCommon.assertExceptionCorrect(errors.get(1),
+				new IllegalArgumentException("No field 2 in line:  ref\tquery "));
+	}
+
+	@Test
+	public void fieldIndex() throws Exception {
+		final Map<String, Integer> values = ImmutableMap.of(
+				"query1", 1, "query2", 2, "quëry3", 3, "q", 4);
+		final FieldIndex<Integer> index = new FieldIndex<>(values);
+		final List<Integer> got = new LinkedList<>();
+		new MashOutputReader(toStream("r query2\nr quëry3\nr query1\nr query\nr q\nr query12"))
+				.read(l -> got.add(index.get(l, 1)));
+		assertThat("incorrect values", got, is(Arrays.asList(2, 3, 1, null, 4, null)));
+
+		final FieldIndex<Integer> empty = new FieldIndex<>(ImmutableMap.of());
+		got.clear();
+		new MashOutputReader(toStream("r query1")).read(l -> got.add(empty.get(l, 0)));
+		assertThat("incorrect values", got, is(Arrays.asList((Integer) null)));
+	}
+
+	@Test
+	public void fieldIndexFail() throws Exception {
+		try {
+			new FieldIndex<Integer>(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("values"));
+		}
+		final FieldIndex<Integer> index = new FieldIndex<>(ImmutableMap.of("q", 1));
+		final List<Exception> errors = new LinkedList<>();
+		new MashOutputReader(toStream("r q")).read(l -> {
+			try {
+				index.get(null, 0);
+			} catch (Exception e) {
+				errors.add(e);
+			}
+			try {
+				index.get(l, 2);
+			} catch (Exception e) {
+				errors.add(e);
+			}
+		});
+		TestCommon.assertExceptionCorrect(errors.get(0), new NullPointerException("line"));
+		TestCommon.assertExceptionCorrect(errors.get(1),
+				new IllegalArgumentException("No field 2 in line: r q"));
+	}
+
+}
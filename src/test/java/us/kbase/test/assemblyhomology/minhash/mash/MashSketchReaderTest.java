@@ -0,0 +1,225 @@
+package us.kbase.test.assemblyhomology.minhash.mash;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import us.kbase.assemblyhomology.minhash.MinHashParameters;
+import us.kbase.assemblyhomology.minhash.exceptions.NotASketchException;
+import us.kbase.assemblyhomology.minhash.mash.MashSketchReader;
+import us.kbase.test.assemblyhomology.TestCommon;
+import us.kbase.test.assemblyhomology.data.TestDataManager;
+
+public class MashSketchReaderTest {
+
+	private static Path TEMP_DIR;
+	private static Path EMPTY_FILE;
+	private static final Path QUERY_K21_S1000 = Paths.get("kb_15792_446_1_k21_s1000.msh");
+	private static final Path QUERY_K31_S1000 = Paths.get("kb_15792_446_1_k31_s1000.msh");
+	private static final Path QUERY_K31_S500 = Paths.get("kb_15792_446_1_k31_s500.msh");
+	private static final Path QUERY_K31_S1000_SEED43 = Paths.get(
+			"kb_15792_446_1_k31_s1000_seed43.msh");
+	private static final Path QUERY_K31_S1000_ACGU = Paths.get(
+			"kb_15792_446_1_k31_s1000_ACGU.msh");
+	private static final Path TARGET_4SEQS = Paths.get("kb_4seqs_k31_s1000.msh");
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		TEMP_DIR = TestCommon.getTempDir().resolve(
+				"MashSketchReaderTest_" + UUID.randomUUID().toString());
+		Files.createDirectories(TEMP_DIR);
+		for (final Path f: Arrays.asList(
+				QUERY_K21_S1000, QUERY_K31_S1000, QUERY_K31_S500, QUERY_K31_S1000_SEED43,
+				QUERY_K31_S1000_ACGU, TARGET_4SEQS)) {
+			TestDataManager.install(f, TEMP_DIR.resolve(f));
+		}
+		EMPTY_FILE = TEMP_DIR.resolve(UUID.randomUUID().toString() + ".msh");
+		Files.createFile(EMPTY_FILE);
+	}
+
+	@AfterClass
+	public static void breakDown() throws Exception {
+		final boolean deleteTempFiles = TestCommon.isDeleteTempFiles();
+		if (TEMP_DIR != null && Files.exists(TEMP_DIR) && deleteTempFiles) {
+			FileUtils.deleteQuietly(TEMP_DIR.toFile());
+		}
+	}
+
+	@Test
+	public void openSingleSketch() throws Exception {
+		final MashSketchReader r = MashSketchReader.open(TEMP_DIR.resolve(QUERY_K21_S1000));
+
+		assertThat("incorrect kmer", r.getKmerSize(), is(21));
+		assertThat("incorrect sketch size", r.getSketchSize(), is(1000));
+		assertThat("incorrect seed", r.getHashSeed(), is(42));
+		assertThat("incorrect alphabet", r.getAlphabet(), is("ACGT"));
+		assertThat("incorrect params", r.getParameters(),
+				is(MinHashParameters.getBuilder(21).withSketchSize(1000).build()));
+		assertThat("incorrect count", r.getSketchCount(), is(1));
+		assertThat("incorrect id", r.getSketchID(0), is("15792_446_1"));
+		assertThat("incorrect ids", r.getSketchIDs(), is(Arrays.asList("15792_446_1")));
+	}
+
+	@Test
+	public void openNonDefaultSeedAndAlphabet() throws Exception {
+		final MashSketchReader r = MashSketchReader.open(TEMP_DIR.resolve(QUERY_K31_S1000_SEED43));
+		assertThat("incorrect seed", r.getHashSeed(), is(43));
+		assertThat("incorrect alphabet", r.getAlphabet(), is("ACGT"));
+
+		final MashSketchReader a = MashSketchReader.open(TEMP_DIR.resolve(QUERY_K31_S1000_ACGU));
+		assertThat("incorrect seed", a.getHashSeed(), is(42));
+		assertThat("incorrect alphabet", a.getAlphabet(), is("ACGU"));
+	}
+
+	@Test
+	public void openMultipleSketchesMultipleSegments() throws Exception {
+		final MashSketchReader r = MashSketchReader.open(TEMP_DIR.resolve(TARGET_4SEQS));
+
+		assertThat("incorrect params", r.getParameters(),
+				is(MinHashParameters.getBuilder(31).withSketchSize(1000).build()));
+		assertThat("incorrect count", r.getSketchCount(), is(4));
+		assertThat("incorrect ids", r.getSketchIDs(), is(Arrays.asList(
+				"15792_446_1", "15792_431_1", "15792_3029_1", "15792_341_2")));
+	}
+
+	@Test
+	public void readStream() throws Exception {
+		final MashSketchReader r;
+		try (final InputStream is = Files.newInputStream(TEMP_DIR.resolve(QUERY_K31_S500))) {
+			r = MashSketchReader.read(is, "some stream");
+		}
+		assertThat("incorrect params", r.getParameters(),
+				is(MinHashParameters.getBuilder(31).withSketchSize(500).build()));
+		assertThat("incorrect ids", r.getSketchIDs(), is(Arrays.asList("15792_446_1")));
+
+		final MashSketchReader r2;
+		try (final InputStream is = Files.newInputStream(TEMP_DIR.resolve(TARGET_4SEQS))) {
+			r2 = MashSketchReader.read(is, "some stream");
+		}
+		assertThat("incorrect ids", r2.getSketchIDs(), is(Arrays.asList(
+				"15792_446_1", "15792_431_1", "15792_3029_1", "15792_341_2")));
+	}
+
+	@Test
+	public void getHashes() throws Exception {
+		final MashSketchReader q = MashSketchReader.open(TEMP_DIR.resolve(QUERY_K31_S1000));
+		final long[] qhashes = q.getHashes(0);
+		assertThat("incorrect hash count", qhashes.length, is(1000));
+		assertSorted(qhashes);
+		
+		final MashSketchReader r = MashSketchReader.open(TEMP_DIR.resolve(TARGET_4SEQS));
+		for (int i = 0; i < r.getSketchCount(); i++) {
+			assertThat("incorrect hash count", r.getHashes(i).length, is(1000));
+			assertThat("incorrect hash count", r.getHashCount(i), is(1000));
+			assertSorted(r.getHashes(i));
+		}
+		// the first sketch in the target is the same sequence as the query
+		assertThat("incorrect hashes", r.getHashes(0), is(qhashes));
+		
+		final MashSketchReader s = MashSketchReader.open(TEMP_DIR.resolve(QUERY_K31_S500));
+		final long[] shashes = s.getHashes(0);
+		assertThat("incorrect hash count", shashes.length, is(500));
+		assertThat("incorrect hashes", shashes, is(Arrays.copyOf(qhashes, 500)));
+	}
+	
+	private void assertSorted(final long[] hashes) {
+		for (int i = 1; i < hashes.length; i++) {
+			assertThat("hashes not sorted at " + i,
+					Long.compareUnsigned(hashes[i - 1], hashes[i]) < 0, is(true));
+		}
+	}
+
+	@Test
+	public void getSketchIDFail() throws Exception {
+		final MashSketchReader r = MashSketchReader.open(TEMP_DIR.resolve(TARGET_4SEQS));
+		for (final int i: Arrays.asList(-1, 4)) {
+			try {
+				r.getSketchID(i);
+				fail("expected exception");
+			} catch (Exception got) {
+				TestCommon.assertExceptionCorrect(got,
+						new IndexOutOfBoundsException("No sketch at index " + i));
+			}
+			try {
+				r.getHashes(i);
+				fail("expected exception");
+			} catch (Exception got) {
+				TestCommon.assertExceptionCorrect(got,
+						new IndexOutOfBoundsException("No sketch at index " + i));
+			}
+		}
+	}
+
+	@Test
+	public void openFail() throws Exception {
+		try {
+			MashSketchReader.open(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("sketchDB"));
+		}
+		try {
+			MashSketchReader.open(EMPTY_FILE);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NotASketchException(
+					EMPTY_FILE + ": Sketch data ends unexpectedly"));
+		}
+	}
+
+	@Test
+	public void readFail() throws Exception {
+		failRead(null, "s", new NullPointerException("sketchDB"));
+		failRead(new ByteArrayInputStream(new byte[0]), null,
+				new NullPointerException("sourceInfo"));
+		failRead(new ByteArrayInputStream(new byte[3]), "src",
+				new NotASketchException("src: Sketch data ends unexpectedly"));
+		// one segment, one word long, but no data
+		failRead(new ByteArrayInputStream(new byte[] {0, 0, 0, 0, 1, 0, 0, 0}), "src",
+				new NotASketchException("src: Sketch data ends unexpectedly"));
+		failRead(new ByteArrayInputStream(new byte[] {0, 0, 1, 0, 1, 0, 0, 0}), "src",
+				new NotASketchException("src: Illegal sketch segment count: 65537"));
+		// empty segment
+		failRead(new ByteArrayInputStream(new byte[8]), "src",
+				new NotASketchException("src: Sketch pointer is out of bounds"));
+		// null root pointer
+		failRead(new ByteArrayInputStream(new byte[] {0, 0, 0, 0, 1, 0, 0, 0,
+				0, 0, 0, 0, 0, 0, 0, 0}), "src",
+				new NotASketchException("src: Sketch has no root structure"));
+		// list pointer as the root
+		failRead(new ByteArrayInputStream(new byte[] {0, 0, 0, 0, 1, 0, 0, 0,
+				1, 0, 0, 0, 0, 0, 0, 0}), "src",
+				new NotASketchException("src: Expected a structure pointer in sketch"));
+		// root struct extends past the end of the segment
+		failRead(new ByteArrayInputStream(new byte[] {0, 0, 0, 0, 1, 0, 0, 0,
+				0, 0, 0, 0, 3, 0, 0, 0}), "src",
+				new NotASketchException("src: Sketch pointer is out of bounds"));
+		// root struct with a zero kmer size
+		failRead(new ByteArrayInputStream(new byte[] {0, 0, 0, 0, 2, 0, 0, 0,
+				0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}), "src",
+				new NotASketchException("src: Illegal kmer size: 0"));
+	}
+
+	private void failRead(final InputStream is, final String source, final Exception expected) {
+		try {
+			MashSketchReader.read(is, source);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+}
@@ -0,0 +1,220 @@
+package us.kbase.test.assemblyhomology.minhash.mash;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage.Storage;
+import us.kbase.assemblyhomology.minhash.MinHashParameters;
+import us.kbase.assemblyhomology.minhash.exceptions.NotASketchException;
+import us.kbase.assemblyhomology.minhash.mash.MashSketchReader;
+import us.kbase.assemblyhomology.minhash.mash.MashSketchStore;
+import us.kbase.assemblyhomology.minhash.mash.MashSketches;
+import us.kbase.test.assemblyhomology.TestCommon;
+import us.kbase.test.assemblyhomology.data.TestDataManager;
+
+public class MashSketchStoreTest {
+
+	private static Path TEMP_DIR;
+	private static final Path TARGET_4SEQS = Paths.get("kb_4seqs_k31_s1000.msh");
+	private static final Path QUERY_K21_S1000 = Paths.get("kb_15792_446_1_k21_s1000.msh");
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		TEMP_DIR = TestCommon.getTempDir().resolve(
+				"MashSketchStoreTest_" + UUID.randomUUID().toString());
+		Files.createDirectories(TEMP_DIR);
+	}
+
+	@AfterClass
+	public static void breakDown() throws Exception {
+		final boolean deleteTempFiles = TestCommon.isDeleteTempFiles();
+		if (TEMP_DIR != null && Files.exists(TEMP_DIR) && deleteTempFiles) {
+			FileUtils.deleteQuietly(TEMP_DIR.toFile());
+		}
+	}
+
+	// each test gets its own copy of the sketch DB so stores don't interfere
+	private Path install(final Path file) throws Exception {
+		final Path dir = TEMP_DIR.resolve(UUID.randomUUID().toString());
+		Files.createDirectories(dir);
+		final Path target = dir.resolve(file);
+		TestDataManager.install(file, target);
+		return target;
+	}
+
+	@Test
+	public void getStorePath() throws Exception {
+		assertThat("incorrect path", MashSketchStore.getStorePath(Paths.get("/foo/bar.msh")),
+				is(Paths.get("/foo/bar.msh.sketchstore")));
+		assertThat("incorrect path", MashSketchStore.getStorePath(Paths.get("bar.msh")),
+				is(Paths.get("bar.msh.sketchstore").toAbsolutePath()));
+	}
+
+	@Test
+	public void writeAndOpen() throws Exception {
+		checkStore(TARGET_4SEQS, 31, 4);
+		checkStore(QUERY_K21_S1000, 21, 1);
+	}
+
+	private void checkStore(final Path file, final int kmerSize, final int count)
+			throws Exception {
+		final Path sketchDB = install(file);
+		final Path store = MashSketchStore.write(sketchDB);
+		assertThat("incorrect store path", store, is(MashSketchStore.getStorePath(sketchDB)));
+		assertThat("no leftover temp files", Files.list(sketchDB.getParent()).count(), is(2L));
+
+		final Optional<MashSketches> s = MashSketchStore.open(sketchDB);
+		final MashSketchReader r = MashSketchReader.open(sketchDB);
+		assertThat("no store", s.isPresent(), is(true));
+		final MashSketches sk = s.get();
+		assertThat("incorrect params", sk.getParameters(),
+				is(MinHashParameters.getBuilder(kmerSize).withSketchSize(1000).build()));
+		assertThat("incorrect kmer size", sk.getKmerSize(), is(kmerSize));
+		assertThat("incorrect sketch size", sk.getSketchSize(), is(1000));
+		assertThat("incorrect count", sk.getSketchCount(), is(count));
+		assertThat("incorrect ids", sk.getSketchIDs(), is(r.getSketchIDs()));
+		final long[] buffer = new long[1000];
+		for (int i = 0; i < count; i++) {
+			assertThat("incorrect id", sk.getSketchID(i), is(r.getSketchID(i)));
+			assertThat("incorrect hash count", sk.getHashCount(i), is(1000));
+			assertThat("incorrect copied count", sk.getHashes(i, buffer), is(1000));
+			assertThat("incorrect hashes", buffer, is(r.getHashes(i)));
+		}
+		assertThat("incorrect memory", sk.getMemoryUsage(), is(new MinHashMemoryUsage(
+				Storage.MAPPED, count, count * 1000, count * 8000)));
+	}
+
+	@Test
+	public void rewrite() throws Exception {
+		final Path sketchDB = install(TARGET_4SEQS);
+		MashSketchStore.write(sketchDB);
+		final MashSketches s = MashSketchStore.open(sketchDB).get();
+		MashSketchStore.write(sketchDB);
+		final MashSketches s2 = MashSketchStore.open(sketchDB).get();
+		// the previous mapping is still readable after the store is replaced
+		assertThat("incorrect ids", s.getSketchIDs(), is(s2.getSketchIDs()));
+	}
+
+	@Test
+	public void openMissing() throws Exception {
+		final Path sketchDB = install(TARGET_4SEQS);
+		assertThat("incorrect store", MashSketchStore.open(sketchDB), is(Optional.absent()));
+	}
+
+	@Test
+	public void openStale() throws Exception {
+		final Path sketchDB = install(TARGET_4SEQS);
+		MashSketchStore.write(sketchDB);
+		Files.setLastModifiedTime(sketchDB, FileTime.fromMillis(
+				Files.getLastModifiedTime(sketchDB).toMillis() + 10000));
+		assertThat("incorrect store", MashSketchStore.open(sketchDB), is(Optional.absent()));
+	}
+
+	@Test
+	public void openWrongVersion() throws Exception {
+		openModified(8, new byte[] {2, 0, 0, 0});
+	}
+
+	@Test
+	public void openBadMagic() throws Exception {
+		openModified(0, "BADMAGIC".getBytes());
+	}
+
+	@Test
+	public void openCorruptHeader() throws Exception {
+		// sketch count
+		openModified(20, new byte[] {5, 0, 0, 0});
+	}
+
+	@Test
+	public void openCorruptTable() throws Exception {
+		// the second sketch starts after the third
+		openModified(64 + 16, new byte[] {0x40, 0x42, 0x0F, 0, 0, 0, 0, 0});
+	}
+
+	private void openModified(final long position, final byte[] bytes) throws Exception {
+		final Path sketchDB = install(TARGET_4SEQS);
+		final Path store = MashSketchStore.write(sketchDB);
+		try (final FileChannel fc = FileChannel.open(store, StandardOpenOption.WRITE)) {
+			fc.write(ByteBuffer.wrap(bytes), position);
+		}
+		assertThat("incorrect store", MashSketchStore.open(sketchDB), is(Optional.absent()));
+	}
+
+	@Test
+	public void openTruncated() throws Exception {
+		final Path sketchDB = install(TARGET_4SEQS);
+		final Path store = MashSketchStore.write(sketchDB);
+		for (final long size: Arrays.asList(10000L, 63L, 0L)) {
+			try (final FileChannel fc = FileChannel.open(store, StandardOpenOption.WRITE)) {
+				fc.truncate(size);
+			}
+			assertThat("incorrect store", MashSketchStore.open(sketchDB),
+					is(Optional.absent()));
+		}
+	}
+
+	@Test
+	public void indexFail() throws Exception {
+		final Path sketchDB = install(TARGET_4SEQS);
+		MashSketchStore.write(sketchDB);
+		final MashSketches s = MashSketchStore.open(sketchDB).get();
+		for (final int i: Arrays.asList(-1, 4)) {
+			try {
+				s.getSketchID(i);
+				fail("expected exception");
+			} catch (Exception got) {
+				TestCommon.assertExceptionCorrect(got,
+						new IndexOutOfBoundsException("No sketch at index " + i));
+			}
+			try {
+				s.getHashes(i, new long[1000]);
+				fail("expected exception");
+			} catch (Exception got) {
+				TestCommon.assertExceptionCorrect(got,
+						new IndexOutOfBoundsException("No sketch at index " + i));
+			}
+		}
+	}
+
+	@Test
+	public void writeFail() throws Exception {
+		try {
+			MashSketchStore.write(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("sketchDB"));
+		}
+		final Path notASketch = TEMP_DIR.resolve(UUID.randomUUID().toString() + ".msh");
+		Files.createFile(notASketch);
+		try {
+			MashSketchStore.write(notASketch);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NotASketchException(
+					notASketch + ": Sketch data ends unexpectedly"));
+		}
+		assertThat("store written", Files.exists(MashSketchStore.getStorePath(notASketch)),
+				is(false));
+	}
+
+}
@@ -17,6 +17,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import org.apache.commons.io.FileUtils;
@@ -25,6 +28,7 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 
 import us.kbase.assemblyhomology.minhash.DefaultDistanceCollector;
@@ -36,12 +40,17 @@ import us.kbase.assemblyhomology.minhash.MinHashDistanceFilter;
 import us.kbase.assemblyhomology.minhash.MinHashImplementationInformation;
 import us.kbase.assemblyhomology.minhash.MinHashImplementationName;
 import us.kbase.assemblyhomology.minhash.MinHashParameters;
+import us.kbase.assemblyhomology.minhash.MinHashSearchParameters;
 import us.kbase.assemblyhomology.minhash.MinHashSketchDBName;
 import us.kbase.assemblyhomology.minhash.MinHashSketchDatabase;
 import us.kbase.assemblyhomology.minhash.exceptions.IncompatibleSketchesException;
 import us.kbase.assemblyhomology.minhash.exceptions.MinHashException;
 import us.kbase.assemblyhomology.minhash.exceptions.NotASketchException;
+import us.kbase.assemblyhomology.minhash.mash.InProcessMash;
 import us.kbase.assemblyhomology.minhash.mash.Mash;
+import us.kbase.assemblyhomology.minhash.mash.MashBatcher;
+import us.kbase.assemblyhomology.minhash.mash.MashSketchCache;
+import us.kbase.assemblyhomology.minhash.mash.MashThreadBudget;
 import us.kbase.test.assemblyhomology.TestCommon;
 import us.kbase.test.assemblyhomology.data.TestDataManager;
 
@@ -51,6 +60,9 @@ public class MashTest {
 	private static Path MASH_TEMP_DIR;
 	private static Path EMPTY_FILE;
 	private static Path EMPTY_FILE_MSH;
+	private static ExecutorService EXECUTOR;
+	private static final MashThreadBudget BUDGET = new MashThreadBudget(2);
+	private static final MashBatcher BATCHER = new MashBatcher(200);
 	private static final Path QUERY_K21_S1000 = Paths.get("kb_15792_446_1_k21_s1000.msh");
 	private static final Path QUERY_K31_S1000 = Paths.get("kb_15792_446_1_k31_s1000.msh");
 	private static final Path QUERY_K31_S500 = Paths.get("kb_15792_446_1_k31_s500.msh");
@@ -72,10 +84,14 @@ public class MashTest {
 		
 		EMPTY_FILE_MSH = Paths.get(EMPTY_FILE.toString() + ".msh");
 		Files.createFile(EMPTY_FILE_MSH);
+		EXECUTOR = Executors.newFixedThreadPool(2);
 	}
 	
 	@AfterClass
 	public static void breakDown() throws Exception {
+		if (EXECUTOR != null) {
+			EXECUTOR.shutdownNow();
+		}
 		final boolean deleteTempFiles = TestCommon.isDeleteTempFiles();
 		if (TEMP_DIR != null && Files.exists(TEMP_DIR) && deleteTempFiles) {
 			FileUtils.deleteQuietly(TEMP_DIR.toFile());
@@ -86,6 +102,8 @@ public class MashTest {
 	public void ensureNoMashTempFiles() throws Exception {
 		final List<Path> files = Files.list(MASH_TEMP_DIR).collect(Collectors.toList());
 		assertThat("mash left temp files", files, is(Collections.emptyList()));
+		assertThat("mash left processes running", Mash.getRunningProcessCount(), is(0));
+		assertThat("mash left threads in use", BUDGET.getFreeThreads(), is(2));
 	}
 
 	@Test
@@ -100,10 +118,22 @@ public class MashTest {
 		final Mash m = new Mash(MASH_TEMP_DIR, 1);
 		assertThat("incorrect tempDir", m.getTemporaryFileDirectory(), is(MASH_TEMP_DIR));
 		assertThat("incorrect timeout", m.getMashTimeoutSec(), is(1));
+		assertThat("incorrect concurrency", m.isConcurrent(), is(false));
+		assertThat("incorrect budget", m.getThreadBudget(), is(Optional.absent()));
+		assertThat("incorrect batcher", m.getBatcher(), is(Optional.absent()));
 		assertThat("incorrect impl info", m.getImplementationInformation(),
 				is(new MinHashImplementationInformation(
 						// might need to be smarter about the version
 						new MinHashImplementationName("mash"), "2.0", Paths.get("msh"))));
+		
+		final Mash m2 = new Mash(MASH_TEMP_DIR, 1, EXECUTOR, BUDGET);
+		assertThat("incorrect concurrency", m2.isConcurrent(), is(true));
+		assertThat("incorrect budget", m2.getThreadBudget(), is(Optional.of(BUDGET)));
+		assertThat("incorrect batcher", m2.getBatcher(), is(Optional.absent()));
+		
+		final Mash m3 = new Mash(MASH_TEMP_DIR, 1, EXECUTOR, BUDGET, BATCHER);
+		assertThat("incorrect concurrency", m3.isConcurrent(), is(true));
+		assertThat("incorrect batcher", m3.getBatcher(), is(Optional.of(BATCHER)));
 	}
 	
 	@Test
@@ -123,6 +153,24 @@ public class MashTest {
 		} finally {
 			Files.delete(tempFile);
 		}
+		try {
+			new Mash(MASH_TEMP_DIR, 1, null, BUDGET);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("executor"));
+		}
+		try {
+			new Mash(MASH_TEMP_DIR, 1, EXECUTOR, null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("threadBudget"));
+		}
+		try {
+			new Mash(MASH_TEMP_DIR, 1, EXECUTOR, BUDGET, null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("batcher"));
+		}
 	}
 	
 	private void failConstruct(final Path tempDir, final int timeout, final Exception expected) {
@@ -181,7 +229,7 @@ public class MashTest {
 		
 		assertThat("incorrect mash output",
 				((NotASketchException) got).getMinHashErrorOutput().get(),
-				containsString("terminate called"));
+				containsString("Sketch data ends unexpectedly"));
 	}
 
 	private Exception failGetDatabase(
@@ -249,7 +297,7 @@ public class MashTest {
 		got = failGetSketchIDs(bad, new NotASketchException("mash could not read sketch"));
 		assertThat("incorrect mash output",
 				((NotASketchException) got).getMinHashErrorOutput().get(),
-				containsString("terminate called"));
+				containsString("Sketch data ends unexpectedly"));
 	}
 
 	private Exception failGetSketchIDs(final MinHashSketchDatabase db, final Exception expected) {
@@ -428,8 +476,22 @@ public class MashTest {
 		/* note that this also tests a buffered filter where the flush() call is required for
 		 * the filter to function. For the default filter the flush call does nothing.
 		 */
-		final Mash m = new Mash(MASH_TEMP_DIR, 30);
-		
+		computeDistanceTwoTargets(new Mash(MASH_TEMP_DIR, 30), targName1, targName2, query,
+				maxReturnCount, strict, expected, expectedWarnings);
+		computeDistanceTwoTargets(new Mash(MASH_TEMP_DIR, 30, EXECUTOR, BUDGET), targName1,
+				targName2, query, maxReturnCount, strict, expected, expectedWarnings);
+	}
+	
+	private void computeDistanceTwoTargets(
+			final Mash m,
+			final MinHashSketchDBName targName1,
+			final MinHashSketchDBName targName2,
+			final MinHashSketchDatabase query,
+			final int maxReturnCount,
+			final boolean strict,
+			final TreeSet<MinHashDistance> expected,
+			final List<String> expectedWarnings)
+			throws Exception {
 		final MinHashSketchDatabase target1 = new MinHashSketchDatabase(
 				targName1,
 				new MinHashImplementationName("mash"),
@@ -455,6 +517,145 @@ public class MashTest {
 		assertThat("incorrect warnings", dist, is(expectedWarnings));
 	}
 	
+	@Test
+	public void computeDistancesMultipleQueries() throws Exception {
+		computeDistancesMultipleQueries(MinHashSearchParameters.getBuilder().build());
+	}
+	
+	@Test
+	public void computeDistancesMaxDistance() throws Exception {
+		computeDistancesMultipleQueries(
+				MinHashSearchParameters.getBuilder().withMaxDistance(0.005).build());
+		computeDistancesMultipleQueries(
+				MinHashSearchParameters.getBuilder().withMaxDistance(0).build());
+	}
+	
+	private void computeDistancesMultipleQueries(final MinHashSearchParameters params)
+			throws Exception {
+		// the in process implementation produces the same distances as mash
+		final MinHashSketchDatabase query = new MinHashSketchDatabase(
+				new MinHashSketchDBName("myname"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(TEMP_DIR.resolve(TARGET_4SEQS)),
+				4);
+		final Map<MinHashSketchDatabase, List<MinHashDistanceFilter>> mashRefs = new HashMap<>();
+		final Map<MinHashSketchDatabase, List<MinHashDistanceFilter>> jvmRefs = new HashMap<>();
+		final List<MinHashDistanceCollector> mashCols = new LinkedList<>();
+		final List<MinHashDistanceCollector> jvmCols = new LinkedList<>();
+		for (int i = 0; i < 4; i++) {
+			mashCols.add(new DefaultDistanceCollector(100));
+			jvmCols.add(new DefaultDistanceCollector(100));
+		}
+		int n = 2;
+		for (final Path target: Arrays.asList(TARGET_4SEQS, TARGET_4SEQS_2)) {
+			final MinHashSketchDatabase t = new MinHashSketchDatabase(
+					new MinHashSketchDBName("myname" + n++),
+					new MinHashImplementationName("mash"),
+					MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+					new MinHashDBLocation(TEMP_DIR.resolve(target)),
+					4);
+			mashRefs.put(t, mashCols.stream().map(c -> new DefaultDistanceFilter(c))
+					.collect(Collectors.toList()));
+			jvmRefs.put(t, jvmCols.stream().map(c -> new DefaultDistanceFilter(c))
+					.collect(Collectors.toList()));
+		}
+		final Mash m = new Mash(MASH_TEMP_DIR, 7, EXECUTOR, BUDGET);
+		assertThat("incorrect multi query support", m.isMultipleQuerySearchSupported(),
+				is(true));
+		final List<String> warn = m.computeDistances(query, mashRefs, true, params);
+		new InProcessMash(new MashSketchCache()).computeDistances(query, jvmRefs, true, params);
+		
+		assertThat("incorrect warnings", warn, is(Collections.emptyList()));
+		for (int i = 0; i < 4; i++) {
+			assertThat("no self match", mashCols.get(i).getDistances().first().getDistance(),
+					is(0.0));
+			assertThat("incorrect distances for query " + i, mashCols.get(i).getDistances(),
+					is(jvmCols.get(i).getDistances()));
+			for (final MinHashDistance d: mashCols.get(i).getDistances()) {
+				assertThat("distance over max", d.getDistance() <=
+						params.getMaxDistance().or(0.5), is(true));
+			}
+		}
+	}
+
+	@Test
+	public void computeDistancesBatched() throws Exception {
+		/* three concurrent searches of the same reference. The first two have disjoint query IDs
+		 * and share a batch, the third shares a query ID with the first and so gets its own batch.
+		 */
+		final MinHashSketchDatabase ref = new MinHashSketchDatabase(
+				new MinHashSketchDBName("myname2"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(TEMP_DIR.resolve(TARGET_4SEQS)),
+				4);
+		final MinHashSketchDatabase single = new MinHashSketchDatabase(
+				new MinHashSketchDBName("myname"),
+				new MinHashImplementationName("mash"),
+				MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+				new MinHashDBLocation(TEMP_DIR.resolve(QUERY_K31_S1000)),
+				1);
+		final List<MinHashSketchDatabase> multis = new LinkedList<>();
+		for (final Path q: Arrays.asList(TARGET_4SEQS_2, TARGET_4SEQS)) {
+			multis.add(new MinHashSketchDatabase(
+					new MinHashSketchDBName("myname"),
+					new MinHashImplementationName("mash"),
+					MinHashParameters.getBuilder(31).withSketchSize(1000).build(),
+					new MinHashDBLocation(TEMP_DIR.resolve(q)),
+					4));
+		}
+		final MinHashSearchParameters params = MinHashSearchParameters.getBuilder()
+				.withMaxDistance(0.02).build();
+		final Mash m = new Mash(MASH_TEMP_DIR, 30, EXECUTOR, BUDGET, BATCHER);
+		final ExecutorService searches = Executors.newFixedThreadPool(3);
+		try {
+			final DefaultDistanceCollector singleCol = new DefaultDistanceCollector(100);
+			final List<Future<List<String>>> warnings = new LinkedList<>();
+			warnings.add(searches.submit(() -> m.computeDistance(
+					single, ImmutableMap.of(ref, new DefaultDistanceFilter(singleCol)), true)));
+			final List<List<MinHashDistanceCollector>> mashCols = new LinkedList<>();
+			final List<List<MinHashDistanceCollector>> jvmCols = new LinkedList<>();
+			for (final MinHashSketchDatabase query: multis) {
+				final List<MinHashDistanceCollector> mc = new LinkedList<>();
+				final List<MinHashDistanceCollector> jc = new LinkedList<>();
+				for (int i = 0; i < 4; i++) {
+					mc.add(new DefaultDistanceCollector(100));
+					jc.add(new DefaultDistanceCollector(100));
+				}
+				mashCols.add(mc);
+				jvmCols.add(jc);
+				warnings.add(searches.submit(() -> m.computeDistances(query,
+						ImmutableMap.of(ref, mc.stream().map(c -> new DefaultDistanceFilter(c))
+								.collect(Collectors.toList())),
+						true, params)));
+				new InProcessMash(new MashSketchCache()).computeDistances(query,
+						ImmutableMap.of(ref, jc.stream().map(c -> new DefaultDistanceFilter(c))
+								.collect(Collectors.toList())),
+						true, params);
+			}
+			for (final Future<List<String>> w: warnings) {
+				assertThat("incorrect warnings", w.get(), is(Collections.emptyList()));
+			}
+			final MinHashSketchDBName refName = new MinHashSketchDBName("myname2");
+			assertThat("incorrect distances", singleCol.getDistances(), is(new TreeSet<>(
+					Arrays.asList(
+							new MinHashDistance(refName, "15792_446_1", 0),
+							new MinHashDistance(refName, "15792_431_1", 0.00236402),
+							new MinHashDistance(refName, "15792_341_2", 0.00921302)))));
+			for (int q = 0; q < 2; q++) {
+				for (int i = 0; i < 4; i++) {
+					assertThat("incorrect distances for search " + q + " query " + i,
+							mashCols.get(q).get(i).getDistances(),
+							is(jvmCols.get(q).get(i).getDistances()));
+				}
+			}
+			assertThat("incorrect open batches", BATCHER.getOpenBatchCount(), is(0));
+		} finally {
+			searches.shutdownNow();
+		}
+	}
+
 	@Test
 	public void computeDistanceFailBasicInputs() throws Exception {
 		final MinHashSketchDatabase query = new MinHashSketchDatabase(
@@ -610,6 +811,14 @@ public class MashTest {
 		try {
 			new Mash(MASH_TEMP_DIR, 60).computeDistance(query, references, strict);
 			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+		// failures from concurrent runs are rethrown once all the runs are complete
+		try {
+			new Mash(MASH_TEMP_DIR, 60, EXECUTOR, BUDGET)
+					.computeDistance(query, references, strict);
+			fail("expected exception");
 		} catch (Exception got) {
 			TestCommon.assertExceptionCorrect(got, expected);
 			return got;
@@ -0,0 +1,118 @@
+package us.kbase.test.assemblyhomology.minhash.mash;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import us.kbase.assemblyhomology.minhash.mash.MashThreadBudget;
+import us.kbase.assemblyhomology.minhash.mash.MashThreadBudget.Reservation;
+import us.kbase.test.assemblyhomology.TestCommon;
+
+public class MashThreadBudgetTest {
+
+	@Test
+	public void construct() throws Exception {
+		final MashThreadBudget b = new MashThreadBudget(8);
+		assertThat("incorrect threads", b.getThreads(), is(8));
+		assertThat("incorrect free threads", b.getFreeThreads(), is(8));
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		try {
+			new MashThreadBudget(0);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new IllegalArgumentException("threads must be > 0"));
+		}
+	}
+
+	@Test
+	public void loneRun() throws Exception {
+		final MashThreadBudget b = new MashThreadBudget(8);
+		try (final Reservation r = b.reserve(1)) {
+			assertThat("incorrect threads", r.acquire(), is(8));
+			assertThat("incorrect free threads", b.getFreeThreads(), is(0));
+			r.release(8);
+		}
+		assertThat("incorrect free threads", b.getFreeThreads(), is(8));
+	}
+
+	@Test
+	public void splitBetweenRuns() throws Exception {
+		final MashThreadBudget b = new MashThreadBudget(8);
+		try (final Reservation r = b.reserve(5)) {
+			assertThat("incorrect threads", r.acquire(), is(2));
+			assertThat("incorrect threads", r.acquire(), is(2));
+			assertThat("incorrect threads", r.acquire(), is(2));
+			assertThat("incorrect threads", r.acquire(), is(1));
+			assertThat("incorrect threads", r.acquire(), is(1));
+			assertThat("incorrect free threads", b.getFreeThreads(), is(0));
+			r.release(2);
+			// all the runs have started
+			assertThat("incorrect threads", r.acquire(), is(2));
+		}
+	}
+
+	@Test
+	public void splitBetweenSearches() throws Exception {
+		final MashThreadBudget b = new MashThreadBudget(8);
+		final Reservation r1 = b.reserve(1);
+		final Reservation r2 = b.reserve(1);
+		assertThat("incorrect threads", r1.acquire(), is(4));
+		assertThat("incorrect threads", r2.acquire(), is(4));
+		r1.close();
+		r2.close();
+		assertThat("incorrect free threads", b.getFreeThreads(), is(0));
+
+		// a search that arrives when the threads are in use still gets one
+		final Reservation r3 = b.reserve(2);
+		assertThat("incorrect threads", r3.acquire(), is(1));
+		assertThat("incorrect free threads", b.getFreeThreads(), is(-1));
+		r1.release(4);
+		assertThat("incorrect threads", r3.acquire(), is(3));
+		r3.close();
+	}
+
+	@Test
+	public void closeWithUnstartedRuns() throws Exception {
+		final MashThreadBudget b = new MashThreadBudget(6);
+		try (final Reservation r = b.reserve(3)) {
+			assertThat("incorrect threads", r.acquire(), is(2));
+		}
+		// the unstarted runs no longer hold a share
+		try (final Reservation r = b.reserve(1)) {
+			assertThat("incorrect threads", r.acquire(), is(4));
+		}
+	}
+
+	@Test
+	public void skip() throws Exception {
+		final MashThreadBudget b = new MashThreadBudget(6);
+		final Reservation r1 = b.reserve(2);
+		try (final Reservation r2 = b.reserve(1)) {
+			r1.skip();
+			r1.skip();
+			// skipping more runs than were reserved has no effect
+			r1.skip();
+			// the skipped runs no longer hold a share
+			assertThat("incorrect threads", r2.acquire(), is(6));
+		}
+		r1.close();
+	}
+
+	@Test
+	public void reserveFail() throws Exception {
+		try {
+			new MashThreadBudget(1).reserve(-1);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new IllegalArgumentException("runs must be >= 0"));
+		}
+	}
+
+}
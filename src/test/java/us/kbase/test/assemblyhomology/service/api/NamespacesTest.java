@@ -18,6 +18,8 @@ import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -58,7 +60,10 @@ import us.kbase.assemblyhomology.minhash.MinHashDBLocation;
 import us.kbase.assemblyhomology.minhash.MinHashDistance;
 import us.kbase.assemblyhomology.minhash.MinHashImplementationInformation;
 import us.kbase.assemblyhomology.minhash.MinHashImplementationName;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage;
+import us.kbase.assemblyhomology.minhash.MinHashMemoryUsage.Storage;
 import us.kbase.assemblyhomology.minhash.MinHashParameters;
+import us.kbase.assemblyhomology.minhash.MinHashSearchParameters;
 import us.kbase.assemblyhomology.minhash.MinHashSketchDBName;
 import us.kbase.assemblyhomology.minhash.MinHashSketchDatabase;
 import us.kbase.assemblyhomology.service.api.Namespaces;
@@ -253,6 +258,63 @@ public class NamespacesTest {
 		}
 	}
 	
+	@Test
+	public void getNamespaceMemory() throws Exception {
+		final AssemblyHomology ah = mock(AssemblyHomology.class);
+		final Namespaces ns = getNamespaceInstance(ah);
+
+		when(ah.getMemoryUsage(new NamespaceID("foo"))).thenReturn(Optional.of(
+				new MinHashMemoryUsage(Storage.COMPRESSED, 4, 4000, 22144)));
+		when(ah.getMemoryUsage(new NamespaceID("baz"))).thenReturn(Optional.absent());
+		
+		final Map<String, Object> expected1 = new HashMap<>();
+		expected1.put("id", "foo");
+		expected1.put("loaded", true);
+		expected1.put("storage", "compressed");
+		expected1.put("sketchcount", 4);
+		expected1.put("hashcount", 4000L);
+		expected1.put("hashbytes", 22144L);
+		expected1.put("uncompressedbytes", 32000L);
+		
+		final Map<String, Object> expected2 = new HashMap<>();
+		expected2.put("id", "baz");
+		expected2.put("loaded", false);
+		expected2.put("storage", null);
+		expected2.put("sketchcount", null);
+		expected2.put("hashcount", null);
+		expected2.put("hashbytes", null);
+		expected2.put("uncompressedbytes", null);
+		
+		assertThat("incorrect memory", ns.getNamespaceMemory("foo"), is(expected1));
+		assertThat("incorrect memory", ns.getNamespaceMemory("baz"), is(expected2));
+	}
+	
+	@Test
+	public void getNamespaceMemoryFail() throws Exception {
+		final AssemblyHomology ah = mock(AssemblyHomology.class);
+		final Namespaces ns = getNamespaceInstance(ah);
+		
+		when(ah.getMemoryUsage(new NamespaceID("bar")))
+				.thenThrow(new NoSuchNamespaceException("bar"));
+		
+		failGetNamespaceMemory(ns, null, new MissingParameterException("namespaceID"));
+		failGetNamespaceMemory(ns, "fooΔ", new IllegalParameterException(
+				"Illegal character in namespace id fooΔ: Δ"));
+		failGetNamespaceMemory(ns, "bar", new NoSuchNamespaceException("bar"));
+	}
+	
+	private void failGetNamespaceMemory(
+			final Namespaces ns,
+			final String namespace,
+			final Exception expected) {
+		try {
+			ns.getNamespaceMemory(namespace);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+	
 	private static class ByteArrayServletInputStream extends ServletInputStream {
 
 		private final ByteArrayInputStream input;
@@ -328,7 +390,8 @@ public class NamespacesTest {
 				argThat(new TempFileMatcher(".tmp", "file content")),
 				eq(-1),
 				eq(true),
-				isNull()))
+				isNull(),
+				eq(MinHashSearchParameters.getBuilder().build())))
 				.thenReturn(new SequenceMatches(
 						set(NS1, NSFILTER1),
 						new MinHashImplementationInformation(
@@ -361,7 +424,7 @@ public class NamespacesTest {
 						Collections.emptySet()));
 		
 		final Map<String, Object> ret = ns.searchNamespaces(
-				req, null, "  foo ,   \tfil  ", null, null);
+				req, null, "  foo ,   \tfil  ", null, null, null, null, null);
 		
 		final Map<String, Object> expected = ImmutableMap.of(
 				"impl", "mash",
@@ -416,7 +479,8 @@ public class NamespacesTest {
 				argThat(new TempFileMatcher(".tmp.msh", "file content")),
 				eq(7),
 				eq(false),
-				isNull()))
+				isNull(),
+				eq(MinHashSearchParameters.getBuilder().build())))
 				.thenReturn(new SequenceMatches(
 						set(NS1, NS2),
 						new MinHashImplementationInformation(
@@ -449,7 +513,7 @@ public class NamespacesTest {
 						set("warn1", "warn2")));
 		
 		final Map<String, Object> ret = ns.searchNamespaces(
-				req, "   \t   ", "  foo ,   \tbaz  ", "", "7");
+				req, "   \t   ", "  foo ,   \tbaz  ", "", "7", null, null, null);
 		
 		final Map<String, Object> expected = ImmutableMap.of(
 				"impl", "mash",
@@ -503,7 +567,9 @@ public class NamespacesTest {
 				argThat(new TempFileMatcher(".tmp.msh", "file content")),
 				eq(7),
 				eq(false),
-				eq(new Token("livetoken"))))
+				eq(new Token("livetoken")),
+				eq(MinHashSearchParameters.getBuilder().withApproximateRecall(0.8)
+						.withMaxDistance(0.05).build())))
 				.thenReturn(new SequenceMatches(
 						set(NS1),
 						new MinHashImplementationInformation(
@@ -519,7 +585,7 @@ public class NamespacesTest {
 						set("warn1", "warn2")));
 		
 		final Map<String, Object> ret = ns.searchNamespaces(
-				req, "   livetoken   ", "  foo ", "", "7");
+				req, "   livetoken   ", "  foo ", "", "7", "", "0.8", "0.05");
 		
 		final Map<String, Object> expected = ImmutableMap.of(
 				"impl", "mash",
@@ -539,6 +605,107 @@ public class NamespacesTest {
 		assertThat("incorrect distances", ret, is(expected));
 	}
 	
+	@Test
+	public void multiSearch() throws Exception {
+		final AssemblyHomology ah = mock(AssemblyHomology.class);
+		final HttpServletRequest req = mock(HttpServletRequest.class);
+		final Namespaces ns = getNamespaceInstance(ah);
+		
+		when(ah.getNamespaces(set(new NamespaceID("foo"), new NamespaceID("baz"))))
+				.thenReturn(set(NS1, NS2));
+		when(ah.getExpectedFileExtension(new MinHashImplementationName("mash")))
+				.thenReturn(Optional.of(Paths.get("msh")));
+		
+		when(req.getInputStream())
+				.thenReturn(new ByteArrayServletInputStream("file content".getBytes()));
+		
+		final MinHashImplementationInformation info = new MinHashImplementationInformation(
+				new MinHashImplementationName("mash"), "2.0", Paths.get("msh"));
+		final Map<String, SequenceMatches> matches = new LinkedHashMap<>();
+		matches.put("q2", new SequenceMatches(
+				set(NS1, NS2),
+				info,
+				Arrays.asList(
+						new SequenceDistanceAndMetadata(
+								new NamespaceID("baz"),
+								new MinHashDistance(new MinHashSketchDBName("baz"), "s1", 0.2),
+								SequenceMetadata.getBuilder(
+										"s1", "ss1", Instant.ofEpochMilli(10000))
+										.withRelatedID("id1", "castle")
+										.build())),
+				set("warn1")));
+		matches.put("q1", new SequenceMatches(set(NS1, NS2), info, Collections.emptyList(),
+				set("warn1")));
+		
+		when(ah.measureDistances(
+				eq(set(new NamespaceID("foo"), new NamespaceID("baz"))),
+				argThat(new TempFileMatcher(".tmp.msh", "file content")),
+				eq(7),
+				eq(false),
+				eq(new Token("livetoken")),
+				eq(MinHashSearchParameters.getBuilder().withApproximateRecall(0.95).build())))
+				.thenReturn(matches);
+		
+		final Map<String, Object> ret = ns.multiSearchNamespaces(
+				req, "livetoken", "foo, baz", "", "7", "", null, null);
+		
+		final Map<String, Object> expected = ImmutableMap.of(
+				"impl", "mash",
+				"implver", "2.0",
+				"warnings", set("warn1"),
+				"namespaces", set(EXPECTED_NS1, EXPECTED_NS2),
+				"queries", Arrays.asList(
+						ImmutableMap.of(
+								"queryid", "q2",
+								"distances", Arrays.asList(
+										MapBuilder.<String, Object>newHashMap()
+												.with("sourceid", "ss1")
+												.with("sciname", null)
+												.with("namespaceid", "baz")
+												.with("dist", 0.2)
+												.with("relatedids",
+														ImmutableMap.of("id1", "castle"))
+												.build())),
+						ImmutableMap.of(
+								"queryid", "q1",
+								"distances", Collections.emptyList())));
+		
+		assertThat("incorrect distances", ret, is(expected));
+	}
+	
+	@Test
+	public void multiSearchFailBadInput() throws Exception {
+		final AssemblyHomology ah = mock(AssemblyHomology.class);
+		final HttpServletRequest req = mock(HttpServletRequest.class);
+		final Namespaces ns = getNamespaceInstance(ah);
+		
+		failMultiSearch(ns, req, "foo", "foo", null, null, null, new IllegalParameterException(
+				"Illegal value for max: foo"));
+		failMultiSearch(ns, req, "foo", null, null, "0.5", null, new IllegalParameterException(
+				"recall may only be provided with approx"));
+		failMultiSearch(ns, req, "foo", null, null, null, "2", new IllegalParameterException(
+				"Illegal value for maxdist: 2. Must be >= 0 and <= 1"));
+		failMultiSearch(ns, req, null, null, null, null, null,
+				new MissingParameterException("namespaces"));
+	}
+	
+	private void failMultiSearch(
+			final Namespaces ns,
+			final HttpServletRequest req,
+			final String namespaces,
+			final String max,
+			final String approx,
+			final String recall,
+			final String maxDist,
+			final Exception expected) {
+		try {
+			ns.multiSearchNamespaces(req, null, namespaces, null, max, approx, recall, maxDist);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+	
 	@Test
 	public void searchFailBadInput() throws Exception {
 		final AssemblyHomology ah = mock(AssemblyHomology.class);
@@ -553,6 +720,40 @@ public class NamespacesTest {
 				"Illegal character in namespace id Δ: Δ"));
 	}
 	
+	@Test
+	public void searchFailBadRecall() throws Exception {
+		final AssemblyHomology ah = mock(AssemblyHomology.class);
+		final HttpServletRequest req = mock(HttpServletRequest.class);
+		final Namespaces ns = getNamespaceInstance(ah);
+		
+		failSearch(ns, req, "foo", null, "0.9", new IllegalParameterException(
+				"recall may only be provided with approx"));
+		failSearch(ns, req, "foo", "", "foo", new IllegalParameterException(
+				"Illegal value for recall: foo"));
+		failSearch(ns, req, "foo", "", "0", new IllegalParameterException(
+				"Illegal value for recall: 0. Must be > 0 and < 1"));
+		failSearch(ns, req, "foo", "", "1", new IllegalParameterException(
+				"Illegal value for recall: 1. Must be > 0 and < 1"));
+		failSearch(ns, req, "foo", "", "NaN", new IllegalParameterException(
+				"Illegal value for recall: NaN. Must be > 0 and < 1"));
+	}
+	
+	@Test
+	public void searchFailBadMaxDist() throws Exception {
+		final AssemblyHomology ah = mock(AssemblyHomology.class);
+		final HttpServletRequest req = mock(HttpServletRequest.class);
+		final Namespaces ns = getNamespaceInstance(ah);
+		
+		failSearchMaxDist(ns, req, "foo", new IllegalParameterException(
+				"Illegal value for maxdist: foo"));
+		failSearchMaxDist(ns, req, "-0.1", new IllegalParameterException(
+				"Illegal value for maxdist: -0.1. Must be >= 0 and <= 1"));
+		failSearchMaxDist(ns, req, "1.1", new IllegalParameterException(
+				"Illegal value for maxdist: 1.1. Must be >= 0 and <= 1"));
+		failSearchMaxDist(ns, req, "NaN", new IllegalParameterException(
+				"Illegal value for maxdist: NaN. Must be >= 0 and <= 1"));
+	}
+	
 	@Test
 	public void searchFailNoSuchNamespace() throws Exception {
 		final AssemblyHomology ah = mock(AssemblyHomology.class);
@@ -624,7 +825,8 @@ public class NamespacesTest {
 				argThat(new TempFileMatcher(".tmp", "file content")),
 				eq(-1),
 				eq(true),
-				isNull()))
+				isNull(),
+				eq(MinHashSearchParameters.getBuilder().build())))
 				.thenThrow(new InvalidSketchException("this sketch is like sooooooo lame"));
 		
 		failSearch(ns, req, "foo", null, new InvalidSketchException(
@@ -638,7 +840,35 @@ public class NamespacesTest {
 			final String max,
 			final Exception expected) {
 		try {
-			ns.searchNamespaces(req, null, nsIDs, null, max);
+			ns.searchNamespaces(req, null, nsIDs, null, max, null, null, null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+	
+	private void failSearch(
+			final Namespaces ns,
+			final HttpServletRequest req,
+			final String nsIDs,
+			final String approx,
+			final String recall,
+			final Exception expected) {
+		try {
+			ns.searchNamespaces(req, null, nsIDs, null, null, approx, recall, null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+	
+	private void failSearchMaxDist(
+			final Namespaces ns,
+			final HttpServletRequest req,
+			final String maxDist,
+			final Exception expected) {
+		try {
+			ns.searchNamespaces(req, null, "foo", null, null, null, null, maxDist);
 			fail("expected exception");
 		} catch (Exception got) {
 			TestCommon.assertExceptionCorrect(got, expected);
@@ -2,7 +2,13 @@ package us.kbase.test.assemblyhomology.service.api;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -12,6 +18,10 @@ import org.junit.Test;
 
 import com.google.common.collect.ImmutableMap;
 
+import us.kbase.assemblyhomology.core.AssemblyHomology;
+import us.kbase.assemblyhomology.core.MinHashImplementationHealth;
+import us.kbase.assemblyhomology.minhash.MinHashImplementationInformation;
+import us.kbase.assemblyhomology.minhash.MinHashImplementationName;
 import us.kbase.assemblyhomology.service.api.Root;
 import us.kbase.test.assemblyhomology.TestCommon;
 
@@ -23,7 +33,17 @@ public class RootTest {
 	
 	@Test
 	public void root() {
-		final Map<String, Object> r = new HashMap<>(new Root().rootJSON());
+		final AssemblyHomology ah = mock(AssemblyHomology.class);
+		when(ah.getRunningProcessCount()).thenReturn(3);
+		when(ah.getImplementationHealth()).thenReturn(ImmutableMap.of(
+				new MinHashImplementationName("mash"), new MinHashImplementationHealth(
+						new MinHashImplementationInformation(
+								new MinHashImplementationName("mash"), "2.0", Paths.get("msh")),
+						Instant.ofEpochMilli(10000)),
+				new MinHashImplementationName("foo"), new MinHashImplementationHealth(
+						new MinHashImplementationName("foo"), "oh dear",
+						Instant.ofEpochMilli(20000))));
+		final Map<String, Object> r = new HashMap<>(new Root(ah).rootJSON());
 		
 		final long servertime = (long) r.get("servertime");
 		r.remove("servertime");
@@ -35,11 +55,39 @@ public class RootTest {
 		
 		final Map<String, Object> expected = ImmutableMap.of(
 				"version", SERVER_VER,
-				"servname", "Assembly Homology service");
+				"servname", "Assembly Homology service",
+				"minhashprocesses", 3,
+				"minhashimpls", Arrays.asList(
+						impl("foo", null, false, "oh dear", 20000),
+						impl("mash", "2.0", true, null, 10000)));
 		
 		assertThat("root json incorrect", r, is(expected));
 	}
 	
+	private Map<String, Object> impl(
+			final String name,
+			final String version,
+			final boolean healthy,
+			final String error,
+			final long checked) {
+		final Map<String, Object> ret = new HashMap<>();
+		ret.put("impl", name);
+		ret.put("implver", version);
+		ret.put("healthy", healthy);
+		ret.put("error", error);
+		ret.put("checked", checked);
+		return ret;
+	}
+	
+	@Test
+	public void rootNoImplementationHealth() {
+		final AssemblyHomology ah = mock(AssemblyHomology.class);
+		when(ah.getImplementationHealth()).thenReturn(Collections.emptyMap());
+		final Map<String, Object> r = new HashMap<>(new Root(ah).rootJSON());
+		
+		assertThat("incorrect impls", r.get("minhashimpls"), is(Collections.emptyList()));
+	}
+	
 	public static void assertGitCommitFromRootAcceptable(final String gitcommit) {
 		final boolean giterr = GIT_ERR.equals(gitcommit);
 		final Pattern githash = Pattern.compile("[a-f\\d]{40}");
@@ -0,0 +1,92 @@
+package us.kbase.test.assemblyhomology.util;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import us.kbase.assemblyhomology.util.LongHashSet;
+import us.kbase.test.assemblyhomology.TestCommon;
+
+public class LongHashSetTest {
+	
+	@Test
+	public void empty() {
+		final LongHashSet s = new LongHashSet(Collections.emptySet());
+		assertThat("incorrect size", s.size(), is(0));
+		for (final long v: Arrays.asList(0L, 1L, -1L, Long.MAX_VALUE, Long.MIN_VALUE)) {
+			assertThat("incorrect contains " + v, s.contains(v), is(false));
+		}
+	}
+	
+	@Test
+	public void containsWithDuplicates() {
+		final LongHashSet s = new LongHashSet(Arrays.asList(
+				0L, 5L, -3L, Long.MAX_VALUE, Long.MIN_VALUE, 5L, 0L));
+		assertThat("incorrect size", s.size(), is(5));
+		for (final long v: Arrays.asList(0L, 5L, -3L, Long.MAX_VALUE, Long.MIN_VALUE)) {
+			assertThat("incorrect contains " + v, s.contains(v), is(true));
+		}
+		for (final long v: Arrays.asList(1L, 3L, -5L, Long.MAX_VALUE - 1)) {
+			assertThat("incorrect contains " + v, s.contains(v), is(false));
+		}
+	}
+	
+	@Test
+	public void containsMany() {
+		// sequential and strided values like workspace IDs
+		final Set<Long> values = new HashSet<>();
+		for (long i = 1; i <= 5000; i++) {
+			values.add(i);
+			values.add(i * 1024);
+		}
+		final LongHashSet s = new LongHashSet(values);
+		assertThat("incorrect size", s.size(), is(values.size()));
+		for (long i = -10; i <= 6000000; i++) {
+			if (s.contains(i) != values.contains(i)) {
+				fail("incorrect contains " + i);
+			}
+		}
+	}
+	
+	@Test
+	public void toSet() {
+		assertThat("incorrect set", new LongHashSet(Collections.emptySet()).toSet(),
+				is(Collections.emptySet()));
+		final Set<Long> values = new HashSet<>(Arrays.asList(
+				0L, 5L, -3L, 1024L, Long.MAX_VALUE, Long.MIN_VALUE));
+		final LongHashSet s = new LongHashSet(Arrays.asList(
+				0L, 5L, -3L, 1024L, Long.MAX_VALUE, Long.MIN_VALUE, 5L, 0L));
+		assertThat("incorrect set", s.toSet(), is(values));
+		// the returned set is a copy
+		s.toSet().add(6L);
+		assertThat("incorrect contains", s.contains(6L), is(false));
+		assertThat("incorrect set", s.toSet(), is(values));
+	}
+	
+	@Test
+	public void constructFail() {
+		failConstruct(null, new NullPointerException("values"));
+		final List<Long> nulls = new ArrayList<>(Arrays.asList(1L, null));
+		failConstruct(nulls, new NullPointerException("Null item in collection values"));
+	}
+	
+	private void failConstruct(final Collection<Long> values, final Exception expected) {
+		try {
+			new LongHashSet(values);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+}